@@ -15,9 +15,6 @@
  */
 package com.example.android.opengl3d;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 import android.opengl.GLES20;
 
 /**
@@ -40,8 +37,9 @@ public class Cube {
 			+ "varying vec4 vColor;" + "void main() {"
 			+ "  gl_FragColor = vColor;" + "}";
 
-	private final FloatBuffer vertexBuffer;
-	private final FloatBuffer colorBuffer;
+	// Buffer objects shared with every other cube (see GeometryCache)
+	private final int mVertexBufferId;
+	private final int mColorBufferId;
 
 	private final int mProgram;
 	private int mPositionHandle;
@@ -143,24 +141,11 @@ public class Cube {
 			}
 		}
 		
-		// initialize vertex byte buffer for shape coordinates
-		// (number of coordinate values * 4 bytes per float)
-		ByteBuffer bb = ByteBuffer.allocateDirect(cubeCoords.length * 4);
-		// use the device hardware's native byte order
-		bb.order(ByteOrder.nativeOrder());
-		// create a floating point buffer from the ByteBuffer
-		vertexBuffer = bb.asFloatBuffer();
-		// add the coordinates to the FloatBuffer
-		vertexBuffer.put(cubeCoords);
-		// set the buffer to read the first coordinate
-		vertexBuffer.position(0);
-
-		// initialize color byte buffer
-		ByteBuffer cb = ByteBuffer.allocateDirect(colors.length * 4);
-		cb.order(ByteOrder.nativeOrder());
-		colorBuffer = cb.asFloatBuffer();
-		colorBuffer.put(colors);
-		colorBuffer.position(0);
+		// Upload the shape coordinates and colors once; every other cube
+		// reuses the same buffer objects.
+		mVertexBufferId = GeometryCache.getArrayBuffer("cube.positions",
+				cubeCoords);
+		mColorBufferId = GeometryCache.getArrayBuffer("cube.colors", colors);
 
 		// prepare shaders and OpenGL program
 		int vertexShader = MyGLRenderer.loadShader(GLES20.GL_VERTEX_SHADER,
@@ -190,14 +175,17 @@ public class Cube {
 		// Enable a handle to the triangle vertices
 		GLES20.glEnableVertexAttribArray(mPositionHandle);
 		// Prepare the triangle coordinate data
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
 		GLES20.glVertexAttribPointer(mPositionHandle, COORDS_PER_VERTEX,
-				GLES20.GL_FLOAT, false, vertexStride, vertexBuffer);
+				GLES20.GL_FLOAT, false, vertexStride, 0);
 		
 		// get handle to fragment shader's aColor member
 		mColorHandle = GLES20.glGetAttribLocation(mProgram, "aColor");
 		GLES20.glEnableVertexAttribArray(mColorHandle);
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mColorBufferId);
 		GLES20.glVertexAttribPointer(mColorHandle, ATTRIBS_PER_COLOR, 
-				GLES20.GL_FLOAT, false, 0, colorBuffer);
+				GLES20.GL_FLOAT, false, 0, 0);
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
 		// get handle to shape's transformation matrix
 		mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengl3d;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import android.opengl.GLES20;
+
+/**
+ * Registry of OpenGL buffer objects shared by every shape that draws the same
+ * geometry. Each distinct array is uploaded once into a vertex (VBO) or index
+ * (IBO) buffer object; later requests with the same key and the same data
+ * return the existing buffer, and only changed data is uploaded again.
+ *
+ * <p>
+ * Buffer objects belong to the EGL context, so {@link #clear()} must be called
+ * whenever a new context is created (from onSurfaceCreated()).
+ * </p>
+ */
+public class GeometryCache {
+
+	private static final String TAG = "GeometryCache";
+
+	// number of bytes in float
+	static final int BYTES_IN_FLOAT = 4;
+	// number of bytes in short
+	static final int BYTES_IN_SHORT = 2;
+
+	private static final HashMap<String, Entry> sEntries = new HashMap<String, Entry>();
+
+	// Upload statistics
+	private static int sUploadCount;
+	private static long sUploadedBytes;
+
+	/*
+	 * A buffer object together with a fingerprint of the data it holds.
+	 */
+	private static class Entry {
+		int bufferId;
+		int target;
+		int sizeInBytes;
+		int hash;
+	}
+
+	/**
+	 * Returns a GL_ARRAY_BUFFER object holding the given vertex data, uploading
+	 * it only if the key is new or the data has changed since the last call.
+	 *
+	 * @param key
+	 *            - Name of the geometry, e.g. "cube.positions".
+	 * @param data
+	 *            - Vertex attribute values.
+	 * @return - Returns the id of the buffer object.
+	 */
+	public static int getArrayBuffer(String key, float[] data) {
+		int hash = Arrays.hashCode(data);
+		int size = data.length * BYTES_IN_FLOAT;
+		Entry entry = lookup(key, GLES20.GL_ARRAY_BUFFER, hash, size);
+		if (entry.hash != hash || entry.sizeInBytes != size) {
+			ByteBuffer bb = ByteBuffer.allocateDirect(size);
+			bb.order(ByteOrder.nativeOrder());
+			bb.asFloatBuffer().put(data);
+			upload(entry, bb, size, hash);
+		}
+		return entry.bufferId;
+	}
+
+	/**
+	 * Returns a GL_ELEMENT_ARRAY_BUFFER object holding the given indices,
+	 * uploading them only if the key is new or the data has changed since the
+	 * last call.
+	 *
+	 * @param key
+	 *            - Name of the geometry, e.g. "cube.indices".
+	 * @param data
+	 *            - Indices in GL_UNSIGNED_SHORT format.
+	 * @return - Returns the id of the buffer object.
+	 */
+	public static int getElementBuffer(String key, short[] data) {
+		int hash = Arrays.hashCode(data);
+		int size = data.length * BYTES_IN_SHORT;
+		Entry entry = lookup(key, GLES20.GL_ELEMENT_ARRAY_BUFFER, hash, size);
+		if (entry.hash != hash || entry.sizeInBytes != size) {
+			ByteBuffer bb = ByteBuffer.allocateDirect(size);
+			bb.order(ByteOrder.nativeOrder());
+			bb.asShortBuffer().put(data);
+			upload(entry, bb, size, hash);
+		}
+		return entry.bufferId;
+	}
+
+	/*
+	 * Finds the entry for a key, generating a new buffer object for unknown
+	 * keys. A new entry never matches the requested hash, so it is uploaded.
+	 */
+	private static Entry lookup(String key, int target, int hash, int size) {
+		Entry entry = sEntries.get(key);
+		if (entry == null) {
+			final int[] bufferIds = new int[1];
+			GLES20.glGenBuffers(1, bufferIds, 0);
+			MyGLRenderer.checkGlError("glGenBuffers");
+
+			entry = new Entry();
+			entry.bufferId = bufferIds[0];
+			entry.target = target;
+			entry.sizeInBytes = -1;
+			entry.hash = ~hash;
+			sEntries.put(key, entry);
+		} else if (entry.target != target) {
+			throw new IllegalArgumentException(TAG + ": " + key
+					+ " is already registered for another buffer target");
+		}
+		return entry;
+	}
+
+	private static void upload(Entry entry, ByteBuffer data, int size,
+			int hash) {
+		data.position(0);
+		GLES20.glBindBuffer(entry.target, entry.bufferId);
+		if (entry.sizeInBytes == size) {
+			// Same storage size: replace the contents in place
+			GLES20.glBufferSubData(entry.target, 0, size, data);
+		} else {
+			GLES20.glBufferData(entry.target, size, data,
+					GLES20.GL_STATIC_DRAW);
+		}
+		GLES20.glBindBuffer(entry.target, 0);
+		MyGLRenderer.checkGlError("glBufferData");
+
+		entry.sizeInBytes = size;
+		entry.hash = hash;
+		sUploadCount++;
+		sUploadedBytes += size;
+	}
+
+	/**
+	 * Forgets every buffer object without deleting it. Call this when the EGL
+	 * context has been recreated and the old buffer ids are no longer valid.
+	 */
+	public static void clear() {
+		sEntries.clear();
+	}
+
+	/**
+	 * Deletes every buffer object owned by the cache. Must be called on the GL
+	 * thread while the context is still current.
+	 */
+	public static void release() {
+		final int[] bufferIds = new int[1];
+		for (Entry entry : sEntries.values()) {
+			bufferIds[0] = entry.bufferId;
+			GLES20.glDeleteBuffers(1, bufferIds, 0);
+		}
+		sEntries.clear();
+	}
+
+	/**
+	 * Returns the number of buffer uploads (glBufferData or glBufferSubData)
+	 * issued so far.
+	 */
+	public static int getUploadCount() {
+		return sUploadCount;
+	}
+
+	/**
+	 * Returns the number of bytes uploaded so far.
+	 */
+	public static long getUploadedBytes() {
+		return sUploadedBytes;
+	}
+
+	/**
+	 * Returns the number of buffer objects currently held by the cache.
+	 */
+	public static int size() {
+		return sEntries.size();
+	}
+}
@@ -42,6 +42,9 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 	private final float[] mViewMatrix = new float[16];
 	private final float[] mModelMatrix1 = new float[16];
 	private final float[] mModelMatrix2 = new float[16];
+	// Scratch MVP matrices, reused every frame
+	private final float[] mScratch1 = new float[16];
+	private final float[] mScratch2 = new float[16];
 
 	// Camera vectors forming the view matrix:
 	// eye point, center of view, and an up vector.
@@ -61,6 +64,16 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 	private boolean mRotate = true;
 	private float mRotateX, mRotateY, mRotateZ;
 
+	private RenderScheduler mScheduler;
+
+	/**
+	 * Sets the scheduler told after each frame whether the cube still
+	 * rotates.
+	 */
+	void setScheduler(RenderScheduler scheduler) {
+		mScheduler = scheduler;
+	}
+
 	@Override
 	public void onSurfaceCreated(GL10 unused, EGLConfig config) {
 
@@ -70,12 +83,18 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 		// Enable depth testing
 		GLES20.glEnable(GLES20.GL_DEPTH_TEST);
 
+		// Buffer objects of a previous context are gone
+		GeometryCache.clear();
+
 		// Initialize class variables
 		init();
 	}
 
 	@Override
 	public void onDrawFrame(GL10 unused) {
+		if (mScheduler != null) {
+			mScheduler.beginFrame();
+		}
 
 		// Draw background color
 		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
@@ -88,6 +107,11 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 		Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mViewMatrix, 0);
 
 		drawObjects();
+
+		// Render the next frames on demand only once the cube stops
+		if (mScheduler != null && mScheduler.endFrame(mRotate)) {
+			Log.i(TAG, mScheduler.toString());
+		}
 	}
 
 	@Override
@@ -132,7 +156,7 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 	private void drawObjects() {
 
 		// FRONT CUBE
-		float[] scratch1 = new float[16];
+		float[] scratch1 = mScratch1;
 		if (mRotate) {
 			rotateCube();
 		}
@@ -140,7 +164,7 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 		mCube1.draw(scratch1);
 
 		// BACK CUBE
-		float[] scratch2 = new float[16];
+		float[] scratch2 = mScratch2;
 		Matrix.setIdentityM(mModelMatrix2, 0);
 		Matrix.translateM(mModelMatrix2, 0, 0.0f, 0.0f, 2.0f);
 		Matrix.multiplyMM(scratch2, 0, mMVPMatrix, 0, mModelMatrix2, 0);
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import android.os.Debug;
+
+/**
+ * Asserts that steady-state frames do not allocate on the heap. Wrap the
+ * body of onDrawFrame() in {@link #beginFrame()} and {@link #endFrame()}:
+ * after the warm-up frames, where pools and caches fill up, any object
+ * allocated by the GL thread during a frame throws an IllegalStateException.
+ *
+ * <p>
+ * Uses the allocation counters of android.os.Debug, which slow down
+ * allocation, so only enable it in debug runs
+ * ({@link MyGLRenderer#CHECK_ALLOCATIONS}). The frames of
+ * {@link SceneRenderer} are also checked without a device by
+ * tools/FrameAllocationCheck.
+ * </p>
+ */
+public class AllocationChecker {
+
+	private final int mWarmupFrames;
+	private int mFrame;
+	private int mAllocatingFrames;
+	private boolean mExcused;
+
+	/**
+	 * @param warmupFrames
+	 *            - Frames allowed to allocate before checking starts.
+	 */
+	public AllocationChecker(int warmupFrames) {
+		mWarmupFrames = warmupFrames;
+		Debug.startAllocCounting();
+	}
+
+	public void beginFrame() {
+		mExcused = false;
+		Debug.resetThreadAllocCount();
+	}
+
+	/**
+	 * Lets the current frame allocate, because it is not a steady-state
+	 * frame (e.g. it uploaded a texture that just finished loading).
+	 */
+	public void excuseFrame() {
+		mExcused = true;
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             if a steady-state frame allocated.
+	 */
+	public void endFrame() {
+		// Read both counters before building any message
+		int count = Debug.getThreadAllocCount();
+		int bytes = Debug.getThreadAllocSize();
+		mFrame++;
+		if (count > 0) {
+			mAllocatingFrames++;
+			if (mFrame > mWarmupFrames && !mExcused) {
+				throw new IllegalStateException("Frame " + mFrame
+						+ " allocated " + count + " objects (" + bytes
+						+ " bytes)");
+			}
+		}
+	}
+
+	/**
+	 * Stops counting; call when the checker is no longer used.
+	 */
+	public void stop() {
+		Debug.stopAllocCounting();
+	}
+
+	public int getFrameCount() {
+		return mFrame;
+	}
+
+	/**
+	 * Returns the number of frames that allocated, warm-up included.
+	 */
+	public int getAllocatingFrames() {
+		return mAllocatingFrames;
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Benchmark scene for {@link CubeBatch}. Draws a growing grid of textured
+ * cubes, first with one {@link Cube#draw(float[])} call per cube and then
+ * with each {@link CubeBatch.Mode}, and logs for every object count the draw
+ * calls per frame and the CPU time spent submitting a frame.
+ *
+ * <p>
+ * Enable it with {@link MyGLRenderer#RUN_BATCH_BENCHMARK} and read the
+ * results with <code>adb logcat -s BatchBenchmark</code>.
+ * </p>
+ */
+public class BatchBenchmark {
+
+	private static final String TAG = "BatchBenchmark";
+
+	// Object counts measured, in order
+	static final int[] OBJECT_COUNTS = { 100, 1000, 10000, 50000, 100000 };
+	// One draw call per object gets too slow to be worth measuring above this
+	static final int MAX_UNBATCHED_OBJECTS = 10000;
+	// Frames ignored after each change, then frames measured
+	static final int WARMUP_FRAMES = 10;
+	static final int MEASURED_FRAMES = 60;
+
+	private static final int UNBATCHED = -1;
+
+	private final Cube mCube;
+	private final CubeBatch[] mBatches;
+
+	private float[] mModelMatrices;
+	private float[] mMVPMatrices;
+
+	// Current step: object count index and technique
+	private int mCountIndex = -1;
+	private int mTechnique;
+	private int mFrame;
+	private long mTotalNanos;
+	private int mDrawCalls;
+	private boolean mFinished;
+
+	private final StringBuilder mResults = new StringBuilder();
+
+	public BatchBenchmark(Context context, int resourceId) {
+		mCube = new Cube(context, resourceId);
+		int texture = Cube.loadTexture(context, resourceId);
+		CubeBatch.Mode[] modes = CubeBatch.Mode.values();
+		mBatches = new CubeBatch[modes.length];
+		for (int i = 0; i < modes.length; i++) {
+			mBatches[i] = new CubeBatch(modes[i], texture);
+		}
+		nextStep();
+	}
+
+	/**
+	 * Draws one frame of the benchmark.
+	 *
+	 * @param vpMatrix
+	 *            - The View Projection matrix of the frame.
+	 */
+	public void drawFrame(float[] vpMatrix) {
+		if (mFinished) {
+			return;
+		}
+		int count = OBJECT_COUNTS[mCountIndex];
+
+		long start = System.nanoTime();
+		int drawCalls;
+		if (mTechnique == UNBATCHED) {
+			MatrixMath.multiplyMMBatch(mMVPMatrices, 0, vpMatrix, 0,
+					mModelMatrices, 0, count);
+			for (int i = 0; i < count; i++) {
+				mCube.draw(mMVPMatrices, i * 16);
+			}
+			drawCalls = count;
+		} else {
+			CubeBatch batch = mBatches[mTechnique];
+			batch.begin(vpMatrix);
+			for (int i = 0; i < count; i++) {
+				batch.add(mModelMatrices, i * 16);
+			}
+			batch.end();
+			drawCalls = batch.getDrawCalls();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		mFrame++;
+		if (mFrame > WARMUP_FRAMES) {
+			mTotalNanos += elapsed;
+			mDrawCalls = drawCalls;
+		}
+		if (mFrame == WARMUP_FRAMES + MEASURED_FRAMES) {
+			report(count);
+			nextStep();
+		}
+	}
+
+	private void report(int count) {
+		String technique = mTechnique == UNBATCHED ? "UNBATCHED"
+				: mBatches[mTechnique].getMode().name();
+		float msPerFrame = mTotalNanos / 1e6f / MEASURED_FRAMES;
+		String line = String.format("objects=%d technique=%s drawCalls=%d "
+				+ "cpu=%.2fms/frame (%.1fns/object)", count, technique,
+				mDrawCalls, msPerFrame, msPerFrame * 1e6f / count);
+		Log.i(TAG, line);
+		Log.i(TAG, "  state calls issued/filtered: "
+				+ GLState.countersToString());
+		mResults.append(line).append('\n');
+	}
+
+	/*
+	 * Moves to the next technique, then to the next object count.
+	 */
+	private void nextStep() {
+		mFrame = 0;
+		mTotalNanos = 0;
+		GLState.resetCounters();
+		if (mCountIndex >= 0 && mTechnique < mBatches.length - 1) {
+			mTechnique++;
+			return;
+		}
+		mCountIndex++;
+		if (mCountIndex == OBJECT_COUNTS.length) {
+			mFinished = true;
+			Log.i(TAG, "done");
+			return;
+		}
+		int count = OBJECT_COUNTS[mCountIndex];
+		mTechnique = count <= MAX_UNBATCHED_OBJECTS ? UNBATCHED : 0;
+		mModelMatrices = grid(count);
+		mMVPMatrices = count <= MAX_UNBATCHED_OBJECTS ? new float[count * 16]
+				: null;
+	}
+
+	/*
+	 * Model matrices of count small cubes in a cubic grid in front of the
+	 * camera.
+	 */
+	private static float[] grid(int count) {
+		float[] matrices = new float[count * 16];
+		int side = (int) Math.ceil(Math.cbrt(count));
+		float spacing = 8.0f / side;
+		for (int i = 0; i < count; i++) {
+			int x = i % side;
+			int y = (i / side) % side;
+			int z = i / (side * side);
+			int o = i * 16;
+			MatrixMath.setIdentityM(matrices, o);
+			MatrixMath.translateM(matrices, o, (x - side / 2.0f) * spacing,
+					(y - side / 2.0f) * spacing, -4.0f - z * spacing);
+			MatrixMath.scaleM(matrices, o, spacing * 0.3f, spacing * 0.3f,
+					spacing * 0.3f);
+		}
+		return matrices;
+	}
+
+	public boolean isFinished() {
+		return mFinished;
+	}
+
+	/**
+	 * Returns one line per measured step.
+	 */
+	public String getResults() {
+		return mResults.toString();
+	}
+}
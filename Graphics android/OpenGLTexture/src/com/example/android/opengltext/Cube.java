@@ -15,25 +15,30 @@
  */
 package com.example.android.opengltext;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
 
 /**
  * A three-dimensional cube for use as a drawn object in OpenGL ES 2.0.
  */
-public class Cube {
+public class Cube implements SceneNode.Drawable, RenderQueue.Sortable,
+		RenderQueue.DepthDrawable {
 
+	// gl_Position is invariant so that the depth pre-pass, which computes it
+	// in another program, writes exactly the depths tested here
 	private final String vertexShaderCode = "uniform mat4 u_MVPMatrix;"
 			+ "attribute vec4 a_Position;" + "attribute vec2 a_TexCoordinate;"
-			+ "varying vec2 v_TexCoordinate;" + "void main() {"
-			+ "  gl_Position = u_MVPMatrix * a_Position;"
+			+ "varying vec2 v_TexCoordinate;" + "invariant gl_Position;"
+			+ "void main() {" + "  gl_Position = u_MVPMatrix * a_Position;"
 			+ "  v_TexCoordinate = a_TexCoordinate;" + "}";
 
 	private final String fragmentShaderCode = "precision mediump float;"
@@ -42,149 +47,316 @@ public class Cube {
 			+ "  gl_FragColor = texture2D(u_TextureUnit, v_TexCoordinate);"
 			+ "}";
 
-	// number of bytes in float
-	static final int BYTES_IN_FLOAT = 4;
+	// Position-only program of the depth pre-pass (color writes are masked)
+	private final String depthVertexShaderCode = "uniform mat4 u_MVPMatrix;"
+			+ "attribute vec4 a_Position;" + "invariant gl_Position;"
+			+ "void main() {" + "  gl_Position = u_MVPMatrix * a_Position;"
+			+ "}";
+
+	private final String depthFragmentShaderCode = "precision lowp float;"
+			+ "void main() {" + "  gl_FragColor = vec4(1.0);" + "}";
+
 	// number of coordinates per vertex in the array
 	static final int COORDS_PER_VERTEX = 3;
 	// number of coordinates per texel in the array
 	static final int TEXTURE_COORDS = 2;
 
-	private final FloatBuffer vertexBuffer;
-	private final FloatBuffer textureBuffer;
-
-	private final int mProgram;
-	private int mPositionHandle;
-	private int mMVPMatrixHandle;
-	private int mTextureCoordHandle;
-	private int mTextureUniformHandle;
-	private int mTextureDataHandle;
+	// Levels of detail, each with about half the triangles of the previous
+	static final int MAX_LEVELS = 4;
+	static final float LEVEL_RATIO = 0.5f;
+
+	// Compiled cube and its levels in the assets (see MeshFile)
+	static final String MESH_PATH = "meshes/cube.mesh";
+
+	// Layout of one interleaved vertex: position then texel
+	static final VertexFormat FORMAT = new VertexFormat.Builder()
+			.addFloat("a_Position", COORDS_PER_VERTEX)
+			.addFloat("a_TexCoordinate", TEXTURE_COORDS).build();
+
+	// Buffer objects shared with every other cube (see GeometryCache)
+	private final int mVertexBufferId;
+	private final int mIndexBufferId;
+	private final int mIndexCount;
+	private final int mIndexType;
+
+	private final ShaderProgram mProgram;
+	private final int[] mAttributeHandles;
+	private final int mMVPMatrixHandle;
+	private final int mTextureUniformHandle;
+	private final ShaderProgram mDepthProgram;
+	private final int[] mDepthAttributeHandles;
+	private final int mDepthMVPMatrixHandle;
+	private final int mTextureDataHandle;
+	private final TextureManager.Texture mTexture;
 	
 
-	// 8 vertices of the cube
-		static float v[][] = {
-			{-1.0f,  1.0f,  1.0f}, 	// V0. Front-Top-Left
-			{-1.0f, -1.0f,  1.0f}, 	// V1. Front-Bottom-Left
-			{ 1.0f, -1.0f,  1.0f}, 	// V2. Front-Bottom-Right
-			{ 1.0f,  1.0f,  1.0f}, 	// V3. Front-Top-Right
-			{-1.0f,  1.0f, -1.0f}, 	// V4. Back-Top-Left
-			{-1.0f, -1.0f, -1.0f}, 	// V5. Back-Bottom-Left
-			{ 1.0f, -1.0f, -1.0f}, 	// V6. Back-Bottom-Right
-			{ 1.0f,  1.0f, -1.0f} 	// V7. Back-Top-Right
-		};
-		
-		static float cubeCoords[] = {
-			 // in counterclockwise order:
-			 // Front Face (V0,V1,V2,V3)
-			 v[0][0],v[0][1],v[0][2],
-			 v[1][0],v[1][1],v[1][2],
-			 v[2][0],v[2][1],v[2][2],
-			 v[0][0],v[0][1],v[0][2],
-			 v[2][0],v[2][1],v[2][2],
-			 v[3][0],v[3][1],v[3][2],
-		  	
-			 // Back Face (V4,V5,V6,V7)
-			 v[4][0],v[4][1],v[4][2],
-			 v[5][0],v[5][1],v[5][2],
-			 v[6][0],v[6][1],v[6][2],
-			 v[4][0],v[4][1],v[4][2],
-			 v[6][0],v[6][1],v[6][2],
-			 v[7][0],v[7][1],v[7][2],
-		  	
-			 // Left Face (V3,V2,V6,V7)  	  
-			 v[3][0],v[3][1],v[3][2],
-			 v[2][0],v[2][1],v[2][2],
-			 v[6][0],v[6][1],v[6][2],
-			 v[3][0],v[3][1],v[3][2],
-			 v[6][0],v[6][1],v[6][2],
-			 v[7][0],v[7][1],v[7][2],
-			 
-			 // Right Face (V4,V5,V1,V0) 	 
-			 v[4][0],v[4][1],v[4][2],
-			 v[5][0],v[5][1],v[5][2],
-			 v[1][0],v[1][1],v[1][2],
-			 v[4][0],v[4][1],v[4][2],
-			 v[1][0],v[1][1],v[1][2],
-			 v[0][0],v[0][1],v[0][2],
-		   	 
-		   	 // Top Face (V4,V0,V3,V7) 
-			 v[4][0],v[4][1],v[4][2],
-			 v[0][0],v[0][1],v[0][2],
-			 v[3][0],v[3][1],v[3][2],
-		     v[4][0],v[4][1],v[4][2],
-		   	 v[3][0],v[3][1],v[3][2],
-		   	 v[7][0],v[7][1],v[7][2],
-		   	 
-		   	 // Bottom Face (V5,V1,V2,V6)   
-		   	 v[5][0],v[5][1],v[5][2],
-		     v[1][0],v[1][1],v[1][2],
-		     v[2][0],v[2][1],v[2][2],
-		     v[5][0],v[5][1],v[5][2],
-		     v[2][0],v[2][1],v[2][2],
-		     v[6][0],v[6][1],v[6][2]
-		};
-
-	private final int vertexCount = cubeCoords.length / COORDS_PER_VERTEX;
-	private final int vertexStride = COORDS_PER_VERTEX * BYTES_IN_FLOAT;
+	/*
+	 * The generated cube, built on first use only: when no mesh file was
+	 * loaded, or by CubeBatch. The class is initialized on the first access
+	 * to a field, so a mapped cube.mesh skips compiling and simplifying.
+	 */
+	static class Generated {
+
+		/*
+		 * The 2 x 2 x 2 cube centered on the origin, the texture upright on
+		 * every side face (see MeshGenerator.Box), welded and indexed in
+		 * post-transform vertex cache order. Corners shared by faces with
+		 * the same texel are drawn once.
+		 */
+		static final MeshCompiler.Mesh mesh = new MeshCompiler(
+				COORDS_PER_VERTEX, TEXTURE_COORDS)
+				.compile(new MeshGenerator.Box(2.0f, 2.0f, 2.0f, 1,
+						MeshGenerator.TEX_COORDS));
+		static final short[] meshIndices = mesh.getShortIndices();
+
+		/*
+		 * The mesh and its simplified versions, coarsest last, with their
+		 * errors. A cube has no triangle to spare: every corner is on a
+		 * texture seam, so this is the mesh alone unless the shape gets
+		 * finer.
+		 */
+		static final float[] levelErrors = new float[MAX_LEVELS];
+		static final MeshCompiler.Mesh[] levels = LevelOfDetail.buildLevels(
+				new MeshSimplifier(COORDS_PER_VERTEX, TEXTURE_COORDS), mesh,
+				LEVEL_RATIO, MAX_LEVELS, levelErrors);
+
+		// Bounding box and sphere of the corners
+		static final float[] BOUNDS = Frustum.computeBounds(
+				mesh.getVertices(), 0, COORDS_PER_VERTEX + TEXTURE_COORDS,
+				mesh.getVertexCount());
+		static final float[] SPHERE = Frustum.computeSphere(
+				mesh.getVertices(), 0, COORDS_PER_VERTEX + TEXTURE_COORDS,
+				mesh.getVertexCount());
+
+		private Generated() {
+		}
+	}
 
 	/*
-	 * S, T (or X, Y) Texture coordinate data. Because images have a Y axis
-	 * pointing downward (values increase as you move down the image) while
-	 * OpenGL has a Y axis pointing upward, we adjust for that here by flipping
-	 * the Y axis. What's more is that the texture coordinates are the same for
-	 * every face.
+	 * The cube and its levels as loaded by loadMesh(), used instead of the
+	 * generated ones when not null. The buffers handed to glBufferData are
+	 * slices of the mapped file.
 	 */
-	static float[] textureCoords = { 
-			0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 0.0f,
-			0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 0.0f,
-			0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 0.0f,
-			0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 0.0f,
-			0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 0.0f,
-			0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 0.0f,
-		};
+	private static MeshFile meshFile;
 
 	/**
-	 * Sets up the drawing object data for use in an OpenGL ES context.
+	 * Maps the compiled cube from the assets, so that the cubes created
+	 * afterwards upload it without building any array. The asset must be
+	 * stored uncompressed to be mapped; a compressed one is read into
+	 * memory instead.
+	 *
+	 * @throws IOException
+	 *             if the asset is missing or not a mesh file with the
+	 *             cube's vertex format. The generated cube is then kept.
+	 */
+	public static void loadMesh(AssetManager assets) throws IOException {
+		MeshFile file;
+		try {
+			AssetFileDescriptor fd = assets.openFd(MESH_PATH);
+			try {
+				file = MeshFile.map(fd.createInputStream().getChannel(),
+						fd.getStartOffset(), fd.getLength());
+			} finally {
+				fd.close();
+			}
+		} catch (FileNotFoundException e) {
+			// openFd() fails on compressed assets
+			InputStream in = assets.open(MESH_PATH);
+			try {
+				file = MeshFile.read(in);
+			} finally {
+				in.close();
+			}
+		}
+		if (file.getStride() != FORMAT.getStride()
+				|| file.getAttributeCount() != 2
+				|| file.getComponents(0) != COORDS_PER_VERTEX
+				|| file.getComponents(1) != TEXTURE_COORDS) {
+			throw new IOException(MESH_PATH + " is not a textured mesh");
+		}
+		meshFile = file;
+	}
+
+	/**
+	 * Returns the bounding box of the cube, for SceneNode.setDrawable().
+	 */
+	public static float[] getBounds() {
+		return meshFile != null ? meshFile.getBounds() : Generated.BOUNDS;
+	}
+
+	/**
+	 * Returns the bounding sphere of the cube, for SceneNode.setDrawable().
+	 */
+	public static float[] getSphere() {
+		return meshFile != null ? meshFile.getSphere() : Generated.SPHERE;
+	}
+
+	/**
+	 * Sets up the drawing object data for use in an OpenGL ES context,
+	 * decoding the texture on the calling thread.
 	 */
 	public Cube(Context context, int resourceId) {
-		// initialize vertex byte buffer for shape coordinates
-		// (number of coordinate values * 4 bytes per float)
-		ByteBuffer bb = ByteBuffer.allocateDirect(cubeCoords.length
-				* BYTES_IN_FLOAT);
-		// use the device hardware's native byte order
-		bb.order(ByteOrder.nativeOrder());
-		// create a floating point buffer from the ByteBuffer
-		vertexBuffer = bb.asFloatBuffer();
-		// add the coordinates to the FloatBuffer
-		vertexBuffer.put(cubeCoords);
-		// set the buffer to read the first coordinate
-		vertexBuffer.position(0);
-
-		// initialize texture byte buffer
-		ByteBuffer tb = ByteBuffer.allocateDirect(textureCoords.length
-				* BYTES_IN_FLOAT);
-		tb.order(ByteOrder.nativeOrder());
-		textureBuffer = tb.asFloatBuffer();
-		textureBuffer.put(textureCoords);
-		textureBuffer.position(0);
-
-		// Load the texture
-		mTextureDataHandle = loadTexture(context, resourceId);
+		this(loadTexture(context, resourceId));
+	}
+
+	/**
+	 * Sets up the drawing object data for use in an OpenGL ES context.
+	 *
+	 * @param textureDataHandle
+	 *            - Texture object, e.g. from {@link TextureLoader}.
+	 */
+	public Cube(int textureDataHandle) {
+		this(textureDataHandle, null);
+	}
+
+	/**
+	 * Sets up a cube textured with one image of an atlas. Cubes using
+	 * different images of the same atlas page share the texture bind.
+	 *
+	 * @param textureDataHandle
+	 *            - Texture object of the atlas page.
+	 * @param region
+	 *            - Image of the page, or null for a whole texture.
+	 */
+	public Cube(int textureDataHandle, TextureAtlas.Region region) {
+		this(textureDataHandle, null, region);
+	}
+
+	/**
+	 * Sets up a cube textured with a managed texture, which may be evicted
+	 * and reloaded by its {@link TextureManager}.
+	 *
+	 * @param texture
+	 *            - The texture, or atlas page.
+	 * @param region
+	 *            - Image of the atlas page, or null for a whole texture.
+	 */
+	public Cube(TextureManager.Texture texture, TextureAtlas.Region region) {
+		this(0, texture, region);
+	}
+
+	private Cube(int textureDataHandle, TextureManager.Texture texture,
+			TextureAtlas.Region region) {
+		this(textureDataHandle, texture, region, 0);
+	}
+
+	/*
+	 * Sets up a cube drawn with one of the levels of detail.
+	 */
+	private Cube(int textureDataHandle, TextureManager.Texture texture,
+			TextureAtlas.Region region, int level) {
+		// Upload the interleaved vertices and the indices once; every other
+		// cube (of the same atlas region) reuses the same buffer objects.
+		String key = "cube.vertices";
+		String indexKey = "cube.indices";
+		if (level > 0) {
+			key += ".lod" + level;
+			indexKey += ".lod" + level;
+		}
+		if (region != null) {
+			key += "." + region.name;
+		}
+		// The data of a key never changes within a context, so only the
+		// first cube of a key writes its buffers
+		int vertexBufferId = GeometryCache.getBuffer(key);
+		int indexBufferId = GeometryCache.getBuffer(indexKey);
+		if (meshFile != null) {
+			// The mapped file is uploaded as it is, unless remapped
+			if (vertexBufferId == 0) {
+				ByteBuffer vertices;
+				if (region != null) {
+					vertices = writeVertices(meshFile.getVertexArray(level),
+							meshFile.getVertexCount(level), region);
+				} else {
+					vertices = meshFile.getVertices(level);
+				}
+				vertexBufferId = GeometryCache.getArrayBuffer(key, vertices);
+			}
+			if (indexBufferId == 0) {
+				indexBufferId = GeometryCache.getElementBuffer(indexKey,
+						meshFile.getIndices(level));
+			}
+			mIndexCount = meshFile.getIndexCount(level);
+			mIndexType = meshFile.getIndexType();
+		} else {
+			MeshCompiler.Mesh mesh = Generated.levels[level];
+			if (vertexBufferId == 0) {
+				vertexBufferId = GeometryCache.getArrayBuffer(key,
+						writeVertices(mesh.getVertices(),
+								mesh.getVertexCount(), region));
+			}
+			if (indexBufferId == 0) {
+				short[] indices = level > 0 ? mesh.getShortIndices()
+						: Generated.meshIndices;
+				indexBufferId = GeometryCache.getElementBuffer(indexKey,
+						indices);
+			}
+			mIndexCount = mesh.getIndexCount();
+			mIndexType = GLES20.GL_UNSIGNED_SHORT;
+		}
+		mVertexBufferId = vertexBufferId;
+		mIndexBufferId = indexBufferId;
+
+		mTextureDataHandle = textureDataHandle;
+		mTexture = texture;
 
 		// prepare shaders and OpenGL program
-		int vertexShader = MyGLRenderer.loadShader(GLES20.GL_VERTEX_SHADER,
-				vertexShaderCode);
-		int fragmentShader = MyGLRenderer.loadShader(GLES20.GL_FRAGMENT_SHADER,
-				fragmentShaderCode);
-
-		mProgram = GLES20.glCreateProgram(); // create empty OpenGL Program
-		GLES20.glAttachShader(mProgram, vertexShader); // add the vertex shader
-														// to program
-		GLES20.glAttachShader(mProgram, fragmentShader); // add the fragment
-															// shader to program
-		GLES20.glLinkProgram(mProgram); // create OpenGL program executables
-		
-		// Add program to OpenGL environment
-		GLES20.glUseProgram(mProgram);
+		mProgram = ProgramCache.get(vertexShaderCode, fragmentShaderCode);
+
+		// get handles to vertex shader's a_Position and a_TexCoordinate,
+		// and to the transformation matrix and texture sampler
+		mAttributeHandles = FORMAT.getLocations(mProgram);
+		mMVPMatrixHandle = mProgram.getUniformLocation("u_MVPMatrix");
+		mTextureUniformHandle = mProgram.getUniformLocation("u_TextureUnit");
+
+		// Same vertex buffer, a_TexCoordinate unused (location -1)
+		mDepthProgram = ProgramCache.get(depthVertexShaderCode,
+				depthFragmentShaderCode);
+		mDepthAttributeHandles = FORMAT.getLocations(mDepthProgram);
+		mDepthMVPMatrixHandle = mDepthProgram.getUniformLocation("u_MVPMatrix");
+	}
+
+	/*
+	 * Packs vertices into a buffer, their texels first moved into an atlas
+	 * region if not null.
+	 */
+	private static ByteBuffer writeVertices(float[] vertices, int count,
+			TextureAtlas.Region region) {
+		if (region != null) {
+			vertices = TextureAtlas.remap(vertices, COORDS_PER_VERTEX,
+					COORDS_PER_VERTEX + TEXTURE_COORDS, count, region);
+		}
+		VertexWriter writer = new VertexWriter(FORMAT, count);
+		writer.put(vertices, count);
+		return writer.getBuffer();
+	}
+
+	/**
+	 * Creates the levels of detail of a cube, for one scene node.
+	 *
+	 * @param texture
+	 *            - The texture, or atlas page.
+	 * @param region
+	 *            - Image of the atlas page, or null for a whole texture.
+	 */
+	public static LevelOfDetail createLevelOfDetail(
+			TextureManager.Texture texture, TextureAtlas.Region region) {
+		MeshFile file = meshFile;
+		int count = file != null ? file.getLevelCount()
+				: Generated.levels.length;
+		SceneNode.Drawable[] cubes = new SceneNode.Drawable[count];
+		int[] triangles = new int[count];
+		for (int i = 0; i < count; i++) {
+			cubes[i] = new Cube(0, texture, region, i);
+			triangles[i] = (file != null ? file.getIndexCount(i)
+					: Generated.levels[i].getIndexCount()) / 3;
+		}
+		float[] errors = file != null ? file.getErrors()
+				: Generated.levelErrors;
+		return new LevelOfDetail(cubes, triangles,
+				LevelOfDetail.computeMinPixels(errors, count, getSphere()[3],
+						LevelOfDetail.MAX_PIXEL_ERROR,
+						LevelOfDetail.CULL_PIXELS));
 	}
 
 	/**
@@ -193,55 +365,77 @@ public class Cube {
 	 * @param mvpMatrix
 	 *            - The Model View Project matrix in which to draw this shape.
 	 */
-
+	@Override
 	public void draw(float[] mvpMatrix) {
-		
-		// get handle to vertex shader's a_Position member
-		mPositionHandle = GLES20.glGetAttribLocation(mProgram, "a_Position");
-		// Enable a handle to the triangle vertices
-		GLES20.glEnableVertexAttribArray(mPositionHandle);
-		// Prepare the triangle coordinate data
-		GLES20.glVertexAttribPointer(mPositionHandle, COORDS_PER_VERTEX,
-				GLES20.GL_FLOAT, false, vertexStride, vertexBuffer);
-
-		// get handle to vertex shader's a_TexCoordinate member
-		mTextureCoordHandle = GLES20.glGetAttribLocation(mProgram,
-				"a_TexCoordinate");
-		GLES20.glEnableVertexAttribArray(mTextureCoordHandle);
-		GLES20.glVertexAttribPointer(mTextureCoordHandle, TEXTURE_COORDS,
-				GLES20.GL_FLOAT, false, 0, textureBuffer);
-
-		// get handle to shape's transformation matrix
-		mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "u_MVPMatrix");
-		MyGLRenderer.checkGlError("glGetUniformLocation");
+		draw(mvpMatrix, 0);
+	}
+
+	/**
+	 * Same as {@link #draw(float[])} with the matrix at an offset, such as one
+	 * of the matrices computed by {@link MatrixMath#multiplyMMBatch}.
+	 */
+	public void draw(float[] mvpMatrix, int offset) {
+		// Add program to OpenGL environment (skipped by GLState if this
+		// program is already in use)
+		mProgram.use();
+
+		// Bind position and texel from the interleaved vertex buffer
+		GLState.bindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
+		FORMAT.enable(mAttributeHandles);
 
 		// Apply the projection and view transformation
-		GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
-		MyGLRenderer.checkGlError("glUniformMatrix4fv");
+		mProgram.setUniformMatrix4fv(mMVPMatrixHandle, 1, mvpMatrix, offset);
 
-		// get handle to shape's transformation matrix
-		mTextureUniformHandle = GLES20.glGetUniformLocation(mProgram,
-				"u_TextureUnit");
 		// Tell the texture uniform sampler to use this texture in the shader by
 		// binding to texture unit 0.
-		// Set the active texture unit to texture unit 0.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        
-        // Bind the texture to this unit.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureDataHandle);
-		GLES20.glUniform1i(mTextureUniformHandle, 0);
+		if (mTexture != null) {
+			mTexture.bind(0);
+		} else {
+			GLState.bindTexture(0, mTextureDataHandle);
+		}
+		mProgram.setUniform1i(mTextureUniformHandle, 0);
 
 		// Draw the cube
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, vertexCount);
+		GLState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
+		GLBackend.get().glDrawElements(GLES20.GL_TRIANGLES, mIndexCount,
+				mIndexType, 0);
+	}
+
+	/**
+	 * Draws the depth of the cube only, for a depth pre-pass. The caller
+	 * masks color writes.
+	 */
+	@Override
+	public void drawDepth(float[] mvpMatrix) {
+		mDepthProgram.use();
+		GLState.bindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
+		FORMAT.enable(mDepthAttributeHandles);
+		mDepthProgram.setUniformMatrix4fv(mDepthMVPMatrixHandle, 1,
+				mvpMatrix, 0);
+		GLState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
+		GLBackend.get().glDrawElements(GLES20.GL_TRIANGLES, mIndexCount,
+				mIndexType, 0);
+	}
+
+	@Override
+	public int getSortProgram() {
+		return mProgram.getId();
+	}
+
+	@Override
+	public int getSortTexture() {
+		return mTexture != null ? mTexture.getId() : mTextureDataHandle;
+	}
 
-		// Disable vertex array
-		GLES20.glDisableVertexAttribArray(mPositionHandle);
-		GLES20.glDisableVertexAttribArray(mTextureCoordHandle);
+	@Override
+	public boolean isTranslucent() {
+		return false;
 	}
 
-	private int loadTexture(Context context, int resourceId) {
+	static int loadTexture(Context context, int resourceId) {
+		GLApi gl = GLBackend.get();
 		final int[] textureObjectIds = new int[1];
-		GLES20.glGenTextures(1, textureObjectIds, 0);
+		gl.glGenTextures(1, textureObjectIds, 0);
 
 		/*
 		 * if (textureObjectIds[0] == 0) {
@@ -260,17 +454,16 @@ public class Cube {
 		 * GLES20.glDeleteTextures(1, textureObjectIds, 0); return 0; }
 		 */
 		// Bind to the texture in OpenGL
-		//GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureObjectIds[0]);
+		GLState.bindTexture(0, textureObjectIds[0]);
 
 		// Set filtering: a default must be set, or the texture will be black
-		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+		gl.glTexParameteri(GLES20.GL_TEXTURE_2D,
 				GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR_MIPMAP_LINEAR);
-		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+		gl.glTexParameteri(GLES20.GL_TEXTURE_2D,
 				GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
 		
 		// Load the bitmap into the bound texture.
-		GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+		gl.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
 
 		// Note: Following code may cause an error to be reported in the
 		// ADB log as follows: E/IMGSRV(20095): :0: HardwareMipGen:
@@ -280,14 +473,14 @@ public class Cube {
 		// square. It will look the same because of texture coordinates,
 		// and mipmap generation will work.
 
-		GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+		gl.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
 
 		// Recycle the bitmap, since its data has been loaded into
 		// OpenGL.
 		bitmap.recycle();
 
 		// Unbind from the texture.
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+		GLState.bindTexture(0, 0);
 		
 		return textureObjectIds[0];
 	}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import android.opengl.GLES20;
+
+/**
+ * Draws many textured cubes (the {@link Cube} mesh) sharing one texture with
+ * few draw calls. OpenGL ES 2.0 has no instancing, so two techniques are
+ * offered:
+ * <ul>
+ * <li>{@link Mode#PSEUDO_INSTANCED}: the mesh is replicated a fixed number of
+ * times in a static buffer, each copy tagged with an instance index that
+ * selects its model matrix from a uniform array. One draw call covers as many
+ * cubes as there are matrices in the array.</li>
+ * <li>{@link Mode#PRE_TRANSFORMED}: the vertices of every cube are transformed
+ * to world space on the CPU into a dynamic buffer. One draw call covers as
+ * many cubes as 16-bit indices can address.</li>
+ * </ul>
+ * Usage, once per frame:
+ *
+ * <pre>
+ * batch.begin(viewProjectionMatrix);
+ * for (...) batch.add(modelMatrix, 0);
+ * batch.end();
+ * </pre>
+ */
+public class CubeBatch {
+
+	public enum Mode {
+		PSEUDO_INSTANCED, PRE_TRANSFORMED
+	}
+
+	private static final String TAG = "CubeBatch";
+
+	// Upper bound of the matrix array; the real size depends on the device
+	static final int MAX_INSTANCES = 64;
+	// Uniform vectors kept for u_VPMatrix and the driver's own use
+	private static final int RESERVED_UNIFORM_VECTORS = 8;
+
+	private static final String instancedVertexShaderCode = "uniform mat4 u_VPMatrix;"
+			+ "uniform mat4 u_ModelMatrices[%d];"
+			+ "attribute vec4 a_Position;"
+			+ "attribute vec2 a_TexCoordinate;"
+			+ "attribute float a_Instance;"
+			+ "varying vec2 v_TexCoordinate;"
+			+ "void main() {"
+			+ "  gl_Position = u_VPMatrix * (u_ModelMatrices[int(a_Instance)] * a_Position);"
+			+ "  v_TexCoordinate = a_TexCoordinate;" + "}";
+
+	private static final String transformedVertexShaderCode = "uniform mat4 u_VPMatrix;"
+			+ "attribute vec4 a_Position;"
+			+ "attribute vec2 a_TexCoordinate;"
+			+ "varying vec2 v_TexCoordinate;"
+			+ "void main() {"
+			+ "  gl_Position = u_VPMatrix * a_Position;"
+			+ "  v_TexCoordinate = a_TexCoordinate;" + "}";
+
+	private static final String fragmentShaderCode = "precision mediump float;"
+			+ "varying vec2 v_TexCoordinate;"
+			+ "uniform sampler2D u_TextureUnit;" + "void main() {"
+			+ "  gl_FragColor = texture2D(u_TextureUnit, v_TexCoordinate);"
+			+ "}";
+
+	// Layout of a replicated vertex: the cube's vertex plus its copy number
+	static final VertexFormat INSTANCED_FORMAT = new VertexFormat.Builder()
+			.addFloat("a_Position", Cube.COORDS_PER_VERTEX)
+			.addFloat("a_TexCoordinate", Cube.TEXTURE_COORDS)
+			.addFloat("a_Instance", 1).build();
+
+	private final Mode mMode;
+	private final int mTextureDataHandle;
+	private final ShaderProgram mProgram;
+	private final int[] mAttributeHandles;
+	private final int mVPMatrixHandle;
+	private final int mModelMatricesHandle;
+	private final int mTextureUniformHandle;
+
+	// The cube replicated by the batch
+	private final MeshCompiler.Mesh mMesh;
+	// Number of cubes covered by one draw call
+	private final int mCubesPerDraw;
+
+	private final int mVertexBufferId;
+	private final int mIndexBufferId;
+
+	// PSEUDO_INSTANCED: model matrices of the pending cubes
+	private final float[] mModelMatrices;
+	// PRE_TRANSFORMED: world-space vertices of the pending cubes
+	private final ByteBuffer mStaging;
+	private final FloatBuffer mStagingFloats;
+
+	private final float[] mVPMatrix = new float[16];
+	private int mPending;
+	private boolean mStarted;
+
+	// Statistics of the last frame
+	private int mDrawCalls;
+	private int mCubeCount;
+
+	/**
+	 * Creates a batch for cubes drawn with the given texture. Must be called
+	 * on the GL thread.
+	 *
+	 * @param mode
+	 *            - How cubes are merged into draw calls.
+	 * @param textureDataHandle
+	 *            - Texture shared by every cube of the batch.
+	 */
+	public CubeBatch(Mode mode, int textureDataHandle) {
+		mMode = mode;
+		mTextureDataHandle = textureDataHandle;
+
+		// The generated cube: a mapped cube.mesh has no float array to copy
+		MeshCompiler.Mesh mesh = Cube.Generated.mesh;
+		mMesh = mesh;
+		int meshVertices = mesh.getVertexCount();
+		String vertexShaderCode;
+		if (mode == Mode.PSEUDO_INSTANCED) {
+			mCubesPerDraw = maxInstances();
+			vertexShaderCode = String.format(instancedVertexShaderCode,
+					mCubesPerDraw);
+			mModelMatrices = new float[mCubesPerDraw * 16];
+			mStaging = null;
+			mStagingFloats = null;
+			mVertexBufferId = GeometryCache.getArrayBuffer("cube.instanced."
+					+ mCubesPerDraw, replicate(mesh, mCubesPerDraw));
+		} else {
+			// 16-bit indices address 65536 vertices
+			mCubesPerDraw = 0x10000 / meshVertices;
+			vertexShaderCode = transformedVertexShaderCode;
+			mModelMatrices = null;
+			mStaging = ByteBuffer.allocateDirect(
+					mCubesPerDraw * meshVertices * Cube.FORMAT.getStride())
+					.order(ByteOrder.nativeOrder());
+			mStagingFloats = mStaging.asFloatBuffer();
+			int[] bufferIds = new int[1];
+			GLBackend.get().glGenBuffers(1, bufferIds, 0);
+			mVertexBufferId = bufferIds[0];
+		}
+		mIndexBufferId = GeometryCache.getElementBuffer("cube.indices."
+				+ mCubesPerDraw, replicateIndices(mesh, mCubesPerDraw));
+
+		mProgram = ProgramCache.get(vertexShaderCode, fragmentShaderCode);
+		mAttributeHandles = getFormat().getLocations(mProgram);
+		mVPMatrixHandle = mProgram.getUniformLocation("u_VPMatrix");
+		mModelMatricesHandle = mProgram.getUniformLocation("u_ModelMatrices");
+		mTextureUniformHandle = mProgram.getUniformLocation("u_TextureUnit");
+	}
+
+	/*
+	 * Number of mat4 the vertex shader can hold next to u_VPMatrix.
+	 */
+	private static int maxInstances() {
+		int[] vectors = new int[1];
+		GLBackend.get().glGetIntegerv(
+				GLES20.GL_MAX_VERTEX_UNIFORM_VECTORS, vectors, 0);
+		// The spec guarantees at least 128 vectors
+		int available = Math.max(vectors[0], 128) - RESERVED_UNIFORM_VECTORS;
+		return Math.min(available / 4, MAX_INSTANCES);
+	}
+
+	private static ByteBuffer replicate(MeshCompiler.Mesh mesh, int copies) {
+		VertexWriter writer = new VertexWriter(INSTANCED_FORMAT, copies
+				* mesh.getVertexCount());
+		float[] vertices = mesh.getVertices();
+		for (int i = 0; i < copies; i++) {
+			for (int v = 0, src = 0; v < mesh.getVertexCount(); v++, src += 5) {
+				writer.set(0, vertices[src], vertices[src + 1],
+						vertices[src + 2]);
+				writer.set(1, vertices[src + 3], vertices[src + 4]);
+				writer.set(2, i);
+				writer.next();
+			}
+		}
+		return writer.getBuffer();
+	}
+
+	private static short[] replicateIndices(MeshCompiler.Mesh mesh, int copies) {
+		int[] indices = mesh.getIndices();
+		short[] out = new short[copies * indices.length];
+		for (int i = 0, k = 0; i < copies; i++) {
+			int base = i * mesh.getVertexCount();
+			for (int j = 0; j < indices.length; j++) {
+				out[k++] = (short) (base + indices[j]);
+			}
+		}
+		return out;
+	}
+
+	private VertexFormat getFormat() {
+		return mMode == Mode.PSEUDO_INSTANCED ? INSTANCED_FORMAT : Cube.FORMAT;
+	}
+
+	public Mode getMode() {
+		return mMode;
+	}
+
+	/**
+	 * Starts a new frame of cubes.
+	 *
+	 * @param vpMatrix
+	 *            - The View Projection matrix shared by every cube.
+	 */
+	public void begin(float[] vpMatrix) {
+		System.arraycopy(vpMatrix, 0, mVPMatrix, 0, 16);
+		mPending = 0;
+		mDrawCalls = 0;
+		mCubeCount = 0;
+		mStarted = true;
+		if (mMode == Mode.PRE_TRANSFORMED) {
+			mStagingFloats.clear();
+		}
+	}
+
+	/**
+	 * Adds a cube to the batch, flushing the batch when it is full.
+	 *
+	 * @param modelMatrix
+	 *            - Model matrix of the cube.
+	 * @param offset
+	 *            - Index of the matrix in the array.
+	 */
+	public void add(float[] modelMatrix, int offset) {
+		if (!mStarted) {
+			throw new IllegalStateException(TAG + ": add() outside begin/end");
+		}
+		if (mMode == Mode.PSEUDO_INSTANCED) {
+			System.arraycopy(modelMatrix, offset, mModelMatrices,
+					mPending * 16, 16);
+		} else {
+			transform(modelMatrix, offset);
+		}
+		mPending++;
+		mCubeCount++;
+		if (mPending == mCubesPerDraw) {
+			flush();
+		}
+	}
+
+	/**
+	 * Draws the pending cubes and ends the frame.
+	 */
+	public void end() {
+		flush();
+		mStarted = false;
+	}
+
+	/*
+	 * Writes the cube's vertices in world space (column-major matrix, as in
+	 * android.opengl.Matrix) followed by their texels.
+	 */
+	private void transform(float[] m, int o) {
+		float[] vertices = mMesh.getVertices();
+		FloatBuffer out = mStagingFloats;
+		for (int src = 0; src < vertices.length; src += 5) {
+			float x = vertices[src];
+			float y = vertices[src + 1];
+			float z = vertices[src + 2];
+			out.put(m[o] * x + m[o + 4] * y + m[o + 8] * z + m[o + 12]);
+			out.put(m[o + 1] * x + m[o + 5] * y + m[o + 9] * z + m[o + 13]);
+			out.put(m[o + 2] * x + m[o + 6] * y + m[o + 10] * z + m[o + 14]);
+			out.put(vertices[src + 3]);
+			out.put(vertices[src + 4]);
+		}
+	}
+
+	private void flush() {
+		GLApi gl = GLBackend.get();
+		if (mPending == 0) {
+			return;
+		}
+		mProgram.use();
+		mProgram.setUniformMatrix4fv(mVPMatrixHandle, 1, mVPMatrix, 0);
+
+		GLState.bindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
+		if (mMode == Mode.PSEUDO_INSTANCED) {
+			// Different for every draw, so not worth comparing to the last
+			gl.glUniformMatrix4fv(mModelMatricesHandle, mPending, false,
+					mModelMatrices, 0);
+		} else {
+			// Orphan the previous contents so the driver need not wait for
+			// the GPU to finish reading them.
+			int bytes = mStagingFloats.position() * 4;
+			mStaging.position(0);
+			mStaging.limit(bytes);
+			gl.glBufferData(GLES20.GL_ARRAY_BUFFER, bytes, mStaging,
+					GLES20.GL_STREAM_DRAW);
+			mStaging.clear();
+			mStagingFloats.clear();
+		}
+		getFormat().enable(mAttributeHandles);
+
+		GLState.bindTexture(0, mTextureDataHandle);
+		mProgram.setUniform1i(mTextureUniformHandle, 0);
+
+		GLState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
+		gl.glDrawElements(GLES20.GL_TRIANGLES, mPending
+				* mMesh.getIndexCount(), GLES20.GL_UNSIGNED_SHORT, 0);
+
+		mDrawCalls++;
+		mPending = 0;
+	}
+
+	/**
+	 * Returns the number of cubes one draw call can hold.
+	 */
+	public int getCubesPerDraw() {
+		return mCubesPerDraw;
+	}
+
+	/**
+	 * Returns the number of draw calls issued since the last begin().
+	 */
+	public int getDrawCalls() {
+		return mDrawCalls;
+	}
+
+	/**
+	 * Returns the number of cubes added since the last begin().
+	 */
+	public int getCubeCount() {
+		return mCubeCount;
+	}
+}
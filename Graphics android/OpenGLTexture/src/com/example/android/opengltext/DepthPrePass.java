@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+/**
+ * Decides, frame by frame, whether to draw the opaque objects twice: first
+ * depth only, with a position-only program and color writes masked, then
+ * shaded with GL_LEQUAL and depth writes off, so that the fragment shader
+ * only runs for the visible fragment of each pixel.
+ *
+ * <p>
+ * The pre-pass costs a second pass of vertex work and depth-only fill; it
+ * pays off when objects overlap a lot on screen. In {@link Mode#AUTO} it is
+ * turned on once the overdraw (fragments drawn per pixel of the viewport)
+ * stays above a threshold for a few frames, and off once it stays below a
+ * lower one, so that a frame near a threshold does not flip the mode every
+ * frame.
+ * The overdraw is whatever the caller measures: an estimate from bounding
+ * spheres (see {@link SceneGraph#getEstimatedOverdraw()}), or fragment
+ * counts where the backend has them.
+ * </p>
+ *
+ * <p>
+ * The mode can be set from any thread; the other methods must be called on
+ * the GL thread.
+ * </p>
+ */
+public class DepthPrePass {
+
+	public enum Mode {
+		OFF, ON, AUTO
+	}
+
+	// Overdraw above which AUTO turns the pre-pass on, and below which it
+	// turns it off
+	static final float ENABLE_OVERDRAW = 2.5f;
+	static final float DISABLE_OVERDRAW = 1.8f;
+	// Frames the overdraw must stay past a threshold to switch
+	static final int SWITCH_FRAMES = 10;
+
+	private final float mEnableOverdraw;
+	private final float mDisableOverdraw;
+	private final int mSwitchFrames;
+
+	private volatile Mode mMode = Mode.AUTO;
+	// Decision of AUTO
+	private boolean mAutoEnabled;
+	private int mFramesPastThreshold;
+
+	// Statistics
+	private float mOverdraw;
+	private long mFrames;
+	private long mPrePassFrames;
+	private int mSwitches;
+
+	public DepthPrePass() {
+		this(ENABLE_OVERDRAW, DISABLE_OVERDRAW, SWITCH_FRAMES);
+	}
+
+	/**
+	 * @param enableOverdraw
+	 *            - Overdraw turning the pre-pass on in AUTO mode.
+	 * @param disableOverdraw
+	 *            - Overdraw turning it off, at most enableOverdraw.
+	 * @param switchFrames
+	 *            - Consecutive frames past a threshold needed to switch.
+	 */
+	public DepthPrePass(float enableOverdraw, float disableOverdraw,
+			int switchFrames) {
+		if (!(disableOverdraw <= enableOverdraw) || switchFrames < 1) {
+			throw new IllegalArgumentException("DepthPrePass: bad thresholds "
+					+ enableOverdraw + ", " + disableOverdraw + ", "
+					+ switchFrames);
+		}
+		mEnableOverdraw = enableOverdraw;
+		mDisableOverdraw = disableOverdraw;
+		mSwitchFrames = switchFrames;
+	}
+
+	public void setMode(Mode mode) {
+		if (mode == null) {
+			throw new IllegalArgumentException("DepthPrePass: null mode");
+		}
+		mMode = mode;
+	}
+
+	public Mode getMode() {
+		return mMode;
+	}
+
+	/**
+	 * Decides whether the coming frame draws a depth pre-pass.
+	 *
+	 * @param overdraw
+	 *            - Overdraw of the scene, measured on a recent frame or
+	 *            estimated for this one.
+	 * @return whether to draw the pre-pass.
+	 */
+	public boolean update(float overdraw) {
+		mOverdraw = overdraw;
+		boolean past = mAutoEnabled ? overdraw < mDisableOverdraw
+				: overdraw > mEnableOverdraw;
+		mFramesPastThreshold = past ? mFramesPastThreshold + 1 : 0;
+		if (mFramesPastThreshold >= mSwitchFrames) {
+			mAutoEnabled = !mAutoEnabled;
+			mFramesPastThreshold = 0;
+			mSwitches++;
+		}
+		Mode mode = mMode;
+		boolean enabled = mode == Mode.ON
+				|| (mode == Mode.AUTO && mAutoEnabled);
+		mFrames++;
+		if (enabled) {
+			mPrePassFrames++;
+		}
+		return enabled;
+	}
+
+	/**
+	 * Returns the decision of AUTO mode as of the last update, whatever the
+	 * current mode.
+	 */
+	public boolean isAutoEnabled() {
+		return mAutoEnabled;
+	}
+
+	/**
+	 * Returns the overdraw given to the last update.
+	 */
+	public float getOverdraw() {
+		return mOverdraw;
+	}
+
+	public long getFrames() {
+		return mFrames;
+	}
+
+	/**
+	 * Returns the number of frames drawn with a pre-pass.
+	 */
+	public long getPrePassFrames() {
+		return mPrePassFrames;
+	}
+
+	/**
+	 * Returns how many times AUTO mode switched the pre-pass on or off.
+	 */
+	public int getSwitches() {
+		return mSwitches;
+	}
+
+	public void resetCounters() {
+		mFrames = 0;
+		mPrePassFrames = 0;
+		mSwitches = 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Depth pre-pass (%s): %s, overdraw %.2f, "
+				+ "%d/%d frames, %d switches", mMode, mAutoEnabled ? "on"
+				: "off", mOverdraw, mPrePassFrames, mFrames, mSwitches);
+	}
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.nio.Buffer;
+
+import android.graphics.Bitmap;
+
+/**
+ * {@link GLApi} installed by {@link GLErrorPolicy} around the real one: keeps
+ * the names of the last calls in a ring buffer and, when asked to, reads the
+ * GL error after each call. Logging a call stores a reference to a constant
+ * string, without allocation.
+ */
+class ErrorCheckingGLApi implements GLApi {
+
+	// Calls remembered, a power of two
+	private static final int LOG_SIZE = 64;
+
+	private final GLApi mApi;
+	private final String[] mCalls = new String[LOG_SIZE];
+	private int mCallCount;
+	private boolean mCheckEachCall;
+
+	ErrorCheckingGLApi(GLApi api) {
+		mApi = api;
+	}
+
+	/**
+	 * Returns the api whose calls are checked.
+	 */
+	GLApi getApi() {
+		return mApi;
+	}
+
+	void setCheckEachCall(boolean checkEachCall) {
+		mCheckEachCall = checkEachCall;
+	}
+
+	boolean isCheckingEachCall() {
+		return mCheckEachCall;
+	}
+
+	/**
+	 * Returns the names of the last calls, oldest first, for logging.
+	 */
+	String getRecentCalls(int count) {
+		int n = Math.min(count, Math.min(mCallCount, LOG_SIZE));
+		StringBuilder sb = new StringBuilder();
+		for (int i = mCallCount - n; i < mCallCount; i++) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(mCalls[i & (LOG_SIZE - 1)]);
+		}
+		return sb.toString();
+	}
+
+	private void called(String name) {
+		mCalls[mCallCount++ & (LOG_SIZE - 1)] = name;
+		if (mCheckEachCall) {
+			GLErrorPolicy.checkCall(mApi, name);
+		}
+	}
+
+	// OpenGL ES 2.0
+
+	@Override
+	public void glActiveTexture(int texture) {
+		mApi.glActiveTexture(texture);
+		called("glActiveTexture");
+	}
+
+	@Override
+	public void glAttachShader(int program, int shader) {
+		mApi.glAttachShader(program, shader);
+		called("glAttachShader");
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		mApi.glBindBuffer(target, buffer);
+		called("glBindBuffer");
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+		mApi.glBindTexture(target, texture);
+		called("glBindTexture");
+	}
+
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage) {
+		mApi.glBufferData(target, size, data, usage);
+		called("glBufferData");
+	}
+
+	@Override
+	public void glBufferSubData(int target, int offset, int size, Buffer data) {
+		mApi.glBufferSubData(target, offset, size, data);
+		called("glBufferSubData");
+	}
+
+	@Override
+	public void glClear(int mask) {
+		mApi.glClear(mask);
+		called("glClear");
+	}
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		mApi.glClearColor(red, green, blue, alpha);
+		called("glClearColor");
+	}
+
+	@Override
+	public void glColorMask(boolean red, boolean green, boolean blue,
+			boolean alpha) {
+		mApi.glColorMask(red, green, blue, alpha);
+		called("glColorMask");
+	}
+
+	@Override
+	public void glCompileShader(int shader) {
+		mApi.glCompileShader(shader);
+		called("glCompileShader");
+	}
+
+	@Override
+	public void glCompressedTexImage2D(int target, int level,
+			int internalformat, int width, int height, int border,
+			int imageSize, Buffer data) {
+		mApi.glCompressedTexImage2D(target, level, internalformat, width,
+				height, border, imageSize, data);
+		called("glCompressedTexImage2D");
+	}
+
+	@Override
+	public int glCreateProgram() {
+		int result = mApi.glCreateProgram();
+		called("glCreateProgram");
+		return result;
+	}
+
+	@Override
+	public int glCreateShader(int type) {
+		int result = mApi.glCreateShader(type);
+		called("glCreateShader");
+		return result;
+	}
+
+	@Override
+	public void glDeleteBuffers(int n, int[] buffers, int offset) {
+		mApi.glDeleteBuffers(n, buffers, offset);
+		called("glDeleteBuffers");
+	}
+
+	@Override
+	public void glDeleteProgram(int program) {
+		mApi.glDeleteProgram(program);
+		called("glDeleteProgram");
+	}
+
+	@Override
+	public void glDeleteShader(int shader) {
+		mApi.glDeleteShader(shader);
+		called("glDeleteShader");
+	}
+
+	@Override
+	public void glDeleteTextures(int n, int[] textures, int offset) {
+		mApi.glDeleteTextures(n, textures, offset);
+		called("glDeleteTextures");
+	}
+
+	@Override
+	public void glDepthFunc(int func) {
+		mApi.glDepthFunc(func);
+		called("glDepthFunc");
+	}
+
+	@Override
+	public void glDepthMask(boolean flag) {
+		mApi.glDepthMask(flag);
+		called("glDepthMask");
+	}
+
+	@Override
+	public void glDisable(int cap) {
+		mApi.glDisable(cap);
+		called("glDisable");
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		mApi.glDisableVertexAttribArray(index);
+		called("glDisableVertexAttribArray");
+	}
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		mApi.glDrawArrays(mode, first, count);
+		called("glDrawArrays");
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, int offset) {
+		mApi.glDrawElements(mode, count, type, offset);
+		called("glDrawElements");
+	}
+
+	@Override
+	public void glEnable(int cap) {
+		mApi.glEnable(cap);
+		called("glEnable");
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		mApi.glEnableVertexAttribArray(index);
+		called("glEnableVertexAttribArray");
+	}
+
+	@Override
+	public void glGenBuffers(int n, int[] buffers, int offset) {
+		mApi.glGenBuffers(n, buffers, offset);
+		called("glGenBuffers");
+	}
+
+	@Override
+	public void glGenTextures(int n, int[] textures, int offset) {
+		mApi.glGenTextures(n, textures, offset);
+		called("glGenTextures");
+	}
+
+	@Override
+	public void glGenerateMipmap(int target) {
+		mApi.glGenerateMipmap(target);
+		called("glGenerateMipmap");
+	}
+
+	@Override
+	public int glGetAttribLocation(int program, String name) {
+		int result = mApi.glGetAttribLocation(program, name);
+		called("glGetAttribLocation");
+		return result;
+	}
+
+	@Override
+	public int glGetError() {
+		// Not logged: checks read errors through the wrapped api
+		return mApi.glGetError();
+	}
+
+	@Override
+	public void glGetIntegerv(int pname, int[] params, int offset) {
+		mApi.glGetIntegerv(pname, params, offset);
+		called("glGetIntegerv");
+	}
+
+	@Override
+	public String glGetProgramInfoLog(int program) {
+		String result = mApi.glGetProgramInfoLog(program);
+		called("glGetProgramInfoLog");
+		return result;
+	}
+
+	@Override
+	public void glGetProgramiv(int program, int pname, int[] params,
+			int offset) {
+		mApi.glGetProgramiv(program, pname, params, offset);
+		called("glGetProgramiv");
+	}
+
+	@Override
+	public String glGetString(int name) {
+		String result = mApi.glGetString(name);
+		called("glGetString");
+		return result;
+	}
+
+	@Override
+	public int glGetUniformLocation(int program, String name) {
+		int result = mApi.glGetUniformLocation(program, name);
+		called("glGetUniformLocation");
+		return result;
+	}
+
+	@Override
+	public void glLinkProgram(int program) {
+		mApi.glLinkProgram(program);
+		called("glLinkProgram");
+	}
+
+	@Override
+	public void glShaderSource(int shader, String string) {
+		mApi.glShaderSource(shader, string);
+		called("glShaderSource");
+	}
+
+	@Override
+	public void glTexImage2D(int target, int level, int internalformat,
+			int width, int height, int border, int format, int type,
+			Buffer pixels) {
+		mApi.glTexImage2D(target, level, internalformat, width, height, border,
+				format, type, pixels);
+		called("glTexImage2D");
+	}
+
+	@Override
+	public void glTexParameteri(int target, int pname, int param) {
+		mApi.glTexParameteri(target, pname, param);
+		called("glTexParameteri");
+	}
+
+	@Override
+	public void glUniform1i(int location, int x) {
+		mApi.glUniform1i(location, x);
+		called("glUniform1i");
+	}
+
+	@Override
+	public void glUniform4fv(int location, int count, float[] v, int offset) {
+		mApi.glUniform4fv(location, count, v, offset);
+		called("glUniform4fv");
+	}
+
+	@Override
+	public void glUniformMatrix4fv(int location, int count, boolean transpose,
+			float[] value, int offset) {
+		mApi.glUniformMatrix4fv(location, count, transpose, value, offset);
+		called("glUniformMatrix4fv");
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		mApi.glUseProgram(program);
+		called("glUseProgram");
+	}
+
+	@Override
+	public void glVertexAttribPointer(int indx, int size, int type,
+			boolean normalized, int stride, int offset) {
+		mApi.glVertexAttribPointer(indx, size, type, normalized, stride,
+				offset);
+		called("glVertexAttribPointer");
+	}
+
+	@Override
+	public void glViewport(int x, int y, int width, int height) {
+		mApi.glViewport(x, y, width, height);
+		called("glViewport");
+	}
+
+	// OpenGL ES 3.0
+
+	@Override
+	public void glBeginQuery(int target, int id) {
+		mApi.glBeginQuery(target, id);
+		called("glBeginQuery");
+	}
+
+	@Override
+	public void glEndQuery(int target) {
+		mApi.glEndQuery(target);
+		called("glEndQuery");
+	}
+
+	@Override
+	public void glGenQueries(int n, int[] ids, int offset) {
+		mApi.glGenQueries(n, ids, offset);
+		called("glGenQueries");
+	}
+
+	@Override
+	public void glGetProgramBinary(int program, int bufSize, int[] length,
+			int lengthOffset, int[] binaryFormat, int binaryFormatOffset,
+			Buffer binary) {
+		mApi.glGetProgramBinary(program, bufSize, length, lengthOffset,
+				binaryFormat, binaryFormatOffset, binary);
+		called("glGetProgramBinary");
+	}
+
+	@Override
+	public void glGetQueryObjectuiv(int id, int pname, int[] params,
+			int offset) {
+		mApi.glGetQueryObjectuiv(id, pname, params, offset);
+		called("glGetQueryObjectuiv");
+	}
+
+	@Override
+	public void glProgramBinary(int program, int binaryFormat, Buffer binary,
+			int length) {
+		mApi.glProgramBinary(program, binaryFormat, binary, length);
+		called("glProgramBinary");
+	}
+
+	@Override
+	public void glProgramParameteri(int program, int pname, int value) {
+		mApi.glProgramParameteri(program, pname, value);
+		called("glProgramParameteri");
+	}
+
+	// android.opengl.GLUtils
+
+	@Override
+	public void texImage2D(int target, int level, Bitmap bitmap, int border) {
+		mApi.texImage2D(target, level, bitmap, border);
+		called("texImage2D");
+	}
+}
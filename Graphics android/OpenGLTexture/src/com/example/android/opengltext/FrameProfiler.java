@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+/**
+ * Measures the CPU time of each phase of a frame and, where the context
+ * supports EXT_disjoint_timer_query, the GPU time of the whole frame, into
+ * {@link LatencyHistogram}s.
+ *
+ * <p>
+ * Recording costs one System.nanoTime() per phase and a few atomic
+ * increments per frame, without allocation, so the profiler can stay on in
+ * release builds. GPU results are read back {@link #QUERY_COUNT} frames
+ * later so that the CPU never waits for the GPU.
+ * </p>
+ *
+ * <p>
+ * The recording methods must be called on the GL thread; the results can be
+ * read from any thread.
+ * </p>
+ */
+public class FrameProfiler {
+
+	private static final String TAG = "FrameProfiler";
+
+	// Phases of a frame, in order
+	public static final int PHASE_INPUT = 0;
+	public static final int PHASE_UPDATE = 1;
+	public static final int PHASE_CULL = 2;
+	public static final int PHASE_SUBMIT = 3;
+	private static final String[] PHASE_NAMES = { "input", "update", "cull",
+			"submit" };
+
+	// EXT_disjoint_timer_query
+	static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+	static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+	// Frames a GPU timing may be in flight
+	static final int QUERY_COUNT = 4;
+
+	private final long mFrameBudgetNanos;
+	private final LatencyHistogram[] mPhases = new LatencyHistogram[4];
+	private final LatencyHistogram mFrame = new LatencyHistogram();
+	private final LatencyHistogram mGpu = new LatencyHistogram();
+
+	private long mFrameStart;
+	private long mPhaseStart;
+	private int mPhase = -1;
+
+	// GPU timer queries, used in turn
+	private boolean mGpuTimerSupported;
+	private final int[] mQueries = new int[QUERY_COUNT];
+	private final boolean[] mQueryIssued = new boolean[QUERY_COUNT];
+	private int mQueryIndex;
+	private boolean mQueryActive;
+	private final int[] mResult = new int[1];
+
+	/**
+	 * @param frameBudgetNanos
+	 *            - Frame time above which a frame counts as jank, typically
+	 *            the refresh interval of the display.
+	 */
+	public FrameProfiler(long frameBudgetNanos) {
+		mFrameBudgetNanos = frameBudgetNanos;
+		for (int i = 0; i < mPhases.length; i++) {
+			mPhases[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Sets up the GPU timer queries if the current context supports them.
+	 * Must be called on the GL thread after each context creation.
+	 *
+	 * @return whether GPU times will be measured.
+	 */
+	public boolean initGpuTimer() {
+		GLApi gl = GLBackend.get();
+		String version = gl.glGetString(GLES20.GL_VERSION);
+		String extensions = gl.glGetString(GLES20.GL_EXTENSIONS);
+		// The extension defines its entry points for ES 2.0 too, but only
+		// those of ES 3.0 have Java bindings
+		mGpuTimerSupported = version != null
+				&& version.startsWith("OpenGL ES 3") && extensions != null
+				&& extensions.contains("GL_EXT_disjoint_timer_query");
+		for (int i = 0; i < QUERY_COUNT; i++) {
+			mQueryIssued[i] = false;
+		}
+		mQueryActive = false;
+		if (mGpuTimerSupported) {
+			gl.glGenQueries(QUERY_COUNT, mQueries, 0);
+			// Clears a disjoint event from before
+			gl.glGetIntegerv(GL_GPU_DISJOINT_EXT, mResult, 0);
+		}
+		return mGpuTimerSupported;
+	}
+
+	public boolean isGpuTimerSupported() {
+		return mGpuTimerSupported;
+	}
+
+	public void beginFrame() {
+		if (mGpuTimerSupported) {
+			beginGpuFrame();
+		}
+		mFrameStart = System.nanoTime();
+		mPhaseStart = mFrameStart;
+		mPhase = -1;
+	}
+
+	/**
+	 * Ends the current phase, if any, and starts another.
+	 *
+	 * @param phase
+	 *            - One of the PHASE_ constants.
+	 */
+	public void beginPhase(int phase) {
+		long now = System.nanoTime();
+		if (mPhase >= 0) {
+			mPhases[mPhase].record(now - mPhaseStart);
+		}
+		mPhase = phase;
+		mPhaseStart = now;
+	}
+
+	public void endFrame() {
+		long now = System.nanoTime();
+		if (mPhase >= 0) {
+			mPhases[mPhase].record(now - mPhaseStart);
+			mPhase = -1;
+		}
+		mFrame.record(now - mFrameStart);
+		if (mQueryActive) {
+			GLBackend.get().glEndQuery(GL_TIME_ELAPSED_EXT);
+			mQueryIssued[mQueryIndex] = true;
+			mQueryActive = false;
+			mQueryIndex = (mQueryIndex + 1) % QUERY_COUNT;
+		}
+	}
+
+	/*
+	 * Collects the result of the query issued QUERY_COUNT frames ago and
+	 * reuses it for this frame, unless the GPU has not finished it yet.
+	 */
+	private void beginGpuFrame() {
+		GLApi gl = GLBackend.get();
+		int query = mQueries[mQueryIndex];
+		if (mQueryIssued[mQueryIndex]) {
+			gl.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT_AVAILABLE,
+					mResult, 0);
+			if (mResult[0] == 0) {
+				// Skip timing this frame rather than wait
+				return;
+			}
+			gl.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT, mResult,
+					0);
+			long nanos = mResult[0] & 0xFFFFFFFFL;
+			gl.glGetIntegerv(GL_GPU_DISJOINT_EXT, mResult, 0);
+			// A disjoint event (frequency change, context switch) makes the
+			// results in flight meaningless
+			if (mResult[0] == 0) {
+				mGpu.record(nanos);
+			}
+			mQueryIssued[mQueryIndex] = false;
+		}
+		gl.glBeginQuery(GL_TIME_ELAPSED_EXT, query);
+		mQueryActive = true;
+	}
+
+	public LatencyHistogram getPhase(int phase) {
+		return mPhases[phase];
+	}
+
+	/**
+	 * Returns the CPU time from {@link #beginFrame()} to {@link #endFrame()}.
+	 */
+	public LatencyHistogram getFrame() {
+		return mFrame;
+	}
+
+	/**
+	 * Returns the GPU time of the frames, empty without timer queries.
+	 */
+	public LatencyHistogram getGpu() {
+		return mGpu;
+	}
+
+	/**
+	 * Returns the number of frames whose CPU time exceeded the budget.
+	 */
+	public long getCpuJankFrames() {
+		return mFrame.getCountAbove(mFrameBudgetNanos);
+	}
+
+	/**
+	 * Returns the number of frames whose GPU time exceeded the budget.
+	 */
+	public long getGpuJankFrames() {
+		return mGpu.getCountAbove(mFrameBudgetNanos);
+	}
+
+	public void reset() {
+		for (int i = 0; i < mPhases.length; i++) {
+			mPhases[i].reset();
+		}
+		mFrame.reset();
+		mGpu.reset();
+	}
+
+	/**
+	 * Writes one line per histogram.
+	 */
+	public void dump(PrintWriter out) {
+		out.printf("frame  %s jank=%d%n", mFrame, getCpuJankFrames());
+		for (int i = 0; i < mPhases.length; i++) {
+			out.printf("  %-6s %s%n", PHASE_NAMES[i], mPhases[i]);
+		}
+		if (mGpuTimerSupported) {
+			out.printf("gpu    %s jank=%d%n", mGpu, getGpuJankFrames());
+		} else {
+			out.println("gpu    (no EXT_disjoint_timer_query)");
+		}
+	}
+
+	/**
+	 * Writes the histograms to logcat.
+	 */
+	public void log() {
+		Log.i(TAG, String.format("frame  %s jank=%d", mFrame,
+				getCpuJankFrames()));
+		for (int i = 0; i < mPhases.length; i++) {
+			Log.i(TAG, String.format("  %-6s %s", PHASE_NAMES[i], mPhases[i]));
+		}
+		if (mGpuTimerSupported) {
+			Log.i(TAG, String.format("gpu    %s jank=%d", mGpu,
+					getGpuJankFrames()));
+		}
+	}
+
+	/**
+	 * Writes the histograms to a text file, replacing it.
+	 */
+	public void writeTo(File file) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		try {
+			dump(out);
+		} finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			throw new IOException("FrameProfiler: cannot write " + file);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+/**
+ * The six planes of a view frustum, extracted from a View Projection matrix,
+ * for rejecting objects off screen before any GL call.
+ *
+ * <p>
+ * The tests are conservative: a box or sphere reported outside is certainly
+ * invisible, while one near a corner of the frustum may be reported
+ * intersecting although it is not.
+ * </p>
+ */
+public class Frustum {
+
+	public static final int OUTSIDE = 0;
+	public static final int INTERSECTING = 1;
+	public static final int INSIDE = 2;
+
+	// Left, right, bottom, top, near and far planes: a, b, c, d each, with
+	// a * x + b * y + c * z + d >= 0 inside and (a, b, c) of unit length
+	private final float[] mPlanes = new float[24];
+
+	/**
+	 * Extracts the planes from a View Projection matrix (projection x view,
+	 * column-major as in {@link MatrixMath}). Objects are then tested in
+	 * world space.
+	 */
+	public void set(float[] vpMatrix, int offset) {
+		float[] m = vpMatrix;
+		int o = offset;
+		for (int i = 0; i < 3; i++) {
+			// Rows 0 to 2 of the matrix, added to and subtracted from row 3:
+			// -w <= x, y, z <= w in clip space
+			for (int sign = 0; sign < 2; sign++) {
+				float s = sign == 0 ? 1.0f : -1.0f;
+				int p = (i * 2 + sign) * 4;
+				float a = m[o + 3] + s * m[o + i];
+				float b = m[o + 7] + s * m[o + 4 + i];
+				float c = m[o + 11] + s * m[o + 8 + i];
+				float d = m[o + 15] + s * m[o + 12 + i];
+				float rl = 1.0f / MatrixMath.length(a, b, c);
+				mPlanes[p] = a * rl;
+				mPlanes[p + 1] = b * rl;
+				mPlanes[p + 2] = c * rl;
+				mPlanes[p + 3] = d * rl;
+			}
+		}
+	}
+
+	/**
+	 * Tests an axis-aligned box {minX, minY, minZ, maxX, maxY, maxZ}.
+	 *
+	 * @return {@link #OUTSIDE}, {@link #INTERSECTING} or {@link #INSIDE}.
+	 */
+	public int testBox(float[] bounds) {
+		int result = INSIDE;
+		for (int p = 0; p < 24; p += 4) {
+			float a = mPlanes[p];
+			float b = mPlanes[p + 1];
+			float c = mPlanes[p + 2];
+			float d = mPlanes[p + 3];
+			// Corners farthest along and against the plane normal
+			float far = a * (a >= 0 ? bounds[3] : bounds[0]) + b
+					* (b >= 0 ? bounds[4] : bounds[1]) + c
+					* (c >= 0 ? bounds[5] : bounds[2]) + d;
+			if (far < 0) {
+				return OUTSIDE;
+			}
+			float near = a * (a >= 0 ? bounds[0] : bounds[3]) + b
+					* (b >= 0 ? bounds[1] : bounds[4]) + c
+					* (c >= 0 ? bounds[2] : bounds[5]) + d;
+			if (near < 0) {
+				result = INTERSECTING;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Tests a sphere {centerX, centerY, centerZ, radius}.
+	 *
+	 * @return {@link #OUTSIDE}, {@link #INTERSECTING} or {@link #INSIDE}.
+	 */
+	public int testSphere(float[] sphere) {
+		int result = INSIDE;
+		float x = sphere[0];
+		float y = sphere[1];
+		float z = sphere[2];
+		float r = sphere[3];
+		for (int p = 0; p < 24; p += 4) {
+			float distance = mPlanes[p] * x + mPlanes[p + 1] * y
+					+ mPlanes[p + 2] * z + mPlanes[p + 3];
+			if (distance < -r) {
+				return OUTSIDE;
+			}
+			if (distance < r) {
+				result = INTERSECTING;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Tests a bounding sphere first, which is cheaper, then the box when the
+	 * sphere is neither fully outside nor fully inside.
+	 */
+	public int test(float[] sphere, float[] bounds) {
+		int result = testSphere(sphere);
+		if (result == INTERSECTING) {
+			result = testBox(bounds);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the axis-aligned box of count points of coordinates x, y, z
+	 * stored stride floats apart, such as the positions of a vertex array.
+	 */
+	public static float[] computeBounds(float[] coords, int offset,
+			int stride, int count) {
+		float[] bounds = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE,
+				-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		for (int i = 0, at = offset; i < count; i++, at += stride) {
+			for (int k = 0; k < 3; k++) {
+				bounds[k] = Math.min(bounds[k], coords[at + k]);
+				bounds[3 + k] = Math.max(bounds[3 + k], coords[at + k]);
+			}
+		}
+		return bounds;
+	}
+
+	/**
+	 * Returns the sphere {centerX, centerY, centerZ, radius} enclosing count
+	 * points: centered on their box, with the distance to the farthest point
+	 * as radius (tighter than the half diagonal of the box).
+	 */
+	public static float[] computeSphere(float[] coords, int offset,
+			int stride, int count) {
+		float[] b = computeBounds(coords, offset, stride, count);
+		float cx = (b[0] + b[3]) * 0.5f;
+		float cy = (b[1] + b[4]) * 0.5f;
+		float cz = (b[2] + b[5]) * 0.5f;
+		float r2 = 0;
+		for (int i = 0, at = offset; i < count; i++, at += stride) {
+			float dx = coords[at] - cx;
+			float dy = coords[at + 1] - cy;
+			float dz = coords[at + 2] - cz;
+			r2 = Math.max(r2, dx * dx + dy * dy + dz * dz);
+		}
+		return new float[] { cx, cy, cz, (float) Math.sqrt(r2) };
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.nio.Buffer;
+
+import android.graphics.Bitmap;
+
+/**
+ * The OpenGL ES calls made by this app, with the signatures of
+ * android.opengl.GLES20 and GLES30. Rendering code calls the implementation
+ * returned by {@link GLBackend#get()}: {@link AndroidGLApi} on a device,
+ * {@link RecordingGLApi} to run and measure the same code on a JVM without
+ * any GPU.
+ *
+ * <p>
+ * Only plain Java types appear here, and the Bitmap of
+ * {@link #texImage2D(int, int, Bitmap, int)}, so that implementations do not
+ * otherwise depend on Android. Constants are still those of GLES20 and
+ * GLES30.
+ * </p>
+ */
+public interface GLApi {
+
+	// OpenGL ES 2.0
+
+	void glActiveTexture(int texture);
+
+	void glAttachShader(int program, int shader);
+
+	void glBindBuffer(int target, int buffer);
+
+	void glBindTexture(int target, int texture);
+
+	void glBufferData(int target, int size, Buffer data, int usage);
+
+	void glBufferSubData(int target, int offset, int size, Buffer data);
+
+	void glClear(int mask);
+
+	void glClearColor(float red, float green, float blue, float alpha);
+
+	void glColorMask(boolean red, boolean green, boolean blue, boolean alpha);
+
+	void glCompileShader(int shader);
+
+	void glCompressedTexImage2D(int target, int level, int internalformat,
+			int width, int height, int border, int imageSize, Buffer data);
+
+	int glCreateProgram();
+
+	int glCreateShader(int type);
+
+	void glDeleteBuffers(int n, int[] buffers, int offset);
+
+	void glDeleteProgram(int program);
+
+	void glDeleteShader(int shader);
+
+	void glDeleteTextures(int n, int[] textures, int offset);
+
+	void glDepthFunc(int func);
+
+	void glDepthMask(boolean flag);
+
+	void glDisable(int cap);
+
+	void glDisableVertexAttribArray(int index);
+
+	void glDrawArrays(int mode, int first, int count);
+
+	void glDrawElements(int mode, int count, int type, int offset);
+
+	void glEnable(int cap);
+
+	void glEnableVertexAttribArray(int index);
+
+	void glGenBuffers(int n, int[] buffers, int offset);
+
+	void glGenTextures(int n, int[] textures, int offset);
+
+	void glGenerateMipmap(int target);
+
+	int glGetAttribLocation(int program, String name);
+
+	int glGetError();
+
+	void glGetIntegerv(int pname, int[] params, int offset);
+
+	String glGetProgramInfoLog(int program);
+
+	void glGetProgramiv(int program, int pname, int[] params, int offset);
+
+	String glGetString(int name);
+
+	int glGetUniformLocation(int program, String name);
+
+	void glLinkProgram(int program);
+
+	void glShaderSource(int shader, String string);
+
+	void glTexImage2D(int target, int level, int internalformat, int width,
+			int height, int border, int format, int type, Buffer pixels);
+
+	void glTexParameteri(int target, int pname, int param);
+
+	void glUniform1i(int location, int x);
+
+	void glUniform4fv(int location, int count, float[] v, int offset);
+
+	void glUniformMatrix4fv(int location, int count, boolean transpose,
+			float[] value, int offset);
+
+	void glUseProgram(int program);
+
+	void glVertexAttribPointer(int indx, int size, int type,
+			boolean normalized, int stride, int offset);
+
+	void glViewport(int x, int y, int width, int height);
+
+	// OpenGL ES 3.0, only on contexts of that version
+
+	void glBeginQuery(int target, int id);
+
+	void glEndQuery(int target);
+
+	void glGenQueries(int n, int[] ids, int offset);
+
+	void glGetProgramBinary(int program, int bufSize, int[] length,
+			int lengthOffset, int[] binaryFormat, int binaryFormatOffset,
+			Buffer binary);
+
+	void glGetQueryObjectuiv(int id, int pname, int[] params, int offset);
+
+	void glProgramBinary(int program, int binaryFormat, Buffer binary,
+			int length);
+
+	void glProgramParameteri(int program, int pname, int value);
+
+	// android.opengl.GLUtils
+
+	/**
+	 * Uploads a bitmap like GLUtils.texImage2D(int, int, Bitmap, int), with
+	 * the format and type of the bitmap's config.
+	 */
+	void texImage2D(int target, int level, Bitmap bitmap, int border);
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+/**
+ * Holds the {@link GLApi} all rendering code calls, {@link AndroidGLApi}
+ * unless replaced, for example by a {@link RecordingGLApi} in a test on the
+ * JVM.
+ *
+ * <p>
+ * Like the OpenGL context itself, the backend is global to the GL thread:
+ * replace it before creating any GL object, not while rendering.
+ * </p>
+ */
+public class GLBackend {
+
+	private static GLApi sApi = new AndroidGLApi();
+
+	private GLBackend() {
+	}
+
+	public static GLApi get() {
+		return sApi;
+	}
+
+	/**
+	 * Replaces the backend, returning the previous one.
+	 */
+	public static GLApi set(GLApi api) {
+		if (api == null) {
+			throw new IllegalArgumentException("GLBackend: null api");
+		}
+		GLApi previous = sApi;
+		sApi = api;
+		return previous;
+	}
+}
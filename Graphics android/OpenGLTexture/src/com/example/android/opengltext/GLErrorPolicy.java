@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Decides when OpenGL errors are read. glGetError() may stall the CPU until
+ * the GPU catches up, so reading it after every call is for debugging only:
+ * <ul>
+ * <li>{@link Mode#STRICT} reads it after every GL call and throws a
+ * RuntimeException naming the call at the first error.</li>
+ * <li>{@link Mode#DEFERRED} reads it once per frame, logs and counts the
+ * errors with the last calls of the frame, then checks every call of the
+ * next frame to name the one that fails, if it fails again.</li>
+ * <li>{@link Mode#OFF} never reads it and costs nothing.</li>
+ * </ul>
+ *
+ * <p>
+ * Checks happen in an {@link ErrorCheckingGLApi} installed into
+ * {@link GLBackend} while the mode is not OFF; it also keeps the names of the
+ * last calls in a ring buffer. The mode can be changed from any thread and
+ * applies from the next {@link #beginFrame()}; the other methods must be
+ * called on the GL thread.
+ * </p>
+ */
+public class GLErrorPolicy {
+
+	private static final String TAG = "GLErrorPolicy";
+
+	public enum Mode {
+		OFF, DEFERRED, STRICT
+	}
+
+	// Errors read by one check at most: a lost context may report errors
+	// forever
+	private static final int MAX_ERRORS_PER_CHECK = 8;
+	// Calls listed with a deferred error
+	private static final int REPORTED_CALLS = 16;
+
+	private static volatile Mode sRequestedMode = Mode.DEFERRED;
+	private static Mode sMode = Mode.OFF;
+	private static ErrorCheckingGLApi sChecker;
+	// Set when the last frame had an error in DEFERRED mode
+	private static boolean sPinpoint;
+	private static boolean sFrameHadError;
+
+	private static volatile long sErrorCount;
+	private static volatile long sErrorFrames;
+	private static volatile int sLastError;
+	private static volatile String sLastErrorCall;
+
+	private GLErrorPolicy() {
+	}
+
+	/**
+	 * Selects when errors are read, from the next frame on.
+	 */
+	public static void setMode(Mode mode) {
+		if (mode == null) {
+			throw new IllegalArgumentException("GLErrorPolicy: null mode");
+		}
+		sRequestedMode = mode;
+	}
+
+	public static Mode getMode() {
+		return sRequestedMode;
+	}
+
+	/**
+	 * Applies the mode set last. Call from onSurfaceCreated(), to check the
+	 * creation of the GL objects too, and at the start of every frame.
+	 */
+	public static void beginFrame() {
+		Mode mode = sRequestedMode;
+		if (mode != sMode) {
+			if (mode == Mode.OFF) {
+				// Unless replaced since, by a test for instance
+				if (GLBackend.get() == sChecker) {
+					GLBackend.set(sChecker.getApi());
+				}
+				sChecker = null;
+			} else if (sChecker == null) {
+				sChecker = new ErrorCheckingGLApi(GLBackend.get());
+				GLBackend.set(sChecker);
+			}
+			sMode = mode;
+		}
+		if (sChecker != null) {
+			sChecker.setCheckEachCall(mode == Mode.STRICT || sPinpoint);
+		}
+	}
+
+	/**
+	 * Reads the errors of the frame in DEFERRED mode, and counts the frame if
+	 * it had any.
+	 */
+	public static void endFrame() {
+		if (sMode == Mode.DEFERRED) {
+			readFrameErrors();
+		}
+		if (sFrameHadError) {
+			sErrorFrames++;
+			sFrameHadError = false;
+		}
+	}
+
+	private static void readFrameErrors() {
+		GLApi gl = sChecker.getApi();
+		boolean checkedEachCall = sChecker.isCheckingEachCall();
+		sPinpoint = false;
+		int error = gl.glGetError();
+		if (error == GLES20.GL_NO_ERROR) {
+			return;
+		}
+		StringBuilder sb = new StringBuilder("glError");
+		for (int i = 0; i < MAX_ERRORS_PER_CHECK
+				&& error != GLES20.GL_NO_ERROR; i++) {
+			sb.append(" 0x").append(Integer.toHexString(error));
+			record(error, null);
+			error = gl.glGetError();
+		}
+		sb.append(" after one of ").append(
+				sChecker.getRecentCalls(REPORTED_CALLS));
+		if (!checkedEachCall) {
+			// Errors often repeat every frame
+			sb.append("; checking every call of the next frame");
+			sPinpoint = true;
+		}
+		Log.e(TAG, sb.toString());
+	}
+
+	/**
+	 * Reads the errors of the last call, if the current mode checks calls
+	 * one by one.
+	 *
+	 * @param glOperation
+	 *            - Name of the OpenGL call to check.
+	 */
+	public static void check(String glOperation) {
+		if (sChecker != null && sChecker.isCheckingEachCall()) {
+			checkCall(sChecker.getApi(), glOperation);
+		}
+	}
+
+	/*
+	 * Called by the checker after each call when checking calls one by one.
+	 */
+	static void checkCall(GLApi gl, String glOperation) {
+		int error = gl.glGetError();
+		for (int i = 0; i < MAX_ERRORS_PER_CHECK
+				&& error != GLES20.GL_NO_ERROR; i++) {
+			record(error, glOperation);
+			Log.e(TAG, glOperation + ": glError " + error);
+			if (sMode == Mode.STRICT) {
+				throw new RuntimeException(glOperation + ": glError " + error);
+			}
+			error = gl.glGetError();
+		}
+	}
+
+	private static void record(int error, String glOperation) {
+		sErrorCount++;
+		sFrameHadError = true;
+		sLastError = error;
+		if (glOperation != null) {
+			sLastErrorCall = glOperation;
+		}
+	}
+
+	/**
+	 * Returns the number of errors read since the last reset.
+	 */
+	public static long getErrorCount() {
+		return sErrorCount;
+	}
+
+	/**
+	 * Returns the number of frames with at least one error.
+	 */
+	public static long getErrorFrames() {
+		return sErrorFrames;
+	}
+
+	/**
+	 * Returns the last error code read, or GL_NO_ERROR.
+	 */
+	public static int getLastError() {
+		return sLastError;
+	}
+
+	/**
+	 * Returns the name of the last call found to fail, or null.
+	 */
+	public static String getLastErrorCall() {
+		return sLastErrorCall;
+	}
+
+	public static void resetCounters() {
+		sErrorCount = 0;
+		sErrorFrames = 0;
+		sLastError = GLES20.GL_NO_ERROR;
+		sLastErrorCall = null;
+	}
+
+	/**
+	 * Returns the mode and the error counts, for logging.
+	 */
+	public static String countersToString() {
+		return "GL errors (" + sRequestedMode + "): " + sErrorCount + " in "
+				+ sErrorFrames + " frames, last 0x"
+				+ Integer.toHexString(sLastError) + " in " + sLastErrorCall;
+	}
+}
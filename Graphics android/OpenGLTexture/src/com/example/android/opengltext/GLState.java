@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import android.opengl.GLES20;
+
+/**
+ * Shadow copy of the OpenGL ES state used by the shapes. Every state change
+ * goes through this class, which forwards it to GLES20 only when the value
+ * differs from the current one. Uniform values are filtered per program by
+ * {@link ShaderProgram}.
+ *
+ * <p>
+ * The shadow state must match the real one, so code that uses this class must
+ * not change the same state with direct GLES20 calls, and {@link #reset()}
+ * must be called whenever a new EGL context is created.
+ * </p>
+ */
+public class GLState {
+
+	/**
+	 * Kinds of state changes, for the issued/filtered counters.
+	 */
+	public enum Call {
+		PROGRAM, TEXTURE_UNIT, TEXTURE, BUFFER, ATTRIB_ARRAY, ATTRIB_POINTER, UNIFORM, CAPABILITY, DEPTH_MASK, COLOR_MASK, DEPTH_FUNC
+	}
+
+	// Value of state that is not known (e.g. after a context change)
+	private static final int UNKNOWN = -1;
+
+	static final int MAX_TEXTURE_UNITS = 8;
+	// Attribute locations tracked; a context may have fewer (at least 8)
+	static final int MAX_VERTEX_ATTRIBS = 16;
+
+	// Capabilities tracked by enable()/disable()
+	private static final int[] CAPABILITIES = { GLES20.GL_DEPTH_TEST,
+			GLES20.GL_BLEND, GLES20.GL_CULL_FACE };
+
+	private static int sProgram;
+	private static int sActiveTexture;
+	private static final int[] sTextures = new int[MAX_TEXTURE_UNITS];
+	private static int sArrayBuffer;
+	private static int sElementArrayBuffer;
+	private static int sEnabledAttribs;
+	private static int sKnownAttribs;
+	private static final int[] sCapabilities = new int[CAPABILITIES.length];
+	private static int sDepthMask;
+	private static int sColorMask;
+	private static int sDepthFunc;
+
+	// Attribute pointers: buffer, size, type, normalized, stride, offset
+	private static final int[][] sPointers = new int[MAX_VERTEX_ATTRIBS][6];
+
+	private static final int[] sIssued = new int[Call.values().length];
+	private static final int[] sFiltered = new int[Call.values().length];
+
+	static {
+		reset();
+	}
+
+	/**
+	 * Forgets the shadow state; the next change of every state is issued.
+	 * Call this from onSurfaceCreated().
+	 */
+	public static void reset() {
+		sProgram = UNKNOWN;
+		sActiveTexture = UNKNOWN;
+		for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+			sTextures[i] = UNKNOWN;
+		}
+		sArrayBuffer = UNKNOWN;
+		sElementArrayBuffer = UNKNOWN;
+		sEnabledAttribs = 0;
+		sKnownAttribs = 0;
+		for (int i = 0; i < MAX_VERTEX_ATTRIBS; i++) {
+			sPointers[i][0] = UNKNOWN;
+		}
+		for (int i = 0; i < CAPABILITIES.length; i++) {
+			sCapabilities[i] = UNKNOWN;
+		}
+		sDepthMask = UNKNOWN;
+		sColorMask = UNKNOWN;
+		sDepthFunc = UNKNOWN;
+	}
+
+	public static void useProgram(int program) {
+		if (sProgram == program) {
+			filtered(Call.PROGRAM);
+			return;
+		}
+		sProgram = program;
+		GLBackend.get().glUseProgram(program);
+		issued(Call.PROGRAM);
+	}
+
+	/**
+	 * Returns the program in use, or -1 if unknown.
+	 */
+	public static int getProgram() {
+		return sProgram;
+	}
+
+	/**
+	 * Binds a GL_TEXTURE_2D texture to a texture unit.
+	 *
+	 * @param unit
+	 *            - Texture unit number (0 for GL_TEXTURE0).
+	 * @param texture
+	 *            - Texture object id.
+	 */
+	public static void bindTexture(int unit, int texture) {
+		if (sTextures[unit] == texture) {
+			filtered(Call.TEXTURE);
+			return;
+		}
+		activeTexture(unit);
+		sTextures[unit] = texture;
+		GLBackend.get().glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+		issued(Call.TEXTURE);
+	}
+
+	private static void activeTexture(int unit) {
+		if (sActiveTexture == unit) {
+			filtered(Call.TEXTURE_UNIT);
+			return;
+		}
+		sActiveTexture = unit;
+		GLBackend.get().glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+		issued(Call.TEXTURE_UNIT);
+	}
+
+	/**
+	 * Forgets a deleted texture so that a new texture reusing its id is bound
+	 * again.
+	 */
+	public static void textureDeleted(int texture) {
+		for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+			if (sTextures[i] == texture) {
+				sTextures[i] = UNKNOWN;
+			}
+		}
+	}
+
+	/**
+	 * Binds a buffer object to GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER.
+	 */
+	public static void bindBuffer(int target, int buffer) {
+		boolean array = target == GLES20.GL_ARRAY_BUFFER;
+		if ((array ? sArrayBuffer : sElementArrayBuffer) == buffer) {
+			filtered(Call.BUFFER);
+			return;
+		}
+		if (array) {
+			sArrayBuffer = buffer;
+		} else {
+			sElementArrayBuffer = buffer;
+		}
+		GLBackend.get().glBindBuffer(target, buffer);
+		issued(Call.BUFFER);
+	}
+
+	/**
+	 * Forgets a deleted buffer object (see {@link #textureDeleted(int)}).
+	 */
+	public static void bufferDeleted(int buffer) {
+		if (sArrayBuffer == buffer) {
+			sArrayBuffer = UNKNOWN;
+		}
+		if (sElementArrayBuffer == buffer) {
+			sElementArrayBuffer = UNKNOWN;
+		}
+		for (int i = 0; i < MAX_VERTEX_ATTRIBS; i++) {
+			if (sPointers[i][0] == buffer) {
+				sPointers[i][0] = UNKNOWN;
+			}
+		}
+	}
+
+	public static void enableVertexAttribArray(int index) {
+		setVertexAttribArray(index, true);
+	}
+
+	public static void disableVertexAttribArray(int index) {
+		setVertexAttribArray(index, false);
+	}
+
+	private static void setVertexAttribArray(int index, boolean enable) {
+		GLApi gl = GLBackend.get();
+		int bit = 1 << index;
+		if ((sKnownAttribs & bit) != 0
+				&& ((sEnabledAttribs & bit) != 0) == enable) {
+			filtered(Call.ATTRIB_ARRAY);
+			return;
+		}
+		sKnownAttribs |= bit;
+		if (enable) {
+			sEnabledAttribs |= bit;
+			gl.glEnableVertexAttribArray(index);
+		} else {
+			sEnabledAttribs &= ~bit;
+			gl.glDisableVertexAttribArray(index);
+		}
+		issued(Call.ATTRIB_ARRAY);
+	}
+
+	/**
+	 * Enables exactly the attribute arrays of the mask and disables the
+	 * others that are still enabled from a previous draw.
+	 *
+	 * <p>
+	 * Only arrays enabled through this class are disabled: a new context
+	 * starts with every array disabled, and an index that is not known is
+	 * left alone, since ES 2.0 only guarantees 8 attributes and a higher
+	 * index would raise GL_INVALID_VALUE.
+	 * </p>
+	 *
+	 * @param mask
+	 *            - Bit i set for every attribute location i to enable.
+	 */
+	public static void useVertexAttribArrays(int mask) {
+		for (int i = 0; i < MAX_VERTEX_ATTRIBS; i++) {
+			int bit = 1 << i;
+			if ((mask & bit) != 0) {
+				setVertexAttribArray(i, true);
+			} else if ((sEnabledAttribs & bit) != 0) {
+				setVertexAttribArray(i, false);
+			}
+		}
+	}
+
+	/**
+	 * Points an attribute into the buffer object bound to GL_ARRAY_BUFFER.
+	 */
+	public static void vertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, int offset) {
+		int[] p = sPointers[index];
+		int norm = normalized ? 1 : 0;
+		if (p[0] == sArrayBuffer && p[0] != UNKNOWN && p[1] == size
+				&& p[2] == type && p[3] == norm && p[4] == stride
+				&& p[5] == offset) {
+			filtered(Call.ATTRIB_POINTER);
+			return;
+		}
+		p[0] = sArrayBuffer;
+		p[1] = size;
+		p[2] = type;
+		p[3] = norm;
+		p[4] = stride;
+		p[5] = offset;
+		GLBackend.get().glVertexAttribPointer(index, size, type, normalized,
+				stride, offset);
+		issued(Call.ATTRIB_POINTER);
+	}
+
+	public static void enable(int capability) {
+		setCapability(capability, true);
+	}
+
+	public static void disable(int capability) {
+		setCapability(capability, false);
+	}
+
+	private static void setCapability(int capability, boolean enable) {
+		GLApi gl = GLBackend.get();
+		int i = 0;
+		while (i < CAPABILITIES.length && CAPABILITIES[i] != capability) {
+			i++;
+		}
+		int value = enable ? 1 : 0;
+		if (i < CAPABILITIES.length) {
+			if (sCapabilities[i] == value) {
+				filtered(Call.CAPABILITY);
+				return;
+			}
+			sCapabilities[i] = value;
+		}
+		if (enable) {
+			gl.glEnable(capability);
+		} else {
+			gl.glDisable(capability);
+		}
+		issued(Call.CAPABILITY);
+	}
+
+	public static void depthMask(boolean flag) {
+		int value = flag ? 1 : 0;
+		if (sDepthMask == value) {
+			filtered(Call.DEPTH_MASK);
+			return;
+		}
+		sDepthMask = value;
+		GLBackend.get().glDepthMask(flag);
+		issued(Call.DEPTH_MASK);
+	}
+
+	public static void colorMask(boolean red, boolean green, boolean blue,
+			boolean alpha) {
+		int value = (red ? 1 : 0) | (green ? 2 : 0) | (blue ? 4 : 0)
+				| (alpha ? 8 : 0);
+		if (sColorMask == value) {
+			filtered(Call.COLOR_MASK);
+			return;
+		}
+		sColorMask = value;
+		GLBackend.get().glColorMask(red, green, blue, alpha);
+		issued(Call.COLOR_MASK);
+	}
+
+	public static void depthFunc(int func) {
+		if (sDepthFunc == func) {
+			filtered(Call.DEPTH_FUNC);
+			return;
+		}
+		sDepthFunc = func;
+		GLBackend.get().glDepthFunc(func);
+		issued(Call.DEPTH_FUNC);
+	}
+
+	static void issued(Call call) {
+		sIssued[call.ordinal()]++;
+	}
+
+	static void filtered(Call call) {
+		sFiltered[call.ordinal()]++;
+	}
+
+	/**
+	 * Returns the number of calls of a kind forwarded to OpenGL.
+	 */
+	public static int getIssued(Call call) {
+		return sIssued[call.ordinal()];
+	}
+
+	/**
+	 * Returns the number of calls of a kind dropped because the state already
+	 * had the requested value.
+	 */
+	public static int getFiltered(Call call) {
+		return sFiltered[call.ordinal()];
+	}
+
+	public static int getIssuedTotal() {
+		return sum(sIssued);
+	}
+
+	public static int getFilteredTotal() {
+		return sum(sFiltered);
+	}
+
+	public static void resetCounters() {
+		for (int i = 0; i < sIssued.length; i++) {
+			sIssued[i] = 0;
+			sFiltered[i] = 0;
+		}
+	}
+
+	private static int sum(int[] values) {
+		int total = 0;
+		for (int v : values) {
+			total += v;
+		}
+		return total;
+	}
+
+	/**
+	 * Returns "issued/filtered" for every kind of call, for logging.
+	 */
+	public static String countersToString() {
+		StringBuilder sb = new StringBuilder();
+		for (Call call : Call.values()) {
+			if (sb.length() > 0) {
+				sb.append(' ');
+			}
+			sb.append(call.name()).append('=').append(sIssued[call.ordinal()])
+					.append('/').append(sFiltered[call.ordinal()]);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import android.opengl.GLES20;
+
+/**
+ * A compressed 2D texture with its mip levels, read from a KTX 1.1 file such
+ * as those written by the TextureCompressor tool (see tools/). Parsing can
+ * happen on any thread; {@link #upload()} must run on the GL thread.
+ */
+public class KtxTexture {
+
+	public static final int GL_ETC1_RGB8_OES = 0x8D64;
+	public static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274;
+	public static final int GL_COMPRESSED_RGBA8_ETC2_EAC = 0x9278;
+
+	private static final String ETC1_EXTENSION =
+			"GL_OES_compressed_ETC1_RGB8_texture";
+
+	private static final byte[] IDENTIFIER = { (byte) 0xAB, 'K', 'T', 'X',
+			' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n' };
+	private static final int HEADER_SIZE = 64;
+
+	private final int mInternalFormat;
+	private final int mWidth;
+	private final int mHeight;
+	// One direct buffer per mip level, largest first
+	private final ByteBuffer[] mLevels;
+	private final int mByteSize;
+
+	private KtxTexture(int internalFormat, int width, int height,
+			ByteBuffer[] levels, int byteSize) {
+		mInternalFormat = internalFormat;
+		mWidth = width;
+		mHeight = height;
+		mLevels = levels;
+		mByteSize = byteSize;
+	}
+
+	/**
+	 * Reads a whole KTX file.
+	 *
+	 * @throws IOException
+	 *             if the stream fails or does not hold a compressed 2D
+	 *             texture.
+	 */
+	public static KtxTexture read(InputStream in) throws IOException {
+		byte[] bytes = readFully(in);
+		ByteBuffer data = ByteBuffer.allocateDirect(bytes.length);
+		data.put(bytes).position(0);
+		return parse(data);
+	}
+
+	static KtxTexture parse(ByteBuffer data) throws IOException {
+		if (data.remaining() < HEADER_SIZE) {
+			throw new IOException("KTX: truncated header");
+		}
+		for (int i = 0; i < IDENTIFIER.length; i++) {
+			if (data.get(i) != IDENTIFIER[i]) {
+				throw new IOException("KTX: bad identifier");
+			}
+		}
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		if (data.getInt(12) != 0x04030201) {
+			data.order(ByteOrder.BIG_ENDIAN);
+		}
+		int glType = data.getInt(16);
+		int internalFormat = data.getInt(28);
+		int width = data.getInt(36);
+		int height = data.getInt(40);
+		int depth = data.getInt(44);
+		int arrayElements = data.getInt(48);
+		int faces = data.getInt(52);
+		int levelCount = Math.max(1, data.getInt(56));
+		int keyValueBytes = data.getInt(60);
+		if (glType != 0 || depth > 1 || arrayElements != 0 || faces != 1) {
+			throw new IOException("KTX: not a compressed 2D texture");
+		}
+
+		ByteBuffer[] levels = new ByteBuffer[levelCount];
+		int at = HEADER_SIZE + keyValueBytes;
+		int byteSize = 0;
+		for (int i = 0; i < levelCount; i++) {
+			if (at + 4 > data.limit()) {
+				throw new IOException("KTX: truncated level " + i);
+			}
+			int size = data.getInt(at);
+			at += 4;
+			if (size < 0 || at + size > data.limit()) {
+				throw new IOException("KTX: truncated level " + i);
+			}
+			data.position(at);
+			ByteBuffer level = data.slice();
+			level.limit(size);
+			levels[i] = level;
+			byteSize += size;
+			at += (size + 3) & ~3;
+		}
+		data.position(0);
+		return new KtxTexture(internalFormat, width, height, levels, byteSize);
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		byte[] buffer = new byte[Math.max(in.available(), 16384)];
+		int length = 0;
+		int n;
+		while ((n = in.read(buffer, length, buffer.length - length)) > 0) {
+			length += n;
+			if (length == buffer.length) {
+				byte[] bigger = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, bigger, 0, length);
+				buffer = bigger;
+			}
+		}
+		byte[] out = new byte[length];
+		System.arraycopy(buffer, 0, out, 0, length);
+		return out;
+	}
+
+	/**
+	 * Uploads every level into the texture bound to GL_TEXTURE_2D of the
+	 * active unit and sets its filters. ETC1 data is uploaded as ETC2 on an
+	 * ES 3.0 context without the ETC1 extension.
+	 */
+	public void upload() {
+		GLApi gl = GLBackend.get();
+		int format = getUploadFormat(mInternalFormat);
+		int width = mWidth;
+		int height = mHeight;
+		for (int i = 0; i < mLevels.length; i++) {
+			gl.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, i, format, width,
+					height, 0, mLevels[i].remaining(), mLevels[i]);
+			width = Math.max(1, width / 2);
+			height = Math.max(1, height / 2);
+		}
+		MyGLRenderer.checkGlError("glCompressedTexImage2D");
+		gl.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MIN_FILTER,
+				mLevels.length > 1 ? GLES20.GL_LINEAR_MIPMAP_LINEAR
+						: GLES20.GL_LINEAR);
+		gl.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+	}
+
+	/**
+	 * Returns whether the current context can sample the given compressed
+	 * format, uploaded by {@link #upload()}. Must be called on the GL thread.
+	 */
+	public static boolean isFormatSupported(int internalFormat) {
+		switch (internalFormat) {
+		case GL_ETC1_RGB8_OES:
+			return hasEtc1Extension() || isEs3();
+		case GL_COMPRESSED_RGB8_ETC2:
+		case GL_COMPRESSED_RGBA8_ETC2_EAC:
+			return isEs3();
+		default:
+			return false;
+		}
+	}
+
+	/*
+	 * Returns the format to give glCompressedTexImage2D for data of the given
+	 * format. ES 3.0 only accepts the ETC1 enum with the extension, but its
+	 * mandatory ETC2 RGB8 decoder reads ETC1 blocks, which are valid ETC2.
+	 */
+	static int getUploadFormat(int internalFormat) {
+		if (internalFormat == GL_ETC1_RGB8_OES && !hasEtc1Extension()
+				&& isEs3()) {
+			return GL_COMPRESSED_RGB8_ETC2;
+		}
+		return internalFormat;
+	}
+
+	private static boolean isEs3() {
+		String version = GLBackend.get().glGetString(GLES20.GL_VERSION);
+		return version != null && version.startsWith("OpenGL ES 3");
+	}
+
+	private static boolean hasEtc1Extension() {
+		String extensions = GLBackend.get().glGetString(GLES20.GL_EXTENSIONS);
+		return extensions != null && extensions.contains(ETC1_EXTENSION);
+	}
+
+	/**
+	 * Same as {@link #isFormatSupported(int)} given the support already
+	 * queried from the context; can be called on any thread.
+	 */
+	public static boolean isFormatSupportedBy(int internalFormat,
+			boolean etc1, boolean etc2) {
+		switch (internalFormat) {
+		case GL_ETC1_RGB8_OES:
+			return etc1;
+		case GL_COMPRESSED_RGB8_ETC2:
+		case GL_COMPRESSED_RGBA8_ETC2_EAC:
+			return etc2;
+		default:
+			return false;
+		}
+	}
+
+	public int getInternalFormat() {
+		return mInternalFormat;
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	public int getLevelCount() {
+		return mLevels.length;
+	}
+
+	/**
+	 * Returns the GPU memory taken by all levels.
+	 */
+	public int getByteSize() {
+		return mByteSize;
+	}
+}
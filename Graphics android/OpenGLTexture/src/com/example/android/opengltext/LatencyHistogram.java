@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds with a bounded relative
+ * error, in the manner of HdrHistogram: values below 2^SUB_BITS get a bucket
+ * each, and every higher power of two is split into 2^(SUB_BITS - 1)
+ * buckets, so a reported percentile is within about 3% of the recorded
+ * value. Values from 0 to about 18 minutes fit in 1152 buckets.
+ *
+ * <p>
+ * {@link #record(long)} never blocks nor allocates and may be called from
+ * any thread; reading while recording gives a consistent enough snapshot
+ * for monitoring.
+ * </p>
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 6;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int HALF_SUB_COUNT = SUB_COUNT / 2;
+	// Values are clamped to 2^MAX_BITS - 1
+	private static final int MAX_BITS = 40;
+	private static final int BUCKET_COUNT = SUB_COUNT + (MAX_BITS - SUB_BITS)
+			* HALF_SUB_COUNT;
+
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong mTotalCount = new AtomicLong();
+	private final AtomicLong mSum = new AtomicLong();
+	private final AtomicLong mMax = new AtomicLong();
+
+	/**
+	 * Records a duration; negative durations count as 0.
+	 */
+	public void record(long nanos) {
+		long value = clamp(nanos);
+		mCounts.incrementAndGet(bucketOf(value));
+		mTotalCount.incrementAndGet();
+		mSum.addAndGet(value);
+		long max = mMax.get();
+		while (value > max && !mMax.compareAndSet(max, value)) {
+			max = mMax.get();
+		}
+	}
+
+	private static long clamp(long nanos) {
+		return Math.max(0, Math.min(nanos, (1L << MAX_BITS) - 1));
+	}
+
+	static int bucketOf(long value) {
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		int shift = msb - SUB_BITS + 1;
+		// The SUB_BITS top bits, the first of which is always set
+		int top = (int) (value >>> shift);
+		return SUB_COUNT + (shift - 1) * HALF_SUB_COUNT + top - HALF_SUB_COUNT;
+	}
+
+	/*
+	 * Largest value falling in a bucket.
+	 */
+	static long highestValueOf(int bucket) {
+		if (bucket < SUB_COUNT) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_COUNT) / HALF_SUB_COUNT + 1;
+		long top = (bucket - SUB_COUNT) % HALF_SUB_COUNT + HALF_SUB_COUNT;
+		return ((top + 1) << shift) - 1;
+	}
+
+	public long getCount() {
+		return mTotalCount.get();
+	}
+
+	public long getMax() {
+		return mMax.get();
+	}
+
+	public long getMean() {
+		long count = mTotalCount.get();
+		return count == 0 ? 0 : mSum.get() / count;
+	}
+
+	/**
+	 * Returns the value under which the given percentage of the recorded
+	 * values fall, rounded up to the top of its bucket, or 0 if empty.
+	 *
+	 * @param percentile
+	 *            - From 0 to 100.
+	 */
+	public long getPercentile(double percentile) {
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			count += mCounts.get(i);
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += mCounts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), mMax.get());
+			}
+		}
+		return mMax.get();
+	}
+
+	/**
+	 * Returns the number of values above a threshold, ignoring those in the
+	 * bucket of the threshold itself.
+	 */
+	public long getCountAbove(long nanos) {
+		long count = 0;
+		for (int i = bucketOf(clamp(nanos)) + 1; i < BUCKET_COUNT; i++) {
+			count += mCounts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Forgets every value. Values recorded concurrently may be partly lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			mCounts.set(i, 0);
+		}
+		mTotalCount.set(0);
+		mSum.set(0);
+		mMax.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.2fms p50=%.2fms p95=%.2fms "
+				+ "p99=%.2fms max=%.2fms", getCount(), getMean() / 1e6,
+				getPercentile(50) / 1e6, getPercentile(95) / 1e6,
+				getPercentile(99) / 1e6, getMax() / 1e6);
+	}
+}
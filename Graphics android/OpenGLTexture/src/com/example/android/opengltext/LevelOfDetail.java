@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.util.ArrayList;
+
+/**
+ * Draws one of several versions of a shape, from full resolution (level 0)
+ * to coarser ones, picked by the projected size of the shape on screen.
+ * Below a last size the shape is not drawn at all (small-feature culling).
+ *
+ * <p>
+ * Level i is drawn while the diameter of the bounding sphere covers at
+ * least minPixels[i] pixels. To keep a shape whose size hovers around a
+ * threshold from switching every frame, it only moves to a coarser level
+ * once it is a fraction {@link #HYSTERESIS} below the threshold, and back
+ * once it is that fraction above.
+ * </p>
+ *
+ * <p>
+ * The levels are built offline with {@link #buildLevels}, and their
+ * thresholds derived from the simplification errors with
+ * {@link #computeMinPixels}. A node of a {@link SceneGraph} whose drawable
+ * is a LevelOfDetail is drawn at the level picked by
+ * {@link SceneGraph#queueVisible}. As the current level is kept here, every
+ * node needs its own LevelOfDetail; the level drawables can be shared.
+ * </p>
+ */
+public class LevelOfDetail implements SceneNode.Drawable {
+
+	// Relative size change past a threshold needed to switch levels
+	public static final float HYSTERESIS = 0.15f;
+	// Screen error allowed for a level, in pixels
+	public static final float MAX_PIXEL_ERROR = 1.0f;
+	// Size below which a shape is not drawn, in pixels
+	public static final float CULL_PIXELS = 2.0f;
+
+	private final SceneNode.Drawable[] mLevels;
+	private final int[] mTriangles;
+	private final float[] mMinPixels;
+	private final float mHysteresis;
+
+	// Level drawn, mLevels.length when culled, -1 before the first select
+	private int mLevel = -1;
+	private int mSwitches;
+
+	/**
+	 * @param levels
+	 *            - Drawables from the finest to the coarsest.
+	 * @param triangles
+	 *            - Triangle count of every level.
+	 * @param minPixels
+	 *            - Smallest projected diameter at which every level is
+	 *            drawn, decreasing. The last one is the culling size.
+	 */
+	public LevelOfDetail(SceneNode.Drawable[] levels, int[] triangles,
+			float[] minPixels) {
+		this(levels, triangles, minPixels, HYSTERESIS);
+	}
+
+	public LevelOfDetail(SceneNode.Drawable[] levels, int[] triangles,
+			float[] minPixels, float hysteresis) {
+		if (levels.length == 0 || triangles.length != levels.length
+				|| minPixels.length != levels.length) {
+			throw new IllegalArgumentException("LevelOfDetail: "
+					+ levels.length + " levels, " + triangles.length
+					+ " triangle counts, " + minPixels.length + " thresholds");
+		}
+		for (int i = 1; i < minPixels.length; i++) {
+			if (minPixels[i] > minPixels[i - 1]) {
+				throw new IllegalArgumentException(
+						"LevelOfDetail: thresholds must decrease");
+			}
+		}
+		mLevels = levels.clone();
+		mTriangles = triangles.clone();
+		mMinPixels = minPixels.clone();
+		mHysteresis = hysteresis;
+	}
+
+	/**
+	 * Simplifies a mesh into successively coarser levels, each with about
+	 * ratio times the triangles of the previous one. Stops early when the
+	 * simplifier's error bound no longer allows a reduction of a tenth.
+	 *
+	 * @param errors
+	 *            - Receives the error of every level relative to the mesh,
+	 *            in mesh units (0 for the mesh itself). At least maxLevels
+	 *            long.
+	 * @return - Returns the mesh followed by its simplified versions.
+	 */
+	public static MeshCompiler.Mesh[] buildLevels(MeshSimplifier simplifier,
+			MeshCompiler.Mesh mesh, float ratio, int maxLevels,
+			float[] errors) {
+		ArrayList<MeshCompiler.Mesh> levels = new ArrayList<MeshCompiler.Mesh>();
+		levels.add(mesh);
+		errors[0] = 0;
+		MeshCompiler.Mesh previous = mesh;
+		while (levels.size() < maxLevels) {
+			int triangles = previous.getIndexCount() / 3;
+			MeshCompiler.Mesh level = simplifier.simplify(previous,
+					(int) (triangles * ratio));
+			if (level.getIndexCount() / 3 > triangles * 0.9f) {
+				break;
+			}
+			// Errors add up along the chain of simplifications
+			errors[levels.size()] = errors[levels.size() - 1]
+					+ simplifier.getError();
+			levels.add(level);
+			previous = level;
+		}
+		return levels.toArray(new MeshCompiler.Mesh[levels.size()]);
+	}
+
+	/**
+	 * Derives the thresholds of levels from their errors: a level is drawn
+	 * once its error projects to at most maxPixelError pixels.
+	 *
+	 * @param errors
+	 *            - Error of every level, in mesh units, increasing.
+	 * @param radius
+	 *            - Radius of the mesh's bounding sphere, in mesh units.
+	 * @return - Returns the minPixels of the constructor.
+	 */
+	public static float[] computeMinPixels(float[] errors, int levels,
+			float radius, float maxPixelError, float cullPixels) {
+		float[] minPixels = new float[levels];
+		for (int i = 0; i < levels - 1; i++) {
+			// An error e shows as e / (2 radius) of the projected diameter
+			float next = errors[i + 1];
+			minPixels[i] = next > 0 ? maxPixelError * 2 * radius / next : 0;
+			minPixels[i] = Math.max(minPixels[i], cullPixels);
+		}
+		minPixels[levels - 1] = cullPixels;
+		for (int i = levels - 2; i >= 0; i--) {
+			minPixels[i] = Math.max(minPixels[i], minPixels[i + 1]);
+		}
+		return minPixels;
+	}
+
+	/**
+	 * Picks the level to draw for a projected size.
+	 *
+	 * @param pixels
+	 *            - Diameter of the bounding sphere on screen, in pixels.
+	 * @return - Returns the drawable of the level, or null if the shape is
+	 *         too small to be drawn.
+	 */
+	public SceneNode.Drawable select(float pixels) {
+		int count = mLevels.length;
+		int level = mLevel;
+		if (level < 0) {
+			level = 0;
+			while (level < count && pixels < mMinPixels[level]) {
+				level++;
+			}
+		} else {
+			while (level > 0 && pixels > mMinPixels[level - 1]
+					* (1 + mHysteresis)) {
+				level--;
+			}
+			while (level < count && pixels < mMinPixels[level]
+					* (1 - mHysteresis)) {
+				level++;
+			}
+			if (level != mLevel) {
+				mSwitches++;
+			}
+		}
+		mLevel = level;
+		return level < count ? mLevels[level] : null;
+	}
+
+	/**
+	 * Draws the level picked by the last {@link #select}, the finest one
+	 * before any, and nothing if the shape was culled.
+	 */
+	@Override
+	public void draw(float[] mvpMatrix) {
+		int level = Math.max(mLevel, 0);
+		if (level < mLevels.length) {
+			mLevels[level].draw(mvpMatrix);
+		}
+	}
+
+	/**
+	 * Returns the level picked by the last select, {@link #getLevelCount()}
+	 * if culled.
+	 */
+	public int getLevel() {
+		return Math.max(mLevel, 0);
+	}
+
+	public int getLevelCount() {
+		return mLevels.length;
+	}
+
+	/**
+	 * Returns the triangle count of a level, 0 for the culled level.
+	 */
+	public int getTriangles(int level) {
+		return level < mTriangles.length ? mTriangles[level] : 0;
+	}
+
+	/**
+	 * Returns the smallest projected diameter at which a level is drawn.
+	 */
+	public float getMinPixels(int level) {
+		return mMinPixels[level];
+	}
+
+	/**
+	 * Returns how many times select changed the level.
+	 */
+	public int getSwitches() {
+		return mSwitches;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("LevelOfDetail:");
+		for (int i = 0; i < mLevels.length; i++) {
+			sb.append(' ').append(mTriangles[i]).append(" tris >= ")
+					.append(mMinPixels[i]).append(" px,");
+		}
+		sb.append(" level ").append(getLevel());
+		return sb.toString();
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+/**
+ * A fixed number of 4x4 matrices stored as a structure of arrays: one float
+ * array per matrix element, in the column-major order of android.opengl.Matrix,
+ * so that element k of matrix i is <code>elements[k][i]</code>. Used with the
+ * batch methods of {@link MatrixMath}.
+ */
+public class MatrixArray {
+
+	/**
+	 * The 16 element arrays, each holding one element of every matrix.
+	 */
+	public final float[][] elements;
+
+	private final int mCapacity;
+
+	public MatrixArray(int capacity) {
+		mCapacity = capacity;
+		elements = new float[16][capacity];
+	}
+
+	public int getCapacity() {
+		return mCapacity;
+	}
+
+	/**
+	 * Copies a column-major matrix into matrix i.
+	 */
+	public void set(int i, float[] m, int offset) {
+		for (int k = 0; k < 16; k++) {
+			elements[k][i] = m[offset + k];
+		}
+	}
+
+	/**
+	 * Copies matrix i into a column-major matrix.
+	 */
+	public void get(int i, float[] m, int offset) {
+		for (int k = 0; k < 16; k++) {
+			m[offset + k] = elements[k][i];
+		}
+	}
+
+	/**
+	 * Copies count matrices starting at i into packed column-major matrices,
+	 * the layout of a uniform mat4 array.
+	 */
+	public void get(int i, int count, float[] m, int offset) {
+		for (int k = 0; k < 16; k++) {
+			float[] e = elements[k];
+			for (int j = 0, o = offset + k; j < count; j++, o += 16) {
+				m[o] = e[i + j];
+			}
+		}
+	}
+
+	public void setIdentity(int i) {
+		for (int k = 0; k < 16; k++) {
+			elements[k][i] = (k % 5 == 0) ? 1.0f : 0.0f;
+		}
+	}
+}
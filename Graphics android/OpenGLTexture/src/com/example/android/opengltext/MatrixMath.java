@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+/**
+ * Pure Java 4x4 matrix math with the semantics of android.opengl.Matrix:
+ * column-major matrices stored in float arrays at an offset, element (row,
+ * column) at <code>offset + column * 4 + row</code>.
+ *
+ * <p>
+ * Unlike android.opengl.Matrix, nothing here allocates, every method may be
+ * given the same array as input and output, and the batch methods transform
+ * many matrices in one call, either packed one after the other or stored as
+ * a {@link MatrixArray}.
+ * </p>
+ *
+ * <p>
+ * The class has no Android dependency, so the desktop tools can use and
+ * benchmark it.
+ * </p>
+ */
+public class MatrixMath {
+
+	private MatrixMath() {
+	}
+
+	public static void setIdentityM(float[] m, int offset) {
+		for (int i = 0; i < 16; i++) {
+			m[offset + i] = 0.0f;
+		}
+		m[offset] = 1.0f;
+		m[offset + 5] = 1.0f;
+		m[offset + 10] = 1.0f;
+		m[offset + 15] = 1.0f;
+	}
+
+	/**
+	 * result = lhs x rhs. result may be lhs or rhs.
+	 */
+	public static void multiplyMM(float[] result, int resultOffset,
+			float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+		int l = lhsOffset;
+		float l00 = lhs[l], l10 = lhs[l + 1], l20 = lhs[l + 2], l30 = lhs[l + 3];
+		float l01 = lhs[l + 4], l11 = lhs[l + 5], l21 = lhs[l + 6], l31 = lhs[l + 7];
+		float l02 = lhs[l + 8], l12 = lhs[l + 9], l22 = lhs[l + 10], l32 = lhs[l + 11];
+		float l03 = lhs[l + 12], l13 = lhs[l + 13], l23 = lhs[l + 14], l33 = lhs[l + 15];
+		for (int c = 0; c < 16; c += 4) {
+			float r0 = rhs[rhsOffset + c];
+			float r1 = rhs[rhsOffset + c + 1];
+			float r2 = rhs[rhsOffset + c + 2];
+			float r3 = rhs[rhsOffset + c + 3];
+			int o = resultOffset + c;
+			result[o] = l00 * r0 + l01 * r1 + l02 * r2 + l03 * r3;
+			result[o + 1] = l10 * r0 + l11 * r1 + l12 * r2 + l13 * r3;
+			result[o + 2] = l20 * r0 + l21 * r1 + l22 * r2 + l23 * r3;
+			result[o + 3] = l30 * r0 + l31 * r1 + l32 * r2 + l33 * r3;
+		}
+	}
+
+	/**
+	 * resultVec = lhsMat x rhsVec for a 4-component vector. resultVec may be
+	 * rhsVec.
+	 */
+	public static void multiplyMV(float[] resultVec, int resultOffset,
+			float[] lhsMat, int lhsOffset, float[] rhsVec, int rhsOffset) {
+		float x = rhsVec[rhsOffset];
+		float y = rhsVec[rhsOffset + 1];
+		float z = rhsVec[rhsOffset + 2];
+		float w = rhsVec[rhsOffset + 3];
+		int l = lhsOffset;
+		for (int r = 0; r < 4; r++) {
+			resultVec[resultOffset + r] = lhsMat[l + r] * x + lhsMat[l + 4 + r]
+					* y + lhsMat[l + 8 + r] * z + lhsMat[l + 12 + r] * w;
+		}
+	}
+
+	/**
+	 * Multiplies count matrices stored one after the other by the same
+	 * left-hand matrix: result[i] = lhs x rhs[i]. result may be rhs.
+	 */
+	public static void multiplyMMBatch(float[] result, int resultOffset,
+			float[] lhs, int lhsOffset, float[] rhs, int rhsOffset, int count) {
+		int l = lhsOffset;
+		float l00 = lhs[l], l10 = lhs[l + 1], l20 = lhs[l + 2], l30 = lhs[l + 3];
+		float l01 = lhs[l + 4], l11 = lhs[l + 5], l21 = lhs[l + 6], l31 = lhs[l + 7];
+		float l02 = lhs[l + 8], l12 = lhs[l + 9], l22 = lhs[l + 10], l32 = lhs[l + 11];
+		float l03 = lhs[l + 12], l13 = lhs[l + 13], l23 = lhs[l + 14], l33 = lhs[l + 15];
+		int end = rhsOffset + count * 16;
+		for (int s = rhsOffset, o = resultOffset; s < end; s += 4, o += 4) {
+			float r0 = rhs[s];
+			float r1 = rhs[s + 1];
+			float r2 = rhs[s + 2];
+			float r3 = rhs[s + 3];
+			result[o] = l00 * r0 + l01 * r1 + l02 * r2 + l03 * r3;
+			result[o + 1] = l10 * r0 + l11 * r1 + l12 * r2 + l13 * r3;
+			result[o + 2] = l20 * r0 + l21 * r1 + l22 * r2 + l23 * r3;
+			result[o + 3] = l30 * r0 + l31 * r1 + l32 * r2 + l33 * r3;
+		}
+	}
+
+	/**
+	 * Multiplies the matrices [start, start + count) of src by the same
+	 * left-hand matrix into dst: dst[i] = lhs x src[i]. dst may be src.
+	 *
+	 * <p>
+	 * When dst is not src, each output element is computed for all matrices
+	 * in its own loop, four contiguous inputs to one contiguous output, which
+	 * the JIT vectorizes. In place, the four elements of a result column must
+	 * be computed together before they overwrite their inputs, and that loop
+	 * does not vectorize.
+	 * </p>
+	 */
+	public static void multiplyMMBatch(MatrixArray dst, float[] lhs,
+			int lhsOffset, MatrixArray src, int start, int count) {
+		if (dst == src) {
+			multiplyMMBatchInPlace(dst, lhs, lhsOffset, start, count);
+			return;
+		}
+		float[][] s = src.elements;
+		float[][] d = dst.elements;
+		int end = start + count;
+		for (int c = 0; c < 16; c += 4) {
+			float[] s0 = s[c], s1 = s[c + 1], s2 = s[c + 2], s3 = s[c + 3];
+			for (int r = 0; r < 4; r++) {
+				int l = lhsOffset + r;
+				float l0 = lhs[l], l1 = lhs[l + 4];
+				float l2 = lhs[l + 8], l3 = lhs[l + 12];
+				float[] e = d[c + r];
+				for (int i = start; i < end; i++) {
+					e[i] = l0 * s0[i] + l1 * s1[i] + l2 * s2[i] + l3 * s3[i];
+				}
+			}
+		}
+	}
+
+	private static void multiplyMMBatchInPlace(MatrixArray m, float[] lhs,
+			int lhsOffset, int start, int count) {
+		float[][] e = m.elements;
+		int end = start + count;
+		int l = lhsOffset;
+		float l00 = lhs[l], l10 = lhs[l + 1], l20 = lhs[l + 2], l30 = lhs[l + 3];
+		float l01 = lhs[l + 4], l11 = lhs[l + 5], l21 = lhs[l + 6], l31 = lhs[l + 7];
+		float l02 = lhs[l + 8], l12 = lhs[l + 9], l22 = lhs[l + 10], l32 = lhs[l + 11];
+		float l03 = lhs[l + 12], l13 = lhs[l + 13], l23 = lhs[l + 14], l33 = lhs[l + 15];
+		for (int c = 0; c < 16; c += 4) {
+			float[] e0 = e[c], e1 = e[c + 1], e2 = e[c + 2], e3 = e[c + 3];
+			for (int i = start; i < end; i++) {
+				float r0 = e0[i], r1 = e1[i], r2 = e2[i], r3 = e3[i];
+				e0[i] = l00 * r0 + l01 * r1 + l02 * r2 + l03 * r3;
+				e1[i] = l10 * r0 + l11 * r1 + l12 * r2 + l13 * r3;
+				e2[i] = l20 * r0 + l21 * r1 + l22 * r2 + l23 * r3;
+				e3[i] = l30 * r0 + l31 * r1 + l32 * r2 + l33 * r3;
+			}
+		}
+	}
+
+	/**
+	 * Translates m in place by (x, y, z), like Matrix.translateM(m, offset,
+	 * x, y, z).
+	 */
+	public static void translateM(float[] m, int offset, float x, float y,
+			float z) {
+		for (int i = 0; i < 4; i++) {
+			int mi = offset + i;
+			m[12 + mi] += m[mi] * x + m[4 + mi] * y + m[8 + mi] * z;
+		}
+	}
+
+	/**
+	 * Scales m in place, like Matrix.scaleM(m, offset, x, y, z).
+	 */
+	public static void scaleM(float[] m, int offset, float x, float y, float z) {
+		for (int i = 0; i < 4; i++) {
+			int mi = offset + i;
+			m[mi] *= x;
+			m[4 + mi] *= y;
+			m[8 + mi] *= z;
+		}
+	}
+
+	/**
+	 * Rotates m in place by a degrees around the axis (x, y, z), like
+	 * Matrix.rotateM(m, offset, a, x, y, z) but without its temporary
+	 * matrices.
+	 */
+	public static void rotateM(float[] m, int offset, float a, float x,
+			float y, float z) {
+		float r00, r10, r20, r01, r11, r21, r02, r12, r22;
+		a *= (float) (Math.PI / 180.0f);
+		float s = (float) Math.sin(a);
+		float c = (float) Math.cos(a);
+		// Same special cases as Matrix.setRotateM, for identical results
+		if (1.0f == x && 0.0f == y && 0.0f == z) {
+			r00 = 1; r01 = 0; r02 = 0;
+			r10 = 0; r11 = c; r12 = -s;
+			r20 = 0; r21 = s; r22 = c;
+		} else if (0.0f == x && 1.0f == y && 0.0f == z) {
+			r00 = c; r01 = 0; r02 = s;
+			r10 = 0; r11 = 1; r12 = 0;
+			r20 = -s; r21 = 0; r22 = c;
+		} else if (0.0f == x && 0.0f == y && 1.0f == z) {
+			r00 = c; r01 = -s; r02 = 0;
+			r10 = s; r11 = c; r12 = 0;
+			r20 = 0; r21 = 0; r22 = 1;
+		} else {
+			float len = length(x, y, z);
+			if (1.0f != len) {
+				float recipLen = 1.0f / len;
+				x *= recipLen;
+				y *= recipLen;
+				z *= recipLen;
+			}
+			float nc = 1.0f - c;
+			float xy = x * y;
+			float yz = y * z;
+			float zx = z * x;
+			float xs = x * s;
+			float ys = y * s;
+			float zs = z * s;
+			r00 = x * x * nc + c; r01 = xy * nc - zs; r02 = zx * nc + ys;
+			r10 = xy * nc + zs; r11 = y * y * nc + c; r12 = yz * nc - xs;
+			r20 = zx * nc - ys; r21 = yz * nc + xs; r22 = z * z * nc + c;
+		}
+		// m = m x R; the fourth column is unchanged
+		for (int i = 0; i < 4; i++) {
+			int mi = offset + i;
+			float m0 = m[mi];
+			float m1 = m[mi + 4];
+			float m2 = m[mi + 8];
+			m[mi] = m0 * r00 + m1 * r10 + m2 * r20;
+			m[mi + 4] = m0 * r01 + m1 * r11 + m2 * r21;
+			m[mi + 8] = m0 * r02 + m1 * r12 + m2 * r22;
+		}
+	}
+
+	/**
+	 * Defines a viewing transformation, like Matrix.setLookAtM().
+	 */
+	public static void setLookAtM(float[] rm, int rmOffset, float eyeX,
+			float eyeY, float eyeZ, float centerX, float centerY,
+			float centerZ, float upX, float upY, float upZ) {
+		float fx = centerX - eyeX;
+		float fy = centerY - eyeY;
+		float fz = centerZ - eyeZ;
+
+		// Normalize f
+		float rlf = 1.0f / length(fx, fy, fz);
+		fx *= rlf;
+		fy *= rlf;
+		fz *= rlf;
+
+		// s = f x up
+		float sx = fy * upZ - fz * upY;
+		float sy = fz * upX - fx * upZ;
+		float sz = fx * upY - fy * upX;
+
+		// Normalize s
+		float rls = 1.0f / length(sx, sy, sz);
+		sx *= rls;
+		sy *= rls;
+		sz *= rls;
+
+		// u = s x f
+		float ux = sy * fz - sz * fy;
+		float uy = sz * fx - sx * fz;
+		float uz = sx * fy - sy * fx;
+
+		rm[rmOffset] = sx;
+		rm[rmOffset + 1] = ux;
+		rm[rmOffset + 2] = -fx;
+		rm[rmOffset + 3] = 0.0f;
+
+		rm[rmOffset + 4] = sy;
+		rm[rmOffset + 5] = uy;
+		rm[rmOffset + 6] = -fy;
+		rm[rmOffset + 7] = 0.0f;
+
+		rm[rmOffset + 8] = sz;
+		rm[rmOffset + 9] = uz;
+		rm[rmOffset + 10] = -fz;
+		rm[rmOffset + 11] = 0.0f;
+
+		rm[rmOffset + 12] = 0.0f;
+		rm[rmOffset + 13] = 0.0f;
+		rm[rmOffset + 14] = 0.0f;
+		rm[rmOffset + 15] = 1.0f;
+
+		translateM(rm, rmOffset, -eyeX, -eyeY, -eyeZ);
+	}
+
+	/**
+	 * Defines a projection matrix in terms of six clip planes, like
+	 * Matrix.frustumM().
+	 *
+	 * @throws IllegalArgumentException
+	 *             for an empty or inverted frustum.
+	 */
+	public static void frustumM(float[] m, int offset, float left,
+			float right, float bottom, float top, float near, float far) {
+		if (left == right) {
+			throw new IllegalArgumentException("left == right");
+		}
+		if (top == bottom) {
+			throw new IllegalArgumentException("top == bottom");
+		}
+		if (near == far) {
+			throw new IllegalArgumentException("near == far");
+		}
+		if (near <= 0.0f) {
+			throw new IllegalArgumentException("near <= 0.0f");
+		}
+		if (far <= 0.0f) {
+			throw new IllegalArgumentException("far <= 0.0f");
+		}
+		final float r_width = 1.0f / (right - left);
+		final float r_height = 1.0f / (top - bottom);
+		final float r_depth = 1.0f / (near - far);
+		final float x = 2.0f * (near * r_width);
+		final float y = 2.0f * (near * r_height);
+		final float A = (right + left) * r_width;
+		final float B = (top + bottom) * r_height;
+		final float C = (far + near) * r_depth;
+		final float D = 2.0f * (far * near * r_depth);
+		for (int i = 0; i < 16; i++) {
+			m[offset + i] = 0.0f;
+		}
+		m[offset] = x;
+		m[offset + 5] = y;
+		m[offset + 8] = A;
+		m[offset + 9] = B;
+		m[offset + 10] = C;
+		m[offset + 14] = D;
+		m[offset + 11] = -1.0f;
+	}
+
+	/**
+	 * Defines a projection matrix from a vertical field of view, like
+	 * Matrix.perspectiveM().
+	 */
+	public static void perspectiveM(float[] m, int offset, float fovy,
+			float aspect, float zNear, float zFar) {
+		float f = 1.0f / (float) Math.tan(fovy * (Math.PI / 360.0));
+		float rangeReciprocal = 1.0f / (zNear - zFar);
+		for (int i = 0; i < 16; i++) {
+			m[offset + i] = 0.0f;
+		}
+		m[offset] = f / aspect;
+		m[offset + 5] = f;
+		m[offset + 10] = (zFar + zNear) * rangeReciprocal;
+		m[offset + 11] = -1.0f;
+		m[offset + 14] = 2.0f * zFar * zNear * rangeReciprocal;
+	}
+
+	public static float length(float x, float y, float z) {
+		return (float) Math.sqrt(x * x + y * y + z * z);
+	}
+}
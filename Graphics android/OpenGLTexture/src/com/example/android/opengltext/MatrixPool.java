@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+/**
+ * Scratch 4x4 matrices for one frame. {@link #obtain()} hands out the next
+ * preallocated matrix and {@link #reset()}, at the start of every frame,
+ * makes them all available again, so the frame loop needs no
+ * <code>new float[16]</code>. The pool only grows (and allocates) when a
+ * frame needs more matrices than any frame before it.
+ *
+ * <p>
+ * Matrices must not be kept across frames. Not thread safe: use one pool per
+ * thread.
+ * </p>
+ */
+public class MatrixPool {
+
+	private float[][] mMatrices;
+	private int mUsed;
+
+	public MatrixPool(int capacity) {
+		mMatrices = new float[Math.max(capacity, 1)][];
+		for (int i = 0; i < mMatrices.length; i++) {
+			mMatrices[i] = new float[16];
+		}
+	}
+
+	/**
+	 * Returns a matrix, with undefined contents, valid until the next
+	 * {@link #reset()}.
+	 */
+	public float[] obtain() {
+		if (mUsed == mMatrices.length) {
+			float[][] grown = new float[mMatrices.length * 2][];
+			System.arraycopy(mMatrices, 0, grown, 0, mMatrices.length);
+			for (int i = mMatrices.length; i < grown.length; i++) {
+				grown[i] = new float[16];
+			}
+			mMatrices = grown;
+		}
+		return mMatrices[mUsed++];
+	}
+
+	/**
+	 * Makes every matrix available again.
+	 */
+	public void reset() {
+		mUsed = 0;
+	}
+
+	public int getCapacity() {
+		return mMatrices.length;
+	}
+}
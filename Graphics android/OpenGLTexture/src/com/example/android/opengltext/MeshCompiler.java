@@ -0,0 +1,741 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Turns an expanded triangle soup (three vertices per triangle) into an
+ * indexed mesh:
+ * <ul>
+ * <li>duplicate vertices are welded, using every attribute value of the vertex
+ * (position, texture coordinate, color...) as the key;</li>
+ * <li>triangles are reordered for the post-transform vertex cache, using Tom
+ * Forsyth's "Linear-Speed Vertex Cache Optimisation";</li>
+ * <li>indices are emitted as 16-bit values when the vertex count allows it and
+ * as 32-bit values (OES_element_index_uint) otherwise.</li>
+ * </ul>
+ * The ACMR (average cache miss ratio, misses per triangle) and ATVR (average
+ * transformed vertex ratio, misses per unique vertex) are reported for the
+ * input order and for the optimized order.
+ *
+ * <p>
+ * This class uses no OpenGL calls and can be run offline.
+ * </p>
+ */
+public class MeshCompiler {
+
+	// Index types, as in GLES20, so this class does not depend on OpenGL
+	static final int GL_UNSIGNED_SHORT = 0x1403;
+	static final int GL_UNSIGNED_INT = 0x1405;
+
+	// Size of the FIFO cache used when measuring ACMR/ATVR
+	public static final int DEFAULT_FIFO_SIZE = 16;
+	// Size of the LRU cache modelled by the optimizer
+	static final int LRU_CACHE_SIZE = 32;
+
+	// Forsyth's scoring parameters
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRI_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+	private static final int MAX_VALENCE_SCORE = 32;
+
+	private static final float[] sCacheScore = new float[LRU_CACHE_SIZE];
+	private static final float[] sValenceScore = new float[MAX_VALENCE_SCORE];
+
+	static {
+		for (int i = 0; i < LRU_CACHE_SIZE; i++) {
+			if (i < 3) {
+				// The last triangle's vertices get a fixed score so that
+				// strips are not favored over fans.
+				sCacheScore[i] = LAST_TRI_SCORE;
+			} else {
+				float scaler = 1.0f / (LRU_CACHE_SIZE - 3);
+				sCacheScore[i] = (float) Math.pow(1.0f - (i - 3) * scaler,
+						CACHE_DECAY_POWER);
+			}
+		}
+		for (int i = 1; i < MAX_VALENCE_SCORE; i++) {
+			sValenceScore[i] = VALENCE_BOOST_SCALE
+					* (float) Math.pow(i, -VALENCE_BOOST_POWER);
+		}
+	}
+
+	private final int[] mComponents;
+	private final int mVertexSize;
+	private boolean mOptimize = true;
+	private boolean mForceIntIndices = false;
+	private int mFifoSize = DEFAULT_FIFO_SIZE;
+
+	/**
+	 * Creates a compiler for vertices made of the given attributes.
+	 *
+	 * @param components
+	 *            - Number of floats of every attribute, e.g. {3, 2} for a
+	 *            position followed by a texture coordinate.
+	 */
+	public MeshCompiler(int... components) {
+		if (components.length == 0) {
+			throw new IllegalArgumentException("No vertex attributes");
+		}
+		mComponents = components.clone();
+		int size = 0;
+		for (int c : components) {
+			size += c;
+		}
+		mVertexSize = size;
+	}
+
+	/**
+	 * Enables or disables the vertex cache reordering (enabled by default).
+	 */
+	public MeshCompiler setOptimize(boolean optimize) {
+		mOptimize = optimize;
+		return this;
+	}
+
+	/**
+	 * Always emits 32-bit indices, even for meshes that fit in 16 bits.
+	 */
+	public MeshCompiler setForceIntIndices(boolean force) {
+		mForceIntIndices = force;
+		return this;
+	}
+
+	/**
+	 * Sets the FIFO size used to measure ACMR/ATVR.
+	 */
+	public MeshCompiler setFifoSize(int size) {
+		mFifoSize = size;
+		return this;
+	}
+
+	/**
+	 * Compiles a triangle soup given as one array per attribute.
+	 *
+	 * @param streams
+	 *            - One array per attribute, in the order given to the
+	 *            constructor. All arrays describe the same number of vertices,
+	 *            which must be a multiple of 3.
+	 * @return - Returns the welded, reordered and indexed mesh.
+	 */
+	public Mesh compile(float[]... streams) {
+		if (streams.length != mComponents.length) {
+			throw new IllegalArgumentException("Expected "
+					+ mComponents.length + " attribute arrays, got "
+					+ streams.length);
+		}
+		int soupCount = streams[0].length / mComponents[0];
+		for (int a = 0; a < streams.length; a++) {
+			if (streams[a].length != soupCount * mComponents[a]) {
+				throw new IllegalArgumentException("Attribute " + a
+						+ " does not describe " + soupCount + " vertices");
+			}
+		}
+		if (soupCount % 3 != 0) {
+			throw new IllegalArgumentException(
+					"Vertex count is not a multiple of 3: " + soupCount);
+		}
+
+		// Gather each soup vertex as one tuple
+		float[] soup = new float[soupCount * mVertexSize];
+		for (int i = 0; i < soupCount; i++) {
+			int dst = i * mVertexSize;
+			for (int a = 0; a < streams.length; a++) {
+				int c = mComponents[a];
+				System.arraycopy(streams[a], i * c, soup, dst, c);
+				dst += c;
+			}
+		}
+		return compileInterleaved(soup, soupCount);
+	}
+
+	/**
+	 * Compiles the shape of a generator, whose vertices must match the
+	 * attributes given to the constructor, e.g. {3, 2} for
+	 * {@link MeshGenerator#TEX_COORDS} only.
+	 */
+	public Mesh compile(MeshGenerator generator) {
+		if (generator.getFloatsPerVertex() != mVertexSize) {
+			throw new IllegalArgumentException("Expected " + mVertexSize
+					+ " floats per vertex, got "
+					+ generator.getFloatsPerVertex());
+		}
+		ByteBuffer vertices = MeshGenerator.allocate(generator
+				.getVertexBytes());
+		ByteBuffer indices = MeshGenerator.allocate(generator.getIndexBytes());
+		generator.generate(vertices, indices);
+
+		// Expand to a soup, which weld() indexes again
+		FloatBuffer values = vertices.asFloatBuffer();
+		int soupCount = generator.getIndexCount();
+		boolean shortIndices = generator.getIndexSize() == 2;
+		float[] soup = new float[soupCount * mVertexSize];
+		for (int i = 0; i < soupCount; i++) {
+			int v = shortIndices ? indices.getShort(i * 2) & 0xffff : indices
+					.getInt(i * 4);
+			values.position(v * mVertexSize);
+			values.get(soup, i * mVertexSize, mVertexSize);
+		}
+		return compileInterleaved(soup, soupCount);
+	}
+
+	/**
+	 * Compiles a triangle soup whose vertices are already interleaved in the
+	 * attribute order given to the constructor.
+	 */
+	public Mesh compileInterleaved(float[] soup, int soupCount) {
+		int[] indices = new int[soupCount];
+		return build(weld(soup, soupCount, indices), indices);
+	}
+
+	/**
+	 * Compiles an indexed mesh. Vertices with the same values are welded as
+	 * in a soup.
+	 *
+	 * @param vertices
+	 *            - vertexCount vertices, interleaved in the attribute order
+	 *            given to the constructor.
+	 * @param indices
+	 *            - Three vertex indices per triangle. Overwritten.
+	 */
+	public Mesh compileIndexed(float[] vertices, int vertexCount,
+			int[] indices) {
+		if (indices.length % 3 != 0) {
+			throw new IllegalArgumentException(
+					"Index count is not a multiple of 3: " + indices.length);
+		}
+		int[] remap = new int[vertexCount];
+		float[] welded = weld(vertices, vertexCount, remap);
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = remap[indices[i]];
+		}
+		return build(welded, indices);
+	}
+
+	/**
+	 * Compiles an indexed mesh whose vertices are distinct already, such as
+	 * one read by {@link MeshImporter}, which shares a vertex between the
+	 * corners that reference the same file data. The vertices are reordered
+	 * but not welded again, so vertices with equal values stay apart.
+	 *
+	 * @param vertices
+	 *            - vertexCount vertices, interleaved in the attribute order
+	 *            given to the constructor.
+	 * @param indices
+	 *            - Three vertex indices per triangle. Overwritten.
+	 */
+	public Mesh compileUnique(float[] vertices, int vertexCount,
+			int[] indices) {
+		if (indices.length % 3 != 0) {
+			throw new IllegalArgumentException(
+					"Index count is not a multiple of 3: " + indices.length);
+		}
+		int length = vertexCount * mVertexSize;
+		if (vertices.length != length) {
+			vertices = Arrays.copyOf(vertices, length);
+		}
+		return build(vertices, indices);
+	}
+
+	private Mesh build(float[] vertices, int[] indices) {
+		int vertexCount = vertices.length / mVertexSize;
+
+		Stats before = measure(indices, vertexCount, mFifoSize);
+		if (mOptimize) {
+			indices = optimize(indices, vertexCount);
+			vertices = reorderVertices(vertices, indices, vertexCount);
+		}
+		Stats after = measure(indices, vertexCount, mFifoSize);
+
+		boolean wide = mForceIntIndices || vertexCount > 0x10000;
+		return new Mesh(mComponents, vertices, vertexCount, indices, wide,
+				before, after);
+	}
+
+	/*
+	 * Removes duplicate vertices. Two vertices are equal when every attribute
+	 * value has the same bits (-0.0 and 0.0 are treated as equal). Uses an
+	 * open-addressing hash table so no object is created per vertex.
+	 */
+	private float[] weld(float[] soup, int soupCount, int[] remap) {
+		int tableSize = Integer.highestOneBit(Math.max(soupCount, 1) * 2) * 2;
+		int[] table = new int[tableSize];
+		for (int i = 0; i < tableSize; i++) {
+			table[i] = -1;
+		}
+		int mask = tableSize - 1;
+
+		float[] unique = new float[soup.length];
+		int uniqueCount = 0;
+		for (int i = 0; i < soupCount; i++) {
+			int src = i * mVertexSize;
+			int slot = hash(soup, src) & mask;
+			int found = -1;
+			while (table[slot] != -1) {
+				if (equal(soup, src, unique, table[slot] * mVertexSize)) {
+					found = table[slot];
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+			if (found == -1) {
+				found = uniqueCount++;
+				System.arraycopy(soup, src, unique, found * mVertexSize,
+						mVertexSize);
+				table[slot] = found;
+			}
+			remap[i] = found;
+		}
+
+		float[] vertices = new float[uniqueCount * mVertexSize];
+		System.arraycopy(unique, 0, vertices, 0, vertices.length);
+		return vertices;
+	}
+
+	private int hash(float[] data, int offset) {
+		int h = 1;
+		for (int i = 0; i < mVertexSize; i++) {
+			float f = data[offset + i];
+			h = 31 * h + (f == 0.0f ? 0 : Float.floatToIntBits(f));
+		}
+		// Spread the bits so sequential keys do not cluster
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h;
+	}
+
+	private boolean equal(float[] a, int aOffset, float[] b, int bOffset) {
+		for (int i = 0; i < mVertexSize; i++) {
+			float fa = a[aOffset + i];
+			float fb = b[bOffset + i];
+			if (fa != fb
+					&& Float.floatToIntBits(fa) != Float.floatToIntBits(fb)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Forsyth's linear-speed vertex cache optimization. Triangles are emitted
+	 * greedily, always picking the one whose vertices score highest given the
+	 * current contents of a modelled LRU cache and the number of triangles
+	 * still using each vertex.
+	 */
+	static int[] optimize(int[] indices, int vertexCount) {
+		int triCount = indices.length / 3;
+		if (triCount == 0) {
+			return indices.clone();
+		}
+
+		// Build vertex -> triangle adjacency
+		int[] valence = new int[vertexCount];
+		for (int i = 0; i < indices.length; i++) {
+			valence[indices[i]]++;
+		}
+		int[] adjOffset = new int[vertexCount + 1];
+		for (int v = 0; v < vertexCount; v++) {
+			adjOffset[v + 1] = adjOffset[v] + valence[v];
+		}
+		int[] adjTris = new int[indices.length];
+		int[] fill = new int[vertexCount];
+		for (int t = 0; t < triCount; t++) {
+			for (int k = 0; k < 3; k++) {
+				int v = indices[t * 3 + k];
+				adjTris[adjOffset[v] + fill[v]++] = t;
+			}
+		}
+		// valence now counts the triangles not yet emitted
+		int[] remaining = fill;
+
+		int[] cachePos = new int[vertexCount];
+		float[] vertexScore = new float[vertexCount];
+		for (int v = 0; v < vertexCount; v++) {
+			cachePos[v] = -1;
+			vertexScore[v] = score(-1, remaining[v]);
+		}
+		float[] triScore = new float[triCount];
+		boolean[] emitted = new boolean[triCount];
+		for (int t = 0; t < triCount; t++) {
+			triScore[t] = vertexScore[indices[t * 3]]
+					+ vertexScore[indices[t * 3 + 1]]
+					+ vertexScore[indices[t * 3 + 2]];
+		}
+
+		int[] cache = new int[LRU_CACHE_SIZE + 3];
+		int cacheCount = 0;
+		int[] newCache = new int[LRU_CACHE_SIZE + 3];
+
+		int[] out = new int[indices.length];
+		int outTris = 0;
+		int scan = 0;
+		int best = -1;
+		float bestScore = -1.0f;
+		for (int t = 0; t < triCount; t++) {
+			if (triScore[t] > bestScore) {
+				bestScore = triScore[t];
+				best = t;
+			}
+		}
+
+		while (outTris < triCount) {
+			if (best == -1) {
+				// Nothing adjacent to the cache: take the next unused triangle
+				while (emitted[scan]) {
+					scan++;
+				}
+				best = scan;
+			}
+
+			emitted[best] = true;
+			int a = indices[best * 3];
+			int b = indices[best * 3 + 1];
+			int c = indices[best * 3 + 2];
+			out[outTris * 3] = a;
+			out[outTris * 3 + 1] = b;
+			out[outTris * 3 + 2] = c;
+			outTris++;
+
+			// Remove the triangle from its vertices' adjacency lists
+			for (int k = 0; k < 3; k++) {
+				int v = indices[best * 3 + k];
+				int start = adjOffset[v];
+				int end = start + remaining[v];
+				for (int j = start; j < end; j++) {
+					if (adjTris[j] == best) {
+						adjTris[j] = adjTris[end - 1];
+						break;
+					}
+				}
+				remaining[v]--;
+			}
+
+			// New cache: the triangle's vertices first, then the old contents
+			int newCount = 0;
+			newCache[newCount++] = a;
+			newCache[newCount++] = b;
+			newCache[newCount++] = c;
+			for (int i = 0; i < cacheCount; i++) {
+				int v = cache[i];
+				if (v != a && v != b && v != c) {
+					newCache[newCount++] = v;
+				}
+			}
+			int[] swap = cache;
+			cache = newCache;
+			newCache = swap;
+			cacheCount = newCount;
+
+			// Update scores of every vertex that was or is in the cache
+			for (int i = 0; i < cacheCount; i++) {
+				int v = cache[i];
+				cachePos[v] = i < LRU_CACHE_SIZE ? i : -1;
+				float newScore = score(cachePos[v], remaining[v]);
+				float diff = newScore - vertexScore[v];
+				if (diff == 0.0f) {
+					// Past the old slots of the triangle's vertices, or no
+					// longer used: the triangle scores do not change
+					continue;
+				}
+				vertexScore[v] = newScore;
+				int start = adjOffset[v];
+				int end = start + remaining[v];
+				for (int j = start; j < end; j++) {
+					triScore[adjTris[j]] += diff;
+				}
+			}
+			if (cacheCount > LRU_CACHE_SIZE) {
+				cacheCount = LRU_CACHE_SIZE;
+			}
+
+			// Pick the best triangle adjacent to the cache
+			best = -1;
+			bestScore = -1.0f;
+			for (int i = 0; i < cacheCount; i++) {
+				int v = cache[i];
+				int start = adjOffset[v];
+				int end = start + remaining[v];
+				for (int j = start; j < end; j++) {
+					int t = adjTris[j];
+					if (triScore[t] > bestScore) {
+						bestScore = triScore[t];
+						best = t;
+					}
+				}
+			}
+		}
+		return out;
+	}
+
+	private static float score(int cachePosition, int remainingValence) {
+		if (remainingValence == 0) {
+			// No triangle needs this vertex any more
+			return -1.0f;
+		}
+		float score = cachePosition >= 0 ? sCacheScore[cachePosition] : 0.0f;
+		score += remainingValence < MAX_VALENCE_SCORE ? sValenceScore[remainingValence]
+				: VALENCE_BOOST_SCALE
+						* (float) Math.pow(remainingValence,
+								-VALENCE_BOOST_POWER);
+		return score;
+	}
+
+	/*
+	 * Renumbers the vertices in order of first use so that vertex fetches
+	 * follow the index order (pre-transform cache locality). Rewrites the
+	 * indices in place.
+	 */
+	private float[] reorderVertices(float[] vertices, int[] indices,
+			int vertexCount) {
+		int[] newIndex = new int[vertexCount];
+		for (int v = 0; v < vertexCount; v++) {
+			newIndex[v] = -1;
+		}
+		float[] reordered = new float[vertices.length];
+		int next = 0;
+		for (int i = 0; i < indices.length; i++) {
+			int v = indices[i];
+			if (newIndex[v] == -1) {
+				System.arraycopy(vertices, v * mVertexSize, reordered, next
+						* mVertexSize, mVertexSize);
+				newIndex[v] = next++;
+			}
+			indices[i] = newIndex[v];
+		}
+		if (next < vertexCount) {
+			// Keep unreferenced vertices at the end
+			for (int v = 0; v < vertexCount; v++) {
+				if (newIndex[v] == -1) {
+					System.arraycopy(vertices, v * mVertexSize, reordered,
+							next * mVertexSize, mVertexSize);
+					newIndex[v] = next++;
+				}
+			}
+		}
+		return reordered;
+	}
+
+	/**
+	 * Simulates a FIFO post-transform cache of the given size over an index
+	 * list.
+	 */
+	public static Stats measure(int[] indices, int vertexCount, int fifoSize) {
+		int[] stamp = new int[vertexCount];
+		for (int v = 0; v < vertexCount; v++) {
+			stamp[v] = -1;
+		}
+		int misses = 0;
+		for (int i = 0; i < indices.length; i++) {
+			int v = indices[i];
+			// stamp holds the miss number at which v entered the cache
+			if (stamp[v] >= 0 && misses - stamp[v] < fifoSize) {
+				continue;
+			}
+			misses++;
+			stamp[v] = misses - 1;
+		}
+		return new Stats(indices.length / 3, vertexCount, misses, fifoSize);
+	}
+
+	/**
+	 * Post-transform vertex cache statistics of an index list.
+	 */
+	public static class Stats {
+		public final int triangleCount;
+		public final int vertexCount;
+		public final int cacheMisses;
+		public final int fifoSize;
+
+		Stats(int triangleCount, int vertexCount, int cacheMisses,
+				int fifoSize) {
+			this.triangleCount = triangleCount;
+			this.vertexCount = vertexCount;
+			this.cacheMisses = cacheMisses;
+			this.fifoSize = fifoSize;
+		}
+
+		/**
+		 * Average cache miss ratio: vertex shader runs per triangle. 0.5 is
+		 * the theoretical best, 3.0 the worst.
+		 */
+		public float getAcmr() {
+			return triangleCount == 0 ? 0.0f : (float) cacheMisses
+					/ triangleCount;
+		}
+
+		/**
+		 * Average transformed vertex ratio: vertex shader runs per unique
+		 * vertex. 1.0 is the best.
+		 */
+		public float getAtvr() {
+			return vertexCount == 0 ? 0.0f : (float) cacheMisses
+					/ vertexCount;
+		}
+
+		@Override
+		public String toString() {
+			return "tris=" + triangleCount + " verts=" + vertexCount
+					+ " fifo=" + fifoSize + " ACMR=" + getAcmr() + " ATVR="
+					+ getAtvr();
+		}
+	}
+
+	/**
+	 * An indexed mesh produced by {@link MeshCompiler}.
+	 */
+	public static class Mesh {
+		private final int[] mComponents;
+		private final float[] mVertices;
+		private final int mVertexCount;
+		private final int[] mIndices;
+		private final boolean mIntIndices;
+		private final Stats mInputStats;
+		private final Stats mOutputStats;
+
+		Mesh(int[] components, float[] vertices, int vertexCount,
+				int[] indices, boolean intIndices, Stats inputStats,
+				Stats outputStats) {
+			mComponents = components;
+			mVertices = vertices;
+			mVertexCount = vertexCount;
+			mIndices = indices;
+			mIntIndices = intIndices;
+			mInputStats = inputStats;
+			mOutputStats = outputStats;
+		}
+
+		public int getVertexCount() {
+			return mVertexCount;
+		}
+
+		public int getIndexCount() {
+			return mIndices.length;
+		}
+
+		/**
+		 * Returns the component count of every attribute, in order.
+		 */
+		public int[] getComponents() {
+			return mComponents.clone();
+		}
+
+		/**
+		 * Returns the welded vertices, interleaved in attribute order.
+		 */
+		public float[] getVertices() {
+			return mVertices;
+		}
+
+		/**
+		 * Returns the values of one attribute of every welded vertex.
+		 *
+		 * @param attribute
+		 *            - Index of the attribute in the constructor's list.
+		 */
+		public float[] getAttribute(int attribute) {
+			int offset = 0;
+			int size = 0;
+			for (int a = 0; a < mComponents.length; a++) {
+				size += mComponents[a];
+				if (a < attribute) {
+					offset += mComponents[a];
+				}
+			}
+			int c = mComponents[attribute];
+			float[] values = new float[mVertexCount * c];
+			for (int v = 0; v < mVertexCount; v++) {
+				System.arraycopy(mVertices, v * size + offset, values, v * c,
+						c);
+			}
+			return values;
+		}
+
+		public int[] getIndices() {
+			return mIndices;
+		}
+
+		/**
+		 * Returns the indices as 16-bit values.
+		 *
+		 * @throws IllegalStateException
+		 *             if the mesh needs 32-bit indices.
+		 */
+		public short[] getShortIndices() {
+			if (mIntIndices) {
+				throw new IllegalStateException(
+						"Mesh needs 32-bit indices: " + mVertexCount
+								+ " vertices");
+			}
+			short[] indices = new short[mIndices.length];
+			for (int i = 0; i < indices.length; i++) {
+				indices[i] = (short) mIndices[i];
+			}
+			return indices;
+		}
+
+		/**
+		 * Returns GL_UNSIGNED_SHORT or GL_UNSIGNED_INT.
+		 */
+		public int getIndexType() {
+			return mIntIndices ? GL_UNSIGNED_INT : GL_UNSIGNED_SHORT;
+		}
+
+		/**
+		 * Returns the size of one index in bytes (2 or 4).
+		 */
+		public int getIndexSize() {
+			return mIntIndices ? 4 : 2;
+		}
+
+		/**
+		 * Writes the indices into a new direct buffer in native order, in the
+		 * format given by {@link #getIndexType()}.
+		 */
+		public ByteBuffer createIndexBuffer() {
+			ByteBuffer bb = ByteBuffer.allocateDirect(mIndices.length
+					* getIndexSize());
+			bb.order(ByteOrder.nativeOrder());
+			if (mIntIndices) {
+				bb.asIntBuffer().put(mIndices);
+			} else {
+				for (int i = 0; i < mIndices.length; i++) {
+					bb.putShort(i * 2, (short) mIndices[i]);
+				}
+			}
+			return bb;
+		}
+
+		/**
+		 * Cache statistics of the welded mesh in its original triangle order.
+		 */
+		public Stats getInputStats() {
+			return mInputStats;
+		}
+
+		/**
+		 * Cache statistics of the emitted triangle order.
+		 */
+		public Stats getStats() {
+			return mOutputStats;
+		}
+	}
+}
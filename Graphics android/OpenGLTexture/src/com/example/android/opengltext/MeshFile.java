@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A compiled mesh and its levels of detail, stored in a binary file laid out
+ * so that the vertices and indices of every level can be handed to
+ * glBufferData as they are. {@link #load(String)} maps the file and only
+ * reads the header: the vertex and index buffers are slices of the mapping,
+ * paged in by the upload itself. Files are written by {@link #write}, e.g.
+ * through the MeshConverter tool (see tools/).
+ *
+ * <p>
+ * Values are little-endian, the order of every Android device; on a
+ * big-endian machine the buffers are copied with their words swapped. The
+ * layout, in bytes:
+ * </p>
+ *
+ * <pre>
+ * 0   identifier
+ * 12  0x04030201
+ * 16  size of the header (up to the end of the level table)
+ * 20  attribute count A, level count L
+ * 28  vertex stride in bytes, index type (GL_UNSIGNED_SHORT or _INT)
+ * 36  bounds of level 0: min x, y, z, max x, y, z (floats)
+ * 60  bounding sphere of level 0: center x, y, z, radius (floats)
+ * 76  A attributes: component count, type (GL_FLOAT), byte offset
+ * ..  L levels: vertex offset, vertex count, index offset, index count,
+ *     simplification error (float)
+ * ..  vertices then indices of every level, each 16-byte aligned
+ * </pre>
+ *
+ * <p>
+ * This class uses no OpenGL calls and can be run offline.
+ * </p>
+ */
+public class MeshFile {
+
+	// Attribute type, as in GLES20
+	static final int GL_FLOAT = 0x1406;
+
+	private static final byte[] IDENTIFIER = { (byte) 0xAB, 'M', 'E', 'S',
+			'H', ' ', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n' };
+	private static final int ENDIANNESS = 0x04030201;
+	private static final int ATTRIBUTE_TABLE = 76;
+	private static final int ATTRIBUTE_SIZE = 12;
+	private static final int LEVEL_SIZE = 20;
+	// Alignment of every vertex and index array in the file
+	private static final int ALIGNMENT = 16;
+
+	// The whole file, little-endian
+	private final ByteBuffer mData;
+	private final int mStride;
+	private final int mIndexType;
+	private final int[] mComponents;
+	private final int[] mAttributeOffsets;
+	private final float[] mBounds;
+	private final float[] mSphere;
+	private final int[] mVertexOffsets;
+	private final int[] mVertexCounts;
+	private final int[] mIndexOffsets;
+	private final int[] mIndexCounts;
+	private final float[] mErrors;
+
+	private MeshFile(ByteBuffer data, int levelCount, int attributeCount) {
+		mData = data;
+		mStride = data.getInt(28);
+		mIndexType = data.getInt(32);
+		mBounds = new float[6];
+		for (int i = 0; i < 6; i++) {
+			mBounds[i] = data.getFloat(36 + i * 4);
+		}
+		mSphere = new float[4];
+		for (int i = 0; i < 4; i++) {
+			mSphere[i] = data.getFloat(60 + i * 4);
+		}
+		mComponents = new int[attributeCount];
+		mAttributeOffsets = new int[attributeCount];
+		for (int a = 0; a < attributeCount; a++) {
+			int at = ATTRIBUTE_TABLE + a * ATTRIBUTE_SIZE;
+			mComponents[a] = data.getInt(at);
+			mAttributeOffsets[a] = data.getInt(at + 8);
+		}
+		mVertexOffsets = new int[levelCount];
+		mVertexCounts = new int[levelCount];
+		mIndexOffsets = new int[levelCount];
+		mIndexCounts = new int[levelCount];
+		mErrors = new float[levelCount];
+		int levelTable = ATTRIBUTE_TABLE + attributeCount * ATTRIBUTE_SIZE;
+		for (int i = 0; i < levelCount; i++) {
+			int at = levelTable + i * LEVEL_SIZE;
+			mVertexOffsets[i] = data.getInt(at);
+			mVertexCounts[i] = data.getInt(at + 4);
+			mIndexOffsets[i] = data.getInt(at + 8);
+			mIndexCounts[i] = data.getInt(at + 12);
+			mErrors[i] = data.getFloat(at + 16);
+		}
+	}
+
+	/**
+	 * Maps a mesh file. Only the header is read; the mapping stays valid
+	 * after the file is closed.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read or is not a mesh file.
+	 */
+	public static MeshFile load(String path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			return map(file.getChannel(), 0, file.length());
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Maps a mesh stored at an offset of a file, such as an uncompressed
+	 * asset opened with AssetManager.openFd().
+	 */
+	public static MeshFile map(FileChannel channel, long offset, long length)
+			throws IOException {
+		return parse(channel.map(FileChannel.MapMode.READ_ONLY, offset,
+				length));
+	}
+
+	/**
+	 * Reads a whole mesh file into memory, for streams that cannot be
+	 * mapped such as compressed assets.
+	 */
+	public static MeshFile read(InputStream in) throws IOException {
+		ReadableByteChannel channel = Channels.newChannel(in);
+		ByteBuffer data = ByteBuffer.allocateDirect(Math.max(in.available(),
+				16384));
+		while (channel.read(data) >= 0) {
+			if (!data.hasRemaining()) {
+				ByteBuffer bigger = ByteBuffer
+						.allocateDirect(data.capacity() * 2);
+				data.flip();
+				bigger.put(data);
+				data = bigger;
+			}
+		}
+		data.flip();
+		return parse(data.slice());
+	}
+
+	static MeshFile parse(ByteBuffer data) throws IOException {
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		if (data.remaining() < ATTRIBUTE_TABLE) {
+			throw new IOException("MeshFile: truncated header");
+		}
+		for (int i = 0; i < IDENTIFIER.length; i++) {
+			if (data.get(i) != IDENTIFIER[i]) {
+				throw new IOException("MeshFile: bad identifier");
+			}
+		}
+		if (data.getInt(12) != ENDIANNESS) {
+			throw new IOException("MeshFile: bad byte order");
+		}
+		int headerSize = data.getInt(16);
+		int attributeCount = data.getInt(20);
+		int levelCount = data.getInt(24);
+		if (attributeCount < 1 || levelCount < 1
+				|| headerSize != ATTRIBUTE_TABLE + attributeCount
+						* ATTRIBUTE_SIZE + levelCount * LEVEL_SIZE
+				|| headerSize > data.limit()) {
+			throw new IOException("MeshFile: bad header");
+		}
+		int indexType = data.getInt(32);
+		if (indexType != MeshCompiler.GL_UNSIGNED_SHORT
+				&& indexType != MeshCompiler.GL_UNSIGNED_INT) {
+			throw new IOException("MeshFile: bad index type " + indexType);
+		}
+		MeshFile file = new MeshFile(data, levelCount, attributeCount);
+		for (int i = 0; i < levelCount; i++) {
+			if (!file.fits(file.mVertexOffsets[i], file.mVertexCounts[i],
+					file.mStride)
+					|| !file.fits(file.mIndexOffsets[i], file.mIndexCounts[i],
+							file.getIndexSize())) {
+				throw new IOException("MeshFile: truncated level " + i);
+			}
+		}
+		return file;
+	}
+
+	private boolean fits(int offset, int count, int size) {
+		return offset >= 0 && count >= 0
+				&& offset + (long) count * size <= mData.limit();
+	}
+
+	/**
+	 * Writes a mesh and its simplified versions.
+	 *
+	 * @param levels
+	 *            - The mesh followed by its levels of detail, such as
+	 *            returned by {@link LevelOfDetail#buildLevels}, all with the
+	 *            same attributes.
+	 * @param errors
+	 *            - Simplification error of every level.
+	 */
+	public static void write(MeshCompiler.Mesh[] levels, float[] errors,
+			OutputStream out) throws IOException {
+		int[] components = levels[0].getComponents();
+		int floats = 0;
+		for (int c : components) {
+			floats += c;
+		}
+		int stride = floats * 4;
+		int indexSize = levels[0].getIndexSize();
+		int headerSize = ATTRIBUTE_TABLE + components.length * ATTRIBUTE_SIZE
+				+ levels.length * LEVEL_SIZE;
+		long size = align(headerSize);
+		for (MeshCompiler.Mesh level : levels) {
+			size = align(size + (long) level.getVertexCount() * stride);
+			size = align(size + (long) level.getIndexCount() * indexSize);
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("MeshFile: " + size
+					+ " bytes is too large");
+		}
+
+		ByteBuffer data = ByteBuffer.allocate((int) size).order(
+				ByteOrder.LITTLE_ENDIAN);
+		data.put(IDENTIFIER);
+		data.putInt(ENDIANNESS).putInt(headerSize);
+		data.putInt(components.length).putInt(levels.length);
+		data.putInt(stride).putInt(levels[0].getIndexType());
+		float[] vertices = levels[0].getVertices();
+		for (float f : Frustum.computeBounds(vertices, 0, floats,
+				levels[0].getVertexCount())) {
+			data.putFloat(f);
+		}
+		for (float f : Frustum.computeSphere(vertices, 0, floats,
+				levels[0].getVertexCount())) {
+			data.putFloat(f);
+		}
+		int offset = 0;
+		for (int c : components) {
+			data.putInt(c).putInt(GL_FLOAT).putInt(offset);
+			offset += c * 4;
+		}
+
+		int at = (int) align(headerSize);
+		for (int i = 0; i < levels.length; i++) {
+			MeshCompiler.Mesh level = levels[i];
+			int indexOffset = (int) align(at + level.getVertexCount() * stride);
+			data.putInt(at).putInt(level.getVertexCount());
+			data.putInt(indexOffset).putInt(level.getIndexCount());
+			data.putFloat(errors[i]);
+
+			ByteBuffer section = data.duplicate().order(
+					ByteOrder.LITTLE_ENDIAN);
+			section.position(at);
+			section.asFloatBuffer().put(level.getVertices(), 0,
+					level.getVertexCount() * floats);
+			section.position(indexOffset);
+			int[] indices = level.getIndices();
+			if (indexSize == 4) {
+				section.asIntBuffer().put(indices);
+			} else {
+				for (int j = 0; j < indices.length; j++) {
+					section.putShort((short) indices[j]);
+				}
+			}
+			at = (int) align(indexOffset + indices.length * indexSize);
+		}
+		out.write(data.array());
+	}
+
+	private static long align(long offset) {
+		return (offset + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+	}
+
+	/*
+	 * Returns the bytes of one array in native order: a slice of the file on
+	 * little-endian machines, a copy with the words of the given size
+	 * swapped otherwise.
+	 */
+	private ByteBuffer slice(int offset, int length, int wordSize) {
+		ByteBuffer data = mData.duplicate();
+		data.limit(offset + length).position(offset);
+		ByteBuffer slice = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+		if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+			return slice;
+		}
+		ByteBuffer copy = ByteBuffer.allocateDirect(length).order(
+				ByteOrder.nativeOrder());
+		if (wordSize == 2) {
+			copy.asShortBuffer().put(slice.asShortBuffer());
+		} else {
+			copy.asIntBuffer().put(slice.asIntBuffer());
+		}
+		return copy;
+	}
+
+	/**
+	 * Returns the interleaved vertices of a level, ready for glBufferData.
+	 */
+	public ByteBuffer getVertices(int level) {
+		return slice(mVertexOffsets[level], mVertexCounts[level] * mStride, 4);
+	}
+
+	/**
+	 * Returns the indices of a level, in the format given by
+	 * {@link #getIndexType()}, ready for glBufferData.
+	 */
+	public ByteBuffer getIndices(int level) {
+		return slice(mIndexOffsets[level], mIndexCounts[level]
+				* getIndexSize(), getIndexSize());
+	}
+
+	/**
+	 * Copies the vertices of a level into an array, for code that needs to
+	 * change them (such as {@link TextureAtlas#remap}).
+	 */
+	public float[] getVertexArray(int level) {
+		float[] vertices = new float[mVertexCounts[level] * mStride / 4];
+		getVertices(level).order(ByteOrder.nativeOrder()).asFloatBuffer()
+				.get(vertices);
+		return vertices;
+	}
+
+	public int getLevelCount() {
+		return mVertexCounts.length;
+	}
+
+	public int getVertexCount(int level) {
+		return mVertexCounts[level];
+	}
+
+	public int getIndexCount(int level) {
+		return mIndexCounts[level];
+	}
+
+	/**
+	 * Returns the simplification errors of every level, in mesh units, as
+	 * expected by {@link LevelOfDetail#computeMinPixels}.
+	 */
+	public float[] getErrors() {
+		return mErrors.clone();
+	}
+
+	public int getAttributeCount() {
+		return mComponents.length;
+	}
+
+	public int getComponents(int attribute) {
+		return mComponents[attribute];
+	}
+
+	/**
+	 * Returns the byte offset of an attribute inside the vertex.
+	 */
+	public int getAttributeOffset(int attribute) {
+		return mAttributeOffsets[attribute];
+	}
+
+	public int getStride() {
+		return mStride;
+	}
+
+	/**
+	 * Returns GL_UNSIGNED_SHORT or GL_UNSIGNED_INT.
+	 */
+	public int getIndexType() {
+		return mIndexType;
+	}
+
+	/**
+	 * Returns the size of one index in bytes (2 or 4).
+	 */
+	public int getIndexSize() {
+		return mIndexType == MeshCompiler.GL_UNSIGNED_INT ? 4 : 2;
+	}
+
+	/**
+	 * Returns the bounding box of level 0, as {@link Frustum#computeBounds}.
+	 */
+	public float[] getBounds() {
+		return mBounds.clone();
+	}
+
+	/**
+	 * Returns the bounding sphere of level 0, as
+	 * {@link Frustum#computeSphere}.
+	 */
+	public float[] getSphere() {
+		return mSphere.clone();
+	}
+
+	/**
+	 * Returns the size of the file in bytes.
+	 */
+	public int getByteSize() {
+		return mData.limit();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("MeshFile: ");
+		sb.append(mComponents.length).append(" attributes, ")
+				.append(mStride).append(" bytes per vertex, ")
+				.append(getIndexSize() * 8).append("-bit indices,");
+		for (int i = 0; i < getLevelCount(); i++) {
+			sb.append(" level ").append(i).append(' ')
+					.append(mVertexCounts[i]).append(" vertices ")
+					.append(mIndexCounts[i] / 3).append(" tris error ")
+					.append(mErrors[i]).append(',');
+		}
+		sb.append(' ').append(getByteSize()).append(" bytes");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,747 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Generates the vertices and indices of a shape straight into direct
+ * buffers, without building the mesh in arrays first.
+ *
+ * <p>
+ * Every shape is made of patches: grids of (columns + 1) x (rows + 1)
+ * vertices, two triangles per cell, seen counterclockwise from outside. A
+ * vertex is a position, then optionally a normal ({@link #NORMALS}) and a
+ * texture coordinate ({@link #TEX_COORDS}), as floats. The texture
+ * coordinates go right and down across a patch seen from outside, as the
+ * images are stored. A row whose vertices all meet at one point (the pole
+ * of a sphere, the center of a disc) gets one triangle per cell instead of
+ * two. Indices are 16-bit values when the vertex count allows it and 32-bit
+ * values otherwise, as in {@link MeshCompiler}.
+ * </p>
+ *
+ * <p>
+ * Each vertex row and the cells below it only depend on the row number, so
+ * large shapes can be generated by several threads, each writing its own
+ * rows (see {@link #generate(ByteBuffer, ByteBuffer, ExecutorService)}).
+ * This class uses no OpenGL calls and can be run offline.
+ * </p>
+ */
+public abstract class MeshGenerator {
+
+	// Optional attributes
+	public static final int NORMALS = 1;
+	public static final int TEX_COORDS = 2;
+
+	// Rows collapsing to a point, returned by getPoles()
+	protected static final int FIRST_ROW_POLE = 1;
+	protected static final int LAST_ROW_POLE = 2;
+
+	// Vertices written by one task of a parallel generate()
+	private static final int VERTICES_PER_TASK = 8192;
+
+	private final int mFlags;
+	private final int mFloatsPerVertex;
+
+	// First vertex, index and global row of every patch, set by init()
+	private int[] mPatchVertex;
+	private int[] mPatchIndex;
+	private int[] mPatchRow;
+	private int mVertexCount;
+	private int mIndexCount;
+	private int mRowCount;
+
+	protected MeshGenerator(int flags) {
+		mFlags = flags;
+		mFloatsPerVertex = 3 + ((flags & NORMALS) != 0 ? 3 : 0)
+				+ ((flags & TEX_COORDS) != 0 ? 2 : 0);
+	}
+
+	/**
+	 * Lays out the patches. Called by the subclass constructors once the
+	 * patch sizes are known.
+	 */
+	protected final void init() {
+		int patches = getPatchCount();
+		mPatchVertex = new int[patches + 1];
+		mPatchIndex = new int[patches + 1];
+		mPatchRow = new int[patches + 1];
+		for (int p = 0; p < patches; p++) {
+			int columns = getColumns(p);
+			int rows = getRows(p);
+			if (columns < 1 || rows < 1) {
+				throw new IllegalArgumentException(getClass().getSimpleName()
+						+ ": patch " + p + " has " + columns + "x" + rows
+						+ " cells");
+			}
+			int indices = columns * rows * 6;
+			if ((getPoles(p) & FIRST_ROW_POLE) != 0) {
+				indices -= columns * 3;
+			}
+			if ((getPoles(p) & LAST_ROW_POLE) != 0) {
+				indices -= columns * 3;
+			}
+			mPatchVertex[p + 1] = mPatchVertex[p] + (columns + 1) * (rows + 1);
+			mPatchIndex[p + 1] = mPatchIndex[p] + indices;
+			mPatchRow[p + 1] = mPatchRow[p] + rows + 1;
+		}
+		mVertexCount = mPatchVertex[patches];
+		mIndexCount = mPatchIndex[patches];
+		mRowCount = mPatchRow[patches];
+	}
+
+	protected abstract int getPatchCount();
+
+	/**
+	 * Returns the number of cells across a patch.
+	 */
+	protected abstract int getColumns(int patch);
+
+	/**
+	 * Returns the number of cells down a patch.
+	 */
+	protected abstract int getRows(int patch);
+
+	/**
+	 * Returns which rows of a patch collapse to a point.
+	 */
+	protected int getPoles(int patch) {
+		return 0;
+	}
+
+	/**
+	 * Computes a vertex of a patch.
+	 *
+	 * @param out
+	 *            - Receives the position, normal and texture coordinate,
+	 *            8 floats, whatever the flags.
+	 */
+	protected abstract void vertex(int patch, int column, int row, float[] out);
+
+	public int getFlags() {
+		return mFlags;
+	}
+
+	/**
+	 * Returns 3, plus 3 with normals, plus 2 with texture coordinates.
+	 */
+	public int getFloatsPerVertex() {
+		return mFloatsPerVertex;
+	}
+
+	public int getStride() {
+		return mFloatsPerVertex * 4;
+	}
+
+	public int getVertexCount() {
+		return mVertexCount;
+	}
+
+	public int getIndexCount() {
+		return mIndexCount;
+	}
+
+	/**
+	 * Returns GL_UNSIGNED_SHORT or GL_UNSIGNED_INT.
+	 */
+	public int getIndexType() {
+		return mVertexCount > 0x10000 ? MeshCompiler.GL_UNSIGNED_INT
+				: MeshCompiler.GL_UNSIGNED_SHORT;
+	}
+
+	/**
+	 * Returns the size of one index in bytes (2 or 4).
+	 */
+	public int getIndexSize() {
+		return mVertexCount > 0x10000 ? 4 : 2;
+	}
+
+	public int getVertexBytes() {
+		return mVertexCount * getStride();
+	}
+
+	public int getIndexBytes() {
+		return mIndexCount * getIndexSize();
+	}
+
+	/**
+	 * Returns the number of rows, the unit of work of a parallel generate.
+	 */
+	public int getRowCount() {
+		return mRowCount;
+	}
+
+	/**
+	 * Allocates a direct buffer in native order, e.g. of
+	 * {@link #getVertexBytes()} bytes.
+	 */
+	public static ByteBuffer allocate(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Writes the whole shape.
+	 *
+	 * @param vertices
+	 *            - Receives {@link #getVertexBytes()} bytes from its
+	 *            position, in its byte order (native for OpenGL). The
+	 *            position is not changed.
+	 * @param indices
+	 *            - Receives {@link #getIndexBytes()} bytes the same way.
+	 */
+	public void generate(ByteBuffer vertices, ByteBuffer indices) {
+		writeRows(vertices, indices, 0, mRowCount);
+	}
+
+	/**
+	 * Same as {@link #generate(ByteBuffer, ByteBuffer)}, split into tasks of
+	 * whole rows run by an executor. Returns once every task is done.
+	 */
+	public void generate(ByteBuffer vertices, ByteBuffer indices,
+			ExecutorService executor) throws InterruptedException {
+		final FloatBuffer floats = vertices.asFloatBuffer();
+		final ShortBuffer shorts = getIndexSize() == 2 ? indices
+				.asShortBuffer() : null;
+		final IntBuffer ints = shorts == null ? indices.asIntBuffer() : null;
+		int rowsPerTask = (int) Math.max(1, (long) VERTICES_PER_TASK
+				* mRowCount / Math.max(mVertexCount, 1));
+		List<Future<?>> tasks = new ArrayList<Future<?>>();
+		for (int row = 0; row < mRowCount; row += rowsPerTask) {
+			final int firstRow = row;
+			final int endRow = Math.min(mRowCount, row + rowsPerTask);
+			tasks.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					writeRows(floats, shorts, ints, firstRow, endRow);
+				}
+			}));
+		}
+		for (Future<?> task : tasks) {
+			try {
+				task.get();
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Writes rows [firstRow, endRow) of the shape: their vertices, and the
+	 * cells between each of them and the next row of its patch.
+	 */
+	public void writeRows(ByteBuffer vertices, ByteBuffer indices,
+			int firstRow, int endRow) {
+		boolean shortIndices = getIndexSize() == 2;
+		writeRows(vertices.asFloatBuffer(),
+				shortIndices ? indices.asShortBuffer() : null,
+				shortIndices ? null : indices.asIntBuffer(), firstRow, endRow);
+	}
+
+	private void writeRows(FloatBuffer vertices, ShortBuffer shorts,
+			IntBuffer ints, int firstRow, int endRow) {
+		float[] v = new float[8];
+		boolean normals = (mFlags & NORMALS) != 0;
+		boolean texCoords = (mFlags & TEX_COORDS) != 0;
+		int patch = 0;
+		while (mPatchRow[patch + 1] <= firstRow) {
+			patch++;
+		}
+		for (int r = firstRow; r < endRow; r++) {
+			while (mPatchRow[patch + 1] <= r) {
+				patch++;
+			}
+			int row = r - mPatchRow[patch];
+			int columns = getColumns(patch);
+			int rows = getRows(patch);
+
+			// The vertices of the row
+			int first = mPatchVertex[patch] + row * (columns + 1);
+			int at = first * mFloatsPerVertex;
+			for (int c = 0; c <= columns; c++) {
+				vertex(patch, c, row, v);
+				vertices.put(at++, v[0]);
+				vertices.put(at++, v[1]);
+				vertices.put(at++, v[2]);
+				if (normals) {
+					vertices.put(at++, v[3]);
+					vertices.put(at++, v[4]);
+					vertices.put(at++, v[5]);
+				}
+				if (texCoords) {
+					vertices.put(at++, v[6]);
+					vertices.put(at++, v[7]);
+				}
+			}
+			if (row == rows) {
+				continue;
+			}
+
+			// The cells down to the next row, each a = (c, row),
+			// b = (c, row + 1), c' = (c + 1, row + 1), d = (c + 1, row)
+			int poles = getPoles(patch);
+			boolean firstPole = (poles & FIRST_ROW_POLE) != 0;
+			boolean lastPole = (poles & LAST_ROW_POLE) != 0;
+			boolean keepAbc = !(row == rows - 1 && lastPole);
+			boolean keepAcd = !(row == 0 && firstPole);
+			int index = mPatchIndex[patch] + row * columns * 6;
+			if (firstPole && row > 0) {
+				index -= columns * 3;
+			}
+			for (int c = 0; c < columns; c++) {
+				int a = first + c;
+				int b = a + columns + 1;
+				if (keepAbc) {
+					index = putTriangle(shorts, ints, index, a, b, b + 1);
+				}
+				if (keepAcd) {
+					index = putTriangle(shorts, ints, index, a, b + 1, a + 1);
+				}
+			}
+		}
+	}
+
+	private static int putTriangle(ShortBuffer shorts, IntBuffer ints,
+			int index, int a, int b, int c) {
+		if (shorts != null) {
+			shorts.put(index, (short) a);
+			shorts.put(index + 1, (short) b);
+			shorts.put(index + 2, (short) c);
+		} else {
+			ints.put(index, a);
+			ints.put(index + 1, b);
+			ints.put(index + 2, c);
+		}
+		return index + 3;
+	}
+
+	/**
+	 * A flat grid in the xz plane, facing +y, centered on the origin.
+	 */
+	public static class Plane extends MeshGenerator {
+		private final float mWidth;
+		private final float mDepth;
+		private final int mColumns;
+		private final int mRows;
+
+		public Plane(float width, float depth, int columns, int rows,
+				int flags) {
+			super(flags);
+			mWidth = width;
+			mDepth = depth;
+			mColumns = columns;
+			mRows = rows;
+			init();
+		}
+
+		@Override
+		protected int getPatchCount() {
+			return 1;
+		}
+
+		@Override
+		protected int getColumns(int patch) {
+			return mColumns;
+		}
+
+		@Override
+		protected int getRows(int patch) {
+			return mRows;
+		}
+
+		@Override
+		protected void vertex(int patch, int column, int row, float[] out) {
+			float u = (float) column / mColumns;
+			float v = (float) row / mRows;
+			out[0] = (u - 0.5f) * mWidth;
+			out[1] = 0;
+			out[2] = (v - 0.5f) * mDepth;
+			out[3] = 0;
+			out[4] = 1;
+			out[5] = 0;
+			out[6] = u;
+			out[7] = v;
+		}
+	}
+
+	/**
+	 * A {@link Plane} whose vertices are raised by height samples, one per
+	 * vertex, row by row from -z to +z. The normals follow the slopes
+	 * between neighboring samples.
+	 */
+	public static class Heightfield extends MeshGenerator {
+		private final float[] mHeights;
+		private final int mSamplesX;
+		private final int mSamplesZ;
+		private final float mWidth;
+		private final float mDepth;
+
+		/**
+		 * @param heights
+		 *            - samplesX x samplesZ heights, kept (not copied).
+		 */
+		public Heightfield(float[] heights, int samplesX, int samplesZ,
+				float width, float depth, int flags) {
+			super(flags);
+			if (heights.length < samplesX * samplesZ) {
+				throw new IllegalArgumentException("Heightfield: "
+						+ heights.length + " heights for " + samplesX + "x"
+						+ samplesZ + " samples");
+			}
+			mHeights = heights;
+			mSamplesX = samplesX;
+			mSamplesZ = samplesZ;
+			mWidth = width;
+			mDepth = depth;
+			init();
+		}
+
+		@Override
+		protected int getPatchCount() {
+			return 1;
+		}
+
+		@Override
+		protected int getColumns(int patch) {
+			return mSamplesX - 1;
+		}
+
+		@Override
+		protected int getRows(int patch) {
+			return mSamplesZ - 1;
+		}
+
+		@Override
+		protected void vertex(int patch, int column, int row, float[] out) {
+			float u = (float) column / (mSamplesX - 1);
+			float v = (float) row / (mSamplesZ - 1);
+			out[0] = (u - 0.5f) * mWidth;
+			out[1] = mHeights[row * mSamplesX + column];
+			out[2] = (v - 0.5f) * mDepth;
+			// Central differences, one-sided on the borders
+			int left = Math.max(column - 1, 0);
+			int right = Math.min(column + 1, mSamplesX - 1);
+			int up = Math.max(row - 1, 0);
+			int down = Math.min(row + 1, mSamplesZ - 1);
+			float dx = (mHeights[row * mSamplesX + right] - mHeights[row
+					* mSamplesX + left])
+					/ ((right - left) * mWidth / (mSamplesX - 1));
+			float dz = (mHeights[down * mSamplesX + column] - mHeights[up
+					* mSamplesX + column])
+					/ ((down - up) * mDepth / (mSamplesZ - 1));
+			float length = MatrixMath.length(dx, 1, dz);
+			out[3] = -dx / length;
+			out[4] = 1 / length;
+			out[5] = -dz / length;
+			out[6] = u;
+			out[7] = v;
+		}
+	}
+
+	/**
+	 * A box centered on the origin, each face a grid of segments x segments
+	 * cells with the whole texture on it. Side faces are upright; the top
+	 * face has its top edge at -z, the bottom face at +z.
+	 */
+	public static class Box extends MeshGenerator {
+		// Corner at texel (0, 0), then the edges along u and v, of every
+		// face of the -1..1 cube: +z, -z, +x, -x, +y, -y
+		private static final float[][] FACES = {
+				{ -1, 1, 1, 2, 0, 0, 0, -2, 0 },
+				{ 1, 1, -1, -2, 0, 0, 0, -2, 0 },
+				{ 1, 1, 1, 0, 0, -2, 0, -2, 0 },
+				{ -1, 1, -1, 0, 0, 2, 0, -2, 0 },
+				{ -1, 1, -1, 2, 0, 0, 0, 0, 2 },
+				{ -1, -1, 1, 2, 0, 0, 0, 0, -2 } };
+		private static final float[][] FACE_NORMALS = { { 0, 0, 1 },
+				{ 0, 0, -1 }, { 1, 0, 0 }, { -1, 0, 0 }, { 0, 1, 0 },
+				{ 0, -1, 0 } };
+
+		private final float mHalfX;
+		private final float mHalfY;
+		private final float mHalfZ;
+		private final int mSegments;
+
+		public Box(float width, float height, float depth, int segments,
+				int flags) {
+			super(flags);
+			mHalfX = width * 0.5f;
+			mHalfY = height * 0.5f;
+			mHalfZ = depth * 0.5f;
+			mSegments = segments;
+			init();
+		}
+
+		@Override
+		protected int getPatchCount() {
+			return 6;
+		}
+
+		@Override
+		protected int getColumns(int patch) {
+			return mSegments;
+		}
+
+		@Override
+		protected int getRows(int patch) {
+			return mSegments;
+		}
+
+		@Override
+		protected void vertex(int patch, int column, int row, float[] out) {
+			float[] f = FACES[patch];
+			float u = (float) column / mSegments;
+			float v = (float) row / mSegments;
+			out[0] = (f[0] + f[3] * u + f[6] * v) * mHalfX;
+			out[1] = (f[1] + f[4] * u + f[7] * v) * mHalfY;
+			out[2] = (f[2] + f[5] * u + f[8] * v) * mHalfZ;
+			out[3] = FACE_NORMALS[patch][0];
+			out[4] = FACE_NORMALS[patch][1];
+			out[5] = FACE_NORMALS[patch][2];
+			out[6] = u;
+			out[7] = v;
+		}
+	}
+
+	/**
+	 * A UV sphere centered on the origin, its poles on the y axis. The
+	 * texture wraps around from +z towards +x, top row at the north pole.
+	 */
+	public static class Sphere extends MeshGenerator {
+		private final float mRadius;
+		private final int mSlices;
+		private final int mStacks;
+		// sin and cos of the longitude of every column, of the colatitude of
+		// every row
+		private final float[] mSinTheta, mCosTheta, mSinPhi, mCosPhi;
+
+		public Sphere(float radius, int slices, int stacks, int flags) {
+			super(flags);
+			mRadius = radius;
+			mSlices = slices;
+			mStacks = stacks;
+			mSinTheta = new float[slices + 1];
+			mCosTheta = new float[slices + 1];
+			angles(slices, 2 * Math.PI, mSinTheta, mCosTheta);
+			mSinPhi = new float[stacks + 1];
+			mCosPhi = new float[stacks + 1];
+			angles(stacks, Math.PI, mSinPhi, mCosPhi);
+			init();
+		}
+
+		@Override
+		protected int getPatchCount() {
+			return 1;
+		}
+
+		@Override
+		protected int getColumns(int patch) {
+			return mSlices;
+		}
+
+		@Override
+		protected int getRows(int patch) {
+			return mStacks;
+		}
+
+		@Override
+		protected int getPoles(int patch) {
+			return FIRST_ROW_POLE | LAST_ROW_POLE;
+		}
+
+		@Override
+		protected void vertex(int patch, int column, int row, float[] out) {
+			float nx = mSinPhi[row] * mSinTheta[column];
+			float ny = mCosPhi[row];
+			float nz = mSinPhi[row] * mCosTheta[column];
+			out[0] = nx * mRadius;
+			out[1] = ny * mRadius;
+			out[2] = nz * mRadius;
+			out[3] = nx;
+			out[4] = ny;
+			out[5] = nz;
+			out[6] = (float) column / mSlices;
+			out[7] = (float) row / mStacks;
+		}
+	}
+
+	/**
+	 * A closed cylinder centered on the origin, along the y axis. The side
+	 * is textured like a {@link Sphere}, each cap with the whole texture
+	 * seen from above.
+	 */
+	public static class Cylinder extends MeshGenerator {
+		private final float mRadius;
+		private final float mHeight;
+		private final int mSlices;
+		private final int mStacks;
+		private final float[] mSinTheta, mCosTheta;
+
+		public Cylinder(float radius, float height, int slices, int stacks,
+				int flags) {
+			super(flags);
+			mRadius = radius;
+			mHeight = height;
+			mSlices = slices;
+			mStacks = stacks;
+			mSinTheta = new float[slices + 1];
+			mCosTheta = new float[slices + 1];
+			angles(slices, 2 * Math.PI, mSinTheta, mCosTheta);
+			init();
+		}
+
+		// Patches: the side, the top cap from its center to its rim, and the
+		// bottom cap from its rim to its center
+		@Override
+		protected int getPatchCount() {
+			return 3;
+		}
+
+		@Override
+		protected int getColumns(int patch) {
+			return mSlices;
+		}
+
+		@Override
+		protected int getRows(int patch) {
+			return patch == 0 ? mStacks : 1;
+		}
+
+		@Override
+		protected int getPoles(int patch) {
+			return patch == 1 ? FIRST_ROW_POLE : patch == 2 ? LAST_ROW_POLE
+					: 0;
+		}
+
+		@Override
+		protected void vertex(int patch, int column, int row, float[] out) {
+			float sin = mSinTheta[column];
+			float cos = mCosTheta[column];
+			if (patch == 0) {
+				float v = (float) row / mStacks;
+				out[0] = sin * mRadius;
+				out[1] = (0.5f - v) * mHeight;
+				out[2] = cos * mRadius;
+				out[3] = sin;
+				out[4] = 0;
+				out[5] = cos;
+				out[6] = (float) column / mSlices;
+				out[7] = v;
+				return;
+			}
+			float ring = patch == 1 ? row : 1 - row;
+			out[0] = sin * mRadius * ring;
+			out[1] = patch == 1 ? mHeight * 0.5f : -mHeight * 0.5f;
+			out[2] = cos * mRadius * ring;
+			out[3] = 0;
+			out[4] = patch == 1 ? 1 : -1;
+			out[5] = 0;
+			out[6] = 0.5f + 0.5f * sin * ring;
+			out[7] = 0.5f + 0.5f * cos * ring;
+		}
+	}
+
+	/**
+	 * A torus centered on the origin, around the y axis. The texture wraps
+	 * around the ring from +z towards +x, and around the tube from its
+	 * outer equator, going down.
+	 */
+	public static class Torus extends MeshGenerator {
+		private final float mRadius;
+		private final float mTubeRadius;
+		private final int mSegments;
+		private final int mTubeSegments;
+		private final float[] mSinTheta, mCosTheta, mSinPhi, mCosPhi;
+
+		/**
+		 * @param radius
+		 *            - Distance from the center to the middle of the tube.
+		 * @param tubeRadius
+		 *            - Radius of the tube.
+		 */
+		public Torus(float radius, float tubeRadius, int segments,
+				int tubeSegments, int flags) {
+			super(flags);
+			mRadius = radius;
+			mTubeRadius = tubeRadius;
+			mSegments = segments;
+			mTubeSegments = tubeSegments;
+			mSinTheta = new float[segments + 1];
+			mCosTheta = new float[segments + 1];
+			angles(segments, 2 * Math.PI, mSinTheta, mCosTheta);
+			mSinPhi = new float[tubeSegments + 1];
+			mCosPhi = new float[tubeSegments + 1];
+			angles(tubeSegments, 2 * Math.PI, mSinPhi, mCosPhi);
+			init();
+		}
+
+		@Override
+		protected int getPatchCount() {
+			return 1;
+		}
+
+		@Override
+		protected int getColumns(int patch) {
+			return mSegments;
+		}
+
+		@Override
+		protected int getRows(int patch) {
+			return mTubeSegments;
+		}
+
+		@Override
+		protected void vertex(int patch, int column, int row, float[] out) {
+			float sinTheta = mSinTheta[column];
+			float cosTheta = mCosTheta[column];
+			float cosPhi = mCosPhi[row];
+			float sinPhi = mSinPhi[row];
+			float distance = mRadius + mTubeRadius * cosPhi;
+			out[0] = distance * sinTheta;
+			out[1] = -mTubeRadius * sinPhi;
+			out[2] = distance * cosTheta;
+			out[3] = cosPhi * sinTheta;
+			out[4] = -sinPhi;
+			out[5] = cosPhi * cosTheta;
+			out[6] = (float) column / mSegments;
+			out[7] = (float) row / mTubeSegments;
+		}
+	}
+
+	/*
+	 * Fills the sin and cos of count + 1 angles evenly spread over [0, range]
+	 * (half or full turn), the last one exact so that poles are one point
+	 * and seams do not crack.
+	 */
+	private static void angles(int count, double range, float[] sin,
+			float[] cos) {
+		for (int i = 0; i < count; i++) {
+			double a = range * i / count;
+			sin[i] = (float) Math.sin(a);
+			cos[i] = (float) Math.cos(a);
+		}
+		sin[count] = 0;
+		cos[count] = range == Math.PI ? -1 : 1;
+	}
+}
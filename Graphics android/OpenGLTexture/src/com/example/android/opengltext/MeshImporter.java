@@ -0,0 +1,1539 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads Wavefront OBJ and glTF 2.0 models into indexed meshes whose
+ * vertices are laid out like those of a {@link MeshGenerator} with the same
+ * flags: position, then the optional normal and texture coordinate. The
+ * triangles are ordered for the vertex cache by a {@link MeshCompiler}, so
+ * the result can be written to a {@link MeshFile} or handed to a
+ * {@link VertexWriter} as it is. Vertices are shared as the file indexes
+ * them and not welded again by value.
+ *
+ * <p>
+ * OBJ text is streamed in chunks of about {@link #CHUNK_SIZE} bytes cut at
+ * line ends. With an executor every chunk is parsed by a task while the next
+ * one is read, and only a few chunks are in flight at a time: the heap holds
+ * the parsed numbers, never the whole text. Polygons are split into fans of
+ * triangles, and every distinct v/vt/vn triple becomes one vertex. Missing
+ * normals are computed from the faces.
+ * </p>
+ *
+ * <p>
+ * glTF models are read from .glb files, whose binary chunk is mapped rather
+ * than copied, or from .gltf files with their buffers embedded as base64
+ * data URIs or stored next to them. The triangles of the default scene are
+ * gathered with their node transforms applied, by parallel tasks.
+ * </p>
+ *
+ * <p>
+ * Texture coordinates have their origin at the top left of the image, as in
+ * glTF and in the rest of this app; OBJ ones are flipped. This class uses no
+ * OpenGL calls and can be run offline.
+ * </p>
+ */
+public class MeshImporter {
+
+	// Size of the pieces of OBJ text handed to the parsing tasks
+	public static final int CHUNK_SIZE = 1 << 20;
+	// Vertices or indices written by one task
+	static final int VERTICES_PER_TASK = 1 << 16;
+
+	// Marks a missing vt or vn in a face corner
+	private static final int MISSING = Integer.MIN_VALUE;
+
+	private static final int GLB_MAGIC = 0x46546C67;
+	private static final int GLB_JSON = 0x4E4F534A;
+	private static final int GLB_BIN = 0x004E4942;
+	private static final int GL_TRIANGLES = 4;
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private final int mFlags;
+	private final int mFloatsPerVertex;
+	private final MeshCompiler mCompiler;
+	private ExecutorService mExecutor;
+
+	/**
+	 * @param flags
+	 *            - {@link MeshGenerator#NORMALS} and
+	 *            {@link MeshGenerator#TEX_COORDS}, for the attributes that
+	 *            follow the position.
+	 */
+	public MeshImporter(int flags) {
+		mFlags = flags;
+		int[] components = new int[1 + Integer.bitCount(flags
+				& (MeshGenerator.NORMALS | MeshGenerator.TEX_COORDS))];
+		int a = 0;
+		components[a++] = 3;
+		if ((flags & MeshGenerator.NORMALS) != 0) {
+			components[a++] = 3;
+		}
+		if ((flags & MeshGenerator.TEX_COORDS) != 0) {
+			components[a++] = 2;
+		}
+		int floats = 0;
+		for (int c : components) {
+			floats += c;
+		}
+		mFloatsPerVertex = floats;
+		mCompiler = new MeshCompiler(components);
+	}
+
+	/**
+	 * Parses on the threads of an executor, or on the calling thread if
+	 * null (the default). At most twice as many OBJ chunks as there are
+	 * processors are held at a time.
+	 */
+	public MeshImporter setExecutor(ExecutorService executor) {
+		mExecutor = executor;
+		return this;
+	}
+
+	/**
+	 * Enables or disables the vertex cache reordering of the imported mesh
+	 * (enabled by default), see {@link MeshCompiler#setOptimize}.
+	 */
+	public MeshImporter setOptimize(boolean optimize) {
+		mCompiler.setOptimize(optimize);
+		return this;
+	}
+
+	/**
+	 * Returns the number of floats of an imported vertex.
+	 */
+	public int getFloatsPerVertex() {
+		return mFloatsPerVertex;
+	}
+
+	/*
+	 * Runs tasks on the executor, or in order on this thread, and returns
+	 * their results in order.
+	 */
+	private <T> List<T> run(List<Callable<T>> tasks) throws IOException,
+			InterruptedException {
+		List<T> results = new ArrayList<T>(tasks.size());
+		if (mExecutor == null) {
+			for (Callable<T> task : tasks) {
+				results.add(call(task));
+			}
+			return results;
+		}
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		for (Callable<T> task : tasks) {
+			futures.add(mExecutor.submit(task));
+		}
+		for (Future<T> future : futures) {
+			results.add(get(future));
+		}
+		return results;
+	}
+
+	private static <T> T call(Callable<T> task) throws IOException {
+		try {
+			return task.call();
+		} catch (IOException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static <T> T get(Future<T> future) throws IOException,
+			InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	// ------------------------------------------------------------------ OBJ
+
+	/**
+	 * Reads a Wavefront OBJ model. Only v, vt, vn and f lines are used; the
+	 * stream is not closed.
+	 *
+	 * @throws IOException
+	 *             if the stream fails, or holds a malformed number or face.
+	 */
+	public MeshCompiler.Mesh readObj(InputStream in) throws IOException,
+			InterruptedException {
+		List<ObjChunk> chunks = new ArrayList<ObjChunk>();
+		List<Future<ObjChunk>> pending = new ArrayList<Future<ObjChunk>>();
+		int maxPending = 2 * Runtime.getRuntime().availableProcessors();
+		byte[] buffer = new byte[CHUNK_SIZE];
+		int length = 0;
+		boolean end = false;
+		while (!end) {
+			int n = in.read(buffer, length, buffer.length - length);
+			if (n < 0) {
+				end = true;
+			} else {
+				length += n;
+				if (length < buffer.length) {
+					continue;
+				}
+			}
+			// Cut after the last line end; the rest starts the next chunk
+			int cut = length;
+			if (!end) {
+				while (cut > 0 && buffer[cut - 1] != '\n') {
+					cut--;
+				}
+				if (cut == 0) {
+					// A line longer than the buffer
+					byte[] bigger = new byte[buffer.length * 2];
+					System.arraycopy(buffer, 0, bigger, 0, length);
+					buffer = bigger;
+					continue;
+				}
+			}
+			byte[] next = new byte[Math.max(CHUNK_SIZE, length - cut)];
+			System.arraycopy(buffer, cut, next, 0, length - cut);
+			final ObjChunk chunk = new ObjChunk(buffer, cut);
+			buffer = next;
+			length -= cut;
+
+			if (mExecutor == null) {
+				chunk.parse();
+				chunks.add(chunk);
+			} else {
+				if (pending.size() >= maxPending) {
+					chunks.add(get(pending.remove(0)));
+				}
+				pending.add(mExecutor.submit(new Callable<ObjChunk>() {
+					@Override
+					public ObjChunk call() throws IOException {
+						chunk.parse();
+						return chunk;
+					}
+				}));
+			}
+		}
+		for (Future<ObjChunk> future : pending) {
+			chunks.add(get(future));
+		}
+		return buildObj(chunks);
+	}
+
+	/*
+	 * Joins the chunks, resolves the relative indices and turns every
+	 * distinct corner into a vertex.
+	 */
+	private MeshCompiler.Mesh buildObj(List<ObjChunk> chunks)
+			throws IOException, InterruptedException {
+		int positionCount = 0;
+		int texCoordCount = 0;
+		int normalCount = 0;
+		int cornerCount = 0;
+		for (ObjChunk chunk : chunks) {
+			positionCount += chunk.positions.size / 3;
+			texCoordCount += chunk.texCoords.size / 2;
+			normalCount += chunk.normals.size / 3;
+			cornerCount += chunk.corners.size / 3;
+		}
+		float[] positions = new float[positionCount * 3];
+		float[] texCoords = new float[texCoordCount * 2];
+		float[] normals = new float[normalCount * 3];
+		int[] corners = new int[cornerCount * 3];
+		int[] base = new int[3];
+		int cornerBase = 0;
+		for (ObjChunk chunk : chunks) {
+			System.arraycopy(chunk.positions.values, 0, positions,
+					base[0] * 3, chunk.positions.size);
+			System.arraycopy(chunk.texCoords.values, 0, texCoords,
+					base[1] * 2, chunk.texCoords.size);
+			System.arraycopy(chunk.normals.values, 0, normals, base[2] * 3,
+					chunk.normals.size);
+			int[] values = chunk.corners.values;
+			for (int i = 0; i < chunk.corners.size; i++) {
+				int value = values[i];
+				if (value != MISSING && chunk.relative.get(i)) {
+					value += base[i % 3];
+				}
+				corners[cornerBase + i] = value;
+			}
+			cornerBase += chunk.corners.size;
+			base[0] += chunk.positions.size / 3;
+			base[1] += chunk.texCoords.size / 2;
+			base[2] += chunk.normals.size / 3;
+			chunk.release();
+		}
+		chunks.clear();
+
+		boolean useNormals = (mFlags & MeshGenerator.NORMALS) != 0;
+		boolean useTexCoords = (mFlags & MeshGenerator.TEX_COORDS) != 0;
+		int[] counts = { positionCount, texCoordCount, normalCount };
+		for (int i = 0; i < corners.length; i++) {
+			int value = corners[i];
+			int type = i % 3;
+			if (value == MISSING && type == 0 || value != MISSING
+					&& (value < 0 || value >= counts[type])) {
+				throw new IOException("OBJ: face index out of range");
+			}
+			// Unused attributes do not split vertices
+			if (type == 1 && !useTexCoords || type == 2 && !useNormals) {
+				corners[i] = MISSING;
+			}
+		}
+
+		// One vertex per distinct triple. The vertices of a position are
+		// chained from it, so a lookup reads the few triples sharing the
+		// position instead of probing a table spread over the whole mesh
+		int[] indices = new int[cornerCount];
+		int[] keys = new int[Math.max(positionCount, 16) * 3];
+		int[] next = new int[keys.length / 3];
+		int[] first = new int[positionCount];
+		java.util.Arrays.fill(first, -1);
+		int vertexCount = 0;
+		for (int c = 0; c < cornerCount; c++) {
+			int v = corners[c * 3];
+			int t = corners[c * 3 + 1];
+			int n = corners[c * 3 + 2];
+			int found = first[v];
+			while (found != -1 && (keys[found * 3 + 1] != t
+					|| keys[found * 3 + 2] != n)) {
+				found = next[found];
+			}
+			if (found == -1) {
+				found = vertexCount++;
+				if (found * 3 == keys.length) {
+					int[] bigger = new int[keys.length * 2];
+					System.arraycopy(keys, 0, bigger, 0, keys.length);
+					keys = bigger;
+					bigger = new int[next.length * 2];
+					System.arraycopy(next, 0, bigger, 0, next.length);
+					next = bigger;
+				}
+				keys[found * 3] = v;
+				keys[found * 3 + 1] = t;
+				keys[found * 3 + 2] = n;
+				next[found] = first[v];
+				first[v] = found;
+			}
+			indices[c] = found;
+		}
+		first = null;
+		next = null;
+		corners = null;
+
+		float[] vertices = writeObjVertices(keys, vertexCount, positions,
+				texCoords, normals);
+		if (useNormals) {
+			BitSet missing = new BitSet(vertexCount);
+			for (int i = 0; i < vertexCount; i++) {
+				if (keys[i * 3 + 2] == MISSING) {
+					missing.set(i);
+				}
+			}
+			if (!missing.isEmpty()) {
+				computeNormals(vertices, mFloatsPerVertex, indices, 0,
+						indices.length, missing);
+			}
+		}
+		return mCompiler.compileUnique(vertices, vertexCount, indices);
+	}
+
+	/*
+	 * Gathers the attributes of every vertex, in ranges of vertices written
+	 * by parallel tasks.
+	 */
+	private float[] writeObjVertices(final int[] keys, int vertexCount,
+			final float[] positions, final float[] texCoords,
+			final float[] normals) throws IOException, InterruptedException {
+		final int floats = mFloatsPerVertex;
+		final boolean useNormals = (mFlags & MeshGenerator.NORMALS) != 0;
+		final boolean useTexCoords = (mFlags & MeshGenerator.TEX_COORDS) != 0;
+		final float[] vertices = new float[vertexCount * floats];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int first = 0; first < vertexCount; first += VERTICES_PER_TASK) {
+			final int from = first;
+			final int to = Math.min(first + VERTICES_PER_TASK, vertexCount);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int i = from; i < to; i++) {
+						int at = i * floats;
+						System.arraycopy(positions, keys[i * 3] * 3, vertices,
+								at, 3);
+						at += 3;
+						if (useNormals) {
+							int n = keys[i * 3 + 2];
+							if (n != MISSING) {
+								System.arraycopy(normals, n * 3, vertices, at,
+										3);
+							}
+							at += 3;
+						}
+						if (useTexCoords) {
+							int t = keys[i * 3 + 1];
+							if (t != MISSING) {
+								vertices[at] = texCoords[t * 2];
+								vertices[at + 1] = 1 - texCoords[t * 2 + 1];
+							}
+						}
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		return vertices;
+	}
+
+	/*
+	 * Sets the normals of the vertices in missing to the area-weighted sum
+	 * of the normals of their faces. Normals follow the position.
+	 */
+	static void computeNormals(float[] vertices, int floats, int[] indices,
+			int from, int to, BitSet missing) {
+		for (int v = missing.nextSetBit(0); v >= 0; v = missing
+				.nextSetBit(v + 1)) {
+			vertices[v * floats + 3] = 0;
+			vertices[v * floats + 4] = 0;
+			vertices[v * floats + 5] = 0;
+		}
+		for (int i = from; i < to; i += 3) {
+			int a = indices[i] * floats;
+			int b = indices[i + 1] * floats;
+			int c = indices[i + 2] * floats;
+			float ux = vertices[b] - vertices[a];
+			float uy = vertices[b + 1] - vertices[a + 1];
+			float uz = vertices[b + 2] - vertices[a + 2];
+			float wx = vertices[c] - vertices[a];
+			float wy = vertices[c + 1] - vertices[a + 1];
+			float wz = vertices[c + 2] - vertices[a + 2];
+			float nx = uy * wz - uz * wy;
+			float ny = uz * wx - ux * wz;
+			float nz = ux * wy - uy * wx;
+			for (int k = 0; k < 3; k++) {
+				int v = indices[i + k];
+				if (missing.get(v)) {
+					vertices[v * floats + 3] += nx;
+					vertices[v * floats + 4] += ny;
+					vertices[v * floats + 5] += nz;
+				}
+			}
+		}
+		for (int v = missing.nextSetBit(0); v >= 0; v = missing
+				.nextSetBit(v + 1)) {
+			int n = v * floats + 3;
+			float length = MatrixMath.length(vertices[n], vertices[n + 1],
+					vertices[n + 2]);
+			if (length > 0) {
+				vertices[n] /= length;
+				vertices[n + 1] /= length;
+				vertices[n + 2] /= length;
+			} else {
+				vertices[n + 1] = 1;
+			}
+		}
+	}
+
+	/*
+	 * A growable array of floats.
+	 */
+	private static class FloatList {
+		float[] values = new float[1024];
+		int size;
+
+		void add(float value) {
+			if (size == values.length) {
+				float[] bigger = new float[size * 2];
+				System.arraycopy(values, 0, bigger, 0, size);
+				values = bigger;
+			}
+			values[size++] = value;
+		}
+	}
+
+	/*
+	 * A growable array of ints.
+	 */
+	private static class IntList {
+		int[] values = new int[1024];
+		int size;
+
+		void add(int value) {
+			if (size == values.length) {
+				int[] bigger = new int[size * 2];
+				System.arraycopy(values, 0, bigger, 0, size);
+				values = bigger;
+			}
+			values[size++] = value;
+		}
+	}
+
+	/*
+	 * The text of a piece of an OBJ file, then its parsed numbers. Indices
+	 * are 0-based; negative OBJ indices are counted from the start of the
+	 * chunk (and so may be negative) and marked in relative.
+	 */
+	private static class ObjChunk {
+		private byte[] mText;
+		private final int mLength;
+		private int mAt;
+
+		final FloatList positions = new FloatList();
+		final FloatList texCoords = new FloatList();
+		final FloatList normals = new FloatList();
+		// v, vt, vn of every corner of every triangle
+		final IntList corners = new IntList();
+		final BitSet relative = new BitSet();
+
+		// Corners of the face being read
+		private int[] mFace = new int[3 * 8];
+		private boolean[] mFaceRelative = new boolean[3 * 8];
+
+		ObjChunk(byte[] text, int length) {
+			mText = text;
+			mLength = length;
+		}
+
+		void release() {
+			mText = null;
+		}
+
+		void parse() throws IOException {
+			byte[] text = mText;
+			mAt = 0;
+			while (mAt < mLength) {
+				skipBlanks();
+				if (mAt + 1 < mLength && text[mAt] == 'v') {
+					byte kind = text[mAt + 1];
+					if (kind == ' ' || kind == '\t') {
+						mAt += 2;
+						positions.add(parseFloat());
+						positions.add(parseFloat());
+						positions.add(parseFloat());
+					} else if (kind == 't') {
+						mAt += 2;
+						texCoords.add(parseFloat());
+						texCoords.add(hasToken() ? parseFloat() : 0);
+					} else if (kind == 'n') {
+						mAt += 2;
+						normals.add(parseFloat());
+						normals.add(parseFloat());
+						normals.add(parseFloat());
+					}
+				} else if (mAt + 1 < mLength && text[mAt] == 'f'
+						&& (text[mAt + 1] == ' ' || text[mAt + 1] == '\t')) {
+					mAt += 2;
+					parseFace();
+				}
+				skipLine();
+			}
+			mText = null;
+		}
+
+		private void parseFace() throws IOException {
+			int count = 0;
+			while (hasToken()) {
+				if ((count + 1) * 3 > mFace.length) {
+					int[] bigger = new int[mFace.length * 2];
+					System.arraycopy(mFace, 0, bigger, 0, mFace.length);
+					mFace = bigger;
+					boolean[] biggerRelative = new boolean[mFace.length];
+					System.arraycopy(mFaceRelative, 0, biggerRelative, 0,
+							mFaceRelative.length);
+					mFaceRelative = biggerRelative;
+				}
+				int at = count * 3;
+				parseIndex(at, positions.size / 3);
+				mFace[at + 1] = MISSING;
+				mFace[at + 2] = MISSING;
+				if (mAt < mLength && mText[mAt] == '/') {
+					mAt++;
+					if (mAt < mLength && mText[mAt] != '/') {
+						parseIndex(at + 1, texCoords.size / 2);
+					}
+					if (mAt < mLength && mText[mAt] == '/') {
+						mAt++;
+						parseIndex(at + 2, normals.size / 3);
+					}
+				}
+				count++;
+			}
+			if (count < 3) {
+				throw new IOException("OBJ: face with " + count + " corners");
+			}
+			for (int k = 2; k < count; k++) {
+				addCorner(0);
+				addCorner((k - 1) * 3);
+				addCorner(k * 3);
+			}
+		}
+
+		private void addCorner(int at) {
+			for (int i = at; i < at + 3; i++) {
+				if (mFaceRelative[i]) {
+					relative.set(corners.size);
+				}
+				corners.add(mFace[i]);
+			}
+		}
+
+		private void parseIndex(int at, int count) throws IOException {
+			int start = mAt;
+			boolean negative = mAt < mLength && mText[mAt] == '-';
+			if (negative) {
+				mAt++;
+			}
+			int value = 0;
+			while (mAt < mLength && mText[mAt] >= '0' && mText[mAt] <= '9') {
+				value = value * 10 + mText[mAt++] - '0';
+			}
+			if (value == 0) {
+				throw new IOException("OBJ: bad face index "
+						+ token(start));
+			}
+			mFace[at] = negative ? count - value : value - 1;
+			mFaceRelative[at] = negative;
+		}
+
+		/*
+		 * Parses a decimal number, exactly for up to 18 significant digits
+		 * and small exponents, with Double.parseDouble() otherwise.
+		 */
+		private float parseFloat() throws IOException {
+			skipBlanks();
+			byte[] text = mText;
+			int start = mAt;
+			boolean negative = false;
+			if (mAt < mLength && (text[mAt] == '-' || text[mAt] == '+')) {
+				negative = text[mAt++] == '-';
+			}
+			long mantissa = 0;
+			int digits = 0;
+			int exponent = 0;
+			boolean sawDigit = false;
+			boolean fraction = false;
+			for (; mAt < mLength; mAt++) {
+				byte b = text[mAt];
+				if (b >= '0' && b <= '9') {
+					sawDigit = true;
+					if (mantissa == 0 && b == '0') {
+						// Leading zeros only shift the fraction
+						exponent -= fraction ? 1 : 0;
+					} else if (digits < 18) {
+						mantissa = mantissa * 10 + b - '0';
+						digits++;
+						exponent -= fraction ? 1 : 0;
+					} else {
+						exponent += fraction ? 0 : 1;
+					}
+				} else if (b == '.' && !fraction) {
+					fraction = true;
+				} else {
+					break;
+				}
+			}
+			if (mAt < mLength && (text[mAt] == 'e' || text[mAt] == 'E')
+					&& sawDigit) {
+				mAt++;
+				boolean negativeExponent = false;
+				if (mAt < mLength && (text[mAt] == '-' || text[mAt] == '+')) {
+					negativeExponent = text[mAt++] == '-';
+				}
+				int e = 0;
+				while (mAt < mLength && text[mAt] >= '0' && text[mAt] <= '9') {
+					e = Math.min(e * 10 + text[mAt++] - '0', 10000);
+				}
+				exponent += negativeExponent ? -e : e;
+			}
+			if (!sawDigit || mAt < mLength && !isBlank(text[mAt])) {
+				// nan, inf or garbage: let the JDK decide
+				while (mAt < mLength && !isBlank(text[mAt])) {
+					mAt++;
+				}
+				try {
+					return Float.parseFloat(token(start));
+				} catch (NumberFormatException e) {
+					throw new IOException("OBJ: bad number " + token(start));
+				}
+			}
+			double value = mantissa;
+			if (exponent < 0 && exponent >= -22) {
+				value /= POWERS_OF_TEN[-exponent];
+			} else if (exponent > 0 && exponent <= 22) {
+				value *= POWERS_OF_TEN[exponent];
+			} else if (exponent != 0 && mantissa != 0) {
+				value = Double.parseDouble(token(start));
+				return (float) value;
+			}
+			return (float) (negative ? -value : value);
+		}
+
+		private String token(int start) {
+			int end = start;
+			while (end < mLength && !isBlank(mText[end])) {
+				end++;
+			}
+			try {
+				return new String(mText, start, end - start, "US-ASCII");
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private static boolean isBlank(byte b) {
+			return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+		}
+
+		private void skipBlanks() {
+			while (mAt < mLength && (mText[mAt] == ' ' || mText[mAt] == '\t')) {
+				mAt++;
+			}
+		}
+
+		/*
+		 * Returns whether another token follows on the line.
+		 */
+		private boolean hasToken() {
+			skipBlanks();
+			return mAt < mLength && mText[mAt] != '\r' && mText[mAt] != '\n'
+					&& mText[mAt] != '#';
+		}
+
+		private void skipLine() {
+			while (mAt < mLength && mText[mAt] != '\n') {
+				mAt++;
+			}
+			mAt++;
+		}
+	}
+
+	// ----------------------------------------------------------------- glTF
+
+	/**
+	 * Reads a glTF 2.0 model from a .glb or .gltf file, mapping the file.
+	 * Buffers given by a relative URI are read next to it.
+	 *
+	 * @throws IOException
+	 *             if a file cannot be read or the model is malformed.
+	 */
+	public MeshCompiler.Mesh readGltf(File file) throws IOException,
+			InterruptedException {
+		return readGltf(map(file), file.getAbsoluteFile().getParentFile());
+	}
+
+	/**
+	 * Reads a glTF 2.0 model held in memory, such as an asset. Its buffers
+	 * must be in the GLB binary chunk or embedded as data URIs.
+	 */
+	public MeshCompiler.Mesh readGltf(ByteBuffer data) throws IOException,
+			InterruptedException {
+		return readGltf(data, null);
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			return in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					in.length());
+		} finally {
+			in.close();
+		}
+	}
+
+	private MeshCompiler.Mesh readGltf(ByteBuffer data, File directory)
+			throws IOException, InterruptedException {
+		data = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer json = data;
+		ByteBuffer bin = null;
+		if (data.remaining() >= 20 && data.getInt(0) == GLB_MAGIC) {
+			if (data.getInt(4) != 2) {
+				throw new IOException("glTF: GLB version " + data.getInt(4));
+			}
+			int length = Math.min(data.getInt(8), data.limit());
+			int jsonLength = data.getInt(12);
+			if (data.getInt(16) != GLB_JSON || 20 + jsonLength > length) {
+				throw new IOException("glTF: bad GLB JSON chunk");
+			}
+			json = slice(data, 20, jsonLength);
+			int at = 20 + ((jsonLength + 3) & ~3);
+			if (at + 8 <= length && data.getInt(at + 4) == GLB_BIN) {
+				int binLength = data.getInt(at);
+				if (at + 8 + binLength > length) {
+					throw new IOException("glTF: truncated GLB BIN chunk");
+				}
+				bin = slice(data, at + 8, binLength);
+			}
+		}
+		Map<String, Object> root = object(new JsonParser(json).parse(),
+				"root");
+		Gltf gltf = new Gltf(root, bin, directory);
+
+		// Every triangle primitive with the matrix of its node
+		List<Primitive> primitives = new ArrayList<Primitive>();
+		List<Object> scenes = list(root.get("scenes"));
+		if (scenes.isEmpty()) {
+			float[] identity = new float[16];
+			MatrixMath.setIdentityM(identity, 0);
+			for (int m = 0; m < list(root.get("meshes")).size(); m++) {
+				gltf.addMesh(m, identity, primitives);
+			}
+		} else {
+			int scene = root.containsKey("scene") ? integer(root.get("scene"))
+					: 0;
+			float[] identity = new float[16];
+			MatrixMath.setIdentityM(identity, 0);
+			for (Object node : list(object(scenes.get(scene), "scene").get(
+					"nodes"))) {
+				gltf.addNode(integer(node), identity, primitives, 0);
+			}
+		}
+
+		int vertexCount = 0;
+		int indexCount = 0;
+		for (Primitive p : primitives) {
+			p.vertexBase = vertexCount;
+			p.indexBase = indexCount;
+			vertexCount += p.positions.count;
+			indexCount += p.indexCount;
+		}
+		final float[] vertices = new float[vertexCount * mFloatsPerVertex];
+		final int[] indices = new int[indexCount];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final Primitive p : primitives) {
+			int count = p.positions.count;
+			for (int first = 0; first < count; first += VERTICES_PER_TASK) {
+				final int from = first;
+				final int to = Math.min(first + VERTICES_PER_TASK, count);
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						writeGltfVertices(p, from, to, vertices);
+						return null;
+					}
+				});
+			}
+			count = p.indexCount;
+			for (int first = 0; first < count; first += VERTICES_PER_TASK) {
+				final int from = first;
+				final int to = Math.min(first + VERTICES_PER_TASK, count);
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						writeGltfIndices(p, from, to, indices);
+						return null;
+					}
+				});
+			}
+		}
+		run(tasks);
+
+		if ((mFlags & MeshGenerator.NORMALS) != 0) {
+			for (Primitive p : primitives) {
+				if (p.normals == null) {
+					BitSet missing = new BitSet();
+					missing.set(p.vertexBase, p.vertexBase + p.positions.count);
+					computeNormals(vertices, mFloatsPerVertex, indices,
+							p.indexBase, p.indexBase + p.indexCount, missing);
+				}
+			}
+		}
+		return mCompiler.compileUnique(vertices, vertexCount, indices);
+	}
+
+	private void writeGltfVertices(Primitive p, int from, int to,
+			float[] vertices) {
+		float[] m = p.matrix;
+		float[] n = p.normalMatrix;
+		boolean useNormals = (mFlags & MeshGenerator.NORMALS) != 0;
+		boolean useTexCoords = (mFlags & MeshGenerator.TEX_COORDS) != 0;
+		for (int i = from; i < to; i++) {
+			int at = (p.vertexBase + i) * mFloatsPerVertex;
+			float x = p.positions.get(i, 0);
+			float y = p.positions.get(i, 1);
+			float z = p.positions.get(i, 2);
+			vertices[at] = m[0] * x + m[4] * y + m[8] * z + m[12];
+			vertices[at + 1] = m[1] * x + m[5] * y + m[9] * z + m[13];
+			vertices[at + 2] = m[2] * x + m[6] * y + m[10] * z + m[14];
+			at += 3;
+			if (useNormals) {
+				if (p.normals != null) {
+					x = p.normals.get(i, 0);
+					y = p.normals.get(i, 1);
+					z = p.normals.get(i, 2);
+					float nx = n[0] * x + n[3] * y + n[6] * z;
+					float ny = n[1] * x + n[4] * y + n[7] * z;
+					float nz = n[2] * x + n[5] * y + n[8] * z;
+					float length = MatrixMath.length(nx, ny, nz);
+					if (length > 0) {
+						vertices[at] = nx / length;
+						vertices[at + 1] = ny / length;
+						vertices[at + 2] = nz / length;
+					}
+				}
+				at += 3;
+			}
+			if (useTexCoords && p.texCoords != null) {
+				vertices[at] = p.texCoords.get(i, 0);
+				vertices[at + 1] = p.texCoords.get(i, 1);
+			}
+		}
+	}
+
+	private static void writeGltfIndices(Primitive p, int from, int to,
+			int[] indices) throws IOException {
+		int count = p.positions.count;
+		for (int i = from; i < to; i++) {
+			int index = p.indices != null ? p.indices.getIndex(i) : i;
+			if (index < 0 || index >= count) {
+				throw new IOException("glTF: index " + index
+						+ " out of range");
+			}
+			// A mirroring transform turns the triangles inside out
+			int k = i % 3;
+			int at = p.mirrored && k != 0 ? i + (k == 1 ? 1 : -1) : i;
+			indices[p.indexBase + at] = p.vertexBase + index;
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer data, int offset, int length) {
+		ByteBuffer d = data.duplicate();
+		d.limit(offset + length).position(offset);
+		return d.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/*
+	 * One triangle primitive of a node, with its accessors.
+	 */
+	private static class Primitive {
+		Accessor positions;
+		Accessor normals;
+		Accessor texCoords;
+		Accessor indices;
+		int indexCount;
+		// Node to model matrix, and the cofactors of its 3x3 part
+		float[] matrix;
+		float[] normalMatrix;
+		boolean mirrored;
+		int vertexBase;
+		int indexBase;
+	}
+
+	/*
+	 * A typed view of a buffer.
+	 */
+	private static class Accessor {
+		ByteBuffer data;
+		int stride;
+		int componentType;
+		int componentSize;
+		int components;
+		int count;
+		boolean normalized;
+
+		float get(int i, int c) {
+			int at = i * stride + c * componentSize;
+			switch (componentType) {
+			case 5126:
+				return data.getFloat(at);
+			case 5121:
+				int ub = data.get(at) & 0xff;
+				return normalized ? ub / 255.0f : ub;
+			case 5123:
+				int us = data.getShort(at) & 0xffff;
+				return normalized ? us / 65535.0f : us;
+			case 5120:
+				byte b = data.get(at);
+				return normalized ? Math.max(b / 127.0f, -1) : b;
+			case 5122:
+				short s = data.getShort(at);
+				return normalized ? Math.max(s / 32767.0f, -1) : s;
+			default:
+				return data.getInt(at);
+			}
+		}
+
+		int getIndex(int i) {
+			int at = i * stride;
+			switch (componentType) {
+			case 5121:
+				return data.get(at) & 0xff;
+			case 5123:
+				return data.getShort(at) & 0xffff;
+			default:
+				return data.getInt(at);
+			}
+		}
+	}
+
+	/*
+	 * The parsed JSON of a model and its buffers, loaded on first use.
+	 */
+	private static class Gltf {
+		private static final int MAX_DEPTH = 64;
+
+		final Map<String, Object> root;
+		final ByteBuffer bin;
+		final File directory;
+		final ByteBuffer[] buffers;
+
+		Gltf(Map<String, Object> root, ByteBuffer bin, File directory)
+				throws IOException {
+			this.root = root;
+			this.bin = bin;
+			this.directory = directory;
+			buffers = new ByteBuffer[list(root.get("buffers")).size()];
+		}
+
+		void addNode(int index, float[] parent, List<Primitive> primitives,
+				int depth) throws IOException {
+			if (depth > MAX_DEPTH) {
+				throw new IOException("glTF: node hierarchy too deep");
+			}
+			Map<String, Object> node = object(list(root.get("nodes")).get(
+					index), "node");
+			float[] local = new float[16];
+			if (node.containsKey("matrix")) {
+				List<Object> m = list(node.get("matrix"));
+				for (int i = 0; i < 16; i++) {
+					local[i] = number(m.get(i));
+				}
+			} else {
+				float[] t = numbers(node.get("translation"), 0, 0, 0);
+				float[] r = numbers(node.get("rotation"), 0, 0, 0, 1);
+				float[] s = numbers(node.get("scale"), 1, 1, 1);
+				rotation(local, r[0], r[1], r[2], r[3]);
+				for (int i = 0; i < 3; i++) {
+					local[i] *= s[0];
+					local[4 + i] *= s[1];
+					local[8 + i] *= s[2];
+				}
+				local[12] = t[0];
+				local[13] = t[1];
+				local[14] = t[2];
+				local[15] = 1;
+			}
+			float[] world = new float[16];
+			MatrixMath.multiplyMM(world, 0, parent, 0, local, 0);
+			if (node.containsKey("mesh")) {
+				addMesh(integer(node.get("mesh")), world, primitives);
+			}
+			for (Object child : list(node.get("children"))) {
+				addNode(integer(child), world, primitives, depth + 1);
+			}
+		}
+
+		void addMesh(int index, float[] matrix, List<Primitive> primitives)
+				throws IOException {
+			Map<String, Object> mesh = object(list(root.get("meshes")).get(
+					index), "mesh");
+			float[] normalMatrix = cofactors(matrix);
+			float det = matrix[0] * normalMatrix[0] + matrix[4]
+					* normalMatrix[3] + matrix[8] * normalMatrix[6];
+			if (det < 0) {
+				// Keep the normals pointing out of mirrored shapes
+				for (int i = 0; i < 9; i++) {
+					normalMatrix[i] = -normalMatrix[i];
+				}
+			}
+			for (Object o : list(mesh.get("primitives"))) {
+				Map<String, Object> primitive = object(o, "primitive");
+				if (primitive.containsKey("mode")
+						&& integer(primitive.get("mode")) != GL_TRIANGLES) {
+					continue;
+				}
+				Map<String, Object> attributes = object(
+						primitive.get("attributes"), "attributes");
+				if (!attributes.containsKey("POSITION")) {
+					continue;
+				}
+				Primitive p = new Primitive();
+				p.positions = accessor(attributes.get("POSITION"));
+				if (attributes.containsKey("NORMAL")) {
+					p.normals = accessor(attributes.get("NORMAL"));
+				}
+				if (attributes.containsKey("TEXCOORD_0")) {
+					p.texCoords = accessor(attributes.get("TEXCOORD_0"));
+				}
+				if (primitive.containsKey("indices")) {
+					p.indices = accessor(primitive.get("indices"));
+					p.indexCount = p.indices.count;
+				} else {
+					p.indexCount = p.positions.count;
+				}
+				p.indexCount -= p.indexCount % 3;
+				p.matrix = matrix;
+				p.normalMatrix = normalMatrix;
+				p.mirrored = det < 0;
+				primitives.add(p);
+			}
+		}
+
+		Accessor accessor(Object index) throws IOException {
+			Map<String, Object> a = object(list(root.get("accessors")).get(
+					integer(index)), "accessor");
+			if (!a.containsKey("bufferView") || a.containsKey("sparse")) {
+				throw new IOException("glTF: sparse accessors not supported");
+			}
+			Map<String, Object> view = object(list(root.get("bufferViews"))
+					.get(integer(a.get("bufferView"))), "bufferView");
+			Accessor accessor = new Accessor();
+			accessor.componentType = integer(a.get("componentType"));
+			accessor.componentSize = accessor.componentType == 5126
+					|| accessor.componentType == 5125 ? 4
+					: accessor.componentType == 5123
+							|| accessor.componentType == 5122 ? 2 : 1;
+			String type = (String) a.get("type");
+			accessor.components = type.equals("SCALAR") ? 1 : type
+					.equals("VEC2") ? 2 : type.equals("VEC3") ? 3 : 4;
+			accessor.count = integer(a.get("count"));
+			accessor.normalized = Boolean.TRUE.equals(a.get("normalized"));
+			int elementSize = accessor.components * accessor.componentSize;
+			accessor.stride = view.containsKey("byteStride") ? integer(view
+					.get("byteStride")) : elementSize;
+
+			ByteBuffer buffer = buffer(integer(view.get("buffer")));
+			long offset = optional(view, "byteOffset")
+					+ (long) optional(a, "byteOffset");
+			long end = offset + (long) Math.max(accessor.count - 1, 0)
+					* accessor.stride + elementSize;
+			long viewEnd = optional(view, "byteOffset")
+					+ (long) integer(view.get("byteLength"));
+			if (accessor.count > 0
+					&& (end > viewEnd || viewEnd > buffer.limit())) {
+				throw new IOException("glTF: accessor out of its buffer");
+			}
+			accessor.data = slice(buffer, (int) offset, (int) Math.max(
+					end - offset, 0));
+			return accessor;
+		}
+
+		ByteBuffer buffer(int index) throws IOException {
+			if (buffers[index] != null) {
+				return buffers[index];
+			}
+			Map<String, Object> b = object(list(root.get("buffers")).get(
+					index), "buffer");
+			Object uri = b.get("uri");
+			ByteBuffer data;
+			if (uri == null) {
+				if (bin == null) {
+					throw new IOException("glTF: buffer " + index
+							+ " without data");
+				}
+				data = bin;
+			} else if (uri instanceof DataUri) {
+				data = ((DataUri) uri).decode();
+			} else if (directory != null) {
+				data = map(new File(directory, URLDecoder.decode(
+						(String) uri, "UTF-8")));
+			} else {
+				throw new IOException("glTF: external buffer " + uri);
+			}
+			buffers[index] = data.order(ByteOrder.LITTLE_ENDIAN);
+			return buffers[index];
+		}
+	}
+
+	/*
+	 * Sets m to the rotation of a unit quaternion.
+	 */
+	private static void rotation(float[] m, float x, float y, float z,
+			float w) {
+		m[0] = 1 - 2 * (y * y + z * z);
+		m[1] = 2 * (x * y + z * w);
+		m[2] = 2 * (x * z - y * w);
+		m[4] = 2 * (x * y - z * w);
+		m[5] = 1 - 2 * (x * x + z * z);
+		m[6] = 2 * (y * z + x * w);
+		m[8] = 2 * (x * z + y * w);
+		m[9] = 2 * (y * z - x * w);
+		m[10] = 1 - 2 * (x * x + y * y);
+	}
+
+	/*
+	 * Returns the cofactors of the 3x3 part of a column-major matrix, column
+	 * major: the inverse transpose scaled by the determinant, which maps
+	 * normals without needing an inverse.
+	 */
+	private static float[] cofactors(float[] m) {
+		float[] c = new float[9];
+		c[0] = m[5] * m[10] - m[6] * m[9];
+		c[1] = m[6] * m[8] - m[4] * m[10];
+		c[2] = m[4] * m[9] - m[5] * m[8];
+		c[3] = m[2] * m[9] - m[1] * m[10];
+		c[4] = m[0] * m[10] - m[2] * m[8];
+		c[5] = m[1] * m[8] - m[0] * m[9];
+		c[6] = m[1] * m[6] - m[2] * m[5];
+		c[7] = m[2] * m[4] - m[0] * m[6];
+		c[8] = m[0] * m[5] - m[1] * m[4];
+		return c;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> object(Object value, String what)
+			throws IOException {
+		if (!(value instanceof Map)) {
+			throw new IOException("glTF: bad " + what);
+		}
+		return (Map<String, Object>) value;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Object> list(Object value) throws IOException {
+		if (value == null) {
+			return new ArrayList<Object>();
+		}
+		if (!(value instanceof List)) {
+			throw new IOException("glTF: expected an array");
+		}
+		return (List<Object>) value;
+	}
+
+	private static float number(Object value) throws IOException {
+		if (!(value instanceof Double)) {
+			throw new IOException("glTF: expected a number");
+		}
+		return ((Double) value).floatValue();
+	}
+
+	private static int integer(Object value) throws IOException {
+		return (int) number(value);
+	}
+
+	private static int optional(Map<String, Object> object, String key)
+			throws IOException {
+		return object.containsKey(key) ? integer(object.get(key)) : 0;
+	}
+
+	private static float[] numbers(Object value, float... defaults)
+			throws IOException {
+		if (value == null) {
+			return defaults;
+		}
+		List<Object> list = list(value);
+		float[] numbers = new float[defaults.length];
+		for (int i = 0; i < numbers.length; i++) {
+			numbers[i] = number(list.get(i));
+		}
+		return numbers;
+	}
+
+	/*
+	 * A base64 data URI, kept as a slice of the JSON text until decoded.
+	 */
+	private static class DataUri {
+		private static final int[] DIGITS = new int[256];
+
+		static {
+			java.util.Arrays.fill(DIGITS, -1);
+			String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+					+ "abcdefghijklmnopqrstuvwxyz0123456789+/";
+			for (int i = 0; i < alphabet.length(); i++) {
+				DIGITS[alphabet.charAt(i)] = i;
+			}
+		}
+
+		private final ByteBuffer mText;
+
+		DataUri(ByteBuffer text) {
+			mText = text;
+		}
+
+		/*
+		 * Decodes the payload into a direct buffer, skipping the escaped
+		 * slashes of JSON ("\/") and the padding.
+		 */
+		ByteBuffer decode() {
+			ByteBuffer out = ByteBuffer.allocateDirect(mText.remaining() / 4
+					* 3 + 3);
+			int bits = 0;
+			int count = 0;
+			for (int i = 0; i < mText.limit(); i++) {
+				int digit = DIGITS[mText.get(i) & 0xff];
+				if (digit < 0) {
+					continue;
+				}
+				bits = (bits << 6) | digit;
+				if (++count == 4) {
+					out.put((byte) (bits >> 16)).put((byte) (bits >> 8))
+							.put((byte) bits);
+					bits = 0;
+					count = 0;
+				}
+			}
+			if (count == 3) {
+				out.put((byte) (bits >> 10)).put((byte) (bits >> 2));
+			} else if (count == 2) {
+				out.put((byte) (bits >> 4));
+			}
+			out.flip();
+			return out;
+		}
+	}
+
+	/*
+	 * A small JSON parser: objects become HashMaps, arrays ArrayLists,
+	 * numbers Doubles. Base64 data URIs are not turned into strings.
+	 */
+	private static class JsonParser {
+		private final ByteBuffer mText;
+		private int mAt;
+
+		JsonParser(ByteBuffer text) {
+			mText = text;
+		}
+
+		Object parse() throws IOException {
+			Object value = value();
+			skipSpaces();
+			if (mAt != mText.limit()) {
+				throw error("trailing data");
+			}
+			return value;
+		}
+
+		private IOException error(String message) {
+			return new IOException("glTF: JSON " + message + " at " + mAt);
+		}
+
+		private void skipSpaces() {
+			while (mAt < mText.limit()) {
+				byte b = mText.get(mAt);
+				if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+					break;
+				}
+				mAt++;
+			}
+		}
+
+		private byte next() throws IOException {
+			skipSpaces();
+			if (mAt >= mText.limit()) {
+				throw error("truncated");
+			}
+			return mText.get(mAt);
+		}
+
+		private void expect(char c) throws IOException {
+			if (next() != c) {
+				throw error("expected '" + c + "'");
+			}
+			mAt++;
+		}
+
+		private Object value() throws IOException {
+			byte b = next();
+			switch (b) {
+			case '{':
+				mAt++;
+				Map<String, Object> object = new HashMap<String, Object>();
+				if (next() == '}') {
+					mAt++;
+					return object;
+				}
+				do {
+					if (next() != '"') {
+						throw error("expected a key");
+					}
+					Object key = string();
+					expect(':');
+					object.put(key.toString(), value());
+				} while (separator('}'));
+				return object;
+			case '[':
+				mAt++;
+				List<Object> list = new ArrayList<Object>();
+				if (next() == ']') {
+					mAt++;
+					return list;
+				}
+				do {
+					list.add(value());
+				} while (separator(']'));
+				return list;
+			case '"':
+				return string();
+			case 't':
+				return word("true", Boolean.TRUE);
+			case 'f':
+				return word("false", Boolean.FALSE);
+			case 'n':
+				return word("null", null);
+			default:
+				return number();
+			}
+		}
+
+		private boolean separator(char close) throws IOException {
+			byte b = next();
+			mAt++;
+			if (b == ',') {
+				return true;
+			} else if (b == close) {
+				return false;
+			}
+			throw error("expected ',' or '" + close + "'");
+		}
+
+		private Object word(String word, Object value) throws IOException {
+			for (int i = 0; i < word.length(); i++) {
+				if (mAt >= mText.limit()
+						|| mText.get(mAt++) != word.charAt(i)) {
+					throw error("expected " + word);
+				}
+			}
+			return value;
+		}
+
+		private Object number() throws IOException {
+			int start = mAt;
+			while (mAt < mText.limit()) {
+				byte b = mText.get(mAt);
+				if ((b < '0' || b > '9') && b != '-' && b != '+' && b != '.'
+						&& b != 'e' && b != 'E') {
+					break;
+				}
+				mAt++;
+			}
+			try {
+				return Double.valueOf(ascii(start, mAt));
+			} catch (NumberFormatException e) {
+				throw error("bad number");
+			}
+		}
+
+		/*
+		 * Returns a String, or a DataUri for base64 data URIs.
+		 */
+		private Object string() throws IOException {
+			int start = ++mAt;
+			int end = start;
+			boolean escaped = false;
+			while (true) {
+				if (end >= mText.limit()) {
+					throw error("unterminated string");
+				}
+				byte b = mText.get(end);
+				if (b == '"') {
+					break;
+				}
+				if (b == '\\') {
+					escaped = true;
+					end++;
+				}
+				end++;
+			}
+			mAt = end + 1;
+			if (end - start > 5 && ascii(start, start + 5).equals("data:")) {
+				for (int i = start; i + 8 <= end; i++) {
+					if (mText.get(i) == ';'
+							&& ascii(i, i + 8).equals(";base64,")) {
+						return new DataUri(slice(mText, i + 8, end - i - 8));
+					}
+				}
+			}
+			if (!escaped) {
+				return utf8(start, end);
+			}
+			StringBuilder sb = new StringBuilder();
+			int run = start;
+			for (int i = start; i < end; i++) {
+				if (mText.get(i) != '\\') {
+					continue;
+				}
+				sb.append(utf8(run, i));
+				byte e = mText.get(++i);
+				switch (e) {
+				case 'n':
+					sb.append('\n');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'u':
+					try {
+						sb.append((char) Integer.parseInt(
+								ascii(i + 1, i + 5), 16));
+					} catch (NumberFormatException ex) {
+						throw error("bad escape");
+					}
+					i += 4;
+					break;
+				default:
+					sb.append((char) e);
+				}
+				run = i + 1;
+			}
+			sb.append(utf8(run, end));
+			return sb.toString();
+		}
+
+		private String ascii(int start, int end) throws IOException {
+			end = Math.min(end, mText.limit());
+			char[] chars = new char[end - start];
+			for (int i = start; i < end; i++) {
+				chars[i - start] = (char) (mText.get(i) & 0xff);
+			}
+			return new String(chars);
+		}
+
+		private String utf8(int start, int end) throws IOException {
+			byte[] bytes = new byte[end - start];
+			for (int i = start; i < end; i++) {
+				bytes[i - start] = mText.get(i);
+			}
+			return new String(bytes, "UTF-8");
+		}
+	}
+}
@@ -0,0 +1,559 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.util.Arrays;
+
+/**
+ * Reduces the triangle count of a {@link MeshCompiler.Mesh} with Garland and
+ * Heckbert's quadric error metric ("Surface Simplification Using Quadric
+ * Error Metrics"):
+ * <ul>
+ * <li>every vertex accumulates the planes of its triangles, weighted by
+ * area, as a 4x4 quadric whose value at a point is the sum of the squared
+ * distances to those planes;</li>
+ * <li>edges are collapsed cheapest first until the triangle target is met or
+ * the error would exceed a bound.</li>
+ * </ul>
+ * A collapse moves one end of the edge onto the other (half-edge collapse),
+ * so the surviving vertices keep their exact attributes and no texture
+ * coordinate is interpolated. Edges on a boundary are held in place by a
+ * plane perpendicular to their triangle; vertices on a texture seam (sharing
+ * their position with another vertex) are never moved, so the seams do not
+ * crack. Collapses that would flip a triangle are rejected.
+ *
+ * <p>
+ * The result is welded and reordered by {@link MeshCompiler} again. This
+ * class uses no OpenGL calls and can be run offline.
+ * </p>
+ */
+public class MeshSimplifier {
+
+	// Default error bound, as a fraction of the bounding sphere radius
+	public static final float DEFAULT_MAX_ERROR = 0.02f;
+
+	// Weight of the plane holding a boundary edge, per squared edge length
+	private static final double BOUNDARY_WEIGHT = 10.0;
+	// Smallest cosine allowed between a triangle normal before and after a
+	// collapse
+	private static final double MIN_NORMAL_COSINE = 0.2;
+	// Values of a quadric: a2 ab ac ad b2 bc bd c2 cd d2
+	private static final int Q = 10;
+
+	private final int[] mComponents;
+	private final int mVertexSize;
+	private float mMaxError = DEFAULT_MAX_ERROR;
+	private float mError;
+
+	// State of the running simplify()
+	private float[] mVertices;
+	private int[] mTris;
+	private boolean[] mDeadTris;
+	private int[][] mAdjacent;
+	private int[] mAdjacentCount;
+	private double[] mQuadrics;
+	private double[] mWeights;
+	private boolean[] mLocked;
+	private int[] mStamps;
+	private final double[] mNormal = new double[3];
+	private final double[] mNewNormal = new double[3];
+
+	// Binary min-heap of candidate collapses, with the stamps of both ends
+	// at the time they were pushed (a changed stamp makes them stale)
+	private float[] mHeapCost = new float[64];
+	private int[] mHeapFrom = new int[64];
+	private int[] mHeapTo = new int[64];
+	private int[] mHeapStampFrom = new int[64];
+	private int[] mHeapStampTo = new int[64];
+	private int mHeapSize;
+
+	/**
+	 * Creates a simplifier for vertices made of the given attributes, the
+	 * first one being a 3-float position.
+	 *
+	 * @param components
+	 *            - Number of floats of every attribute, as given to
+	 *            {@link MeshCompiler#MeshCompiler(int...)}.
+	 */
+	public MeshSimplifier(int... components) {
+		if (components.length == 0 || components[0] != 3) {
+			throw new IllegalArgumentException(
+					"The first attribute must be a 3-float position");
+		}
+		mComponents = components.clone();
+		int size = 0;
+		for (int c : components) {
+			size += c;
+		}
+		mVertexSize = size;
+	}
+
+	/**
+	 * Sets the largest error allowed, as a fraction of the radius of the
+	 * mesh's bounding sphere.
+	 */
+	public MeshSimplifier setMaxError(float maxError) {
+		mMaxError = maxError;
+		return this;
+	}
+
+	/**
+	 * Returns the error of the last simplified mesh relative to its input:
+	 * the largest root mean square distance, in mesh units, between a
+	 * collapsed vertex and the planes of its original triangles.
+	 */
+	public float getError() {
+		return mError;
+	}
+
+	/**
+	 * Simplifies a mesh.
+	 *
+	 * @param targetTriangles
+	 *            - Triangle count to reach. Fewer collapses are done if the
+	 *            error bound is reached first.
+	 * @return - Returns the simplified mesh, welded and reordered for the
+	 *         vertex cache.
+	 */
+	public MeshCompiler.Mesh simplify(MeshCompiler.Mesh mesh,
+			int targetTriangles) {
+		mVertices = mesh.getVertices();
+		mTris = mesh.getIndices().clone();
+		int vertexCount = mesh.getVertexCount();
+		int triCount = mTris.length / 3;
+		float[] sphere = Frustum.computeSphere(mVertices, 0, mVertexSize,
+				vertexCount);
+		double maxError = mMaxError * sphere[3];
+		mError = 0;
+
+		buildAdjacency(vertexCount, triCount);
+		mLocked = findSeams(vertexCount);
+		mStamps = new int[vertexCount];
+		mQuadrics = new double[vertexCount * Q];
+		mWeights = new double[vertexCount];
+		long[] edges = findEdges(triCount);
+		for (int t = 0; t < triCount; t++) {
+			addTrianglePlanes(t, edges);
+		}
+
+		mHeapSize = 0;
+		long previous = -1;
+		for (long edge : edges) {
+			if (edge != previous) {
+				pushEdge((int) (edge >>> 32), (int) edge);
+				previous = edge;
+			}
+		}
+
+		int liveTris = triCount;
+		while (liveTris > targetTriangles && mHeapSize > 0) {
+			float cost = mHeapCost[0];
+			int u = mHeapFrom[0];
+			int v = mHeapTo[0];
+			boolean stale = mHeapStampFrom[0] != mStamps[u]
+					|| mHeapStampTo[0] != mStamps[v];
+			pop();
+			if (stale) {
+				continue;
+			}
+			if (cost > maxError) {
+				break;
+			}
+			if (!canCollapse(u, v)) {
+				continue;
+			}
+			liveTris -= collapse(u, v);
+			mError = Math.max(mError, cost);
+		}
+
+		// Rebuild a soup of the live triangles for the compiler
+		float[] soup = new float[liveTris * 3 * mVertexSize];
+		int at = 0;
+		for (int t = 0; t < triCount; t++) {
+			if (!mDeadTris[t]) {
+				for (int k = 0; k < 3; k++) {
+					System.arraycopy(mVertices, mTris[t * 3 + k]
+							* mVertexSize, soup, at, mVertexSize);
+					at += mVertexSize;
+				}
+			}
+		}
+		mVertices = null;
+		mTris = null;
+		mDeadTris = null;
+		mAdjacent = null;
+		mQuadrics = null;
+		mWeights = null;
+		return new MeshCompiler(mComponents).compileInterleaved(soup,
+				liveTris * 3);
+	}
+
+	private void buildAdjacency(int vertexCount, int triCount) {
+		mDeadTris = new boolean[triCount];
+		mAdjacentCount = new int[vertexCount];
+		for (int i = 0; i < mTris.length; i++) {
+			mAdjacentCount[mTris[i]]++;
+		}
+		mAdjacent = new int[vertexCount][];
+		for (int v = 0; v < vertexCount; v++) {
+			mAdjacent[v] = new int[Math.max(mAdjacentCount[v], 1)];
+			mAdjacentCount[v] = 0;
+		}
+		for (int i = 0; i < mTris.length; i++) {
+			int v = mTris[i];
+			mAdjacent[v][mAdjacentCount[v]++] = i / 3;
+		}
+	}
+
+	/*
+	 * Returns which vertices share their position with another one, hashing
+	 * the positions with open addressing as MeshCompiler does.
+	 */
+	private boolean[] findSeams(int vertexCount) {
+		boolean[] seam = new boolean[vertexCount];
+		int tableSize = Integer.highestOneBit(Math.max(vertexCount, 1) * 2) * 2;
+		int[] table = new int[tableSize];
+		Arrays.fill(table, -1);
+		int mask = tableSize - 1;
+		for (int v = 0; v < vertexCount; v++) {
+			int p = v * mVertexSize;
+			int h = 1;
+			for (int k = 0; k < 3; k++) {
+				float f = mVertices[p + k];
+				h = 31 * h + (f == 0.0f ? 0 : Float.floatToIntBits(f));
+			}
+			h ^= (h >>> 16);
+			h *= 0x85ebca6b;
+			h ^= (h >>> 13);
+			int slot = h & mask;
+			while (table[slot] != -1) {
+				int q = table[slot] * mVertexSize;
+				if (mVertices[p] == mVertices[q]
+						&& mVertices[p + 1] == mVertices[q + 1]
+						&& mVertices[p + 2] == mVertices[q + 2]) {
+					seam[v] = true;
+					seam[table[slot]] = true;
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+			if (table[slot] == -1) {
+				table[slot] = v;
+			}
+		}
+		return seam;
+	}
+
+	/*
+	 * Returns the edges of every triangle as (min << 32 | max), sorted, so
+	 * an edge found once is on a boundary.
+	 */
+	private long[] findEdges(int triCount) {
+		long[] edges = new long[triCount * 3];
+		for (int t = 0; t < triCount; t++) {
+			for (int k = 0; k < 3; k++) {
+				edges[t * 3 + k] = edgeKey(mTris[t * 3 + k], mTris[t * 3
+						+ (k + 1) % 3]);
+			}
+		}
+		Arrays.sort(edges);
+		return edges;
+	}
+
+	private static long edgeKey(int a, int b) {
+		return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+	}
+
+	private static boolean isBoundary(long[] edges, long key) {
+		int i = Arrays.binarySearch(edges, key);
+		return (i == 0 || edges[i - 1] != key)
+				&& (i == edges.length - 1 || edges[i + 1] != key);
+	}
+
+	private void addTrianglePlanes(int t, long[] edges) {
+		double[] n = mNormal;
+		double area = normal(mTris[t * 3], mTris[t * 3 + 1], mTris[t * 3 + 2],
+				n);
+		if (area == 0) {
+			return;
+		}
+		int p0 = mTris[t * 3] * mVertexSize;
+		double d = -(n[0] * mVertices[p0] + n[1] * mVertices[p0 + 1] + n[2]
+				* mVertices[p0 + 2]);
+		for (int k = 0; k < 3; k++) {
+			addPlane(mTris[t * 3 + k], n[0], n[1], n[2], d, area);
+		}
+		for (int k = 0; k < 3; k++) {
+			int a = mTris[t * 3 + k];
+			int b = mTris[t * 3 + (k + 1) % 3];
+			if (!isBoundary(edges, edgeKey(a, b))) {
+				continue;
+			}
+			// Plane through the edge, perpendicular to the triangle
+			int pa = a * mVertexSize;
+			int pb = b * mVertexSize;
+			double ex = mVertices[pb] - mVertices[pa];
+			double ey = mVertices[pb + 1] - mVertices[pa + 1];
+			double ez = mVertices[pb + 2] - mVertices[pa + 2];
+			double bx = ey * n[2] - ez * n[1];
+			double by = ez * n[0] - ex * n[2];
+			double bz = ex * n[1] - ey * n[0];
+			double length = Math.sqrt(bx * bx + by * by + bz * bz);
+			if (length == 0) {
+				continue;
+			}
+			bx /= length;
+			by /= length;
+			bz /= length;
+			double bd = -(bx * mVertices[pa] + by * mVertices[pa + 1] + bz
+					* mVertices[pa + 2]);
+			double weight = BOUNDARY_WEIGHT * (ex * ex + ey * ey + ez * ez);
+			addPlane(a, bx, by, bz, bd, weight);
+			addPlane(b, bx, by, bz, bd, weight);
+		}
+	}
+
+	private void addPlane(int v, double a, double b, double c, double d,
+			double weight) {
+		int q = v * Q;
+		double[] m = mQuadrics;
+		m[q] += weight * a * a;
+		m[q + 1] += weight * a * b;
+		m[q + 2] += weight * a * c;
+		m[q + 3] += weight * a * d;
+		m[q + 4] += weight * b * b;
+		m[q + 5] += weight * b * c;
+		m[q + 6] += weight * b * d;
+		m[q + 7] += weight * c * c;
+		m[q + 8] += weight * c * d;
+		m[q + 9] += weight * d * d;
+		mWeights[v] += weight;
+	}
+
+	/*
+	 * Returns the error of moving u onto v: the root mean square distance of
+	 * v to the planes of both vertices.
+	 */
+	private float cost(int u, int v) {
+		double[] m = mQuadrics;
+		int qu = u * Q;
+		int qv = v * Q;
+		int p = v * mVertexSize;
+		double x = mVertices[p];
+		double y = mVertices[p + 1];
+		double z = mVertices[p + 2];
+		double e = (m[qu] + m[qv]) * x * x + 2 * (m[qu + 1] + m[qv + 1]) * x
+				* y + 2 * (m[qu + 2] + m[qv + 2]) * x * z + 2
+				* (m[qu + 3] + m[qv + 3]) * x + (m[qu + 4] + m[qv + 4]) * y * y
+				+ 2 * (m[qu + 5] + m[qv + 5]) * y * z + 2
+				* (m[qu + 6] + m[qv + 6]) * y + (m[qu + 7] + m[qv + 7]) * z * z
+				+ 2 * (m[qu + 8] + m[qv + 8]) * z + (m[qu + 9] + m[qv + 9]);
+		double weight = mWeights[u] + mWeights[v];
+		return weight == 0 ? 0 : (float) Math.sqrt(Math.max(e, 0) / weight);
+	}
+
+	/*
+	 * Pushes the cheaper direction of an edge whose moving end is not
+	 * locked.
+	 */
+	private void pushEdge(int a, int b) {
+		boolean moveA = !mLocked[a];
+		boolean moveB = !mLocked[b];
+		if (!moveA && !moveB) {
+			return;
+		}
+		float costA = moveA ? cost(a, b) : Float.MAX_VALUE;
+		float costB = moveB ? cost(b, a) : Float.MAX_VALUE;
+		if (costA <= costB) {
+			push(costA, a, b);
+		} else {
+			push(costB, b, a);
+		}
+	}
+
+	private boolean canCollapse(int u, int v) {
+		double[] before = mNormal;
+		double[] after = mNewNormal;
+		int[] adjacent = mAdjacent[u];
+		for (int i = 0; i < mAdjacentCount[u]; i++) {
+			int t = adjacent[i];
+			if (mDeadTris[t]) {
+				continue;
+			}
+			int a = mTris[t * 3];
+			int b = mTris[t * 3 + 1];
+			int c = mTris[t * 3 + 2];
+			if (a == v || b == v || c == v) {
+				continue;
+			}
+			double areaBefore = normal(a, b, c, before);
+			double areaAfter = normal(a == u ? v : a, b == u ? v : b,
+					c == u ? v : c, after);
+			if (areaAfter == 0) {
+				return false;
+			}
+			if (areaBefore > 0
+					&& before[0] * after[0] + before[1] * after[1] + before[2]
+							* after[2] < MIN_NORMAL_COSINE) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Moves u onto v and returns the number of triangles removed.
+	 */
+	private int collapse(int u, int v) {
+		int removed = 0;
+		int[] adjacent = mAdjacent[u];
+		for (int i = 0; i < mAdjacentCount[u]; i++) {
+			int t = adjacent[i];
+			if (mDeadTris[t]) {
+				continue;
+			}
+			int at = t * 3;
+			if (mTris[at] == v || mTris[at + 1] == v || mTris[at + 2] == v) {
+				mDeadTris[t] = true;
+				removed++;
+				continue;
+			}
+			for (int k = 0; k < 3; k++) {
+				if (mTris[at + k] == u) {
+					mTris[at + k] = v;
+				}
+			}
+			addAdjacent(v, t);
+		}
+		mAdjacentCount[u] = 0;
+		for (int k = 0; k < Q; k++) {
+			mQuadrics[v * Q + k] += mQuadrics[u * Q + k];
+		}
+		mWeights[v] += mWeights[u];
+		mStamps[u]++;
+		mStamps[v]++;
+
+		// Drop the dead triangles of v, then queue its edges again
+		int[] vAdjacent = mAdjacent[v];
+		int count = 0;
+		for (int i = 0; i < mAdjacentCount[v]; i++) {
+			if (!mDeadTris[vAdjacent[i]]) {
+				vAdjacent[count++] = vAdjacent[i];
+			}
+		}
+		mAdjacentCount[v] = count;
+		for (int i = 0; i < count; i++) {
+			int at = vAdjacent[i] * 3;
+			for (int k = 0; k < 3; k++) {
+				int n = mTris[at + k];
+				if (n != v) {
+					pushEdge(n, v);
+				}
+			}
+		}
+		return removed;
+	}
+
+	private void addAdjacent(int v, int t) {
+		if (mAdjacentCount[v] == mAdjacent[v].length) {
+			mAdjacent[v] = Arrays.copyOf(mAdjacent[v], mAdjacent[v].length * 2);
+		}
+		mAdjacent[v][mAdjacentCount[v]++] = t;
+	}
+
+	/*
+	 * Computes the unit normal of a triangle and returns its area.
+	 */
+	private double normal(int a, int b, int c, double[] n) {
+		int pa = a * mVertexSize;
+		int pb = b * mVertexSize;
+		int pc = c * mVertexSize;
+		double ux = mVertices[pb] - mVertices[pa];
+		double uy = mVertices[pb + 1] - mVertices[pa + 1];
+		double uz = mVertices[pb + 2] - mVertices[pa + 2];
+		double vx = mVertices[pc] - mVertices[pa];
+		double vy = mVertices[pc + 1] - mVertices[pa + 1];
+		double vz = mVertices[pc + 2] - mVertices[pa + 2];
+		double nx = uy * vz - uz * vy;
+		double ny = uz * vx - ux * vz;
+		double nz = ux * vy - uy * vx;
+		double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if (length == 0) {
+			return 0;
+		}
+		n[0] = nx / length;
+		n[1] = ny / length;
+		n[2] = nz / length;
+		return length * 0.5;
+	}
+
+	private void push(float cost, int from, int to) {
+		if (mHeapSize == mHeapCost.length) {
+			int size = mHeapSize * 2;
+			mHeapCost = Arrays.copyOf(mHeapCost, size);
+			mHeapFrom = Arrays.copyOf(mHeapFrom, size);
+			mHeapTo = Arrays.copyOf(mHeapTo, size);
+			mHeapStampFrom = Arrays.copyOf(mHeapStampFrom, size);
+			mHeapStampTo = Arrays.copyOf(mHeapStampTo, size);
+		}
+		int i = mHeapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (mHeapCost[parent] <= cost) {
+				break;
+			}
+			move(parent, i);
+			i = parent;
+		}
+		mHeapCost[i] = cost;
+		mHeapFrom[i] = from;
+		mHeapTo[i] = to;
+		mHeapStampFrom[i] = mStamps[from];
+		mHeapStampTo[i] = mStamps[to];
+	}
+
+	private void pop() {
+		int last = --mHeapSize;
+		if (last == 0) {
+			return;
+		}
+		float cost = mHeapCost[last];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= last) {
+				break;
+			}
+			if (child + 1 < last && mHeapCost[child + 1] < mHeapCost[child]) {
+				child++;
+			}
+			if (cost <= mHeapCost[child]) {
+				break;
+			}
+			move(child, i);
+			i = child;
+		}
+		move(last, i);
+	}
+
+	private void move(int from, int to) {
+		mHeapCost[to] = mHeapCost[from];
+		mHeapFrom[to] = mHeapFrom[from];
+		mHeapTo[to] = mHeapTo[from];
+		mHeapStampFrom[to] = mHeapStampFrom[from];
+		mHeapStampTo[to] = mHeapStampTo[from];
+	}
+}
@@ -15,13 +15,15 @@
  */
 package com.example.android.opengltext;
 
+import java.io.File;
+import java.io.IOException;
+
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 import android.content.Context;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
-import android.opengl.Matrix;
 import android.util.Log;
 
 /**
@@ -36,14 +38,50 @@ import android.util.Log;
 public class MyGLRenderer implements GLSurfaceView.Renderer {
 
 	private static final String TAG = "MyGLRenderer";
-	private Cube mCube1, mCube2;
 
-	// mMVPMatrix is an abbreviation for "Model View Projection Matrix"
-	private final float[] mMVPMatrix = new float[16];
-	private final float[] mProjectionMatrix = new float[16];
+	// Replaces the scene with BatchBenchmark when true
+	static final boolean RUN_BATCH_BENCHMARK = false;
+
+	// Fails any steady-state frame that allocates when true (debug only);
+	// tools/FrameAllocationCheck checks the scene frames on a JVM
+	static final boolean CHECK_ALLOCATIONS = false;
+	private static final int ALLOCATION_WARMUP_FRAMES = 60;
+
+	// Lookup table written by the AtlasPacker tool
+	private static final String ATLAS_PATH = "atlas/atlas.txt";
+
+	// Time per frame given to texture uploads
+	private static final long UPLOAD_BUDGET_NANOS = 4000000L;
+	// GPU memory the textures should stay under
+	private static final long TEXTURE_BUDGET_BYTES = 32L * 1024 * 1024;
+
+	// Frame time counted as jank (one refresh at 60 Hz), and frames between
+	// two profile logs
+	private static final long FRAME_BUDGET_NANOS = 16666667L;
+	private static final int PROFILE_LOG_FRAMES = 600;
+	private static final String PROFILE_FILE = "frame_profile.txt";
+
+	// The cubes, and the frame work that does not need Android
+	private final SceneRenderer mSceneRenderer = new SceneRenderer();
+	private TextureLoader mTextureLoader;
+	private TextureManager mTextureManager;
+	private BatchBenchmark mBenchmark;
+	private AllocationChecker mAllocationChecker;
+	private RenderScheduler mScheduler;
+	private final FrameProfiler mProfiler = new FrameProfiler(
+			FRAME_BUDGET_NANOS);
+	private int mProfiledFrames;
+
 	private final float[] mViewMatrix = new float[16];
-	private final float[] mModelMatrix1 = new float[16];
-	private final float[] mModelMatrix2 = new float[16];
+	// Textures uploaded by the last frame, logged after it
+	private int mUploadedTextures;
+	private boolean mLoggedPrePass;
+	// Culling counts last logged
+	private int mLoggedVisible = -1;
+	private int mLoggedCulled = -1;
+	// Level of detail counts last logged
+	private int mLoggedSmallFeatures = -1;
+	private int mLoggedLodTriangles = -1;
 
 	// Camera vectors forming the view matrix:
 	// eye point, center of view, and an up vector.
@@ -71,45 +109,179 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 
 	@Override
 	public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+		// Also check the creation of the GL objects
+		GLErrorPolicy.beginFrame();
+
+		// Objects and state of a previous context are gone
+		GLState.reset();
+		GeometryCache.clear();
+		ProgramCache.init(context);
+		if (mTextureLoader != null) {
+			mTextureLoader.shutdown();
+		}
+		mTextureLoader = new TextureLoader(context, 2);
+		mTextureManager = new TextureManager(mTextureLoader,
+				TEXTURE_BUDGET_BYTES);
 
 		// Set the background frame color
-		GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+		GLBackend.get().glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
 
 		// Enable depth testing
-		GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+		GLState.enable(GLES20.GL_DEPTH_TEST);
+
+		if (mProfiler.initGpuTimer()) {
+			Log.i(TAG, "GPU frame times measured");
+		}
 
 		// Initialize class variables
 		init();
+		Log.i(TAG, "Programs: " + ProgramCache.getCompileCount() + " compiled, "
+				+ ProgramCache.getBinaryLoadCount() + " loaded from binaries, "
+				+ ProgramCache.getHitCount() + " shared");
+	}
+
+	/**
+	 * Sets the scheduler told after each frame whether the scene is still
+	 * changing (see {@link #isAnimating()}).
+	 */
+	void setScheduler(RenderScheduler scheduler) {
+		mScheduler = scheduler;
 	}
 
 	@Override
 	public void onDrawFrame(GL10 unused) {
+		if (mAllocationChecker != null) {
+			mAllocationChecker.beginFrame();
+		}
+		GLErrorPolicy.beginFrame();
+		mProfiler.beginFrame();
+		if (mScheduler != null) {
+			mScheduler.beginFrame();
+		}
 
-		// Draw background color
-		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+		// Camera moved by the touch handlers
+		mProfiler.beginPhase(FrameProfiler.PHASE_INPUT);
 
 		// Set the camera position (View matrix)
-		Matrix.setLookAtM(mViewMatrix, 0, eyeX, eyeY, eyeZ, centerX, centerY,
-				centerZ, upX, upY, upZ);
+		MatrixMath.setLookAtM(mViewMatrix, 0, eyeX, eyeY, eyeZ, centerX,
+				centerY, centerZ, upX, upY, upZ);
 
 		// Calculate the projection and view transformation
-		Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mViewMatrix, 0);
-		
+		mSceneRenderer.setView(mViewMatrix);
+
+		mProfiler.beginPhase(FrameProfiler.PHASE_UPDATE);
+
+		// Upload the textures decoded since the last frame. A frame that
+		// uploads is loading, not in a steady state, and may allocate.
+		mUploadedTextures = mTextureLoader
+				.processUploads(UPLOAD_BUDGET_NANOS);
+		if (mUploadedTextures > 0 && mAllocationChecker != null) {
+			mAllocationChecker.excuseFrame();
+		}
+
 		// Draw all your 3D objects
-		drawObjects();
+		if (mBenchmark != null) {
+			mProfiler.beginPhase(FrameProfiler.PHASE_SUBMIT);
+			GLBackend.get().glClear(GLES20.GL_COLOR_BUFFER_BIT
+					| GLES20.GL_DEPTH_BUFFER_BIT);
+			mBenchmark.drawFrame(mSceneRenderer.getViewProjectionMatrix());
+		} else {
+			if (mRotate) {
+				rotateCube();
+			}
+			mSceneRenderer.drawFrame(mProfiler);
+		}
+
+		// Keep the textures under budget
+		mTextureManager.endFrame();
+		GLErrorPolicy.endFrame();
+		mProfiler.endFrame();
+
+		// Render the next frames on demand only once nothing changes
+		boolean modeChanged = mScheduler != null
+				&& mScheduler.endFrame(isAnimating());
+
+		if (mAllocationChecker != null) {
+			mAllocationChecker.endFrame();
+		}
+		logFrame(modeChanged);
+	}
+
+	/*
+	 * Logs what changed during the frame. Runs after the frame is measured
+	 * by the allocation checker, as building the messages allocates.
+	 */
+	private void logFrame(boolean modeChanged) {
+		if (mUploadedTextures > 0) {
+			Log.i(TAG, mTextureLoader.toString());
+			Log.i(TAG, mTextureManager.toString());
+		}
+		if (modeChanged) {
+			Log.i(TAG, mScheduler.toString());
+		}
+		if (++mProfiledFrames == PROFILE_LOG_FRAMES
+				|| (modeChanged && !mScheduler.isContinuous())) {
+			mProfiler.log();
+			Log.i(TAG, GLErrorPolicy.countersToString());
+			mProfiledFrames = 0;
+		}
+		if (mBenchmark != null) {
+			return;
+		}
+
+		SceneGraph scene = mSceneRenderer.getScene();
+		boolean prePass = mSceneRenderer.isPrePassUsed();
+		if (prePass != mLoggedPrePass) {
+			mLoggedPrePass = prePass;
+			Log.i(TAG, mSceneRenderer.getDepthPrePass().toString());
+		}
+		if (scene.getDrawnNodes() != mLoggedVisible
+				|| scene.getCulledNodes() != mLoggedCulled) {
+			mLoggedVisible = scene.getDrawnNodes();
+			mLoggedCulled = scene.getCulledNodes();
+			Log.i(TAG, "Visible: " + mLoggedVisible + ", culled: "
+					+ mLoggedCulled);
+		}
+		if (scene.getSmallFeatureCulled() != mLoggedSmallFeatures
+				|| scene.getTrianglesAfterLod() != mLoggedLodTriangles) {
+			mLoggedSmallFeatures = scene.getSmallFeatureCulled();
+			mLoggedLodTriangles = scene.getTrianglesAfterLod();
+			Log.i(TAG, "Triangles: " + scene.getTrianglesBeforeLod()
+					+ " before LOD, " + mLoggedLodTriangles + " after, "
+					+ mLoggedSmallFeatures + " too small to draw");
+		}
+	}
+
+	/**
+	 * Writes the frame time histograms to a file of the app, to pull with
+	 * <code>adb shell run-as</code>. Can be called from any thread.
+	 */
+	void writeProfile() {
+		File file = new File(context.getFilesDir(), PROFILE_FILE);
+		try {
+			mProfiler.writeTo(file);
+			Log.i(TAG, "Frame profile written to " + file);
+		} catch (IOException e) {
+			Log.w(TAG, "Cannot write the frame profile: " + e.getMessage());
+		}
+	}
+
+	/*
+	 * Returns whether the next frame differs from this one without any
+	 * input: the cube rotates, textures are still loading, or the benchmark
+	 * runs.
+	 */
+	private boolean isAnimating() {
+		return mRotate || mTextureLoader.getPendingDecodes() > 0
+				|| mTextureLoader.getPendingUploads() > 0
+				|| (mBenchmark != null && !mBenchmark.isFinished());
 	}
 
 	@Override
 	public void onSurfaceChanged(GL10 unused, int width, int height) {
-		// Adjust the viewport based on geometry changes,
+		// Adjust the viewport and the projection based on geometry changes,
 		// such as screen rotation
-		GLES20.glViewport(0, 0, width, height);
-
-		float ratio = (float) width / height;
-
-		// this projection matrix is applied to object coordinates
-		// in the onDrawFrame() method
-		Matrix.frustumM(mProjectionMatrix, 0, -ratio, ratio, -1, 1, 1, 100);
+		mSceneRenderer.setViewport(width, height);
 	}
 
 	/*
@@ -132,35 +304,65 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 		mRotateY = 1.0f;
 		mRotateZ = 0.0f;
 
-		Matrix.setIdentityM(mModelMatrix1, 0);
-		mCube1 = new Cube(context, R.drawable.text3);
-		mCube2 = new Cube(context, R.drawable.text4);
+		// The cubes show a placeholder until their texture is decoded. With
+		// the packed atlas both cubes share one texture.
+		// Each cube is drawn at the level of detail of its size on screen,
+		// from the compiled mesh in the assets if there is one.
+		try {
+			Cube.loadMesh(context.getAssets());
+		} catch (IOException e) {
+			Log.w(TAG, "Generated cube: " + e.getMessage());
+		}
+		LevelOfDetail frontCube, backCube;
+		TextureAtlas atlas = loadAtlas();
+		if (atlas != null) {
+			TextureManager.Texture page = mTextureManager.getAsset(
+					atlas.getPagePath(0), TextureLoader.PRIORITY_HIGH);
+			frontCube = Cube.createLevelOfDetail(page,
+					atlas.getRegion("text3"));
+			backCube = Cube.createLevelOfDetail(page, atlas.getRegion("text4"));
+		} else {
+			frontCube = Cube.createLevelOfDetail(mTextureManager.get(
+					R.drawable.text3, TextureLoader.PRIORITY_HIGH), null);
+			backCube = Cube.createLevelOfDetail(mTextureManager.get(
+					R.drawable.text4, TextureLoader.PRIORITY_NORMAL), null);
+		}
+		Log.i(TAG, "Front cube " + frontCube);
+		mSceneRenderer.setCubes(frontCube, backCube);
+
+		if (RUN_BATCH_BENCHMARK) {
+			mBenchmark = new BatchBenchmark(context, R.drawable.text3);
+		}
+		if (CHECK_ALLOCATIONS && mAllocationChecker == null) {
+			mAllocationChecker = new AllocationChecker(ALLOCATION_WARMUP_FRAMES);
+		}
 
 	}
 
-	private void drawObjects() {
-
-		// FRONT CUBE
-		float[] scratch1 = new float[16];
-		if (mRotate) {
-			rotateCube();
+	/*
+	 * Returns the atlas packed from res/drawable-nodpi by the AtlasPacker
+	 * tool, or null if the assets do not hold both cube images on one page.
+	 */
+	private TextureAtlas loadAtlas() {
+		try {
+			TextureAtlas atlas = TextureAtlas.load(context.getAssets(),
+					ATLAS_PATH);
+			TextureAtlas.Region r3 = atlas.getRegion("text3");
+			TextureAtlas.Region r4 = atlas.getRegion("text4");
+			if (r3 != null && r4 != null && r3.page == 0 && r4.page == 0) {
+				return atlas;
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "No texture atlas: " + e.getMessage());
 		}
-		Matrix.multiplyMM(scratch1, 0, mMVPMatrix, 0, mModelMatrix1, 0);
-		mCube1.draw(scratch1);
-
-		// BACK CUBE
-		float[] scratch2 = new float[16];
-		Matrix.setIdentityM(mModelMatrix2, 0);
-		Matrix.translateM(mModelMatrix2, 0, 0.0f, 1.0f, -4.0f);
-		Matrix.scaleM(mModelMatrix2, 0, 5.0f, 3.0f, 0.5f);
-		Matrix.multiplyMM(scratch2, 0, mMVPMatrix, 0, mModelMatrix2, 0);
-		mCube2.draw(scratch2);
+		return null;
 	}
 
 	private void rotateCube() {
 		// Apply Transformation
 		float mAngle = 0.5f;
-		Matrix.rotateM(mModelMatrix1, 0, mAngle, mRotateX, mRotateY, mRotateZ);
+		mSceneRenderer.getFrontCube().rotate(mAngle, mRotateX, mRotateY,
+				mRotateZ);
 
 	}
 
@@ -187,13 +389,25 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 		}
 	}
 
+	/**
+	 * Stops the rotation and resets the front cube. Call this on the GL
+	 * thread, e.g. through GLSurfaceView.queueEvent(), like
+	 * {@link #handleTouchDrag}.
+	 */
 	public void handleTouchPress(float normalizedX, float normalizedY) {
-		// TODO Auto-generated method stub
 		mRotate = false;
-		Matrix.setIdentityM(mModelMatrix1, 0);
+		// The first touch may come before onSurfaceCreated()
+		SceneNode frontCube = mSceneRenderer.getFrontCube();
+		if (frontCube != null) {
+			frontCube.setIdentity();
+		}
 		moveCamera(Direction.FORWARD);
 	}
 
+	/**
+	 * Picks the rotation axis from the direction of the drag. Call this on
+	 * the GL thread.
+	 */
 	public void handleTouchDrag(float normalizedX, float normalizedY) {
 		// TODO Auto-generated method stub
 		mRotate = true;
@@ -243,14 +457,15 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 	 * @return - Returns an id for the shader.
 	 */
 	public static int loadShader(int type, String shaderCode) {
+		GLApi gl = GLBackend.get();
 
 		// create a vertex shader type (GLES20.GL_VERTEX_SHADER)
 		// or a fragment shader type (GLES20.GL_FRAGMENT_SHADER)
-		int shader = GLES20.glCreateShader(type);
+		int shader = gl.glCreateShader(type);
 
 		// add the source code to the shader and compile it
-		GLES20.glShaderSource(shader, shaderCode);
-		GLES20.glCompileShader(shader);
+		gl.glShaderSource(shader, shaderCode);
+		gl.glCompileShader(shader);
 
 		return shader;
 	}
@@ -264,16 +479,15 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 	 * MyGLRenderer.checkGlError(&quot;glGetUniformLocation&quot;);
 	 * </pre>
 	 *
-	 * If the operation is not successful, the check throws an error.
+	 * The error is only read when {@link GLErrorPolicy} checks every call:
+	 * in STRICT mode, where an error throws, and for one frame after an error
+	 * in DEFERRED mode, where it is logged and counted. Otherwise the check
+	 * is left to the end of the frame, or not done at all.
 	 *
 	 * @param glOperation
 	 *            - Name of the OpenGL call to check.
 	 */
 	public static void checkGlError(String glOperation) {
-		int error;
-		while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
-			Log.e(TAG, glOperation + ": glError " + error);
-			throw new RuntimeException(glOperation + ": glError " + error);
-		}
+		GLErrorPolicy.check(glOperation);
 	}
 }
\ No newline at end of file
@@ -26,7 +26,11 @@ import android.view.MotionEvent;
  */
 public class MyGLSurfaceView extends GLSurfaceView {
 
+	// Time without animation or touch before rendering only on demand
+	private static final long IDLE_DELAY_MILLIS = 500;
+
 	private final MyGLRenderer mRenderer;
+	private final RenderScheduler mScheduler;
 
 	public MyGLSurfaceView(Context context) {
 		super(context);
@@ -38,12 +42,19 @@ public class MyGLSurfaceView extends GLSurfaceView {
 		// Set the Renderer for drawing on the GLSurfaceView
 		mRenderer = new MyGLRenderer(context);
 		setRenderer(mRenderer);
-		
-		// Render the view only when there is a change in the drawing data
-		// To allow automatic rotation, this line should be commented out:
-		//setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+
+		// Render continuously while the cube rotates or a finger is down,
+		// and only when there is a change in the drawing data otherwise
+		mScheduler = new RenderScheduler(this, IDLE_DELAY_MILLIS);
+		mRenderer.setScheduler(mScheduler);
 	}
 	
+	@Override
+	public void onPause() {
+		super.onPause();
+		mRenderer.writeProfile();
+	}
+
 	@Override
 	 public boolean onTouchEvent(MotionEvent event) {
         
@@ -53,15 +64,29 @@ public class MyGLSurfaceView extends GLSurfaceView {
 			final float normalizedX = (event.getX() / (float) getWidth()) * 2 - 1;
 			final float normalizedY = -((event.getY() / (float) getHeight()) * 2 - 1);
 			
+	        mScheduler.onTouchEvent(event.getAction());
+	        // The renderer state belongs to the GL thread: hand it the event
 	        switch (event.getAction()) {
 	            case MotionEvent.ACTION_MOVE:
-	            	mRenderer.handleTouchDrag(normalizedX, normalizedY);
+	            	queueEvent(new Runnable() {
+	            		@Override
+	            		public void run() {
+	            			mRenderer.handleTouchDrag(normalizedX,
+	            					normalizedY);
+	            		}
+	            	});
 	            	break;
 	            case MotionEvent.ACTION_DOWN:
-	            	mRenderer.handleTouchPress(normalizedX, normalizedY);
+	            	queueEvent(new Runnable() {
+	            		@Override
+	            		public void run() {
+	            			mRenderer.handleTouchPress(normalizedX,
+	            					normalizedY);
+	            		}
+	            	});
 	            	break;
 	        }
-	        requestRender();
+	        mScheduler.requestRender();
 		}
         return true;
     }
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Process-wide cache of linked shader programs. Shapes ask for a program by
+ * source and get the same {@link ShaderProgram} as every other shape using
+ * that source, so each distinct program is compiled and linked once per EGL
+ * context.
+ *
+ * <p>
+ * On an OpenGL ES 3.0 context the linked binary of each program is also
+ * written to the app's cache directory and loaded back with glProgramBinary
+ * on the next start, which takes shader compilation out of
+ * onSurfaceCreated() on warm starts. (The GL_OES_get_program_binary
+ * extension of ES 2.0 has no Java binding, so ES 2.0 contexts always
+ * compile.) A binary is only used if it was saved for the same GPU, driver
+ * version and system build; otherwise, or if the driver rejects it, the
+ * program is compiled and the file replaced.
+ * </p>
+ *
+ * <p>
+ * All methods must be called on the GL thread, {@link #init(Context)} first
+ * from onSurfaceCreated().
+ * </p>
+ */
+public class ProgramCache {
+
+	private static final String TAG = "ProgramCache";
+
+	// Subdirectory of the cache directory holding the binaries
+	private static final String DIRECTORY = "programs";
+	// First int of every binary file, bumped when the layout changes
+	private static final int MAGIC = 0x50524731; // "PRG1"
+
+	// Keyed by the sources as given: a hit costs no digest, which is only
+	// computed on a miss to name the binary file
+	private static final HashMap<Key, ShaderProgram> sPrograms = new HashMap<Key, ShaderProgram>();
+
+	// Where binaries are kept, or null if binaries are not supported
+	private static File sDirectory;
+	// Identifies the driver that produced a binary
+	private static String sDriver;
+
+	// Statistics since init()
+	private static int sHits;
+	private static int sBinaryLoads;
+	private static int sCompiles;
+
+	private ProgramCache() {
+	}
+
+	/**
+	 * Forgets the programs of a previous context and checks whether program
+	 * binaries can be used. Call this from onSurfaceCreated().
+	 */
+	public static void init(Context context) {
+		GLApi gl = GLBackend.get();
+		sPrograms.clear();
+		sHits = 0;
+		sBinaryLoads = 0;
+		sCompiles = 0;
+
+		sDriver = gl.glGetString(GLES20.GL_RENDERER) + '|'
+				+ gl.glGetString(GLES20.GL_VERSION) + '|'
+				+ Build.FINGERPRINT;
+		sDirectory = null;
+		if (supportsBinaries()) {
+			File directory = new File(context.getCacheDir(), DIRECTORY);
+			if (directory.isDirectory() || directory.mkdirs()) {
+				sDirectory = directory;
+			}
+		}
+	}
+
+	private static boolean supportsBinaries() {
+		GLApi gl = GLBackend.get();
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			return false;
+		}
+		String version = gl.glGetString(GLES20.GL_VERSION);
+		if (version == null || !version.startsWith("OpenGL ES 3")) {
+			return false;
+		}
+		int[] formats = new int[1];
+		gl.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+		return formats[0] > 0;
+	}
+
+	/**
+	 * Returns the shared program for the given sources.
+	 */
+	public static ShaderProgram get(String vertexShaderCode,
+			String fragmentShaderCode) {
+		return get(vertexShaderCode, fragmentShaderCode, null);
+	}
+
+	/**
+	 * Returns the shared program for the given sources compiled with the
+	 * given preprocessor defines.
+	 *
+	 * @param defines
+	 *            - Macro names, or "NAME VALUE" pairs, inserted as #define
+	 *            lines at the start of both shaders; may be null.
+	 */
+	public static ShaderProgram get(String vertexShaderCode,
+			String fragmentShaderCode, String[] defines) {
+		ShaderProgram program = sPrograms.get(new Key(vertexShaderCode,
+				fragmentShaderCode, defines));
+		if (program != null) {
+			sHits++;
+			return program;
+		}
+		// The caller may reuse its array
+		Key key = new Key(vertexShaderCode, fragmentShaderCode,
+				defines != null ? defines.clone() : null);
+
+		if (defines != null && defines.length > 0) {
+			StringBuilder sb = new StringBuilder();
+			for (String define : defines) {
+				sb.append("#define ").append(define).append('\n');
+			}
+			vertexShaderCode = sb + vertexShaderCode;
+			fragmentShaderCode = sb + fragmentShaderCode;
+		}
+		String name = hash(vertexShaderCode, fragmentShaderCode);
+		int id = 0;
+		if (sDirectory != null) {
+			id = loadBinary(name);
+		}
+		if (id != 0) {
+			sBinaryLoads++;
+		} else {
+			id = ShaderProgram.link(vertexShaderCode, fragmentShaderCode,
+					sDirectory != null);
+			sCompiles++;
+			if (sDirectory != null) {
+				saveBinary(name, id);
+			}
+		}
+		program = new ShaderProgram(id);
+		sPrograms.put(key, program);
+		return program;
+	}
+
+	/*
+	 * Sources and defines of a program, compared by value. String caches its
+	 * hash code, so looking up the same source strings again only compares
+	 * references.
+	 */
+	private static final class Key {
+		final String vertexShaderCode;
+		final String fragmentShaderCode;
+		final String[] defines;
+		final int hashCode;
+
+		Key(String vertexShaderCode, String fragmentShaderCode,
+				String[] defines) {
+			this.vertexShaderCode = vertexShaderCode;
+			this.fragmentShaderCode = fragmentShaderCode;
+			// No defines and an empty list build the same program
+			this.defines = defines != null && defines.length > 0 ? defines
+					: null;
+			hashCode = (vertexShaderCode.hashCode() * 31
+					+ fragmentShaderCode.hashCode()) * 31
+					+ Arrays.hashCode(this.defines);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return hashCode == other.hashCode
+					&& vertexShaderCode.equals(other.vertexShaderCode)
+					&& fragmentShaderCode.equals(other.fragmentShaderCode)
+					&& Arrays.equals(defines, other.defines);
+		}
+	}
+
+	/*
+	 * Hex SHA-1 of both sources.
+	 */
+	private static String hash(String vertexShaderCode,
+			String fragmentShaderCode) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(vertexShaderCode.getBytes("UTF-8"));
+			// Keeps "ab"+"c" apart from "a"+"bc"
+			digest.update((byte) 0);
+			digest.update(fragmentShaderCode.getBytes("UTF-8"));
+			byte[] bytes = digest.digest();
+			StringBuilder sb = new StringBuilder(bytes.length * 2);
+			for (byte b : bytes) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+				sb.append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/*
+	 * File layout: MAGIC, driver string, binary format, binary length, binary.
+	 * Returns the linked program, or 0 if there is no usable binary.
+	 */
+	private static int loadBinary(String name) {
+		GLApi gl = GLBackend.get();
+		File file = new File(sDirectory, name);
+		if (!file.isFile()) {
+			return 0;
+		}
+		int format;
+		ByteBuffer binary;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			if (in.readInt() != MAGIC || !sDriver.equals(in.readUTF())) {
+				Log.i(TAG, "Discarding binary of another driver: " + name);
+				in.close();
+				in = null;
+				file.delete();
+				return 0;
+			}
+			format = in.readInt();
+			int length = in.readInt();
+			// The binary is the rest of the file: a corrupt or truncated
+			// file must not allocate a bogus length
+			if (length <= 0 || length > in.available()) {
+				throw new IOException("Bad binary length " + length);
+			}
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			binary = ByteBuffer.allocateDirect(length).order(
+					ByteOrder.nativeOrder());
+			binary.put(bytes).position(0);
+		} catch (IOException e) {
+			Log.w(TAG, "Cannot read " + file, e);
+			file.delete();
+			return 0;
+		} finally {
+			close(in);
+		}
+
+		int program = gl.glCreateProgram();
+		gl.glProgramBinary(program, format, binary, binary.capacity());
+		final int[] status = new int[1];
+		gl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+		if (status[0] == GLES20.GL_FALSE) {
+			// The driver may reject binaries at any time, e.g. after an update
+			Log.i(TAG, "Binary rejected by the driver: " + name);
+			gl.glDeleteProgram(program);
+			file.delete();
+			return 0;
+		}
+		return program;
+	}
+
+	private static void saveBinary(String name, int program) {
+		GLApi gl = GLBackend.get();
+		final int[] length = new int[1];
+		gl.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH,
+				length, 0);
+		if (length[0] <= 0) {
+			return;
+		}
+		ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(
+				ByteOrder.nativeOrder());
+		final int[] format = new int[1];
+		gl.glGetProgramBinary(program, length[0], length, 0, format, 0,
+				binary);
+		MyGLRenderer.checkGlError("glGetProgramBinary");
+		byte[] bytes = new byte[length[0]];
+		binary.position(0);
+		binary.get(bytes);
+
+		File file = new File(sDirectory, name);
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new FileOutputStream(file));
+			out.writeInt(MAGIC);
+			out.writeUTF(sDriver);
+			out.writeInt(format[0]);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.close();
+			out = null;
+		} catch (IOException e) {
+			Log.w(TAG, "Cannot write " + file, e);
+			close(out);
+			file.delete();
+		}
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of requests served by an already created program.
+	 */
+	public static int getHitCount() {
+		return sHits;
+	}
+
+	/**
+	 * Returns the number of programs created from a saved binary.
+	 */
+	public static int getBinaryLoadCount() {
+		return sBinaryLoads;
+	}
+
+	/**
+	 * Returns the number of programs compiled from source.
+	 */
+	public static int getCompileCount() {
+		return sCompiles;
+	}
+
+	/**
+	 * Returns the number of distinct programs of the current context.
+	 */
+	public static int size() {
+		return sPrograms.size();
+	}
+}
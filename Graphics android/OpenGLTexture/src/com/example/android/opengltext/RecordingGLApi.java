@@ -0,0 +1,768 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import android.graphics.Bitmap;
+
+/**
+ * {@link GLApi} without any GPU: every call is counted per frame and can be
+ * recorded with its arguments, so that the rendering code can run on a JVM
+ * and be checked for the calls it makes, for example "drawing this scene
+ * issues at most N draw calls".
+ *
+ * <p>
+ * Generated names (textures, buffers, programs, shaders, queries) are
+ * increasing integers, shaders always compile and programs always link,
+ * locations are assigned per program and name, and queries are answered from
+ * values set with {@link #setInteger(int, int)} and
+ * {@link #setString(int, String)}. Nothing is drawn.
+ * </p>
+ *
+ * <p>
+ * Does not use any Android class, constants included, except for reading
+ * the size of the bitmaps given to
+ * {@link #texImage2D(int, int, Bitmap, int)}. Not thread safe, like an
+ * OpenGL context.
+ * </p>
+ */
+public class RecordingGLApi implements GLApi {
+
+	// The GLES20 constants used here
+	private static final int GL_UNSIGNED_BYTE = 0x1401;
+	private static final int GL_ALPHA = 0x1906;
+	private static final int GL_RGB = 0x1907;
+	private static final int GL_RGBA = 0x1908;
+	private static final int GL_LUMINANCE = 0x1909;
+	private static final int GL_LUMINANCE_ALPHA = 0x190A;
+	private static final int GL_VENDOR = 0x1F00;
+	private static final int GL_RENDERER = 0x1F01;
+	private static final int GL_VERSION = 0x1F02;
+	private static final int GL_EXTENSIONS = 0x1F03;
+	private static final int GL_MAX_VERTEX_UNIFORM_VECTORS = 0x8DFB;
+	private static final int GL_LINK_STATUS = 0x8B82;
+	private static final int GL_QUERY_RESULT_AVAILABLE = 0x8867;
+
+	/**
+	 * One recorded call.
+	 */
+	public static class Call {
+		public final String name;
+		public final Object[] args;
+
+		Call(String name, Object[] args) {
+			this.name = name;
+			this.args = args;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(name).append('(');
+			for (int i = 0; i < args.length; i++) {
+				if (i > 0) {
+					sb.append(", ");
+				}
+				Object arg = args[i];
+				if (arg instanceof float[]) {
+					sb.append(Arrays.toString((float[]) arg));
+				} else if (arg instanceof int[]) {
+					sb.append(Arrays.toString((int[]) arg));
+				} else if (arg instanceof Integer
+						&& Math.abs((Integer) arg) >= 0x100) {
+					sb.append("0x").append(Integer.toHexString((Integer) arg));
+				} else {
+					sb.append(arg);
+				}
+			}
+			return sb.append(')').toString();
+		}
+	}
+
+	/**
+	 * Counts of the calls of one frame, or of all frames.
+	 */
+	public static class Stats {
+		private final HashMap<String, int[]> mCallsByName = new HashMap<String, int[]>();
+		int calls;
+		int drawCalls;
+		int stateChanges;
+		int uniformUpdates;
+		long uploadedBytes;
+
+		void count(String name) {
+			calls++;
+			int[] count = mCallsByName.get(name);
+			if (count == null) {
+				count = new int[1];
+				mCallsByName.put(name, count);
+			}
+			count[0]++;
+		}
+
+		void add(Stats other) {
+			calls += other.calls;
+			drawCalls += other.drawCalls;
+			stateChanges += other.stateChanges;
+			uniformUpdates += other.uniformUpdates;
+			uploadedBytes += other.uploadedBytes;
+			for (String name : other.mCallsByName.keySet()) {
+				int[] count = mCallsByName.get(name);
+				if (count == null) {
+					count = new int[1];
+					mCallsByName.put(name, count);
+				}
+				count[0] += other.mCallsByName.get(name)[0];
+			}
+		}
+
+		/*
+		 * Zeroes the counts but keeps the entries, so that counting the same
+		 * calls in the next frame allocates nothing.
+		 */
+		void clear() {
+			for (int[] count : mCallsByName.values()) {
+				count[0] = 0;
+			}
+			calls = 0;
+			drawCalls = 0;
+			stateChanges = 0;
+			uniformUpdates = 0;
+			uploadedBytes = 0;
+		}
+
+		/**
+		 * Returns the number of GL calls of any kind.
+		 */
+		public int getCalls() {
+			return calls;
+		}
+
+		/**
+		 * Returns the number of calls of one GL function, such as
+		 * "glBindTexture".
+		 */
+		public int getCalls(String name) {
+			int[] count = mCallsByName.get(name);
+			return count != null ? count[0] : 0;
+		}
+
+		public int getDrawCalls() {
+			return drawCalls;
+		}
+
+		/**
+		 * Returns the number of binds, enables, pointer and fixed-function
+		 * state settings.
+		 */
+		public int getStateChanges() {
+			return stateChanges;
+		}
+
+		public int getUniformUpdates() {
+			return uniformUpdates;
+		}
+
+		/**
+		 * Returns the bytes given to buffer and texture uploads.
+		 */
+		public long getUploadedBytes() {
+			return uploadedBytes;
+		}
+
+		@Override
+		public String toString() {
+			return "calls=" + calls + " draws=" + drawCalls + " state="
+					+ stateChanges + " uniforms=" + uniformUpdates
+					+ " uploaded=" + uploadedBytes + "B";
+		}
+	}
+
+	private final Stats mFrame = new Stats();
+	private final Stats mLastFrame = new Stats();
+	private final Stats mTotal = new Stats();
+	private int mFrames;
+
+	private boolean mRecording;
+	private final ArrayList<Call> mCalls = new ArrayList<Call>();
+
+	private int mNextName = 1;
+	private final HashMap<String, Integer> mLocations = new HashMap<String, Integer>();
+	private final HashMap<Integer, Integer> mIntegers = new HashMap<Integer, Integer>();
+	private final HashMap<Integer, String> mStrings = new HashMap<Integer, String>();
+
+	public RecordingGLApi() {
+		setString(GL_VENDOR, "none");
+		setString(GL_RENDERER, "RecordingGLApi");
+		setString(GL_VERSION, "OpenGL ES 2.0 RecordingGLApi");
+		setString(GL_EXTENSIONS, "");
+		setInteger(GL_MAX_VERTEX_UNIFORM_VECTORS, 256);
+	}
+
+	/**
+	 * Sets what glGetIntegerv() answers for pname (0 by default).
+	 */
+	public void setInteger(int pname, int value) {
+		mIntegers.put(pname, value);
+	}
+
+	/**
+	 * Sets what glGetString() answers for name (null by default).
+	 */
+	public void setString(int name, String value) {
+		mStrings.put(name, value);
+	}
+
+	/**
+	 * Starts or stops keeping every call with its arguments.
+	 */
+	public void setRecording(boolean recording) {
+		mRecording = recording;
+	}
+
+	/**
+	 * Returns the calls recorded since the last {@link #clearCalls()}.
+	 */
+	public List<Call> getCalls() {
+		return mCalls;
+	}
+
+	public void clearCalls() {
+		mCalls.clear();
+	}
+
+	/**
+	 * Ends a frame: its counts become those of {@link #getLastFrame()}.
+	 */
+	public void endFrame() {
+		mLastFrame.clear();
+		mLastFrame.add(mFrame);
+		mTotal.add(mFrame);
+		mFrame.clear();
+		mFrames++;
+	}
+
+	/**
+	 * Returns the counts of the frame in progress.
+	 */
+	public Stats getFrame() {
+		return mFrame;
+	}
+
+	public Stats getLastFrame() {
+		return mLastFrame;
+	}
+
+	/**
+	 * Returns the counts of all ended frames.
+	 */
+	public Stats getTotal() {
+		return mTotal;
+	}
+
+	public int getFrameCount() {
+		return mFrames;
+	}
+
+	/*
+	 * Counts a call and returns whether to record it. The arguments are only
+	 * boxed when recording, so that counting allocates nothing.
+	 */
+	private boolean call(String name) {
+		mFrame.count(name);
+		return mRecording;
+	}
+
+	private boolean state(String name) {
+		mFrame.stateChanges++;
+		return call(name);
+	}
+
+	private void record(String name, Object... args) {
+		mCalls.add(new Call(name, args));
+	}
+
+	private void generate(int n, int[] names, int offset) {
+		for (int i = 0; i < n; i++) {
+			names[offset + i] = mNextName++;
+		}
+	}
+
+	private static int bytesPerPixel(int format, int type) {
+		if (type != GL_UNSIGNED_BYTE) {
+			// The packed 16-bit types
+			return 2;
+		}
+		switch (format) {
+		case GL_ALPHA:
+		case GL_LUMINANCE:
+			return 1;
+		case GL_LUMINANCE_ALPHA:
+			return 2;
+		case GL_RGB:
+			return 3;
+		case GL_RGBA:
+		default:
+			return 4;
+		}
+	}
+
+	// OpenGL ES 2.0
+
+	@Override
+	public void glActiveTexture(int texture) {
+		if (state("glActiveTexture")) {
+			record("glActiveTexture", texture);
+		}
+	}
+
+	@Override
+	public void glAttachShader(int program, int shader) {
+		if (call("glAttachShader")) {
+			record("glAttachShader", program, shader);
+		}
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		if (state("glBindBuffer")) {
+			record("glBindBuffer", target, buffer);
+		}
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+		if (state("glBindTexture")) {
+			record("glBindTexture", target, texture);
+		}
+	}
+
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage) {
+		if (call("glBufferData")) {
+			record("glBufferData", target, size, data, usage);
+		}
+		mFrame.uploadedBytes += data != null ? size : 0;
+	}
+
+	@Override
+	public void glBufferSubData(int target, int offset, int size, Buffer data) {
+		if (call("glBufferSubData")) {
+			record("glBufferSubData", target, offset, size, data);
+		}
+		mFrame.uploadedBytes += size;
+	}
+
+	@Override
+	public void glClear(int mask) {
+		if (call("glClear")) {
+			record("glClear", mask);
+		}
+	}
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		if (state("glClearColor")) {
+			record("glClearColor", red, green, blue, alpha);
+		}
+	}
+
+	@Override
+	public void glColorMask(boolean red, boolean green, boolean blue,
+			boolean alpha) {
+		if (state("glColorMask")) {
+			record("glColorMask", red, green, blue, alpha);
+		}
+	}
+
+	@Override
+	public void glCompileShader(int shader) {
+		if (call("glCompileShader")) {
+			record("glCompileShader", shader);
+		}
+	}
+
+	@Override
+	public void glCompressedTexImage2D(int target, int level,
+			int internalformat, int width, int height, int border,
+			int imageSize, Buffer data) {
+		if (call("glCompressedTexImage2D")) {
+			record("glCompressedTexImage2D", target, level, internalformat,
+					width, height, border, imageSize, data);
+		}
+		mFrame.uploadedBytes += imageSize;
+	}
+
+	@Override
+	public int glCreateProgram() {
+		if (call("glCreateProgram")) {
+			record("glCreateProgram");
+		}
+		return mNextName++;
+	}
+
+	@Override
+	public int glCreateShader(int type) {
+		if (call("glCreateShader")) {
+			record("glCreateShader", type);
+		}
+		return mNextName++;
+	}
+
+	@Override
+	public void glDeleteBuffers(int n, int[] buffers, int offset) {
+		if (call("glDeleteBuffers")) {
+			record("glDeleteBuffers", n, buffers.clone(), offset);
+		}
+	}
+
+	@Override
+	public void glDeleteProgram(int program) {
+		if (call("glDeleteProgram")) {
+			record("glDeleteProgram", program);
+		}
+	}
+
+	@Override
+	public void glDeleteShader(int shader) {
+		if (call("glDeleteShader")) {
+			record("glDeleteShader", shader);
+		}
+	}
+
+	@Override
+	public void glDeleteTextures(int n, int[] textures, int offset) {
+		if (call("glDeleteTextures")) {
+			record("glDeleteTextures", n, textures.clone(), offset);
+		}
+	}
+
+	@Override
+	public void glDepthFunc(int func) {
+		if (state("glDepthFunc")) {
+			record("glDepthFunc", func);
+		}
+	}
+
+	@Override
+	public void glDepthMask(boolean flag) {
+		if (state("glDepthMask")) {
+			record("glDepthMask", flag);
+		}
+	}
+
+	@Override
+	public void glDisable(int cap) {
+		if (state("glDisable")) {
+			record("glDisable", cap);
+		}
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		if (state("glDisableVertexAttribArray")) {
+			record("glDisableVertexAttribArray", index);
+		}
+	}
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		if (call("glDrawArrays")) {
+			record("glDrawArrays", mode, first, count);
+		}
+		mFrame.drawCalls++;
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, int offset) {
+		if (call("glDrawElements")) {
+			record("glDrawElements", mode, count, type, offset);
+		}
+		mFrame.drawCalls++;
+	}
+
+	@Override
+	public void glEnable(int cap) {
+		if (state("glEnable")) {
+			record("glEnable", cap);
+		}
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		if (state("glEnableVertexAttribArray")) {
+			record("glEnableVertexAttribArray", index);
+		}
+	}
+
+	@Override
+	public void glGenBuffers(int n, int[] buffers, int offset) {
+		if (call("glGenBuffers")) {
+			record("glGenBuffers", n);
+		}
+		generate(n, buffers, offset);
+	}
+
+	@Override
+	public void glGenTextures(int n, int[] textures, int offset) {
+		if (call("glGenTextures")) {
+			record("glGenTextures", n);
+		}
+		generate(n, textures, offset);
+	}
+
+	@Override
+	public void glGenerateMipmap(int target) {
+		if (call("glGenerateMipmap")) {
+			record("glGenerateMipmap", target);
+		}
+	}
+
+	@Override
+	public int glGetAttribLocation(int program, String name) {
+		if (call("glGetAttribLocation")) {
+			record("glGetAttribLocation", program, name);
+		}
+		return location(program, name);
+	}
+
+	private int location(int program, String name) {
+		String key = program + ":" + name;
+		Integer location = mLocations.get(key);
+		if (location == null) {
+			location = mLocations.size();
+			mLocations.put(key, location);
+		}
+		return location;
+	}
+
+	@Override
+	public int glGetError() {
+		if (call("glGetError")) {
+			record("glGetError");
+		}
+		return 0;
+	}
+
+	@Override
+	public void glGetIntegerv(int pname, int[] params, int offset) {
+		if (call("glGetIntegerv")) {
+			record("glGetIntegerv", pname);
+		}
+		Integer value = mIntegers.get(pname);
+		params[offset] = value != null ? value : 0;
+	}
+
+	@Override
+	public String glGetProgramInfoLog(int program) {
+		if (call("glGetProgramInfoLog")) {
+			record("glGetProgramInfoLog", program);
+		}
+		return "";
+	}
+
+	@Override
+	public void glGetProgramiv(int program, int pname, int[] params,
+			int offset) {
+		if (call("glGetProgramiv")) {
+			record("glGetProgramiv", program, pname);
+		}
+		params[offset] = pname == GL_LINK_STATUS ? 1 : 0;
+	}
+
+	@Override
+	public String glGetString(int name) {
+		if (call("glGetString")) {
+			record("glGetString", name);
+		}
+		return mStrings.get(name);
+	}
+
+	@Override
+	public int glGetUniformLocation(int program, String name) {
+		if (call("glGetUniformLocation")) {
+			record("glGetUniformLocation", program, name);
+		}
+		return location(program, name);
+	}
+
+	@Override
+	public void glLinkProgram(int program) {
+		if (call("glLinkProgram")) {
+			record("glLinkProgram", program);
+		}
+	}
+
+	@Override
+	public void glShaderSource(int shader, String string) {
+		if (call("glShaderSource")) {
+			record("glShaderSource", shader, string);
+		}
+	}
+
+	@Override
+	public void glTexImage2D(int target, int level, int internalformat,
+			int width, int height, int border, int format, int type,
+			Buffer pixels) {
+		if (call("glTexImage2D")) {
+			record("glTexImage2D", target, level, internalformat, width, height,
+					border, format, type, pixels);
+		}
+		if (pixels != null) {
+			mFrame.uploadedBytes += (long) width * height
+					* bytesPerPixel(format, type);
+		}
+	}
+
+	@Override
+	public void glTexParameteri(int target, int pname, int param) {
+		if (state("glTexParameteri")) {
+			record("glTexParameteri", target, pname, param);
+		}
+	}
+
+	@Override
+	public void glUniform1i(int location, int x) {
+		if (call("glUniform1i")) {
+			record("glUniform1i", location, x);
+		}
+		mFrame.uniformUpdates++;
+	}
+
+	@Override
+	public void glUniform4fv(int location, int count, float[] v, int offset) {
+		if (call("glUniform4fv")) {
+			record("glUniform4fv", location, count,
+					Arrays.copyOfRange(v, offset, offset + count * 4));
+		}
+		mFrame.uniformUpdates++;
+	}
+
+	@Override
+	public void glUniformMatrix4fv(int location, int count, boolean transpose,
+			float[] value, int offset) {
+		if (call("glUniformMatrix4fv")) {
+			record("glUniformMatrix4fv", location, count, transpose,
+					Arrays.copyOfRange(value, offset, offset + count * 16));
+		}
+		mFrame.uniformUpdates++;
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		if (state("glUseProgram")) {
+			record("glUseProgram", program);
+		}
+	}
+
+	@Override
+	public void glVertexAttribPointer(int indx, int size, int type,
+			boolean normalized, int stride, int offset) {
+		if (state("glVertexAttribPointer")) {
+			record("glVertexAttribPointer", indx, size, type, normalized,
+					stride, offset);
+		}
+	}
+
+	@Override
+	public void glViewport(int x, int y, int width, int height) {
+		if (state("glViewport")) {
+			record("glViewport", x, y, width, height);
+		}
+	}
+
+	// OpenGL ES 3.0
+
+	@Override
+	public void glBeginQuery(int target, int id) {
+		if (call("glBeginQuery")) {
+			record("glBeginQuery", target, id);
+		}
+	}
+
+	@Override
+	public void glEndQuery(int target) {
+		if (call("glEndQuery")) {
+			record("glEndQuery", target);
+		}
+	}
+
+	@Override
+	public void glGenQueries(int n, int[] ids, int offset) {
+		if (call("glGenQueries")) {
+			record("glGenQueries", n);
+		}
+		generate(n, ids, offset);
+	}
+
+	@Override
+	public void glGetProgramBinary(int program, int bufSize, int[] length,
+			int lengthOffset, int[] binaryFormat, int binaryFormatOffset,
+			Buffer binary) {
+		if (call("glGetProgramBinary")) {
+			record("glGetProgramBinary", program, bufSize);
+		}
+		if (length != null) {
+			length[lengthOffset] = 0;
+		}
+		binaryFormat[binaryFormatOffset] = 0;
+	}
+
+	@Override
+	public void glGetQueryObjectuiv(int id, int pname, int[] params,
+			int offset) {
+		if (call("glGetQueryObjectuiv")) {
+			record("glGetQueryObjectuiv", id, pname);
+		}
+		// Results are always available, and always 0
+		params[offset] = pname == GL_QUERY_RESULT_AVAILABLE ? 1 : 0;
+	}
+
+	@Override
+	public void glProgramBinary(int program, int binaryFormat, Buffer binary,
+			int length) {
+		if (call("glProgramBinary")) {
+			record("glProgramBinary", program, binaryFormat, length);
+		}
+	}
+
+	@Override
+	public void glProgramParameteri(int program, int pname, int value) {
+		if (call("glProgramParameteri")) {
+			record("glProgramParameteri", program, pname, value);
+		}
+	}
+
+	// android.opengl.GLUtils
+
+	/**
+	 * Records the bitmap size rather than the bitmap, and counts 4 bytes per
+	 * pixel: bitmaps are decoded as ARGB_8888 here.
+	 */
+	@Override
+	public void texImage2D(int target, int level, Bitmap bitmap, int border) {
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		if (call("texImage2D")) {
+			record("texImage2D", target, level, width, height, border);
+		}
+		mFrame.uploadedBytes += (long) width * height * 4;
+	}
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.util.Arrays;
+
+/**
+ * Draws submitted drawables in the order of 64-bit sort keys instead of the
+ * order they were submitted in. Each frame: {@link #submit} every visible
+ * drawable, {@link #sort()}, then {@link #drain()} to issue the GL calls.
+ *
+ * <p>
+ * A key made by {@link #makeKey(int, int, int, float)} packs, from the most
+ * significant bits:
+ * </p>
+ * <ul>
+ * <li>opaque pass: pass, program, texture, depth. Drawables sharing a
+ * program, then a texture, are drawn together, front to back within each
+ * group so that the depth test rejects hidden fragments early;</li>
+ * <li>translucent pass: pass, inverted depth, program, texture. Blending
+ * needs back to front, which takes precedence over state changes.</li>
+ * </ul>
+ *
+ * <p>
+ * Keys are sorted by an LSD radix sort over bytes, skipping the bytes that
+ * are the same in every key; it is stable, so equal keys keep the order of
+ * submission. With a depth pre-pass, {@link #drawDepth()} first draws the
+ * opaque drawables depth only, then {@link #drain()} shades them. The queue
+ * only holds primitive arrays and references and
+ * allocates nothing once it has grown to the largest frame. Must be used on
+ * the GL thread.
+ * </p>
+ */
+public class RenderQueue {
+
+	/**
+	 * Something drawn through a queue that tells what it binds, so that
+	 * {@link SceneGraph#queueVisible} can sort it.
+	 */
+	public interface Sortable {
+		/**
+		 * Returns the program used, e.g. its OpenGL id.
+		 */
+		int getSortProgram();
+
+		/**
+		 * Returns the texture bound, e.g. its OpenGL id, or 0.
+		 */
+		int getSortTexture();
+
+		boolean isTranslucent();
+	}
+
+	/**
+	 * Something that can also draw its depth alone, for a
+	 * {@link DepthPrePass}.
+	 */
+	public interface DepthDrawable {
+		/**
+		 * Draws the same fragment depths as draw(), as cheaply as possible:
+		 * positions only, no texturing.
+		 *
+		 * @param mvpMatrix
+		 *            - The Model View Projection matrix of the node.
+		 */
+		void drawDepth(float[] mvpMatrix);
+	}
+
+	// Passes, drawn in this order
+	public static final int PASS_OPAQUE = 0;
+	public static final int PASS_TRANSLUCENT = 1;
+	public static final int PASS_OVERLAY = 2;
+
+	// Key fields, 56 bits in all: the top byte is never sorted on. Program
+	// and texture ids are truncated to their field, which at worst draws two
+	// groups interleaved.
+	static final int PASS_BITS = 4;
+	static final int PROGRAM_BITS = 12;
+	static final int TEXTURE_BITS = 16;
+	static final int DEPTH_BITS = 24;
+	private static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = 1 << RADIX_BITS;
+	private static final int DIGITS = 64 / RADIX_BITS;
+
+	// Submissions, by submission index
+	private SceneNode.Drawable[] mDrawables;
+	private float[][] mMatrices;
+	// Keys and submission indices, sorted by sort(); the spare arrays are
+	// the other half of each radix pass
+	private long[] mKeys;
+	private int[] mOrder;
+	private long[] mSpareKeys;
+	private int[] mSpareOrder;
+	private final int[] mCounts = new int[DIGITS * RADIX];
+	private int mSize;
+
+	private float mNear = 1.0f;
+	private float mDepthScale = 1.0f / 99.0f;
+
+	// Statistics of the last drain
+	private int mDrawn;
+	private int mProgramChanges;
+	private int mTextureChanges;
+
+	public RenderQueue(int capacity) {
+		allocate(Math.max(capacity, 1));
+	}
+
+	private void allocate(int capacity) {
+		SceneNode.Drawable[] drawables = new SceneNode.Drawable[capacity];
+		float[][] matrices = new float[capacity][];
+		long[] keys = new long[capacity];
+		int[] order = new int[capacity];
+		if (mSize > 0) {
+			System.arraycopy(mDrawables, 0, drawables, 0, mSize);
+			System.arraycopy(mMatrices, 0, matrices, 0, mSize);
+			System.arraycopy(mKeys, 0, keys, 0, mSize);
+			System.arraycopy(mOrder, 0, order, 0, mSize);
+		}
+		mDrawables = drawables;
+		mMatrices = matrices;
+		mKeys = keys;
+		mOrder = order;
+		mSpareKeys = new long[capacity];
+		mSpareOrder = new int[capacity];
+	}
+
+	/**
+	 * Sets the view distances mapped to the depth field of the keys, usually
+	 * the near and far planes of the projection. Distances out of the range
+	 * are clamped.
+	 */
+	public void setDepthRange(float near, float far) {
+		if (!(far > near)) {
+			throw new IllegalArgumentException("RenderQueue: bad depth range "
+					+ near + ", " + far);
+		}
+		mNear = near;
+		mDepthScale = 1.0f / (far - near);
+	}
+
+	/**
+	 * Packs a sort key.
+	 *
+	 * @param pass
+	 *            - One of the PASS_ constants, or up to 15 for more passes.
+	 * @param program
+	 *            - Program id.
+	 * @param texture
+	 *            - Texture id, or 0.
+	 * @param depth
+	 *            - Distance from the eye, from 0 (near) to 1 (far).
+	 */
+	public static long makeKey(int pass, int program, int texture,
+			float depth) {
+		long d = (long) (Math.max(0.0f, Math.min(depth, 1.0f)) * MAX_DEPTH);
+		long p = program & ((1 << PROGRAM_BITS) - 1);
+		long t = texture & ((1 << TEXTURE_BITS) - 1);
+		long key = (long) (pass & ((1 << PASS_BITS) - 1)) << (PROGRAM_BITS
+				+ TEXTURE_BITS + DEPTH_BITS);
+		if (pass == PASS_OPAQUE) {
+			return key | p << (TEXTURE_BITS + DEPTH_BITS) | t << DEPTH_BITS
+					| d;
+		}
+		return key | (MAX_DEPTH - d) << (PROGRAM_BITS + TEXTURE_BITS)
+				| p << TEXTURE_BITS | t;
+	}
+
+	/**
+	 * Queues a drawable with a key made from its state and view distance.
+	 *
+	 * @param mvpMatrix
+	 *            - The matrix passed to the drawable. It is not copied and
+	 *            must not change until {@link #drain()}, e.g. one from a
+	 *            {@link MatrixPool}.
+	 * @param distance
+	 *            - View distance, mapped by {@link #setDepthRange}.
+	 */
+	public void submit(SceneNode.Drawable drawable, float[] mvpMatrix,
+			int pass, int program, int texture, float distance) {
+		submit(makeKey(pass, program, texture, (distance - mNear)
+				* mDepthScale), drawable, mvpMatrix);
+	}
+
+	/**
+	 * Queues a drawable with a key of {@link #makeKey}.
+	 */
+	public void submit(long key, SceneNode.Drawable drawable,
+			float[] mvpMatrix) {
+		if (mSize == mKeys.length) {
+			allocate(mSize * 2);
+		}
+		mDrawables[mSize] = drawable;
+		mMatrices[mSize] = mvpMatrix;
+		mKeys[mSize] = key;
+		mOrder[mSize] = mSize;
+		mSize++;
+	}
+
+	/**
+	 * Sorts the queued drawables by key, equal keys in submission order.
+	 */
+	public void sort() {
+		int n = mSize;
+		if (n < 2) {
+			return;
+		}
+		// One pass over the keys counts the values of every byte
+		int[] counts = mCounts;
+		Arrays.fill(counts, 0);
+		long[] keys = mKeys;
+		for (int i = 0; i < n; i++) {
+			long key = keys[i];
+			for (int digit = 0; digit < DIGITS; digit++) {
+				int value = (int) (key >>> (digit * RADIX_BITS)) & (RADIX - 1);
+				counts[digit * RADIX + value]++;
+			}
+		}
+		for (int digit = 0; digit < DIGITS; digit++) {
+			int base = digit * RADIX;
+			int shift = digit * RADIX_BITS;
+			keys = mKeys;
+			// A byte shared by all keys leaves the order as is
+			int value = (int) (keys[0] >>> shift) & (RADIX - 1);
+			if (counts[base + value] == n) {
+				continue;
+			}
+			int offset = 0;
+			for (int b = 0; b < RADIX; b++) {
+				int count = counts[base + b];
+				counts[base + b] = offset;
+				offset += count;
+			}
+			int[] order = mOrder;
+			long[] sortedKeys = mSpareKeys;
+			int[] sortedOrder = mSpareOrder;
+			for (int i = 0; i < n; i++) {
+				long key = keys[i];
+				int to = counts[base + ((int) (key >>> shift) & (RADIX - 1))]++;
+				sortedKeys[to] = key;
+				sortedOrder[to] = order[i];
+			}
+			mSpareKeys = keys;
+			mSpareOrder = order;
+			mKeys = sortedKeys;
+			mOrder = sortedOrder;
+		}
+	}
+
+	/**
+	 * Draws the queued drawables in their current order, sorted by
+	 * {@link #sort()} or else as submitted, and empties the queue.
+	 *
+	 * @return the number of drawables drawn.
+	 */
+	public int drain() {
+		int n = mSize;
+		int programChanges = 0;
+		int textureChanges = 0;
+		long previous = -1;
+		for (int i = 0; i < n; i++) {
+			long key = mKeys[i];
+			if (i == 0 || program(key) != program(previous)) {
+				programChanges++;
+			}
+			if (i == 0 || texture(key) != texture(previous)) {
+				textureChanges++;
+			}
+			previous = key;
+			int submission = mOrder[i];
+			mDrawables[submission].draw(mMatrices[submission]);
+		}
+		// No references kept past the frame
+		Arrays.fill(mDrawables, 0, n, null);
+		Arrays.fill(mMatrices, 0, n, null);
+		mDrawn = n;
+		mProgramChanges = programChanges;
+		mTextureChanges = textureChanges;
+		mSize = 0;
+		return n;
+	}
+
+	/**
+	 * Returns whether every opaque drawable queued is a
+	 * {@link DepthDrawable}. A depth pre-pass is only correct in that case:
+	 * the shaded pass does not write depth.
+	 */
+	public boolean hasDepthDrawables() {
+		for (int i = 0; i < mSize; i++) {
+			if (pass(mKeys[i]) == PASS_OPAQUE
+					&& !(mDrawables[mOrder[i]] instanceof DepthDrawable)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Draws the depth of the queued opaque drawables, in their current
+	 * order, and keeps them queued for {@link #drain()}. Requires
+	 * {@link #hasDepthDrawables()}.
+	 *
+	 * @return the number of drawables drawn.
+	 */
+	public int drawDepth() {
+		int drawn = 0;
+		for (int i = 0; i < mSize; i++) {
+			// Opaque keys come first once sorted, but maybe not yet
+			if (pass(mKeys[i]) != PASS_OPAQUE) {
+				continue;
+			}
+			int submission = mOrder[i];
+			((DepthDrawable) mDrawables[submission])
+					.drawDepth(mMatrices[submission]);
+			drawn++;
+		}
+		return drawn;
+	}
+
+	/**
+	 * Empties the queue without drawing.
+	 */
+	public void clear() {
+		Arrays.fill(mDrawables, 0, mSize, null);
+		Arrays.fill(mMatrices, 0, mSize, null);
+		mSize = 0;
+	}
+
+	static int pass(long key) {
+		return (int) (key >>> (PROGRAM_BITS + TEXTURE_BITS + DEPTH_BITS));
+	}
+
+	static int program(long key) {
+		int shift = pass(key) == PASS_OPAQUE ? TEXTURE_BITS + DEPTH_BITS
+				: TEXTURE_BITS;
+		return (int) (key >>> shift) & ((1 << PROGRAM_BITS) - 1);
+	}
+
+	static int texture(long key) {
+		int shift = pass(key) == PASS_OPAQUE ? DEPTH_BITS : 0;
+		return (int) (key >>> shift) & ((1 << TEXTURE_BITS) - 1);
+	}
+
+	/**
+	 * Returns the number of drawables queued.
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * Returns the key at a position of the queue, in sorted order after
+	 * {@link #sort()}.
+	 */
+	public long getKey(int i) {
+		return mKeys[i];
+	}
+
+	/**
+	 * Returns the number of drawables drawn by the last drain.
+	 */
+	public int getDrawn() {
+		return mDrawn;
+	}
+
+	/**
+	 * Returns how many times the program changed during the last drain,
+	 * counting the first draw.
+	 */
+	public int getProgramChanges() {
+		return mProgramChanges;
+	}
+
+	/**
+	 * Returns how many times the texture changed during the last drain,
+	 * counting the first draw.
+	 */
+	public int getTextureChanges() {
+		return mTextureChanges;
+	}
+
+	@Override
+	public String toString() {
+		return "RenderQueue: " + mDrawn + " drawn, " + mProgramChanges
+				+ " program changes, " + mTextureChanges + " texture changes";
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.opengl.GLSurfaceView;
+import android.view.MotionEvent;
+
+/**
+ * Switches a GLSurfaceView between continuous and on-demand rendering.
+ *
+ * <p>
+ * The view renders continuously while the renderer reports activity (an
+ * animation, textures still loading) or a finger is down, and for a short
+ * grace period after, so that activity starting again right away does not
+ * flap the mode. Otherwise it drops to RENDERMODE_WHEN_DIRTY and renders
+ * only on {@link #requestRender()}, which coalesces any number of requests
+ * made between two frames into one.
+ * </p>
+ *
+ * <p>
+ * {@link #onTouchEvent(int)}, {@link #wake()} and {@link #requestRender()}
+ * can be called from any thread; {@link #beginFrame()} and
+ * {@link #endFrame(boolean)} from the GL thread only.
+ * </p>
+ */
+public class RenderScheduler {
+
+	// Refresh rate assumed until continuous frames are measured
+	private static final long DEFAULT_FRAME_NANOS = 16666667L;
+
+	private final GLSurfaceView mView;
+	private final long mIdleDelayNanos;
+
+	// Mode changes are made under the lock, as wake() may race the switch
+	// to on-demand rendering made by endFrame()
+	private final Object mLock = new Object();
+	private volatile boolean mContinuous;
+	private volatile boolean mTouching;
+	// Activity reported from outside the GL thread since the last frame
+	private boolean mWoken;
+	private int mModeSwitches;
+
+	// A requestRender() is on its way and not yet rendered
+	private final AtomicBoolean mRenderPending = new AtomicBoolean();
+
+	// GL thread state
+	private boolean mReportedContinuous = true;
+	private long mLastActiveNanos;
+	private long mLastFrameNanos;
+	private long mFrameNanos = DEFAULT_FRAME_NANOS;
+	private long mIdleSinceNanos;
+
+	// Statistics
+	private int mRenderedFrames;
+	private long mSkippedFrames;
+	private final AtomicInteger mRequestsIssued = new AtomicInteger();
+	private final AtomicInteger mRequestsCoalesced = new AtomicInteger();
+
+	/**
+	 * Takes over the render mode of the view, starting continuous.
+	 *
+	 * @param view
+	 *            - View whose renderer is already set.
+	 * @param idleDelayMillis
+	 *            - Time without activity before switching to on-demand
+	 *            rendering.
+	 */
+	public RenderScheduler(GLSurfaceView view, long idleDelayMillis) {
+		mView = view;
+		mIdleDelayNanos = idleDelayMillis * 1000000L;
+		mContinuous = true;
+		mLastActiveNanos = System.nanoTime();
+		mView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+	}
+
+	/**
+	 * Reports a touch event: rendering stays continuous while a finger is
+	 * down.
+	 *
+	 * @param action
+	 *            - The masked action of the event.
+	 */
+	public void onTouchEvent(int action) {
+		switch (action) {
+		case MotionEvent.ACTION_DOWN:
+		case MotionEvent.ACTION_MOVE:
+			mTouching = true;
+			wake();
+			break;
+		case MotionEvent.ACTION_UP:
+		case MotionEvent.ACTION_CANCEL:
+			mTouching = false;
+			// The last move still has to be rendered
+			wake();
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Asks for one frame, typically after a change of the scene. Requests
+	 * made while continuous, or while a requested frame is still pending,
+	 * cost nothing.
+	 */
+	public void requestRender() {
+		if (!mContinuous && mRenderPending.compareAndSet(false, true)) {
+			mRequestsIssued.incrementAndGet();
+			mView.requestRender();
+		} else {
+			mRequestsCoalesced.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Switches to continuous rendering until the activity stops.
+	 */
+	public void wake() {
+		synchronized (mLock) {
+			mWoken = true;
+			if (!mContinuous) {
+				mContinuous = true;
+				mModeSwitches++;
+				mView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+			}
+		}
+	}
+
+	/**
+	 * Starts a frame. Requests made from now on ask for the next frame.
+	 */
+	public void beginFrame() {
+		mRenderPending.set(false);
+		long now = System.nanoTime();
+		if (mIdleSinceNanos != 0) {
+			// Refreshes that showed the last frame again instead of
+			// rendering one
+			mSkippedFrames += (now - mIdleSinceNanos) / mFrameNanos;
+			mIdleSinceNanos = 0;
+		} else if (mLastFrameNanos != 0) {
+			// Smoothed interval between continuous frames
+			long interval = now - mLastFrameNanos;
+			if (interval < 4 * mFrameNanos) {
+				mFrameNanos += (interval - mFrameNanos) / 16;
+			}
+		}
+		mLastFrameNanos = now;
+	}
+
+	/**
+	 * Ends a frame and picks the mode of the next ones.
+	 *
+	 * @param active
+	 *            - Whether the renderer needs more frames without being asked,
+	 *            for example to animate.
+	 * @return whether the mode changed since the last frame, for logging
+	 *         {@link #toString()}.
+	 */
+	public boolean endFrame(boolean active) {
+		mRenderedFrames++;
+		long now = System.nanoTime();
+		boolean continuous;
+		synchronized (mLock) {
+			if (active || mTouching || mWoken) {
+				mWoken = false;
+				mLastActiveNanos = now;
+			} else if (mContinuous && now - mLastActiveNanos > mIdleDelayNanos) {
+				mContinuous = false;
+				mModeSwitches++;
+				mView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+			}
+			continuous = mContinuous;
+		}
+		if (!continuous) {
+			mIdleSinceNanos = now;
+		}
+		boolean changed = continuous != mReportedContinuous;
+		mReportedContinuous = continuous;
+		return changed;
+	}
+
+	public boolean isContinuous() {
+		return mContinuous;
+	}
+
+	public int getRenderedFrames() {
+		return mRenderedFrames;
+	}
+
+	/**
+	 * Returns an estimate of the frames not rendered while idle: display
+	 * refreshes, at the refresh rate measured while continuous, that showed
+	 * the previous frame again.
+	 */
+	public long getSkippedFrames() {
+		return mSkippedFrames;
+	}
+
+	/**
+	 * Returns the number of requestRender() calls passed on to the view.
+	 */
+	public int getRequestsIssued() {
+		return mRequestsIssued.get();
+	}
+
+	/**
+	 * Returns the number of requestRender() calls dropped, because the view
+	 * was continuous or already had a frame pending.
+	 */
+	public int getRequestsCoalesced() {
+		return mRequestsCoalesced.get();
+	}
+
+	public int getModeSwitches() {
+		synchronized (mLock) {
+			return mModeSwitches;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("RenderScheduler[%s, rendered=%d skipped=%d "
+				+ "requests=%d coalesced=%d switches=%d frame=%.1fms]",
+				mContinuous ? "continuous" : "when dirty", mRenderedFrames,
+				mSkippedFrames, getRequestsIssued(), getRequestsCoalesced(),
+				getModeSwitches(), mFrameNanos / 1e6f);
+	}
+}
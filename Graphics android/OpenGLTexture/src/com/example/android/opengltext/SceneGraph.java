@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.util.ArrayList;
+
+/**
+ * A tree of {@link SceneNode}s under one root. Each frame,
+ * {@link #update()} recomputes the world matrices and bounds of the nodes
+ * changed since the last frame (and of their descendants), then
+ * {@link #draw(float[], MatrixPool, Frustum)} draws every node with a
+ * drawable in view, or {@link #queueVisible} hands them to a
+ * {@link RenderQueue} to be drawn in a better order.
+ *
+ * <p>
+ * Must be used on the GL thread. Neither method allocates once the traversal
+ * stack has grown to the size of the tree.
+ * </p>
+ */
+public class SceneGraph {
+
+	private final SceneNode mRoot = new SceneNode("root");
+
+	// Traversal stack of draw(), kept to avoid allocating every frame
+	private final ArrayList<SceneNode> mStack = new ArrayList<SceneNode>();
+	// Whether the subtree of each stacked node is known to be inside the
+	// frustum (or not culled at all)
+	private boolean[] mInside = new boolean[16];
+	// Nodes to draw, filled by cull()
+	private final ArrayList<SceneNode> mVisible = new ArrayList<SceneNode>();
+
+	// Statistics of the last frame
+	private int mUpdatedNodes;
+	private int mDrawnNodes;
+	private int mCulledNodes;
+	private float mEstimatedOverdraw;
+	private int mSmallFeatureCulled;
+	private int mTrianglesBeforeLod;
+	private int mTrianglesAfterLod;
+
+	// Height of the viewport, converting projected sizes to pixels
+	private int mViewportHeight = 1;
+
+	public SceneNode getRoot() {
+		return mRoot;
+	}
+
+	/**
+	 * Sets the height in pixels of the viewport the scene is drawn to, by
+	 * which {@link #queueVisible} measures the size of the shapes.
+	 */
+	public void setViewportHeight(int height) {
+		mViewportHeight = height;
+	}
+
+	/**
+	 * Brings the world matrices and bounds of the dirty nodes up to date.
+	 *
+	 * @return the number of world matrices recomputed.
+	 */
+	public int update() {
+		mUpdatedNodes = mRoot.update(null, false);
+		return mUpdatedNodes;
+	}
+
+	/**
+	 * Draws every node with a drawable, parents before children.
+	 *
+	 * @param vpMatrix
+	 *            - The View Projection matrix of the frame.
+	 * @param matrices
+	 *            - Pool the Model View Projection matrices are taken from, so
+	 *            a drawable may keep its matrix until the end of the frame.
+	 */
+	public void draw(float[] vpMatrix, MatrixPool matrices) {
+		draw(vpMatrix, matrices, null);
+	}
+
+	/**
+	 * Same as {@link #draw(float[], MatrixPool)}, skipping the drawables
+	 * outside a frustum: {@link #cull(Frustum)} then
+	 * {@link #drawVisible(float[], MatrixPool)}.
+	 *
+	 * @param frustum
+	 *            - Frustum of vpMatrix, or null to draw everything.
+	 */
+	public void draw(float[] vpMatrix, MatrixPool matrices, Frustum frustum) {
+		cull(frustum);
+		drawVisible(vpMatrix, matrices);
+	}
+
+	/**
+	 * Collects the nodes with a drawable inside a frustum, parents before
+	 * children, without any GL call. A subtree whose bounds are outside is
+	 * skipped without visiting it; one whose bounds are inside is collected
+	 * without further tests.
+	 *
+	 * @param frustum
+	 *            - Frustum to test against, or null to collect everything.
+	 */
+	public void cull(Frustum frustum) {
+		int culled = 0;
+		ArrayList<SceneNode> stack = mStack;
+		ArrayList<SceneNode> visible = mVisible;
+		visible.clear();
+		push(mRoot, frustum == null);
+		while (!stack.isEmpty()) {
+			int top = stack.size() - 1;
+			SceneNode node = stack.remove(top);
+			boolean inside = mInside[top];
+			// A leaf is tested below, sphere first
+			if (!inside && node.getChildCount() > 0
+					&& node.isSubtreeCullable()) {
+				int result = frustum.testBox(node.getSubtreeBounds());
+				if (result == Frustum.OUTSIDE) {
+					culled += node.getSubtreeDrawables();
+					continue;
+				}
+				inside = result == Frustum.INSIDE;
+			}
+			if (node.getDrawable() != null) {
+				if (!inside && node.hasBounds() && isOutside(frustum, node)) {
+					culled++;
+				} else {
+					visible.add(node);
+				}
+			}
+			// Pushed in reverse so that children are drawn in order
+			for (int i = node.getChildCount() - 1; i >= 0; i--) {
+				push(node.getChild(i), inside);
+			}
+		}
+		mCulledNodes = culled;
+	}
+
+	/**
+	 * Draws the nodes collected by the last {@link #cull(Frustum)}.
+	 */
+	public void drawVisible(float[] vpMatrix, MatrixPool matrices) {
+		ArrayList<SceneNode> visible = mVisible;
+		for (int i = 0; i < visible.size(); i++) {
+			SceneNode node = visible.get(i);
+			float[] mvp = matrices.obtain();
+			MatrixMath.multiplyMM(mvp, 0, vpMatrix, 0, node.getWorldMatrix(),
+					0);
+			node.getDrawable().draw(mvp);
+		}
+		mDrawnNodes = visible.size();
+	}
+
+	/**
+	 * Queues the nodes collected by the last {@link #cull(Frustum)} instead
+	 * of drawing them, each keyed by the view distance of its bounding sphere
+	 * and, if its drawable is a {@link RenderQueue.Sortable}, by its program,
+	 * texture and pass. Other drawables are drawn as opaque, program 0.
+	 *
+	 * <p>
+	 * A {@link LevelOfDetail} drawable is replaced by the level it selects
+	 * for the projected diameter of its bounding sphere, or skipped if too
+	 * small. Their triangles are counted before and after the selection.
+	 * </p>
+	 *
+	 * @param vpMatrix
+	 *            - The View Projection matrix of the frame. Its last row
+	 *            gives the view distance, as clip w.
+	 */
+	public void queueVisible(float[] vpMatrix, MatrixPool matrices,
+			RenderQueue queue) {
+		// Clip-space scale of a unit length along x and y, for the overdraw
+		// and the sizes in pixels
+		float sx = MatrixMath.length(vpMatrix[0], vpMatrix[4], vpMatrix[8]);
+		float sy = MatrixMath.length(vpMatrix[1], vpMatrix[5], vpMatrix[9]);
+		float overdraw = 0;
+		int queued = 0;
+		int smallFeatures = 0;
+		int trianglesBefore = 0;
+		int trianglesAfter = 0;
+		ArrayList<SceneNode> visible = mVisible;
+		for (int i = 0; i < visible.size(); i++) {
+			SceneNode node = visible.get(i);
+			float[] world = node.getWorldMatrix();
+			float x, y, z;
+			if (node.hasBounds()) {
+				float[] sphere = node.getSphere();
+				x = sphere[0];
+				y = sphere[1];
+				z = sphere[2];
+			} else {
+				x = world[12];
+				y = world[13];
+				z = world[14];
+			}
+			float distance = vpMatrix[3] * x + vpMatrix[7] * y + vpMatrix[11]
+					* z + vpMatrix[15];
+			SceneNode.Drawable drawable = node.getDrawable();
+			if (drawable instanceof LevelOfDetail) {
+				LevelOfDetail lod = (LevelOfDetail) drawable;
+				float pixels = node.hasBounds() ? projectedPixels(
+						node.getSphere()[3], distance, sy) : Float.MAX_VALUE;
+				drawable = lod.select(pixels);
+				trianglesBefore += lod.getTriangles(0);
+				trianglesAfter += lod.getTriangles(lod.getLevel());
+				if (drawable == null) {
+					smallFeatures++;
+					continue;
+				}
+			}
+			if (node.hasBounds()) {
+				overdraw += screenFraction(node.getSphere()[3], distance, sx,
+						sy);
+			}
+			queued++;
+			float[] mvp = matrices.obtain();
+			MatrixMath.multiplyMM(mvp, 0, vpMatrix, 0, world, 0);
+			if (drawable instanceof RenderQueue.Sortable) {
+				RenderQueue.Sortable s = (RenderQueue.Sortable) drawable;
+				int pass = s.isTranslucent() ? RenderQueue.PASS_TRANSLUCENT
+						: RenderQueue.PASS_OPAQUE;
+				queue.submit(drawable, mvp, pass, s.getSortProgram(),
+						s.getSortTexture(), distance);
+			} else {
+				queue.submit(drawable, mvp, RenderQueue.PASS_OPAQUE, 0, 0,
+						distance);
+			}
+		}
+		mDrawnNodes = queued;
+		mEstimatedOverdraw = overdraw;
+		mSmallFeatureCulled = smallFeatures;
+		mTrianglesBeforeLod = trianglesBefore;
+		mTrianglesAfterLod = trianglesAfter;
+	}
+
+	/*
+	 * Returns the diameter in pixels of the projection of a sphere.
+	 */
+	private float projectedPixels(float radius, float distance, float sy) {
+		if (distance <= radius) {
+			return Float.MAX_VALUE;
+		}
+		return radius * sy * mViewportHeight / distance;
+	}
+
+	/*
+	 * Returns the part of the viewport covered by the projection of a sphere,
+	 * whose disc is about pi r^2 s^2 / w^2 of the 2 x 2 clip-space square.
+	 */
+	private static float screenFraction(float radius, float distance,
+			float sx, float sy) {
+		if (distance <= radius) {
+			// The eye is (nearly) inside
+			return 1.0f;
+		}
+		float fraction = (float) Math.PI * radius * radius * sx * sy
+				/ (4.0f * distance * distance);
+		return Math.min(fraction, 1.0f);
+	}
+
+	/**
+	 * Returns the nodes collected by the last {@link #cull(Frustum)}, in
+	 * drawing order. Do not modify.
+	 */
+	public ArrayList<SceneNode> getVisibleNodes() {
+		return mVisible;
+	}
+
+	private static boolean isOutside(Frustum frustum, SceneNode node) {
+		int result = frustum.test(node.getSphere(), node.getBounds());
+		return result == Frustum.OUTSIDE;
+	}
+
+	private void push(SceneNode node, boolean inside) {
+		int at = mStack.size();
+		if (at == mInside.length) {
+			boolean[] grown = new boolean[mInside.length * 2];
+			System.arraycopy(mInside, 0, grown, 0, at);
+			mInside = grown;
+		}
+		mStack.add(node);
+		mInside[at] = inside;
+	}
+
+	/**
+	 * Returns the number of world matrices recomputed by the last update.
+	 */
+	public int getUpdatedNodes() {
+		return mUpdatedNodes;
+	}
+
+	/**
+	 * Returns the number of nodes drawn by the last draw.
+	 */
+	public int getDrawnNodes() {
+		return mDrawnNodes;
+	}
+
+	/**
+	 * Returns an estimate of the overdraw of the nodes queued by the last
+	 * {@link #queueVisible}: the sum of the parts of the viewport covered by
+	 * their bounding spheres. Spheres are larger than most shapes, so this
+	 * errs on the high side.
+	 */
+	public float getEstimatedOverdraw() {
+		return mEstimatedOverdraw;
+	}
+
+	/**
+	 * Returns the number of drawables skipped by the last draw as outside
+	 * the frustum.
+	 */
+	public int getCulledNodes() {
+		return mCulledNodes;
+	}
+
+	/**
+	 * Returns the number of {@link LevelOfDetail} drawables skipped by the
+	 * last {@link #queueVisible} as too small on screen.
+	 */
+	public int getSmallFeatureCulled() {
+		return mSmallFeatureCulled;
+	}
+
+	/**
+	 * Returns the triangles the {@link LevelOfDetail} drawables queued by
+	 * the last {@link #queueVisible} would have drawn at full resolution,
+	 * including the small ones it skipped.
+	 */
+	public int getTrianglesBeforeLod() {
+		return mTrianglesBeforeLod;
+	}
+
+	/**
+	 * Returns the triangles of the levels picked by the last
+	 * {@link #queueVisible}.
+	 */
+	public int getTrianglesAfterLod() {
+		return mTrianglesAfterLod;
+	}
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.util.ArrayList;
+
+/**
+ * A node of a {@link SceneGraph}: a local transform relative to its parent,
+ * children, and optionally something to draw with its bounding box.
+ *
+ * <p>
+ * The world matrix (parent world x local) and the world-space bounds are
+ * cached. Changing the local transform marks the node dirty and flags its
+ * ancestors, so {@link SceneGraph#update()} only visits the changed subtrees
+ * and a static node costs nothing per frame.
+ * </p>
+ *
+ * <p>
+ * Bounds are axis-aligned boxes stored as
+ * <code>{minX, minY, minZ, maxX, maxY, maxZ}</code> and spheres stored as
+ * <code>{centerX, centerY, centerZ, radius}</code>, as used by
+ * {@link Frustum}.
+ * </p>
+ */
+public class SceneNode {
+
+	/**
+	 * Something a node can draw.
+	 */
+	public interface Drawable {
+		/**
+		 * @param mvpMatrix
+		 *            - The Model View Projection matrix of the node.
+		 */
+		void draw(float[] mvpMatrix);
+	}
+
+	private final String mName;
+	private SceneNode mParent;
+	private final ArrayList<SceneNode> mChildren = new ArrayList<SceneNode>();
+
+	private final float[] mLocal = new float[16];
+	private final float[] mWorld = new float[16];
+
+	private Drawable mDrawable;
+	private float[] mLocalBounds;
+	private float[] mLocalSphere;
+	// World bounds of the drawable, then of the drawable and all descendants
+	private final float[] mBounds = new float[6];
+	private final float[] mSphere = new float[4];
+	private final float[] mSubtreeBounds = new float[6];
+	private boolean mHasSubtreeBounds;
+	// Drawables in the subtree, this node included, and whether they all
+	// have bounds
+	private int mSubtreeDrawables;
+	private boolean mSubtreeCullable;
+
+	// The world matrix is stale
+	private boolean mDirty = true;
+	// Some descendant is dirty
+	private boolean mChildrenDirty;
+
+	public SceneNode(String name) {
+		mName = name;
+		MatrixMath.setIdentityM(mLocal, 0);
+		MatrixMath.setIdentityM(mWorld, 0);
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	/**
+	 * Adds a child, removing it from its previous parent.
+	 */
+	public void addChild(SceneNode child) {
+		if (child.mParent != null) {
+			child.mParent.removeChild(child);
+		}
+		for (SceneNode p = this; p != null; p = p.mParent) {
+			if (p == child) {
+				throw new IllegalArgumentException("SceneNode: " + child.mName
+						+ " is an ancestor of " + mName);
+			}
+		}
+		mChildren.add(child);
+		child.mParent = this;
+		child.invalidate();
+	}
+
+	public void removeChild(SceneNode child) {
+		if (mChildren.remove(child)) {
+			child.mParent = null;
+			// The subtree bounds shrink
+			invalidateChildren();
+		}
+	}
+
+	public SceneNode getParent() {
+		return mParent;
+	}
+
+	public int getChildCount() {
+		return mChildren.size();
+	}
+
+	public SceneNode getChild(int i) {
+		return mChildren.get(i);
+	}
+
+	/**
+	 * Sets what the node draws, bounded by the sphere enclosing its box.
+	 *
+	 * @param localBounds
+	 *            - Bounding box of the drawable in node space, or null if
+	 *            unknown (the node is then never culled).
+	 */
+	public void setDrawable(Drawable drawable, float[] localBounds) {
+		float[] sphere = null;
+		if (localBounds != null) {
+			sphere = Frustum.computeSphere(localBounds, 0, 3, 2);
+		}
+		setDrawable(drawable, localBounds, sphere);
+	}
+
+	/**
+	 * Sets what the node draws.
+	 *
+	 * @param localBounds
+	 *            - Bounding box of the drawable in node space, or null if
+	 *            unknown (the node is then never culled).
+	 * @param localSphere
+	 *            - Bounding sphere of the drawable in node space, required
+	 *            with a box (see {@link Frustum#computeSphere}).
+	 */
+	public void setDrawable(Drawable drawable, float[] localBounds,
+			float[] localSphere) {
+		mDrawable = drawable;
+		mLocalBounds = localBounds;
+		mLocalSphere = localSphere;
+		invalidate();
+	}
+
+	public Drawable getDrawable() {
+		return mDrawable;
+	}
+
+	// Local transform. Each call applies to the current local matrix, the
+	// same way as the MatrixMath call of the same name.
+
+	public void setIdentity() {
+		MatrixMath.setIdentityM(mLocal, 0);
+		invalidate();
+	}
+
+	public void setLocalMatrix(float[] m, int offset) {
+		System.arraycopy(m, offset, mLocal, 0, 16);
+		invalidate();
+	}
+
+	public void translate(float x, float y, float z) {
+		MatrixMath.translateM(mLocal, 0, x, y, z);
+		invalidate();
+	}
+
+	public void rotate(float a, float x, float y, float z) {
+		MatrixMath.rotateM(mLocal, 0, a, x, y, z);
+		invalidate();
+	}
+
+	public void scale(float x, float y, float z) {
+		MatrixMath.scaleM(mLocal, 0, x, y, z);
+		invalidate();
+	}
+
+	/**
+	 * Returns the local matrix. Do not modify it; use the transform methods,
+	 * which mark the node dirty.
+	 */
+	public float[] getLocalMatrix() {
+		return mLocal;
+	}
+
+	/**
+	 * Returns the world matrix as of the last {@link SceneGraph#update()}.
+	 */
+	public float[] getWorldMatrix() {
+		return mWorld;
+	}
+
+	/**
+	 * Returns whether the node has a drawable with bounds.
+	 */
+	public boolean hasBounds() {
+		return mDrawable != null && mLocalBounds != null;
+	}
+
+	/**
+	 * Returns the world-space bounds of the drawable as of the last update,
+	 * meaningful only if {@link #hasBounds()}.
+	 */
+	public float[] getBounds() {
+		return mBounds;
+	}
+
+	/**
+	 * Returns the world-space bounding sphere of the drawable as of the last
+	 * update, meaningful only if {@link #hasBounds()}.
+	 */
+	public float[] getSphere() {
+		return mSphere;
+	}
+
+	/**
+	 * Returns whether some node of the subtree has bounds.
+	 */
+	public boolean hasSubtreeBounds() {
+		return mHasSubtreeBounds;
+	}
+
+	/**
+	 * Returns the world-space bounds of the node and all its descendants as
+	 * of the last update, meaningful only if {@link #hasSubtreeBounds()}.
+	 */
+	public float[] getSubtreeBounds() {
+		return mSubtreeBounds;
+	}
+
+	/**
+	 * Returns the number of drawables in the subtree, this node included, as
+	 * of the last update.
+	 */
+	public int getSubtreeDrawables() {
+		return mSubtreeDrawables;
+	}
+
+	/**
+	 * Returns whether the subtree has bounds and every drawable in it has
+	 * bounds, so that the subtree can be culled as a whole.
+	 */
+	public boolean isSubtreeCullable() {
+		return mSubtreeCullable;
+	}
+
+	public boolean isDirty() {
+		return mDirty || mChildrenDirty;
+	}
+
+	private void invalidate() {
+		mDirty = true;
+		if (mParent != null) {
+			mParent.invalidateChildren();
+		}
+	}
+
+	/*
+	 * Flags the node and its ancestors for a visit by the next update, which
+	 * also recomputes their subtree bounds.
+	 */
+	private void invalidateChildren() {
+		SceneNode p = this;
+		while (p != null && !p.mChildrenDirty) {
+			p.mChildrenDirty = true;
+			p = p.mParent;
+		}
+	}
+
+	/*
+	 * Recomputes the dirty nodes of the subtree and returns how many world
+	 * matrices were recomputed.
+	 */
+	int update(float[] parentWorld, boolean parentChanged) {
+		boolean changed = mDirty || parentChanged;
+		if (!changed && !mChildrenDirty) {
+			return 0;
+		}
+		int updated = 0;
+		if (changed) {
+			if (parentWorld != null) {
+				MatrixMath.multiplyMM(mWorld, 0, parentWorld, 0, mLocal, 0);
+			} else {
+				System.arraycopy(mLocal, 0, mWorld, 0, 16);
+			}
+			if (hasBounds()) {
+				transformBounds(mWorld, mLocalBounds, mBounds);
+				transformSphere(mWorld, mLocalSphere, mSphere);
+			}
+			updated++;
+		}
+		mHasSubtreeBounds = hasBounds();
+		if (mHasSubtreeBounds) {
+			System.arraycopy(mBounds, 0, mSubtreeBounds, 0, 6);
+		}
+		mSubtreeDrawables = mDrawable != null ? 1 : 0;
+		boolean cullable = mDrawable == null || mLocalBounds != null;
+		for (int i = 0; i < mChildren.size(); i++) {
+			SceneNode child = mChildren.get(i);
+			updated += child.update(mWorld, changed);
+			mSubtreeDrawables += child.mSubtreeDrawables;
+			cullable &= child.mSubtreeCullable || child.mSubtreeDrawables == 0;
+			if (child.mHasSubtreeBounds) {
+				if (mHasSubtreeBounds) {
+					union(mSubtreeBounds, child.mSubtreeBounds);
+				} else {
+					System.arraycopy(child.mSubtreeBounds, 0, mSubtreeBounds,
+							0, 6);
+					mHasSubtreeBounds = true;
+				}
+			}
+		}
+		mSubtreeCullable = cullable && mHasSubtreeBounds;
+		mDirty = false;
+		mChildrenDirty = false;
+		return updated;
+	}
+
+	/**
+	 * Computes the axis-aligned box enclosing a box transformed by m.
+	 */
+	static void transformBounds(float[] m, float[] in, float[] out) {
+		float cx = (in[0] + in[3]) * 0.5f;
+		float cy = (in[1] + in[4]) * 0.5f;
+		float cz = (in[2] + in[5]) * 0.5f;
+		float ex = (in[3] - in[0]) * 0.5f;
+		float ey = (in[4] - in[1]) * 0.5f;
+		float ez = (in[5] - in[2]) * 0.5f;
+		for (int r = 0; r < 3; r++) {
+			float c = m[r] * cx + m[4 + r] * cy + m[8 + r] * cz + m[12 + r];
+			float e = Math.abs(m[r]) * ex + Math.abs(m[4 + r]) * ey
+					+ Math.abs(m[8 + r]) * ez;
+			out[r] = c - e;
+			out[3 + r] = c + e;
+		}
+	}
+
+	/**
+	 * Computes a sphere enclosing a sphere transformed by m, scaled by a bound
+	 * of the largest stretch of m. That is not the longest column of m: under
+	 * a rotated parent with a non-uniform scale, m shears, and stretches some
+	 * directions more than any axis. The square of the stretch is the largest
+	 * eigenvalue of the Gram matrix of the columns, which is at most its
+	 * largest absolute row sum, equal to it when the columns are orthogonal.
+	 */
+	static void transformSphere(float[] m, float[] in, float[] out) {
+		float x = in[0];
+		float y = in[1];
+		float z = in[2];
+		for (int r = 0; r < 3; r++) {
+			out[r] = m[r] * x + m[4 + r] * y + m[8 + r] * z + m[12 + r];
+		}
+		float g00 = dot(m, 0, 0), g11 = dot(m, 4, 4), g22 = dot(m, 8, 8);
+		float g01 = Math.abs(dot(m, 0, 4));
+		float g02 = Math.abs(dot(m, 0, 8));
+		float g12 = Math.abs(dot(m, 4, 8));
+		float scale2 = Math.max(g00 + g01 + g02,
+				Math.max(g01 + g11 + g12, g02 + g12 + g22));
+		out[3] = in[3] * (float) Math.sqrt(scale2);
+	}
+
+	/*
+	 * Dot product of the columns of m at offsets a and b.
+	 */
+	private static float dot(float[] m, int a, int b) {
+		return m[a] * m[b] + m[a + 1] * m[b + 1] + m[a + 2] * m[b + 2];
+	}
+
+	private static void union(float[] bounds, float[] other) {
+		for (int i = 0; i < 3; i++) {
+			bounds[i] = Math.min(bounds[i], other[i]);
+			bounds[3 + i] = Math.max(bounds[3 + i], other[3 + i]);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SceneNode[" + mName + ", " + mChildren.size() + " children]";
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import android.opengl.GLES20;
+
+/**
+ * The scene of {@link MyGLRenderer} and the part of its frames that does
+ * not depend on Android: updating the scene graph, culling it, sorting the
+ * visible cubes in a {@link RenderQueue} and submitting them, with a depth
+ * pre-pass when they overlap enough.
+ *
+ * <p>
+ * Every GL call goes through {@link GLBackend}, so the frames of the app can
+ * be replayed on a JVM with a {@link RecordingGLApi}. Steady-state frames
+ * allocate nothing and log nothing: callers read the counters of
+ * {@link #getScene()} after the frame to report changes.
+ * </p>
+ */
+public class SceneRenderer {
+
+	// Depth range of the projection
+	private static final float NEAR = 1;
+	private static final float FAR = 100;
+
+	private final SceneGraph mScene = new SceneGraph();
+	private SceneNode mFrontCube, mBackCube;
+
+	// Scratch matrices of the current frame
+	private final MatrixPool mMatrices = new MatrixPool(4);
+
+	private final float[] mProjectionMatrix = new float[16];
+	private final float[] mVPMatrix = new float[16];
+	private final Frustum mFrustum = new Frustum();
+	// Visible cubes, sorted by state and depth before drawing
+	private final RenderQueue mQueue = new RenderQueue(16);
+	// Depth-only pass before shading, when the cubes overlap enough
+	private final DepthPrePass mDepthPrePass = new DepthPrePass();
+	private boolean mPrePass;
+
+	/**
+	 * Sets the cubes of the scene, replacing those of a previous context.
+	 * The back cube never moves: its world matrix is computed once.
+	 */
+	public void setCubes(LevelOfDetail frontCube, LevelOfDetail backCube) {
+		SceneNode root = mScene.getRoot();
+		if (mFrontCube != null) {
+			root.removeChild(mFrontCube);
+			root.removeChild(mBackCube);
+		}
+		mFrontCube = new SceneNode("front cube");
+		mFrontCube.setDrawable(frontCube, Cube.getBounds(), Cube.getSphere());
+		root.addChild(mFrontCube);
+		mBackCube = new SceneNode("back cube");
+		mBackCube.translate(0.0f, 1.0f, -4.0f);
+		mBackCube.scale(5.0f, 3.0f, 0.5f);
+		mBackCube.setDrawable(backCube, Cube.getBounds(), Cube.getSphere());
+		root.addChild(mBackCube);
+	}
+
+	/**
+	 * Returns the node of the cube turned by the user, or null before
+	 * {@link #setCubes}.
+	 */
+	public SceneNode getFrontCube() {
+		return mFrontCube;
+	}
+
+	public SceneGraph getScene() {
+		return mScene;
+	}
+
+	public DepthPrePass getDepthPrePass() {
+		return mDepthPrePass;
+	}
+
+	/**
+	 * Sets the viewport and the projection for a surface size.
+	 */
+	public void setViewport(int width, int height) {
+		GLBackend.get().glViewport(0, 0, width, height);
+
+		float ratio = (float) width / height;
+		MatrixMath.frustumM(mProjectionMatrix, 0, -ratio, ratio, -1, 1, NEAR,
+				FAR);
+		mQueue.setDepthRange(NEAR, FAR);
+		mScene.setViewportHeight(height);
+	}
+
+	/**
+	 * Sets the camera of the next frames.
+	 */
+	public void setView(float[] viewMatrix) {
+		MatrixMath.multiplyMM(mVPMatrix, 0, mProjectionMatrix, 0, viewMatrix,
+				0);
+	}
+
+	/**
+	 * Returns the product of the projection and view matrices.
+	 */
+	public float[] getViewProjectionMatrix() {
+		return mVPMatrix;
+	}
+
+	/**
+	 * Returns whether the last frame drew a depth pre-pass.
+	 */
+	public boolean isPrePassUsed() {
+		return mPrePass;
+	}
+
+	/**
+	 * Updates, culls and draws the scene, starting with the update phase of
+	 * the profiler.
+	 */
+	public void drawFrame(FrameProfiler profiler) {
+		mMatrices.reset();
+		// Only the moved nodes are recomputed
+		mScene.update();
+
+		// Objects off screen are rejected before any GL call, and the others
+		// ordered to save state changes and overdraw
+		profiler.beginPhase(FrameProfiler.PHASE_CULL);
+		mFrustum.set(mVPMatrix, 0);
+		mScene.cull(mFrustum);
+		mScene.queueVisible(mVPMatrix, mMatrices, mQueue);
+		mQueue.sort();
+		mPrePass = mQueue.hasDepthDrawables()
+				&& mDepthPrePass.update(mScene.getEstimatedOverdraw());
+
+		profiler.beginPhase(FrameProfiler.PHASE_SUBMIT);
+		GLBackend.get().glClear(
+				GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+		if (mPrePass) {
+			drawDepthPrePass();
+		}
+		mQueue.drain();
+		if (mPrePass) {
+			// Back to the state every other draw expects
+			GLState.depthMask(true);
+			GLState.depthFunc(GLES20.GL_LESS);
+		}
+	}
+
+	/*
+	 * Lays down the depth of the queued opaque objects, then sets up the
+	 * shaded pass to only touch the fragments that won: GL_LEQUAL, which
+	 * passes the equal depths, and no depth writes.
+	 */
+	private void drawDepthPrePass() {
+		GLState.colorMask(false, false, false, false);
+		GLState.depthMask(true);
+		GLState.depthFunc(GLES20.GL_LESS);
+		mQueue.drawDepth();
+		GLState.colorMask(true, true, true, true);
+		GLState.depthMask(false);
+		GLState.depthFunc(GLES20.GL_LEQUAL);
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.util.HashMap;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+/**
+ * A linked OpenGL program. Attribute and uniform locations are looked up once
+ * and kept, and uniform uploads are skipped when the program already holds
+ * the same value (uniform values belong to the program, so they survive
+ * switching to another program and back).
+ *
+ * <p>
+ * The setUniform methods must be called while the program is in use (see
+ * {@link #use()}).
+ * </p>
+ */
+public class ShaderProgram {
+
+	private static final String TAG = "ShaderProgram";
+
+	private final int mProgram;
+	private final HashMap<String, Integer> mLocations = new HashMap<String, Integer>();
+
+	// Last value uploaded to each uniform location, in the order first set
+	private int[] mUniformLocations = new int[4];
+	private float[][] mUniformValues = new float[4][];
+	private int mUniformCount;
+
+	/**
+	 * Compiles and links a program. Shapes should rather get their program
+	 * from {@link ProgramCache}, which shares it between identical sources.
+	 *
+	 * @throws RuntimeException
+	 *             if the program fails to link.
+	 */
+	public ShaderProgram(String vertexShaderCode, String fragmentShaderCode) {
+		this(link(vertexShaderCode, fragmentShaderCode, false));
+	}
+
+	/**
+	 * Wraps an already linked program.
+	 */
+	ShaderProgram(int program) {
+		mProgram = program;
+	}
+
+	/**
+	 * Compiles and links a program and returns its id.
+	 *
+	 * @param retrievable
+	 *            - Whether the binary of the program will be read back with
+	 *            glGetProgramBinary (OpenGL ES 3.0 only).
+	 */
+	static int link(String vertexShaderCode, String fragmentShaderCode,
+			boolean retrievable) {
+		GLApi gl = GLBackend.get();
+		int vertexShader = MyGLRenderer.loadShader(GLES20.GL_VERTEX_SHADER,
+				vertexShaderCode);
+		int fragmentShader = MyGLRenderer.loadShader(
+				GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
+
+		int program = gl.glCreateProgram(); // create empty OpenGL Program
+		gl.glAttachShader(program, vertexShader);
+		gl.glAttachShader(program, fragmentShader);
+		if (retrievable) {
+			gl.glProgramParameteri(program,
+					GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+		}
+		gl.glLinkProgram(program); // create OpenGL program executables
+		checkLinkStatus(program);
+
+		// The program keeps the executables; the shaders can go
+		gl.glDeleteShader(vertexShader);
+		gl.glDeleteShader(fragmentShader);
+		return program;
+	}
+
+	static void checkLinkStatus(int program) {
+		GLApi gl = GLBackend.get();
+		final int[] status = new int[1];
+		gl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+		if (status[0] == GLES20.GL_FALSE) {
+			String log = gl.glGetProgramInfoLog(program);
+			gl.glDeleteProgram(program);
+			Log.e(TAG, "glLinkProgram: " + log);
+			throw new RuntimeException("glLinkProgram: " + log);
+		}
+	}
+
+	/**
+	 * Returns the OpenGL program id.
+	 */
+	public int getId() {
+		return mProgram;
+	}
+
+	/**
+	 * Makes this program the current one.
+	 */
+	public void use() {
+		GLState.useProgram(mProgram);
+	}
+
+	/**
+	 * Returns the location of a vertex attribute, or -1 if the program does
+	 * not use it. Call this once at setup time and keep the result.
+	 */
+	public int getAttribLocation(String name) {
+		Integer location = mLocations.get("a:" + name);
+		if (location == null) {
+			location = GLBackend.get().glGetAttribLocation(mProgram, name);
+			mLocations.put("a:" + name, location);
+		}
+		return location;
+	}
+
+	/**
+	 * Returns the location of a uniform, or -1 if the program does not use
+	 * it. Call this once at setup time and keep the result.
+	 */
+	public int getUniformLocation(String name) {
+		Integer location = mLocations.get("u:" + name);
+		if (location == null) {
+			location = GLBackend.get().glGetUniformLocation(mProgram, name);
+			mLocations.put("u:" + name, location);
+		}
+		return location;
+	}
+
+	/**
+	 * Uploads count 4x4 matrices unless the uniform already holds them.
+	 */
+	public void setUniformMatrix4fv(int location, int count, float[] value,
+			int offset) {
+		if (location < 0) {
+			return;
+		}
+		if (cache(location, value, offset, count * 16)) {
+			GLBackend.get().glUniformMatrix4fv(location, count, false, value,
+					offset);
+			GLState.issued(GLState.Call.UNIFORM);
+		} else {
+			GLState.filtered(GLState.Call.UNIFORM);
+		}
+	}
+
+	/**
+	 * Uploads a vec4 unless the uniform already holds it.
+	 */
+	public void setUniform4fv(int location, float[] value, int offset) {
+		if (location < 0) {
+			return;
+		}
+		if (cache(location, value, offset, 4)) {
+			GLBackend.get().glUniform4fv(location, 1, value, offset);
+			GLState.issued(GLState.Call.UNIFORM);
+		} else {
+			GLState.filtered(GLState.Call.UNIFORM);
+		}
+	}
+
+	/**
+	 * Sets an int or sampler uniform unless it already holds the value.
+	 */
+	public void setUniform1i(int location, int value) {
+		if (location < 0) {
+			return;
+		}
+		int slot = slot(location, 1);
+		float[] cached = mUniformValues[slot];
+		// The first element flags whether a value is cached
+		if (cached[0] != 0.0f && (int) cached[1] == value) {
+			GLState.filtered(GLState.Call.UNIFORM);
+			return;
+		}
+		cached[0] = 1.0f;
+		cached[1] = value;
+		GLBackend.get().glUniform1i(location, value);
+		GLState.issued(GLState.Call.UNIFORM);
+	}
+
+	/*
+	 * Stores the value in the cache of the location. Returns false if the
+	 * cache already held exactly this value.
+	 */
+	private boolean cache(int location, float[] value, int offset, int length) {
+		int slot = slot(location, length);
+		float[] cached = mUniformValues[slot];
+		boolean same = cached[0] != 0.0f;
+		for (int i = 0; i < length && same; i++) {
+			same = Float.floatToIntBits(cached[i + 1]) == Float
+					.floatToIntBits(value[offset + i]);
+		}
+		if (same) {
+			return false;
+		}
+		cached[0] = 1.0f;
+		System.arraycopy(value, offset, cached, 1, length);
+		return true;
+	}
+
+	private int slot(int location, int length) {
+		for (int i = 0; i < mUniformCount; i++) {
+			if (mUniformLocations[i] == location) {
+				if (mUniformValues[i].length < length + 1) {
+					mUniformValues[i] = new float[length + 1];
+				}
+				return i;
+			}
+		}
+		if (mUniformCount == mUniformLocations.length) {
+			int[] locations = new int[mUniformCount * 2];
+			float[][] values = new float[mUniformCount * 2][];
+			System.arraycopy(mUniformLocations, 0, locations, 0, mUniformCount);
+			System.arraycopy(mUniformValues, 0, values, 0, mUniformCount);
+			mUniformLocations = locations;
+			mUniformValues = values;
+		}
+		mUniformLocations[mUniformCount] = location;
+		mUniformValues[mUniformCount] = new float[length + 1];
+		return mUniformCount++;
+	}
+
+	/**
+	 * Forgets the cached uniform values, e.g. after the program was relinked.
+	 */
+	public void invalidateUniforms() {
+		for (int i = 0; i < mUniformCount; i++) {
+			mUniformValues[i][0] = 0.0f;
+		}
+	}
+
+	/**
+	 * Deletes the program. Must be called on the GL thread.
+	 */
+	public void release() {
+		if (GLState.getProgram() == mProgram) {
+			GLState.useProgram(0);
+		}
+		GLBackend.get().glDeleteProgram(mProgram);
+	}
+}
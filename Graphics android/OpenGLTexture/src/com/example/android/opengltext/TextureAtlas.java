@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.content.res.AssetManager;
+
+/**
+ * Lookup table of an atlas made by the AtlasPacker tool (see tools/): for
+ * every packed image, the page holding it and its rectangle in texture
+ * coordinates. Shapes remap their texture coordinates into that rectangle
+ * with {@link #remap(float[], int, int, int, Region)} when their vertices are
+ * built, so objects with different images can share one texture bind.
+ *
+ * <p>
+ * Texture coordinates must stay within [0, 1]: an atlas region cannot
+ * repeat.
+ * </p>
+ */
+public class TextureAtlas {
+
+	/**
+	 * Where one image is in the atlas.
+	 */
+	public static class Region {
+		public final String name;
+		public final int page;
+		public final float u0, v0, u1, v1;
+
+		Region(String name, int page, float u0, float v0, float u1, float v1) {
+			this.name = name;
+			this.page = page;
+			this.u0 = u0;
+			this.v0 = v0;
+			this.u1 = u1;
+			this.v1 = v1;
+		}
+	}
+
+	// Page image paths, relative to the asset root
+	private final ArrayList<String> mPages = new ArrayList<String>();
+	private final HashMap<String, Region> mRegions = new HashMap<String, Region>();
+
+	/**
+	 * Reads the table written by AtlasPacker from the assets.
+	 *
+	 * @param path
+	 *            - Path of the table in the assets, e.g. "atlas/atlas.txt".
+	 *            Page images are looked up in the same directory.
+	 */
+	public static TextureAtlas load(AssetManager assets, String path)
+			throws IOException {
+		int slash = path.lastIndexOf('/');
+		String directory = slash < 0 ? "" : path.substring(0, slash + 1);
+		InputStream in = assets.open(path);
+		try {
+			return parse(in, directory);
+		} finally {
+			in.close();
+		}
+	}
+
+	static TextureAtlas parse(InputStream in, String directory)
+			throws IOException {
+		TextureAtlas atlas = new TextureAtlas();
+		ArrayList<int[]> sizes = new ArrayList<int[]>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+				"UTF-8"));
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			String[] f = line.split("\\s+");
+			try {
+				if (f[0].equals("page") && f.length == 4) {
+					atlas.mPages.add(directory + f[1]);
+					sizes.add(new int[] { Integer.parseInt(f[2]),
+							Integer.parseInt(f[3]) });
+				} else if (f[0].equals("region") && f.length == 7) {
+					int page = Integer.parseInt(f[2]);
+					int[] size = sizes.get(page);
+					float x = Integer.parseInt(f[3]);
+					float y = Integer.parseInt(f[4]);
+					float w = Integer.parseInt(f[5]);
+					float h = Integer.parseInt(f[6]);
+					atlas.mRegions.put(f[1], new Region(f[1], page, x
+							/ size[0], y / size[1], (x + w) / size[0], (y + h)
+							/ size[1]));
+				} else {
+					throw new IOException("Bad atlas line " + lineNumber
+							+ ": " + line);
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException("Bad atlas line " + lineNumber + ": "
+						+ line);
+			} catch (IndexOutOfBoundsException e) {
+				throw new IOException("Unknown page at line " + lineNumber);
+			}
+		}
+		return atlas;
+	}
+
+	public int getPageCount() {
+		return mPages.size();
+	}
+
+	/**
+	 * Returns the asset path of a page image.
+	 */
+	public String getPagePath(int page) {
+		return mPages.get(page);
+	}
+
+	/**
+	 * Returns the region of an image, by file name without extension, or
+	 * null.
+	 */
+	public Region getRegion(String name) {
+		return mRegions.get(name);
+	}
+
+	/**
+	 * Maps texture coordinates of a whole image into the region of that image
+	 * in the atlas.
+	 *
+	 * @param data
+	 *            - Vertex data holding (u, v) pairs.
+	 * @param offset
+	 *            - Index of the first u.
+	 * @param stride
+	 *            - Number of floats between two pairs.
+	 * @param count
+	 *            - Number of pairs.
+	 * @return - Returns a remapped copy of data.
+	 */
+	public static float[] remap(float[] data, int offset, int stride,
+			int count, Region region) {
+		float[] out = data.clone();
+		float du = region.u1 - region.u0;
+		float dv = region.v1 - region.v0;
+		for (int i = 0, j = offset; i < count; i++, j += stride) {
+			out[j] = region.u0 + data[j] * du;
+			out[j + 1] = region.v0 + data[j + 1] * dv;
+		}
+		return out;
+	}
+}
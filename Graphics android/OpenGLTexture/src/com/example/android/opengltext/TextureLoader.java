@@ -0,0 +1,521 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES20;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Loads textures without stalling the GL thread. {@link #load(int, int)}
+ * creates the texture object at once with a 1x1 placeholder, so it can be
+ * drawn right away; the image is decoded on a small pool of background
+ * threads and its pixels are uploaded into the same texture object later by
+ * {@link #processUploads(long)}, which the renderer calls once per frame
+ * with a time budget.
+ *
+ * <p>
+ * Pending decodes and finished decodes waiting for upload are both served in
+ * priority order. Everything but the decode itself must happen on the GL
+ * thread.
+ * </p>
+ */
+public class TextureLoader {
+
+	private static final String TAG = "TextureLoader";
+
+	public static final int PRIORITY_LOW = 0;
+	public static final int PRIORITY_NORMAL = 5;
+	public static final int PRIORITY_HIGH = 10;
+
+	// Placeholder shown until the image is uploaded: opaque mid gray, RGBA
+	private static final int PLACEHOLDER_COLOR = 0x808080ff;
+
+	/**
+	 * One texture being loaded.
+	 */
+	public class Request implements Runnable, Comparable<Request> {
+		private final int mResourceId;
+		// Asset path, or null to decode mResourceId
+		private final String mAssetPath;
+		private final int mPriority;
+		// Ties between equal priorities are served first come, first served
+		private final long mSequence;
+		private final int mTextureId;
+
+		private volatile boolean mCancelled;
+		private volatile boolean mLoaded;
+
+		// Decoded RGBA pixels or compressed levels, handed from the worker
+		// to the GL thread
+		private ByteBuffer mPixels;
+		private KtxTexture mCompressed;
+		private int mWidth;
+		private int mHeight;
+		private volatile int mByteSize;
+
+		Request(int resourceId, String assetPath, int priority, int textureId) {
+			mResourceId = resourceId;
+			mAssetPath = assetPath;
+			mPriority = priority;
+			mSequence = mSequencer.getAndIncrement();
+			mTextureId = textureId;
+		}
+
+		/**
+		 * Returns the texture object, valid from the start: it shows the
+		 * placeholder until the image is uploaded.
+		 */
+		public int getTextureId() {
+			return mTextureId;
+		}
+
+		public int getResourceId() {
+			return mResourceId;
+		}
+
+		public String getAssetPath() {
+			return mAssetPath;
+		}
+
+		/**
+		 * Returns the GPU memory taken by the image once it is uploaded.
+		 */
+		public int getByteSize() {
+			return mByteSize;
+		}
+
+		/**
+		 * Returns true once the image is in the texture.
+		 */
+		public boolean isLoaded() {
+			return mLoaded;
+		}
+
+		public boolean isCancelled() {
+			return mCancelled;
+		}
+
+		/**
+		 * Stops loading the image; the texture keeps the placeholder. Does
+		 * nothing if the image is already uploaded.
+		 */
+		public void cancel() {
+			if (mLoaded) {
+				return;
+			}
+			mCancelled = true;
+			if (mExecutor.remove(this)) {
+				mPendingDecodes.decrementAndGet();
+			}
+			if (mReady.remove(this)) {
+				mPixels = null;
+				mCompressed = null;
+			}
+		}
+
+		@Override
+		public int compareTo(Request other) {
+			if (mPriority != other.mPriority) {
+				return mPriority > other.mPriority ? -1 : 1;
+			}
+			return mSequence < other.mSequence ? -1
+					: (mSequence == other.mSequence ? 0 : 1);
+		}
+
+		/*
+		 * Runs on a worker thread.
+		 */
+		@Override
+		public void run() {
+			mPendingDecodes.decrementAndGet();
+			if (mCancelled) {
+				return;
+			}
+			long start = System.nanoTime();
+			if (!decode()) {
+				return;
+			}
+			mDecodeNanos.addAndGet(System.nanoTime() - start);
+			mDecodeCount.incrementAndGet();
+			if (!mCancelled) {
+				mReady.add(this);
+			}
+		}
+
+		private boolean decode() {
+			if (mAssetPath != null) {
+				mCompressed = readCompressed(mAssetPath);
+				if (mCompressed != null) {
+					return true;
+				}
+			}
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+			Bitmap bitmap;
+			if (mAssetPath != null) {
+				bitmap = decodeAsset(mAssetPath, options);
+			} else {
+				bitmap = BitmapFactory.decodeResource(mResources, mResourceId,
+						options);
+			}
+			if (bitmap == null) {
+				Log.e(TAG, "Cannot decode "
+						+ (mAssetPath != null ? mAssetPath : "resource "
+								+ mResourceId));
+				return false;
+			}
+			if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+				Bitmap converted = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+				bitmap.recycle();
+				bitmap = converted;
+			}
+			// ARGB_8888 pixels are stored in memory as R, G, B, A bytes
+			ByteBuffer pixels = ByteBuffer.allocateDirect(
+					bitmap.getRowBytes() * bitmap.getHeight()).order(
+					ByteOrder.nativeOrder());
+			bitmap.copyPixelsToBuffer(pixels);
+			pixels.position(0);
+			mWidth = bitmap.getWidth();
+			mHeight = bitmap.getHeight();
+			bitmap.recycle();
+			mPixels = pixels;
+			return true;
+		}
+	}
+
+	private final Resources mResources;
+	private final AssetManager mAssets;
+	private final ThreadPoolExecutor mExecutor;
+	private final PriorityBlockingQueue<Request> mReady = new PriorityBlockingQueue<Request>();
+	private final AtomicLong mSequencer = new AtomicLong();
+
+	// Metrics
+	private final AtomicInteger mPendingDecodes = new AtomicInteger();
+	private final AtomicLong mDecodeNanos = new AtomicLong();
+	private final AtomicInteger mDecodeCount = new AtomicInteger();
+	private int mUploadCount;
+	private long mUploadedBytes;
+	private int mLastFrameUploads;
+	private long mLastFrameUploadNanos;
+	private long mMaxFrameUploadNanos;
+
+	// Compressed formats the context can sample
+	private final boolean mEtc1Supported;
+	private final boolean mEtc2Supported;
+
+	// Scratch buffer holding the placeholder pixel
+	private final ByteBuffer mPlaceholder;
+
+	/**
+	 * Creates a loader with the given number of decoding threads. Must be
+	 * called on the GL thread, which is queried for compressed formats.
+	 */
+	public TextureLoader(Context context, int threads) {
+		mEtc1Supported = KtxTexture
+				.isFormatSupported(KtxTexture.GL_ETC1_RGB8_OES);
+		mEtc2Supported = KtxTexture
+				.isFormatSupported(KtxTexture.GL_COMPRESSED_RGBA8_ETC2_EAC);
+		mResources = context.getResources();
+		mAssets = context.getAssets();
+		mExecutor = new ThreadPoolExecutor(threads, threads, 1,
+				TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger mCount = new AtomicInteger();
+
+					@Override
+					public Thread newThread(final Runnable r) {
+						Thread thread = new Thread(new Runnable() {
+							@Override
+							public void run() {
+								Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+								r.run();
+							}
+						}, TAG + "-" + mCount.incrementAndGet());
+						return thread;
+					}
+				});
+		mExecutor.allowCoreThreadTimeOut(true);
+
+		mPlaceholder = ByteBuffer.allocateDirect(4).order(ByteOrder.BIG_ENDIAN);
+		mPlaceholder.putInt(0, PLACEHOLDER_COLOR);
+	}
+
+	/**
+	 * Starts loading a drawable resource. Must be called on the GL thread.
+	 *
+	 * @param resourceId
+	 *            - The image resource.
+	 * @param priority
+	 *            - Higher priorities are decoded and uploaded first.
+	 * @return - Returns the request, whose texture can be drawn immediately.
+	 */
+	public Request load(int resourceId, int priority) {
+		return enqueue(new Request(resourceId, null, priority,
+				createPlaceholder()));
+	}
+
+	/**
+	 * Same as {@link #load(int, int)} for an image in the assets, e.g. an
+	 * atlas page. When the assets also hold a compressed version of the image
+	 * in a format the device supports (made by the TextureCompressor tool:
+	 * "page.png" comes with "page.etc2.ktx" and "page.etc1.ktx"), that
+	 * version is uploaded instead, ETC2 first.
+	 */
+	public Request loadAsset(String path, int priority) {
+		return enqueue(new Request(0, path, priority, createPlaceholder()));
+	}
+
+	private Request enqueue(Request request) {
+		mPendingDecodes.incrementAndGet();
+		mExecutor.execute(request);
+		return request;
+	}
+
+	private int createPlaceholder() {
+		GLApi gl = GLBackend.get();
+		final int[] textureObjectIds = new int[1];
+		gl.glGenTextures(1, textureObjectIds, 0);
+		GLState.bindTexture(0, textureObjectIds[0]);
+		gl.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+		gl.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+		mPlaceholder.position(0);
+		gl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 1, 1, 0,
+				GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mPlaceholder);
+		MyGLRenderer.checkGlError("placeholder");
+		return textureObjectIds[0];
+	}
+
+	/*
+	 * Returns the best supported compressed version of an asset image, or
+	 * null if there is none.
+	 */
+	private KtxTexture readCompressed(String path) {
+		int dot = path.lastIndexOf('.');
+		String base = dot > path.lastIndexOf('/') ? path.substring(0, dot)
+				: path;
+		String[] candidates = { mEtc2Supported ? base + ".etc2.ktx" : null,
+				mEtc1Supported ? base + ".etc1.ktx" : null };
+		for (String candidate : candidates) {
+			if (candidate == null) {
+				continue;
+			}
+			InputStream in;
+			try {
+				in = mAssets.open(candidate);
+			} catch (IOException e) {
+				// This variant was not generated
+				continue;
+			}
+			try {
+				KtxTexture texture = KtxTexture.read(in);
+				if (KtxTexture.isFormatSupportedBy(texture.getInternalFormat(),
+						mEtc1Supported, mEtc2Supported)) {
+					return texture;
+				}
+			} catch (IOException e) {
+				Log.w(TAG, "Cannot read " + candidate, e);
+			} finally {
+				close(in);
+			}
+		}
+		return null;
+	}
+
+	private Bitmap decodeAsset(String path, BitmapFactory.Options options) {
+		InputStream in = null;
+		try {
+			in = mAssets.open(path);
+			return BitmapFactory.decodeStream(in, null, options);
+		} catch (IOException e) {
+			Log.e(TAG, "Cannot open " + path, e);
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	private static void close(InputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+
+	/**
+	 * Uploads decoded images, highest priority first, until the budget is
+	 * spent. At least one image is uploaded per call when one is ready, so
+	 * a budget smaller than one upload still makes progress. Call this on the
+	 * GL thread once per frame.
+	 *
+	 * @param budgetNanos
+	 *            - Time allowed for uploads in this frame.
+	 * @return - Returns the number of textures uploaded.
+	 */
+	public int processUploads(long budgetNanos) {
+		long start = System.nanoTime();
+		long elapsed = 0;
+		int uploads = 0;
+		Request request;
+		while (elapsed < budgetNanos && (request = mReady.poll()) != null) {
+			if (request.mCancelled) {
+				request.mPixels = null;
+				request.mCompressed = null;
+				continue;
+			}
+			upload(request);
+			uploads++;
+			elapsed = System.nanoTime() - start;
+		}
+		mUploadCount += uploads;
+		mLastFrameUploads = uploads;
+		mLastFrameUploadNanos = elapsed;
+		mMaxFrameUploadNanos = Math.max(mMaxFrameUploadNanos, elapsed);
+		return uploads;
+	}
+
+	private void upload(Request request) {
+		GLApi gl = GLBackend.get();
+		GLState.bindTexture(0, request.mTextureId);
+
+		if (request.mCompressed != null) {
+			// Precomputed mip levels, filters set by KtxTexture
+			request.mCompressed.upload();
+			request.mByteSize = request.mCompressed.getByteSize();
+		} else {
+			// Set filtering: a default must be set, or the texture will be
+			// black
+			gl.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_MIN_FILTER,
+					GLES20.GL_LINEAR_MIPMAP_LINEAR);
+			gl.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+
+			gl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA,
+					request.mWidth, request.mHeight, 0, GLES20.GL_RGBA,
+					GLES20.GL_UNSIGNED_BYTE, request.mPixels);
+			gl.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+			MyGLRenderer.checkGlError("glTexImage2D");
+			// A full mip chain adds a third
+			request.mByteSize = request.mWidth * request.mHeight * 4 * 4 / 3;
+		}
+		mUploadedBytes += request.mByteSize;
+
+		request.mPixels = null;
+		request.mCompressed = null;
+		request.mLoaded = true;
+	}
+
+	/**
+	 * Cancels every request and stops the decoding threads, e.g. when the
+	 * EGL context is lost.
+	 */
+	public void shutdown() {
+		mExecutor.shutdownNow();
+		mReady.clear();
+		mPendingDecodes.set(0);
+	}
+
+	/**
+	 * Returns the number of requests waiting for a decoding thread.
+	 */
+	public int getPendingDecodes() {
+		return mPendingDecodes.get();
+	}
+
+	/**
+	 * Returns the number of decoded images waiting for upload.
+	 */
+	public int getPendingUploads() {
+		return mReady.size();
+	}
+
+	/**
+	 * Returns the average decode time in milliseconds.
+	 */
+	public float getAverageDecodeMillis() {
+		int count = mDecodeCount.get();
+		return count == 0 ? 0.0f : mDecodeNanos.get() / 1e6f / count;
+	}
+
+	public int getDecodeCount() {
+		return mDecodeCount.get();
+	}
+
+	public int getUploadCount() {
+		return mUploadCount;
+	}
+
+	/**
+	 * Returns the GPU memory taken by the uploaded images.
+	 */
+	public long getUploadedBytes() {
+		return mUploadedBytes;
+	}
+
+	/**
+	 * Returns the number of textures uploaded by the last
+	 * {@link #processUploads(long)}.
+	 */
+	public int getLastFrameUploads() {
+		return mLastFrameUploads;
+	}
+
+	/**
+	 * Returns the time spent uploading in the last frame, in nanoseconds.
+	 */
+	public long getLastFrameUploadNanos() {
+		return mLastFrameUploadNanos;
+	}
+
+	/**
+	 * Returns the longest time spent uploading in one frame, in nanoseconds.
+	 */
+	public long getMaxFrameUploadNanos() {
+		return mMaxFrameUploadNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TextureLoader[decodes=%d (%.1fms avg), "
+				+ "queued=%d/%d, uploads=%d (%dKB), last frame %.2fms, "
+				+ "max %.2fms]", getDecodeCount(), getAverageDecodeMillis(),
+				getPendingDecodes(), getPendingUploads(), mUploadCount,
+				mUploadedBytes / 1024,
+				mLastFrameUploadNanos / 1e6f, mMaxFrameUploadNanos / 1e6f);
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+
+/**
+ * Keeps track of the textures of the app and of the GPU memory they take,
+ * mip chain included. Textures are shared by source (a drawable resource or
+ * an asset image) and loaded through a {@link TextureLoader}.
+ *
+ * <p>
+ * When the resident textures exceed the budget, {@link #endFrame()} deletes
+ * the least recently bound ones that were not used in the frame. An evicted
+ * texture is loaded again from its source on its next
+ * {@link Texture#bind(int)}, showing the loader's placeholder meanwhile.
+ * </p>
+ *
+ * <p>
+ * All methods must be called on the GL thread.
+ * </p>
+ */
+public class TextureManager {
+
+	/**
+	 * A managed texture. Its OpenGL id changes when it is reloaded after an
+	 * eviction, so shapes keep this object rather than the id.
+	 */
+	public class Texture {
+		private final String mKey;
+		private final int mResourceId;
+		private final String mAssetPath;
+		private final int mPriority;
+
+		// Current load, or null while evicted
+		private TextureLoader.Request mRequest;
+		private int mLastFrame = -1;
+
+		Texture(String key, int resourceId, String assetPath, int priority) {
+			mKey = key;
+			mResourceId = resourceId;
+			mAssetPath = assetPath;
+			mPriority = priority;
+		}
+
+		/**
+		 * Binds the texture to a texture unit, loading it again if it was
+		 * evicted.
+		 */
+		public void bind(int unit) {
+			if (mLastFrame != mFrame) {
+				// Moves the texture to the most recently used end
+				mTextures.get(mKey);
+				mLastFrame = mFrame;
+			}
+			if (mRequest == null) {
+				mMisses++;
+				load();
+			} else {
+				mHits++;
+			}
+			GLState.bindTexture(unit, mRequest.getTextureId());
+		}
+
+		void load() {
+			mRequest = mAssetPath != null ? mLoader.loadAsset(mAssetPath,
+					mPriority) : mLoader.load(mResourceId, mPriority);
+		}
+
+		/**
+		 * Returns the current OpenGL id, or 0 while evicted.
+		 */
+		public int getId() {
+			return mRequest != null ? mRequest.getTextureId() : 0;
+		}
+
+		public boolean isResident() {
+			return mRequest != null;
+		}
+
+		/**
+		 * Returns the GPU memory taken by the texture, 0 until its image is
+		 * uploaded.
+		 */
+		public int getByteSize() {
+			return mRequest != null ? mRequest.getByteSize() : 0;
+		}
+
+		void evict() {
+			int id = mRequest.getTextureId();
+			mRequest.cancel();
+			mRequest = null;
+			final int[] textureObjectIds = { id };
+			GLBackend.get().glDeleteTextures(1, textureObjectIds, 0);
+			GLState.textureDeleted(id);
+		}
+	}
+
+	private final TextureLoader mLoader;
+	private long mBudgetBytes;
+
+	// In least recently bound first order
+	private final LinkedHashMap<String, Texture> mTextures = new LinkedHashMap<String, Texture>(
+			16, 0.75f, true);
+	// Same textures, for iterating without an Iterator every frame
+	private final ArrayList<Texture> mList = new ArrayList<Texture>();
+
+	private int mFrame;
+
+	// Statistics
+	private int mHits;
+	private int mMisses;
+	private int mEvictions;
+	private long mResidentBytes;
+
+	/**
+	 * @param loader
+	 *            - Loader used for the first load and every reload.
+	 * @param budgetBytes
+	 *            - GPU memory the textures should stay under.
+	 */
+	public TextureManager(TextureLoader loader, long budgetBytes) {
+		mLoader = loader;
+		mBudgetBytes = budgetBytes;
+	}
+
+	/**
+	 * Returns the texture of a drawable resource, starting to load it the
+	 * first time.
+	 */
+	public Texture get(int resourceId, int priority) {
+		return get("res:" + resourceId, resourceId, null, priority);
+	}
+
+	/**
+	 * Returns the texture of an asset image (see
+	 * {@link TextureLoader#loadAsset(String, int)}).
+	 */
+	public Texture getAsset(String path, int priority) {
+		return get("asset:" + path, 0, path, priority);
+	}
+
+	private Texture get(String key, int resourceId, String assetPath,
+			int priority) {
+		Texture texture = mTextures.get(key);
+		if (texture == null) {
+			texture = new Texture(key, resourceId, assetPath, priority);
+			texture.load();
+			mTextures.put(key, texture);
+			mList.add(texture);
+		}
+		return texture;
+	}
+
+	/**
+	 * Ends a frame: updates the resident bytes and evicts textures until they
+	 * fit in the budget. Textures bound in this frame are never evicted.
+	 */
+	public void endFrame() {
+		mResidentBytes = computeResidentBytes();
+		if (mResidentBytes <= mBudgetBytes) {
+			mFrame++;
+			return;
+		}
+		Iterator<Texture> it = mTextures.values().iterator();
+		while (mResidentBytes > mBudgetBytes && it.hasNext()) {
+			Texture texture = it.next();
+			if (texture.mLastFrame == mFrame) {
+				// This and every later texture were bound in this frame
+				break;
+			}
+			if (texture.mRequest == null) {
+				continue;
+			}
+			mResidentBytes -= texture.getByteSize();
+			texture.evict();
+			mEvictions++;
+		}
+		mFrame++;
+	}
+
+	private long computeResidentBytes() {
+		long bytes = 0;
+		for (int i = 0; i < mList.size(); i++) {
+			bytes += mList.get(i).getByteSize();
+		}
+		return bytes;
+	}
+
+	public void setBudget(long budgetBytes) {
+		mBudgetBytes = budgetBytes;
+	}
+
+	public long getBudget() {
+		return mBudgetBytes;
+	}
+
+	/**
+	 * Returns the GPU memory taken by the resident textures at the end of the
+	 * last frame.
+	 */
+	public long getResidentBytes() {
+		return mResidentBytes;
+	}
+
+	/**
+	 * Returns the number of binds of a resident texture.
+	 */
+	public int getHits() {
+		return mHits;
+	}
+
+	/**
+	 * Returns the number of binds that had to reload an evicted texture.
+	 */
+	public int getMisses() {
+		return mMisses;
+	}
+
+	public int getEvictions() {
+		return mEvictions;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TextureManager[%d textures, %dKB of %dKB, "
+				+ "hits=%d misses=%d evictions=%d]", mTextures.size(),
+				mResidentBytes / 1024, mBudgetBytes / 1024, mHits, mMisses,
+				mEvictions);
+	}
+}
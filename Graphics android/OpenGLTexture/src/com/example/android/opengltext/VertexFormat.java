@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.util.ArrayList;
+
+import android.opengl.GLES20;
+
+/**
+ * Describes the layout of an interleaved vertex: the list of attributes with
+ * their shader names, component counts and types, each attribute's byte
+ * offset inside the vertex, and the stride between two vertices.
+ *
+ * <p>
+ * A shape declares its format once:
+ * </p>
+ *
+ * <pre>
+ * static final VertexFormat FORMAT = new VertexFormat.Builder()
+ * 		.addFloat(&quot;a_Position&quot;, 3).addFloat(&quot;a_TexCoordinate&quot;, 2).build();
+ * </pre>
+ *
+ * and fills a single buffer with a {@link VertexWriter}. At draw time every
+ * attribute is bound from that buffer with {@link #enable(int[])}, through
+ * {@link GLState} so that unchanged pointers are not set again.
+ */
+public class VertexFormat {
+
+	/**
+	 * One attribute of the vertex.
+	 */
+	public static class Attribute {
+		// name of the attribute in the vertex shader
+		public final String name;
+		// number of components (1 to 4)
+		public final int size;
+		// GL_FLOAT, GL_UNSIGNED_BYTE, GL_BYTE, GL_UNSIGNED_SHORT or GL_SHORT
+		public final int type;
+		// whether integer values are mapped to [0, 1] or [-1, 1]
+		public final boolean normalized;
+		// byte offset inside the vertex
+		public final int offset;
+
+		Attribute(String name, int size, int type, boolean normalized,
+				int offset) {
+			this.name = name;
+			this.size = size;
+			this.type = type;
+			this.normalized = normalized;
+			this.offset = offset;
+		}
+
+		/**
+		 * Returns the number of bytes taken by this attribute.
+		 */
+		public int getByteSize() {
+			return size * bytesPerComponent(type);
+		}
+	}
+
+	private final Attribute[] mAttributes;
+	private final int mStride;
+
+	private VertexFormat(Attribute[] attributes, int stride) {
+		mAttributes = attributes;
+		mStride = stride;
+	}
+
+	/**
+	 * Returns the number of bytes between the start of two vertices.
+	 */
+	public int getStride() {
+		return mStride;
+	}
+
+	public int getAttributeCount() {
+		return mAttributes.length;
+	}
+
+	public Attribute getAttribute(int index) {
+		return mAttributes[index];
+	}
+
+	/**
+	 * Returns the index of the attribute with the given shader name, or -1.
+	 */
+	public int indexOf(String name) {
+		for (int i = 0; i < mAttributes.length; i++) {
+			if (mAttributes[i].name.equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Looks up the location of every attribute in a linked program. The
+	 * program caches its locations, so only the first shape using it queries
+	 * GL. The result is meant to be kept by the shape and passed to
+	 * {@link #enable(int[])}.
+	 *
+	 * @param program
+	 *            - A linked program, usually from {@link ProgramCache}.
+	 * @return - Returns one location per attribute, -1 for attributes the
+	 *         program does not use.
+	 */
+	public int[] getLocations(ShaderProgram program) {
+		int[] locations = new int[mAttributes.length];
+		for (int i = 0; i < mAttributes.length; i++) {
+			locations[i] = program.getAttribLocation(mAttributes[i].name);
+		}
+		return locations;
+	}
+
+	/**
+	 * Enables every attribute and points it into the buffer object currently
+	 * bound to GL_ARRAY_BUFFER.
+	 *
+	 * @param locations
+	 *            - Attribute locations returned by {@link #getLocations(ShaderProgram)}.
+	 */
+	public void enable(int[] locations) {
+		enable(locations, 0);
+	}
+
+	/**
+	 * Same as {@link #enable(int[])} for vertices starting at the given byte
+	 * offset in the bound buffer.
+	 */
+	public void enable(int[] locations, int baseOffset) {
+		int mask = 0;
+		for (int i = 0; i < mAttributes.length; i++) {
+			if (locations[i] >= 0) {
+				mask |= 1 << locations[i];
+			}
+		}
+		// Also disables arrays left enabled by another format
+		GLState.useVertexAttribArrays(mask);
+		for (int i = 0; i < mAttributes.length; i++) {
+			int location = locations[i];
+			if (location < 0) {
+				continue;
+			}
+			Attribute a = mAttributes[i];
+			GLState.vertexAttribPointer(location, a.size, a.type,
+					a.normalized, mStride, baseOffset + a.offset);
+		}
+	}
+
+	/**
+	 * Disables every attribute enabled by {@link #enable(int[])}.
+	 */
+	public void disable(int[] locations) {
+		for (int i = 0; i < mAttributes.length; i++) {
+			if (locations[i] >= 0) {
+				GLState.disableVertexAttribArray(locations[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the size in bytes of one component of the given type.
+	 */
+	public static int bytesPerComponent(int type) {
+		switch (type) {
+		case GLES20.GL_FLOAT:
+			return 4;
+		case GLES20.GL_SHORT:
+		case GLES20.GL_UNSIGNED_SHORT:
+			return 2;
+		case GLES20.GL_BYTE:
+		case GLES20.GL_UNSIGNED_BYTE:
+			return 1;
+		default:
+			throw new IllegalArgumentException("Unsupported vertex type: "
+					+ type);
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("VertexFormat[stride=");
+		sb.append(mStride);
+		for (Attribute a : mAttributes) {
+			sb.append(", ").append(a.name).append(':').append(a.size)
+					.append('@').append(a.offset);
+		}
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * Builds a {@link VertexFormat}. Attributes are laid out in the order they
+	 * are added; each one starts on a 4-byte boundary, as recommended for
+	 * OpenGL ES vertex fetch.
+	 */
+	public static class Builder {
+		private final ArrayList<Attribute> mList = new ArrayList<Attribute>();
+		private int mOffset;
+
+		/**
+		 * Adds an attribute of float components.
+		 */
+		public Builder addFloat(String name, int size) {
+			return add(name, size, GLES20.GL_FLOAT, false);
+		}
+
+		/**
+		 * Adds an attribute.
+		 *
+		 * @param name
+		 *            - Name of the attribute in the vertex shader.
+		 * @param size
+		 *            - Number of components, 1 to 4.
+		 * @param type
+		 *            - Component type, e.g. GL_FLOAT or GL_UNSIGNED_BYTE.
+		 * @param normalized
+		 *            - Whether integer components are normalized.
+		 */
+		public Builder add(String name, int size, int type, boolean normalized) {
+			if (size < 1 || size > 4) {
+				throw new IllegalArgumentException("Bad size for " + name
+						+ ": " + size);
+			}
+			Attribute a = new Attribute(name, size, type, normalized, mOffset);
+			mList.add(a);
+			mOffset = align4(mOffset + a.getByteSize());
+			return this;
+		}
+
+		public VertexFormat build() {
+			if (mList.isEmpty()) {
+				throw new IllegalStateException("No vertex attributes");
+			}
+			return new VertexFormat(mList.toArray(new Attribute[mList.size()]),
+					mOffset);
+		}
+
+		private static int align4(int n) {
+			return (n + 3) & ~3;
+		}
+	}
+}
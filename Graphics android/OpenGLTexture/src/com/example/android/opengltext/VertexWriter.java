@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import android.opengl.GLES20;
+
+/**
+ * Writes interleaved vertices described by a {@link VertexFormat} straight
+ * into a direct buffer, converting float values to the attribute's component
+ * type.
+ *
+ * <pre>
+ * VertexWriter w = new VertexWriter(FORMAT, 3);
+ * w.set(0, -0.5f, -0.5f, 0.0f).set(1, 0.0f, 1.0f).next();
+ * ...
+ * ByteBuffer vertices = w.getBuffer();
+ * </pre>
+ */
+public class VertexWriter {
+
+	private final VertexFormat mFormat;
+	private final ByteBuffer mBuffer;
+	private final int mStart;
+	private int mVertex;
+
+	/**
+	 * Creates a writer over a new direct buffer, in native order, large
+	 * enough for the given number of vertices.
+	 */
+	public VertexWriter(VertexFormat format, int vertexCount) {
+		this(format, ByteBuffer.allocateDirect(vertexCount * format.getStride())
+				.order(ByteOrder.nativeOrder()));
+	}
+
+	/**
+	 * Creates a writer that fills a caller-provided buffer from its current
+	 * position. The buffer's byte order must already be set.
+	 */
+	public VertexWriter(VertexFormat format, ByteBuffer target) {
+		mFormat = format;
+		mBuffer = target;
+		mStart = target.position();
+	}
+
+	public VertexFormat getFormat() {
+		return mFormat;
+	}
+
+	/**
+	 * Sets the first component of an attribute of the current vertex.
+	 */
+	public VertexWriter set(int attribute, float x) {
+		int base = base(attribute);
+		put(attribute, base, 0, x);
+		return this;
+	}
+
+	public VertexWriter set(int attribute, float x, float y) {
+		int base = base(attribute);
+		put(attribute, base, 0, x);
+		put(attribute, base, 1, y);
+		return this;
+	}
+
+	public VertexWriter set(int attribute, float x, float y, float z) {
+		int base = base(attribute);
+		put(attribute, base, 0, x);
+		put(attribute, base, 1, y);
+		put(attribute, base, 2, z);
+		return this;
+	}
+
+	public VertexWriter set(int attribute, float x, float y, float z, float w) {
+		int base = base(attribute);
+		put(attribute, base, 0, x);
+		put(attribute, base, 1, y);
+		put(attribute, base, 2, z);
+		put(attribute, base, 3, w);
+		return this;
+	}
+
+	/**
+	 * Moves to the next vertex.
+	 */
+	public VertexWriter next() {
+		mVertex++;
+		return this;
+	}
+
+	/**
+	 * Writes vertices whose attribute values are packed one after the other
+	 * in attribute order, as returned by {@link MeshCompiler.Mesh#getVertices()}.
+	 *
+	 * @param values
+	 *            - size components of attribute 0, then of attribute 1...
+	 *            for every vertex.
+	 * @param vertexCount
+	 *            - Number of vertices to write.
+	 */
+	public VertexWriter put(float[] values, int vertexCount) {
+		int count = mFormat.getAttributeCount();
+		int src = 0;
+		for (int v = 0; v < vertexCount; v++) {
+			for (int a = 0; a < count; a++) {
+				int base = base(a);
+				int size = mFormat.getAttribute(a).size;
+				for (int c = 0; c < size; c++) {
+					put(a, base, c, values[src++]);
+				}
+			}
+			mVertex++;
+		}
+		return this;
+	}
+
+	/**
+	 * Returns the number of complete vertices written so far.
+	 */
+	public int getVertexCount() {
+		return mVertex;
+	}
+
+	/**
+	 * Returns the written vertices as a buffer positioned on the first one
+	 * and limited to the last one.
+	 */
+	public ByteBuffer getBuffer() {
+		ByteBuffer bb = mBuffer.duplicate();
+		bb.order(mBuffer.order());
+		bb.limit(mStart + mVertex * mFormat.getStride());
+		bb.position(mStart);
+		return bb.slice().order(mBuffer.order());
+	}
+
+	private int base(int attribute) {
+		return mStart + mVertex * mFormat.getStride()
+				+ mFormat.getAttribute(attribute).offset;
+	}
+
+	private void put(int attribute, int base, int component, float value) {
+		VertexFormat.Attribute a = mFormat.getAttribute(attribute);
+		if (component >= a.size) {
+			throw new IndexOutOfBoundsException(a.name + " has only "
+					+ a.size + " components");
+		}
+		switch (a.type) {
+		case GLES20.GL_FLOAT:
+			mBuffer.putFloat(base + component * 4, value);
+			break;
+		case GLES20.GL_UNSIGNED_BYTE:
+			mBuffer.put(base + component,
+					(byte) (a.normalized ? Math.round(clamp(value, 0.0f, 1.0f) * 255.0f)
+							: (int) value));
+			break;
+		case GLES20.GL_BYTE:
+			mBuffer.put(base + component,
+					(byte) (a.normalized ? Math.round(clamp(value, -1.0f, 1.0f) * 127.0f)
+							: (int) value));
+			break;
+		case GLES20.GL_UNSIGNED_SHORT:
+			mBuffer.putShort(base + component * 2,
+					(short) (a.normalized ? Math.round(clamp(value, 0.0f, 1.0f) * 65535.0f)
+							: (int) value));
+			break;
+		case GLES20.GL_SHORT:
+			mBuffer.putShort(base + component * 2,
+					(short) (a.normalized ? Math.round(clamp(value, -1.0f, 1.0f) * 32767.0f)
+							: (int) value));
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported vertex type: "
+					+ a.type);
+		}
+	}
+
+	private static float clamp(float value, float min, float max) {
+		return value < min ? min : (value > max ? max : value);
+	}
+}
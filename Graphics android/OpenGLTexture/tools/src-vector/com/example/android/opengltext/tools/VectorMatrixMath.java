@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import com.example.android.opengltext.MatrixArray;
+import com.example.android.opengltext.MatrixMath;
+
+/**
+ * Explicitly vectorized version of
+ * {@link MatrixMath#multiplyMMBatch(MatrixArray, float[], int, MatrixArray, int, int)}
+ * for desktop JVMs with the incubating Vector API (JDK 16 or later). Kept in
+ * its own source folder because it only compiles and runs with
+ * <code>--add-modules jdk.incubator.vector</code>; {@link MatrixBenchmark}
+ * uses it when it is on the class path.
+ *
+ * <p>
+ * Products are added in the same order as the scalar version, without fused
+ * multiply-add, so both give identical results.
+ * </p>
+ */
+public class VectorMatrixMath {
+
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+	private VectorMatrixMath() {
+	}
+
+	/**
+	 * dst[i] = lhs x src[i] for the matrices [start, start + count). When dst
+	 * is src the rows of a column depend on each other, so this falls back to
+	 * the scalar version.
+	 */
+	public static void multiplyMMBatch(MatrixArray dst, float[] lhs,
+			int lhsOffset, MatrixArray src, int start, int count) {
+		if (dst == src) {
+			MatrixMath.multiplyMMBatch(dst, lhs, lhsOffset, src, start, count);
+			return;
+		}
+		float[][] s = src.elements;
+		float[][] d = dst.elements;
+		int end = start + count;
+		int vectorEnd = start + SPECIES.loopBound(count);
+		for (int c = 0; c < 16; c += 4) {
+			float[] s0 = s[c], s1 = s[c + 1], s2 = s[c + 2], s3 = s[c + 3];
+			for (int r = 0; r < 4; r++) {
+				float l0 = lhs[lhsOffset + r];
+				float l1 = lhs[lhsOffset + 4 + r];
+				float l2 = lhs[lhsOffset + 8 + r];
+				float l3 = lhs[lhsOffset + 12 + r];
+				float[] o = d[c + r];
+				int i = start;
+				for (; i < vectorEnd; i += SPECIES.length()) {
+					FloatVector.fromArray(SPECIES, s0, i).mul(l0)
+							.add(FloatVector.fromArray(SPECIES, s1, i).mul(l1))
+							.add(FloatVector.fromArray(SPECIES, s2, i).mul(l2))
+							.add(FloatVector.fromArray(SPECIES, s3, i).mul(l3))
+							.intoArray(o, i);
+				}
+				for (; i < end; i++) {
+					o[i] = l0 * s0[i] + l1 * s1[i] + l2 * s2[i] + l3 * s3[i];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Desktop tool packing the images of a directory (e.g. res/drawable-nodpi)
+ * into a few power-of-two atlas pages, read at run time by
+ * com.example.android.opengltext.TextureAtlas.
+ *
+ * <p>
+ * Every image is surrounded by a gutter of copies of its edge pixels, so
+ * that bilinear filtering and the first mipmap levels never mix in a
+ * neighbor, and is placed on a multiple of the alignment. Besides the pages
+ * the tool writes a text table giving each image's page and pixel rectangle:
+ * </p>
+ *
+ * <pre>
+ * page atlas0.png 1024 512
+ * region text1 0 4 4 256 256
+ * </pre>
+ *
+ * <p>
+ * Usage:
+ * <code>AtlasPacker [-max 2048] [-gutter 4] [-align 4] [-name atlas] inputDir outputDir</code>
+ * </p>
+ */
+public class AtlasPacker {
+
+	// An input image and, once packed, where it went
+	static class Item {
+		final String name;
+		final BufferedImage image;
+		int page = -1;
+		int x, y;
+
+		Item(String name, BufferedImage image) {
+			this.name = name;
+			this.image = image;
+		}
+	}
+
+	// A free rectangle of a page (MaxRects algorithm)
+	static class Rect {
+		final int x, y, w, h;
+
+		Rect(int x, int y, int w, int h) {
+			this.x = x;
+			this.y = y;
+			this.w = w;
+			this.h = h;
+		}
+
+		boolean contains(Rect r) {
+			return r.x >= x && r.y >= y && r.x + r.w <= x + w
+					&& r.y + r.h <= y + h;
+		}
+
+		boolean intersects(Rect r) {
+			return r.x < x + w && r.x + r.w > x && r.y < y + h
+					&& r.y + r.h > y;
+		}
+	}
+
+	private final int mMaxSize;
+	private final int mGutter;
+	private final int mAlign;
+
+	// Page sizes chosen by pack()
+	private final List<int[]> mPages = new ArrayList<int[]>();
+
+	public AtlasPacker(int maxSize, int gutter, int align) {
+		mMaxSize = maxSize;
+		mGutter = gutter;
+		mAlign = align;
+	}
+
+	/**
+	 * Assigns a page and a position to every item.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if an image does not fit in a page of the maximum size.
+	 */
+	public void pack(List<Item> items) {
+		List<Item> remaining = new ArrayList<Item>(items);
+		// Largest first packs tightest
+		Collections.sort(remaining, new Comparator<Item>() {
+			@Override
+			public int compare(Item a, Item b) {
+				int sa = Math.max(cellWidth(a), cellHeight(a));
+				int sb = Math.max(cellWidth(b), cellHeight(b));
+				return sa != sb ? sb - sa : a.name.compareTo(b.name);
+			}
+		});
+		for (Item item : remaining) {
+			if (cellWidth(item) > mMaxSize || cellHeight(item) > mMaxSize) {
+				throw new IllegalArgumentException(item.name
+						+ " does not fit in a " + mMaxSize + " page");
+			}
+		}
+
+		while (!remaining.isEmpty()) {
+			int page = mPages.size();
+			// Smallest power-of-two page holding everything left, if any
+			int[] size = null;
+			for (int[] candidate : pageSizes()) {
+				if (place(remaining, candidate[0], candidate[1], page, false) == remaining
+						.size()) {
+					size = candidate;
+					break;
+				}
+			}
+			if (size == null) {
+				size = new int[] { mMaxSize, mMaxSize };
+			}
+			place(remaining, size[0], size[1], page, true);
+			mPages.add(size);
+			for (int i = remaining.size() - 1; i >= 0; i--) {
+				if (remaining.get(i).page == page) {
+					remaining.remove(i);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Power-of-two sizes up to the maximum, smallest area first, wider first
+	 * on ties.
+	 */
+	private List<int[]> pageSizes() {
+		List<int[]> sizes = new ArrayList<int[]>();
+		for (int w = 1; w <= mMaxSize; w <<= 1) {
+			for (int h = Math.max(w / 2, 1); h <= w; h <<= 1) {
+				sizes.add(new int[] { w, h });
+			}
+		}
+		Collections.sort(sizes, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				long areaA = (long) a[0] * a[1];
+				long areaB = (long) b[0] * b[1];
+				if (areaA != areaB) {
+					return areaA < areaB ? -1 : 1;
+				}
+				return b[0] - a[0];
+			}
+		});
+		return sizes;
+	}
+
+	/*
+	 * MaxRects with the best short side fit heuristic. Returns the number of
+	 * items placed; only assigns them when commit is true.
+	 */
+	private int place(List<Item> items, int width, int height, int page,
+			boolean commit) {
+		List<Rect> free = new ArrayList<Rect>();
+		free.add(new Rect(0, 0, width, height));
+		int placed = 0;
+		for (Item item : items) {
+			int w = cellWidth(item);
+			int h = cellHeight(item);
+			Rect best = null;
+			int bestShort = Integer.MAX_VALUE;
+			int bestLong = Integer.MAX_VALUE;
+			for (Rect r : free) {
+				if (r.w < w || r.h < h) {
+					continue;
+				}
+				int shortSide = Math.min(r.w - w, r.h - h);
+				int longSide = Math.max(r.w - w, r.h - h);
+				if (shortSide < bestShort
+						|| (shortSide == bestShort && longSide < bestLong)) {
+					best = new Rect(r.x, r.y, w, h);
+					bestShort = shortSide;
+					bestLong = longSide;
+				}
+			}
+			if (best == null) {
+				continue;
+			}
+			split(free, best);
+			placed++;
+			if (commit) {
+				item.page = page;
+				item.x = best.x + mGutter;
+				item.y = best.y + mGutter;
+			}
+		}
+		return placed;
+	}
+
+	private static void split(List<Rect> free, Rect used) {
+		List<Rect> added = new ArrayList<Rect>();
+		for (int i = free.size() - 1; i >= 0; i--) {
+			Rect r = free.get(i);
+			if (!r.intersects(used)) {
+				continue;
+			}
+			free.remove(i);
+			if (used.x > r.x) {
+				added.add(new Rect(r.x, r.y, used.x - r.x, r.h));
+			}
+			if (used.x + used.w < r.x + r.w) {
+				added.add(new Rect(used.x + used.w, r.y, r.x + r.w - used.x
+						- used.w, r.h));
+			}
+			if (used.y > r.y) {
+				added.add(new Rect(r.x, r.y, r.w, used.y - r.y));
+			}
+			if (used.y + used.h < r.y + r.h) {
+				added.add(new Rect(r.x, used.y + used.h, r.w, r.y + r.h
+						- used.y - used.h));
+			}
+		}
+		free.addAll(added);
+		// Drop free rectangles contained in another one
+		for (int i = free.size() - 1; i >= 0; i--) {
+			for (int j = 0; j < free.size(); j++) {
+				if (i != j && free.get(j).contains(free.get(i))) {
+					free.remove(i);
+					break;
+				}
+			}
+		}
+	}
+
+	private int cellWidth(Item item) {
+		return align(item.image.getWidth() + 2 * mGutter);
+	}
+
+	private int cellHeight(Item item) {
+		return align(item.image.getHeight() + 2 * mGutter);
+	}
+
+	private int align(int n) {
+		return (n + mAlign - 1) / mAlign * mAlign;
+	}
+
+	/**
+	 * Draws the packed items of a page, with their gutters.
+	 */
+	public BufferedImage render(List<Item> items, int page) {
+		int[] size = mPages.get(page);
+		BufferedImage out = new BufferedImage(size[0], size[1],
+				BufferedImage.TYPE_INT_ARGB);
+		for (Item item : items) {
+			if (item.page != page) {
+				continue;
+			}
+			BufferedImage image = item.image;
+			int w = image.getWidth();
+			int h = image.getHeight();
+			for (int y = -mGutter; y < h + mGutter; y++) {
+				int sy = Math.min(Math.max(y, 0), h - 1);
+				for (int x = -mGutter; x < w + mGutter; x++) {
+					int sx = Math.min(Math.max(x, 0), w - 1);
+					out.setRGB(item.x + x, item.y + y, image.getRGB(sx, sy));
+				}
+			}
+		}
+		return out;
+	}
+
+	public int getPageCount() {
+		return mPages.size();
+	}
+
+	public int[] getPageSize(int page) {
+		return mPages.get(page);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int maxSize = 2048;
+		int gutter = 4;
+		int align = 4;
+		String name = "atlas";
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) {
+			String option = args[i++];
+			if (i == args.length) {
+				usage();
+			}
+			String value = args[i++];
+			if (option.equals("-max")) {
+				maxSize = Integer.parseInt(value);
+			} else if (option.equals("-gutter")) {
+				gutter = Integer.parseInt(value);
+			} else if (option.equals("-align")) {
+				align = Integer.parseInt(value);
+			} else if (option.equals("-name")) {
+				name = value;
+			} else {
+				usage();
+			}
+		}
+		if (args.length - i != 2) {
+			usage();
+		}
+		File inputDir = new File(args[i]);
+		File outputDir = new File(args[i + 1]);
+
+		List<Item> items = new ArrayList<Item>();
+		File[] files = inputDir.listFiles();
+		if (files == null) {
+			throw new IOException("Not a directory: " + inputDir);
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			BufferedImage image = file.isFile() ? ImageIO.read(file) : null;
+			if (image == null) {
+				System.err.println("Skipping " + file);
+				continue;
+			}
+			String itemName = file.getName();
+			int dot = itemName.lastIndexOf('.');
+			if (dot > 0) {
+				itemName = itemName.substring(0, dot);
+			}
+			items.add(new Item(itemName, image));
+		}
+
+		AtlasPacker packer = new AtlasPacker(maxSize, gutter, align);
+		packer.pack(items);
+
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			throw new IOException("Cannot create " + outputDir);
+		}
+		PrintWriter table = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(new File(outputDir, name + ".txt")),
+				"UTF-8"));
+		long used = 0;
+		long total = 0;
+		for (int page = 0; page < packer.getPageCount(); page++) {
+			String pageFile = name + page + ".png";
+			int[] size = packer.getPageSize(page);
+			ImageIO.write(packer.render(items, page), "png", new File(
+					outputDir, pageFile));
+			table.println("page " + pageFile + " " + size[0] + " " + size[1]);
+			total += (long) size[0] * size[1];
+		}
+		for (Item item : items) {
+			table.println("region " + item.name + " " + item.page + " "
+					+ item.x + " " + item.y + " " + item.image.getWidth() + " "
+					+ item.image.getHeight());
+			used += (long) item.image.getWidth() * item.image.getHeight();
+		}
+		table.close();
+		System.out.printf("%d images in %d pages, %.1f%% used%n",
+				items.size(), packer.getPageCount(), 100.0 * used / total);
+	}
+
+	private static void usage() {
+		System.err.println("Usage: AtlasPacker [-max 2048] [-gutter 4] "
+				+ "[-align 4] [-name atlas] inputDir outputDir");
+		System.exit(1);
+	}
+}
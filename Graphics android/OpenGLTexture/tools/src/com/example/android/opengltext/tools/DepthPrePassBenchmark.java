@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.util.Random;
+
+import com.example.android.opengltext.DepthPrePass;
+import com.example.android.opengltext.GLApi;
+import com.example.android.opengltext.MatrixMath;
+
+/**
+ * Desktop benchmark of com.example.android.opengltext.DepthPrePass on
+ * {@link SoftwareGLApi}, which counts the fragments a GPU would shade.
+ *
+ * <p>
+ * Two scenes of mipmapped textured boxes drawn in arbitrary order, a sparse
+ * one and a dense one where boxes overlap many times, are rendered with the
+ * pre-pass OFF, ON and AUTO. AUTO is given the overdraw measured on the
+ * previous frame: covered fragments per pixel, halved on frames with a
+ * pre-pass, which rasterizes every triangle twice. For each case the tool
+ * prints the time per frame, the overdraw, and the fragments shaded by the
+ * texture program, and checks that the pre-pass does not change the image.
+ * </p>
+ *
+ * <p>
+ * Build and run from OpenGLTexture/:
+ * </p>
+ *
+ * <pre>
+ * javac -d out src/com/example/android/opengltext/GLApi.java \
+ *     src/com/example/android/opengltext/MatrixMath.java \
+ *     src/com/example/android/opengltext/MatrixArray.java \
+ *     src/com/example/android/opengltext/DepthPrePass.java \
+ *     tools/src/com/example/android/opengltext/tools/*.java
+ * java -cp out com.example.android.opengltext.tools.DepthPrePassBenchmark \
+ *     [threads]
+ * </pre>
+ */
+public class DepthPrePassBenchmark {
+
+	private static final int GL_DEPTH_BUFFER_BIT = 0x0100;
+	private static final int GL_COLOR_BUFFER_BIT = 0x4000;
+	private static final int GL_TRIANGLES = 0x0004;
+	private static final int GL_LESS = 0x0201;
+	private static final int GL_LEQUAL = 0x0203;
+	private static final int GL_CULL_FACE = 0x0B44;
+	private static final int GL_DEPTH_TEST = 0x0B71;
+	private static final int GL_TEXTURE_2D = 0x0DE1;
+	private static final int GL_UNSIGNED_BYTE = 0x1401;
+	private static final int GL_UNSIGNED_SHORT = 0x1403;
+	private static final int GL_FLOAT = 0x1406;
+	private static final int GL_RGBA = 0x1908;
+	private static final int GL_LINEAR = 0x2601;
+	private static final int GL_LINEAR_MIPMAP_LINEAR = 0x2703;
+	private static final int GL_TEXTURE_MAG_FILTER = 0x2800;
+	private static final int GL_TEXTURE_MIN_FILTER = 0x2801;
+	private static final int GL_TEXTURE0 = 0x84C0;
+	private static final int GL_ARRAY_BUFFER = 0x8892;
+	private static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+
+	// Position-only program of opengltext.Cube
+	private static final String DEPTH_VERTEX_SHADER = ""
+			+ "uniform mat4 u_MVPMatrix;" + "attribute vec4 a_Position;" + "invariant gl_Position;"
+			+ "void main() {" + "  gl_Position = u_MVPMatrix * a_Position;"
+			+ "}";
+	private static final String DEPTH_FRAGMENT_SHADER = "precision lowp float;"
+			+ "void main() {" + "  gl_FragColor = vec4(1.0);" + "}";
+
+	private static final int WIDTH = 960;
+	private static final int HEIGHT = 540;
+	private static final int BOXES = 400;
+	private static final int WARMUP_FRAMES = 3;
+	private static final int MEASURED_FRAMES = 30;
+	// Pixels allowed to differ, for fragments at exactly equal depths
+	private static final double MAX_DIFFERENT_PIXELS = 0.001;
+
+	private final SoftwareGLApi mGl;
+	private final float[] mModels = new float[BOXES * 16];
+	private final float[] mViewProjection = new float[16];
+	private final float[] mMvp = new float[16];
+
+	private int mProgram;
+	private int mMvpHandle;
+	private int mPosition;
+	private int mTexCoord;
+	private int mDepthProgram;
+	private int mDepthMvpHandle;
+	private int mDepthPosition;
+	private int mVertices;
+	private int mIndices;
+
+	/**
+	 * @param spread
+	 *            - Half width of the volume the boxes are scattered in. The
+	 *            smaller, the more they overlap.
+	 */
+	DepthPrePassBenchmark(int threads, float spread, long seed) {
+		mGl = new SoftwareGLApi(WIDTH, HEIGHT, threads);
+		Random random = new Random(seed);
+		for (int i = 0; i < BOXES; i++) {
+			int o = i * 16;
+			MatrixMath.setIdentityM(mModels, o);
+			MatrixMath.translateM(mModels, o, (random.nextFloat() * 2 - 1)
+					* spread * 1.6f, (random.nextFloat() * 2 - 1) * spread
+					* 0.9f, -random.nextFloat() * spread * 2);
+			MatrixMath.rotateM(mModels, o, random.nextFloat() * 360,
+					random.nextFloat(), random.nextFloat(), random.nextFloat());
+			float size = 0.5f + random.nextFloat();
+			MatrixMath.scaleM(mModels, o, size, size * 0.5f, size);
+		}
+		setUp(spread);
+	}
+
+	private void setUp(float spread) {
+		GLApi gl = mGl;
+		mProgram = SoftwareRenderBenchmark.createProgram(gl,
+				SoftwareRenderBenchmark.TEXTURE_VERTEX_SHADER,
+				SoftwareRenderBenchmark.TEXTURE_FRAGMENT_SHADER);
+		mMvpHandle = gl.glGetUniformLocation(mProgram, "u_MVPMatrix");
+		mPosition = gl.glGetAttribLocation(mProgram, "a_Position");
+		mTexCoord = gl.glGetAttribLocation(mProgram, "a_TexCoordinate");
+		gl.glUseProgram(mProgram);
+		gl.glUniform1i(gl.glGetUniformLocation(mProgram, "u_TextureUnit"), 0);
+		mDepthProgram = SoftwareRenderBenchmark.createProgram(gl,
+				DEPTH_VERTEX_SHADER, DEPTH_FRAGMENT_SHADER);
+		mDepthMvpHandle = gl.glGetUniformLocation(mDepthProgram,
+				"u_MVPMatrix");
+		mDepthPosition = gl.glGetAttribLocation(mDepthProgram, "a_Position");
+
+		float[] vertices = SoftwareRenderBenchmark.cubeVertices(true);
+		short[] indices = SoftwareRenderBenchmark.cubeIndices();
+		mVertices = SoftwareRenderBenchmark.createBuffer(gl, GL_ARRAY_BUFFER,
+				SoftwareRenderBenchmark.floats(vertices), vertices.length * 4);
+		mIndices = SoftwareRenderBenchmark.createBuffer(gl,
+				GL_ELEMENT_ARRAY_BUFFER,
+				SoftwareRenderBenchmark.shorts(indices), indices.length * 2);
+
+		int[] texture = new int[1];
+		gl.glGenTextures(1, texture, 0);
+		gl.glActiveTexture(GL_TEXTURE0);
+		gl.glBindTexture(GL_TEXTURE_2D, texture[0]);
+		int size = SoftwareRenderBenchmark.CHECKER_SIZE;
+		gl.glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, size, size, 0, GL_RGBA,
+				GL_UNSIGNED_BYTE, SoftwareRenderBenchmark.checker());
+		gl.glGenerateMipmap(GL_TEXTURE_2D);
+		gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER,
+				GL_LINEAR_MIPMAP_LINEAR);
+		gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+
+		float[] projection = new float[16];
+		float[] view = new float[16];
+		float ratio = (float) WIDTH / HEIGHT;
+		MatrixMath.frustumM(projection, 0, -ratio, ratio, -1, 1, 1, 100);
+		MatrixMath.setLookAtM(view, 0, 0, 0, spread * 2, 0, 0, -spread, 0,
+				1, 0);
+		MatrixMath.multiplyMM(mViewProjection, 0, projection, 0, view, 0);
+
+		gl.glViewport(0, 0, WIDTH, HEIGHT);
+		gl.glClearColor(0.1f, 0.1f, 0.1f, 1.0f);
+		gl.glEnable(GL_DEPTH_TEST);
+		gl.glEnable(GL_CULL_FACE);
+	}
+
+	/**
+	 * Draws a frame, with or without a depth pre-pass, and waits for it.
+	 */
+	void drawFrame(boolean prePass) {
+		GLApi gl = mGl;
+		gl.glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+		gl.glBindBuffer(GL_ARRAY_BUFFER, mVertices);
+		gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, mIndices);
+		if (prePass) {
+			gl.glColorMask(false, false, false, false);
+			gl.glUseProgram(mDepthProgram);
+			gl.glDisableVertexAttribArray(mTexCoord);
+			gl.glEnableVertexAttribArray(mDepthPosition);
+			gl.glVertexAttribPointer(mDepthPosition, 3, GL_FLOAT, false,
+					5 * 4, 0);
+			drawBoxes(mDepthMvpHandle);
+			gl.glColorMask(true, true, true, true);
+			gl.glDepthMask(false);
+			gl.glDepthFunc(GL_LEQUAL);
+		}
+		gl.glUseProgram(mProgram);
+		gl.glEnableVertexAttribArray(mPosition);
+		gl.glVertexAttribPointer(mPosition, 3, GL_FLOAT, false, 5 * 4, 0);
+		gl.glEnableVertexAttribArray(mTexCoord);
+		gl.glVertexAttribPointer(mTexCoord, 2, GL_FLOAT, false, 5 * 4, 3 * 4);
+		drawBoxes(mMvpHandle);
+		if (prePass) {
+			gl.glDepthMask(true);
+			gl.glDepthFunc(GL_LESS);
+		}
+		mGl.finish();
+	}
+
+	private void drawBoxes(int mvpHandle) {
+		GLApi gl = mGl;
+		for (int i = 0; i < BOXES; i++) {
+			MatrixMath.multiplyMM(mMvp, 0, mViewProjection, 0, mModels, i * 16);
+			gl.glUniformMatrix4fv(mvpHandle, 1, false, mMvp, 0);
+			gl.glDrawElements(GL_TRIANGLES, 36, GL_UNSIGNED_SHORT, 0);
+		}
+	}
+
+	/**
+	 * Renders the measured frames in one mode and prints the results.
+	 *
+	 * @return the last image.
+	 */
+	int[] run(String scene, DepthPrePass.Mode mode) {
+		DepthPrePass policy = new DepthPrePass();
+		policy.setMode(mode);
+		float overdraw = 0;
+		long nanos = 0;
+		long shaded = 0;
+		float pixels = WIDTH * HEIGHT;
+		for (int frame = 0; frame < WARMUP_FRAMES + MEASURED_FRAMES; frame++) {
+			boolean prePass = policy.update(overdraw);
+			mGl.resetCounters();
+			long start = System.nanoTime();
+			drawFrame(prePass);
+			long elapsed = System.nanoTime() - start;
+			long covered = mGl.getCoveredFragments();
+			overdraw = (prePass ? covered / 2 : covered) / pixels;
+			if (frame >= WARMUP_FRAMES) {
+				nanos += elapsed;
+				shaded += mGl.getShadedFragments();
+			}
+		}
+		System.out.printf("  %-7s %-5s %8.2f ms/frame  overdraw %5.2f  "
+				+ "shaded %9d/frame  pre-pass %2d/%d frames%n", scene, mode,
+				nanos / 1e6 / MEASURED_FRAMES, overdraw, shaded
+						/ MEASURED_FRAMES, policy.getPrePassFrames(),
+				policy.getFrames());
+		return mGl.readPixels();
+	}
+
+	private static int countDifferences(int[] a, int[] b) {
+		int differences = 0;
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] != b[i]) {
+				differences++;
+			}
+		}
+		return differences;
+	}
+
+	public static void main(String[] args) {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime
+				.getRuntime().availableProcessors();
+		String[] scenes = { "sparse", "dense" };
+		float[] spreads = { 10.0f, 2.5f };
+		System.out.printf("%dx%d, %d boxes, %d threads%n", WIDTH, HEIGHT,
+				BOXES, threads);
+		for (int s = 0; s < scenes.length; s++) {
+			DepthPrePassBenchmark benchmark = new DepthPrePassBenchmark(
+					threads, spreads[s], 42);
+			int[] reference = null;
+			for (DepthPrePass.Mode mode : DepthPrePass.Mode.values()) {
+				int[] image = benchmark.run(scenes[s], mode);
+				if (reference == null) {
+					reference = image;
+				} else if (countDifferences(reference, image) > reference.length
+						* MAX_DIFFERENT_PIXELS) {
+					System.err.println("The pre-pass changes the image");
+					System.exit(1);
+				}
+			}
+			int error = benchmark.mGl.glGetError();
+			benchmark.mGl.shutdown();
+			if (error != 0) {
+				System.err.println("glError 0x" + Integer.toHexString(error));
+				System.exit(1);
+			}
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import com.example.android.opengltext.Cube;
+import com.example.android.opengltext.Frustum;
+import com.example.android.opengltext.GLBackend;
+import com.example.android.opengltext.GLState;
+import com.example.android.opengltext.GeometryCache;
+import com.example.android.opengltext.MatrixMath;
+import com.example.android.opengltext.MatrixPool;
+import com.example.android.opengltext.RecordingGLApi;
+import com.example.android.opengltext.RenderQueue;
+import com.example.android.opengltext.SceneGraph;
+import com.example.android.opengltext.SceneNode;
+
+/**
+ * Headless check of the GL calls of a large scene, counted by a
+ * {@link RecordingGLApi}: a grid of 10,000 cubes, all in view and
+ * alternating between a few textures, goes through the path of the app
+ * (scene graph update, frustum culling, render queue sorting and draining)
+ * for a few frames. It fails unless every frame issues exactly one draw
+ * call per cube, at most MAX_STATE_CHANGES state changes whatever the
+ * number of cubes (so the queue must group the cubes by texture), and
+ * uploads nothing, and unless the setup uploaded the cube geometry once
+ * (one vertex and one index buffer).
+ *
+ * <p>
+ * The app classes need android.jar to compile. At run time only their
+ * Android-free paths are taken. Build and run from OpenGLTexture/:
+ * </p>
+ *
+ * <pre>
+ * javac -cp $ANDROID_JAR -sourcepath src:gen -d out \
+ *     tools/src/com/example/android/opengltext/tools/DrawCallBudgetCheck.java
+ * java -cp out:$ANDROID_JAR \
+ *     com.example.android.opengltext.tools.DrawCallBudgetCheck [side]
+ * </pre>
+ */
+public class DrawCallBudgetCheck {
+
+	// Cubes per side of the grid
+	private static final int DEFAULT_SIDE = 100;
+	private static final int FRAMES = 3;
+	// One vertex buffer and one index buffer
+	private static final int EXPECTED_UPLOADS = 2;
+	// Texture names the cubes alternate between; nothing is sampled
+	private static final int TEXTURES = 4;
+	// Binds and settings per frame, the first one included: one program,
+	// a few textures and one mesh must not cost anything per cube
+	private static final int MAX_STATE_CHANGES = 32;
+	// Distance between the centers of neighbor cubes
+	private static final float SPACING = 2.5f;
+	private static final int WIDTH = 1280;
+	private static final int HEIGHT = 720;
+
+	private static void fail(String message) {
+		System.err.println("FAILED: " + message);
+		System.exit(1);
+	}
+
+	public static void main(String[] args) {
+		int side = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_SIDE;
+		int count = side * side;
+		RecordingGLApi gl = new RecordingGLApi();
+		GLBackend.set(gl);
+		GLState.reset();
+		GeometryCache.clear();
+
+		// A square grid facing the camera, far enough to be in view whole
+		SceneGraph scene = new SceneGraph();
+		scene.setViewportHeight(HEIGHT);
+		float half = (side - 1) * SPACING * 0.5f;
+		for (int i = 0; i < count; i++) {
+			SceneNode node = new SceneNode("cube " + i);
+			node.translate((i % side) * SPACING - half, (i / side) * SPACING
+					- half, -2 * half - 10);
+			node.setDrawable(new Cube(1 + i % TEXTURES),
+					Cube.getBounds(), Cube.getSphere());
+			scene.getRoot().addChild(node);
+		}
+		gl.endFrame();
+		RecordingGLApi.Stats setup = gl.getLastFrame();
+		int setupUploads = setup.getCalls("glBufferData")
+				+ setup.getCalls("glBufferSubData");
+		System.out.println("setup: " + setup);
+
+		float ratio = (float) WIDTH / HEIGHT;
+		float near = 1;
+		float far = 4 * half + 20;
+		float[] vpMatrix = new float[16];
+		MatrixMath.frustumM(vpMatrix, 0, -ratio, ratio, -1, 1, near, far);
+		Frustum frustum = new Frustum();
+		MatrixPool matrices = new MatrixPool(count);
+		RenderQueue queue = new RenderQueue(count);
+		queue.setDepthRange(near, far);
+		for (int frame = 0; frame < FRAMES; frame++) {
+			matrices.reset();
+			scene.update();
+			frustum.set(vpMatrix, 0);
+			scene.cull(frustum);
+			scene.queueVisible(vpMatrix, matrices, queue);
+			queue.sort();
+			queue.drain();
+			gl.endFrame();
+
+			RecordingGLApi.Stats stats = gl.getLastFrame();
+			System.out.println("frame " + frame + ": " + stats);
+			if (stats.getDrawCalls() != count) {
+				fail("frame " + frame + ": " + stats.getDrawCalls()
+						+ " draws instead of " + count + " ("
+						+ scene.getCulledNodes() + " culled)");
+			}
+			if (stats.getStateChanges() > MAX_STATE_CHANGES) {
+				fail("frame " + frame + ": " + stats.getStateChanges()
+						+ " state changes, more than " + MAX_STATE_CHANGES);
+			}
+			if (stats.getUploadedBytes() != 0) {
+				fail("frame " + frame + " uploaded "
+						+ stats.getUploadedBytes() + " bytes");
+			}
+		}
+
+		if (setupUploads != EXPECTED_UPLOADS
+				|| GeometryCache.getUploadCount() != EXPECTED_UPLOADS) {
+			fail(setupUploads + " buffer uploads instead of "
+					+ EXPECTED_UPLOADS);
+		}
+		System.out.println("OK");
+	}
+}
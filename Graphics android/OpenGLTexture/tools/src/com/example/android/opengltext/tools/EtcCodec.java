@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+/**
+ * Encodes and decodes 4x4 blocks of ETC1 color (also valid ETC2 RGB8 data)
+ * and of ETC2 EAC alpha. Blocks are 64-bit big-endian words held in a long;
+ * pixels are 16 ARGB ints in row-major order.
+ *
+ * <p>
+ * The color encoder tries both flip orientations, the individual (4-bit)
+ * and differential (5-bit) base color modes, a few base colors around each
+ * sub-block average and all eight modifier tables, and keeps the block with
+ * the smallest squared error. The T, H and planar modes of ETC2 are not
+ * used.
+ * </p>
+ */
+public class EtcCodec {
+
+	// ETC1 intensity modifiers; index = (msb << 1) | lsb
+	private static final int[][] ETC_MODIFIERS = { { 2, 8, -2, -8 },
+			{ 5, 17, -5, -17 }, { 9, 29, -9, -29 }, { 13, 42, -13, -42 },
+			{ 18, 60, -18, -60 }, { 24, 80, -24, -80 },
+			{ 33, 106, -33, -106 }, { 47, 183, -47, -183 } };
+
+	// EAC alpha modifiers, before scaling by the multiplier
+	private static final int[][] EAC_MODIFIERS = {
+			{ -3, -6, -9, -15, 2, 5, 8, 14 }, { -3, -7, -10, -13, 2, 6, 9, 12 },
+			{ -2, -5, -8, -13, 1, 4, 7, 12 }, { -2, -4, -6, -13, 1, 3, 5, 12 },
+			{ -3, -6, -8, -12, 2, 5, 7, 11 }, { -3, -7, -9, -11, 2, 6, 8, 10 },
+			{ -4, -7, -8, -11, 3, 6, 7, 10 }, { -3, -5, -8, -11, 2, 4, 7, 10 },
+			{ -2, -6, -8, -10, 1, 5, 7, 9 }, { -2, -5, -8, -10, 1, 4, 7, 9 },
+			{ -2, -4, -8, -10, 1, 3, 7, 9 }, { -2, -5, -7, -10, 1, 4, 6, 9 },
+			{ -3, -4, -7, -10, 2, 3, 6, 9 }, { -1, -2, -3, -10, 0, 1, 2, 9 },
+			{ -4, -6, -8, -9, 3, 5, 7, 8 }, { -3, -5, -7, -9, 2, 4, 6, 8 } };
+
+	private EtcCodec() {
+	}
+
+	/*
+	 * Candidate for one sub-block: its base color, already expanded to 8
+	 * bits, the table and the error.
+	 */
+	private static final class SubBlock {
+		int r, g, b;
+		int table;
+		long error;
+	}
+
+	/**
+	 * Encodes the colors of a block (alpha is ignored).
+	 */
+	public static long encodeColor(int[] argb) {
+		long best = 0;
+		long bestError = Long.MAX_VALUE;
+		int[] sub0 = new int[8];
+		int[] sub1 = new int[8];
+		SubBlock a = new SubBlock();
+		SubBlock b = new SubBlock();
+		for (int flip = 0; flip < 2; flip++) {
+			split(argb, flip, sub0, sub1);
+
+			// Individual mode: two independent 4-bit colors
+			int[] q0 = quantizedAverage(sub0, 15);
+			int[] q1 = quantizedAverage(sub1, 15);
+			long error = bestBase(sub0, q0, 15, a) + bestBase(sub1, q1, 15, b);
+			if (error < bestError) {
+				bestError = error;
+				best = packIndividual(a, b, flip, argb);
+			}
+
+			// Differential mode: a 5-bit color and a 3-bit signed delta
+			int[] d0 = quantizedAverage(sub0, 31);
+			int[] d1 = quantizedAverage(sub1, 31);
+			for (int c = 0; c < 3; c++) {
+				d1[c] = d0[c] + Math.max(-4, Math.min(3, d1[c] - d0[c]));
+			}
+			error = evaluate(sub0, expand5(d0[0]), expand5(d0[1]),
+					expand5(d0[2]), a)
+					+ evaluate(sub1, expand5(d1[0]), expand5(d1[1]),
+							expand5(d1[2]), b);
+			if (error < bestError) {
+				bestError = error;
+				best = packDifferential(d0, d1, a.table, b.table, flip, argb);
+			}
+		}
+		return best;
+	}
+
+	/*
+	 * Splits the block into its two sub-blocks: left/right halves when flip
+	 * is 0, top/bottom halves when it is 1.
+	 */
+	private static void split(int[] argb, int flip, int[] sub0, int[] sub1) {
+		int n0 = 0;
+		int n1 = 0;
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) {
+				boolean first = flip == 0 ? x < 2 : y < 2;
+				if (first) {
+					sub0[n0++] = argb[y * 4 + x];
+				} else {
+					sub1[n1++] = argb[y * 4 + x];
+				}
+			}
+		}
+	}
+
+	private static int[] quantizedAverage(int[] pixels, int max) {
+		int r = 0, g = 0, b = 0;
+		for (int p : pixels) {
+			r += (p >> 16) & 0xff;
+			g += (p >> 8) & 0xff;
+			b += p & 0xff;
+		}
+		int n = pixels.length;
+		return new int[] { Math.round(r * max / (255.0f * n)),
+				Math.round(g * max / (255.0f * n)),
+				Math.round(b * max / (255.0f * n)) };
+	}
+
+	/*
+	 * Tries the 4-bit base color and its neighbors in intensity and keeps the
+	 * best in result; returns its error.
+	 */
+	private static long bestBase(int[] pixels, int[] q, int max,
+			SubBlock result) {
+		SubBlock candidate = new SubBlock();
+		long best = Long.MAX_VALUE;
+		int[] chosen = q;
+		for (int delta = -1; delta <= 1; delta++) {
+			int r = clamp(q[0] + delta, 0, max);
+			int g = clamp(q[1] + delta, 0, max);
+			int b = clamp(q[2] + delta, 0, max);
+			long error = evaluate(pixels, expand4(r), expand4(g), expand4(b),
+					candidate);
+			if (error < best) {
+				best = error;
+				chosen = new int[] { r, g, b };
+				result.table = candidate.table;
+			}
+		}
+		result.r = chosen[0];
+		result.g = chosen[1];
+		result.b = chosen[2];
+		result.error = best;
+		return best;
+	}
+
+	/*
+	 * Finds the best table for a base color; stores it in result.table.
+	 */
+	private static long evaluate(int[] pixels, int r, int g, int b,
+			SubBlock result) {
+		long best = Long.MAX_VALUE;
+		for (int t = 0; t < 8; t++) {
+			long error = 0;
+			for (int p : pixels) {
+				error += bestModifier(p, r, g, b, ETC_MODIFIERS[t], null, 0);
+				if (error >= best) {
+					break;
+				}
+			}
+			if (error < best) {
+				best = error;
+				result.table = t;
+			}
+		}
+		result.error = best;
+		return best;
+	}
+
+	/*
+	 * Returns the smallest error of a pixel over the table's modifiers; the
+	 * chosen index goes to index[at] when index is not null.
+	 */
+	private static int bestModifier(int p, int r, int g, int b, int[] table,
+			int[] index, int at) {
+		int pr = (p >> 16) & 0xff;
+		int pg = (p >> 8) & 0xff;
+		int pb = p & 0xff;
+		int best = Integer.MAX_VALUE;
+		for (int i = 0; i < 4; i++) {
+			int m = table[i];
+			int dr = clamp(r + m, 0, 255) - pr;
+			int dg = clamp(g + m, 0, 255) - pg;
+			int db = clamp(b + m, 0, 255) - pb;
+			int error = dr * dr + dg * dg + db * db;
+			if (error < best) {
+				best = error;
+				if (index != null) {
+					index[at] = i;
+				}
+			}
+		}
+		return best;
+	}
+
+	private static long packIndividual(SubBlock a, SubBlock b, int flip,
+			int[] argb) {
+		long high = ((long) a.r << 28) | ((long) b.r << 24)
+				| ((long) a.g << 20) | ((long) b.g << 16)
+				| ((long) a.b << 12) | ((long) b.b << 8)
+				| ((long) a.table << 5) | ((long) b.table << 2) | flip;
+		return (high << 32)
+				| packIndices(argb, flip, expand4(a.r), expand4(a.g),
+						expand4(a.b), a.table, expand4(b.r), expand4(b.g),
+						expand4(b.b), b.table);
+	}
+
+	private static long packDifferential(int[] d0, int[] d1, int table0,
+			int table1, int flip, int[] argb) {
+		long high = 0;
+		for (int c = 0; c < 3; c++) {
+			int shift = 27 - c * 8;
+			high |= ((long) d0[c] << shift)
+					| ((long) ((d1[c] - d0[c]) & 7) << (shift - 3));
+		}
+		high |= ((long) table0 << 5) | ((long) table1 << 2) | 2 | flip;
+		return (high << 32)
+				| packIndices(argb, flip, expand5(d0[0]), expand5(d0[1]),
+						expand5(d0[2]), table0, expand5(d1[0]),
+						expand5(d1[1]), expand5(d1[2]), table1);
+	}
+
+	/*
+	 * Low 32 bits: the msb of every pixel index in bits 31-16 and the lsb in
+	 * bits 15-0, pixel (x, y) at bit x * 4 + y of each half.
+	 */
+	private static long packIndices(int[] argb, int flip, int r0, int g0,
+			int b0, int t0, int r1, int g1, int b1, int t1) {
+		int[] index = new int[1];
+		long bits = 0;
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) {
+				boolean first = flip == 0 ? x < 2 : y < 2;
+				int p = argb[y * 4 + x];
+				if (first) {
+					bestModifier(p, r0, g0, b0, ETC_MODIFIERS[t0], index, 0);
+				} else {
+					bestModifier(p, r1, g1, b1, ETC_MODIFIERS[t1], index, 0);
+				}
+				int bit = x * 4 + y;
+				bits |= (long) (index[0] >> 1) << (16 + bit);
+				bits |= (long) (index[0] & 1) << bit;
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Decodes a color block into 16 opaque ARGB pixels, row-major.
+	 */
+	public static void decodeColor(long block, int[] argb) {
+		int high = (int) (block >>> 32);
+		boolean diff = (high & 2) != 0;
+		int flip = high & 1;
+		int[] c0 = new int[3];
+		int[] c1 = new int[3];
+		for (int c = 0; c < 3; c++) {
+			int shift = 28 - c * 8;
+			if (diff) {
+				int base = (high >>> (shift - 1)) & 31;
+				int delta = ((high >>> (shift - 4)) & 7) << 29 >> 29;
+				c0[c] = expand5(base);
+				c1[c] = expand5((base + delta) & 31);
+			} else {
+				c0[c] = expand4((high >>> shift) & 15);
+				c1[c] = expand4((high >>> (shift - 4)) & 15);
+			}
+		}
+		int[] t0 = ETC_MODIFIERS[(high >>> 5) & 7];
+		int[] t1 = ETC_MODIFIERS[(high >>> 2) & 7];
+		int low = (int) block;
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) {
+				boolean first = flip == 0 ? x < 2 : y < 2;
+				int[] base = first ? c0 : c1;
+				int bit = x * 4 + y;
+				int i = (((low >>> (16 + bit)) & 1) << 1) | ((low >>> bit) & 1);
+				int m = (first ? t0 : t1)[i];
+				argb[y * 4 + x] = 0xff000000
+						| (clamp(base[0] + m, 0, 255) << 16)
+						| (clamp(base[1] + m, 0, 255) << 8)
+						| clamp(base[2] + m, 0, 255);
+			}
+		}
+	}
+
+	/**
+	 * Encodes the alpha of a block as an EAC block.
+	 */
+	public static long encodeAlpha(int[] argb) {
+		int[] alpha = new int[16];
+		int min = 255;
+		int max = 0;
+		for (int i = 0; i < 16; i++) {
+			alpha[i] = argb[i] >>> 24;
+			min = Math.min(min, alpha[i]);
+			max = Math.max(max, alpha[i]);
+		}
+		long best = 0;
+		long bestError = Long.MAX_VALUE;
+		int[] indices = new int[16];
+		int[] bestIndices = new int[16];
+		for (int t = 0; t < 16 && bestError > 0; t++) {
+			int[] table = EAC_MODIFIERS[t];
+			int low = table[3];
+			int high = table[7];
+			for (int mul = 1; mul < 16 && bestError > 0; mul++) {
+				// Base centering the table's span on the block's range
+				int center = Math.round((min + max) / 2.0f - (low + high)
+						* mul / 2.0f);
+				for (int base = center - 1; base <= center + 1; base++) {
+					if (base < 0 || base > 255) {
+						continue;
+					}
+					long error = 0;
+					for (int i = 0; i < 16 && error < bestError; i++) {
+						int bestPixel = Integer.MAX_VALUE;
+						for (int j = 0; j < 8; j++) {
+							int d = clamp(base + table[j] * mul, 0, 255)
+									- alpha[i];
+							if (d * d < bestPixel) {
+								bestPixel = d * d;
+								indices[i] = j;
+							}
+						}
+						error += bestPixel;
+					}
+					if (error < bestError) {
+						bestError = error;
+						best = ((long) base << 56) | ((long) mul << 52)
+								| ((long) t << 48);
+						System.arraycopy(indices, 0, bestIndices, 0, 16);
+					}
+				}
+			}
+		}
+		// Pixel (x, y) is the (x * 4 + y)th 3-bit index from the top
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) {
+				best |= (long) bestIndices[y * 4 + x] << (45 - 3 * (x * 4 + y));
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Replaces the alpha of 16 pixels with the values of an EAC block.
+	 */
+	public static void decodeAlpha(long block, int[] argb) {
+		int base = (int) (block >>> 56) & 0xff;
+		int mul = (int) (block >>> 52) & 0xf;
+		int[] table = EAC_MODIFIERS[(int) (block >>> 48) & 0xf];
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) {
+				int i = (int) (block >>> (45 - 3 * (x * 4 + y))) & 7;
+				int a = clamp(base + table[i] * mul, 0, 255);
+				argb[y * 4 + x] = (argb[y * 4 + x] & 0xffffff) | (a << 24);
+			}
+		}
+	}
+
+	private static int expand4(int c) {
+		return (c << 4) | c;
+	}
+
+	private static int expand5(int c) {
+		return (c << 3) | (c >> 2);
+	}
+
+	private static int clamp(int v, int min, int max) {
+		return v < min ? min : (v > max ? max : v);
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.lang.management.ManagementFactory;
+
+import com.example.android.opengltext.Cube;
+import com.example.android.opengltext.FrameProfiler;
+import com.example.android.opengltext.GLBackend;
+import com.example.android.opengltext.GLErrorPolicy;
+import com.example.android.opengltext.GLState;
+import com.example.android.opengltext.GeometryCache;
+import com.example.android.opengltext.MatrixMath;
+import com.example.android.opengltext.RecordingGLApi;
+import com.example.android.opengltext.SceneRenderer;
+
+/**
+ * Headless check that the steady-state frames of the app do not allocate.
+ * It sets up the scene of MyGLRenderer in a
+ * com.example.android.opengltext.SceneRenderer over a
+ * {@link RecordingGLApi}, then renders frames as onDrawFrame() does: the
+ * front cube turns, and the scene is updated, culled, sorted and drawn
+ * with the frame profiler and the GL error policy running. The bytes
+ * allocated by the thread during every frame are read from the JVM's
+ * ThreadMXBean; after the warm-up frames any allocation fails the check,
+ * with the frame and the amount.
+ *
+ * <p>
+ * Run it with the client compiler only (-XX:TieredStopAtLevel=1), closer to
+ * ART: the escape analysis of C2 removes allocations that ART makes, and
+ * its deoptimizations allocate now and then on their own. The app classes
+ * need android.jar to compile, but only their Android-free paths run.
+ * Build and run from OpenGLTexture/:
+ * </p>
+ *
+ * <pre>
+ * javac -cp $ANDROID_JAR -sourcepath src:gen -d out \
+ *     tools/src/com/example/android/opengltext/tools/FrameAllocationCheck.java
+ * java -XX:TieredStopAtLevel=1 -cp out:$ANDROID_JAR \
+ *     com.example.android.opengltext.tools.FrameAllocationCheck [frames]
+ * </pre>
+ */
+public class FrameAllocationCheck {
+
+	private static final int DEFAULT_FRAMES = 2000;
+	// Frames allowed to allocate while pools and caches fill up
+	private static final int WARMUP_FRAMES = 200;
+	private static final int WIDTH = 1280;
+	private static final int HEIGHT = 720;
+	private static final long FRAME_BUDGET_NANOS = 16666667L;
+	// Turn of the front cube per frame, as in MyGLRenderer
+	private static final float ANGLE = 0.5f;
+
+	private static final com.sun.management.ThreadMXBean sThreads =
+			(com.sun.management.ThreadMXBean) ManagementFactory
+					.getThreadMXBean();
+	private static long sThreadId;
+
+	private static long allocatedBytes() {
+		return sThreads.getThreadAllocatedBytes(sThreadId);
+	}
+
+	/**
+	 * Returns what reading the counter allocates by itself, to subtract from
+	 * every measure.
+	 */
+	private static long measureOverhead() {
+		long overhead = Long.MAX_VALUE;
+		for (int i = 0; i < 100; i++) {
+			long start = allocatedBytes();
+			overhead = Math.min(overhead, allocatedBytes() - start);
+		}
+		return overhead;
+	}
+
+	public static void main(String[] args) {
+		int frames = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_FRAMES;
+		sThreadId = Thread.currentThread().getId();
+		if (!sThreads.isThreadAllocatedMemorySupported()) {
+			System.err.println("This JVM does not count allocated bytes");
+			System.exit(1);
+		}
+		sThreads.setThreadAllocatedMemoryEnabled(true);
+
+		RecordingGLApi gl = new RecordingGLApi();
+		GLBackend.set(gl);
+		GLState.reset();
+		GeometryCache.clear();
+		FrameProfiler profiler = new FrameProfiler(FRAME_BUDGET_NANOS);
+		profiler.initGpuTimer();
+
+		// The scene of MyGLRenderer, without textures to load
+		SceneRenderer renderer = new SceneRenderer();
+		renderer.setCubes(Cube.createLevelOfDetail(null, null),
+				Cube.createLevelOfDetail(null, null));
+		renderer.setViewport(WIDTH, HEIGHT);
+		float[] view = new float[16];
+		MatrixMath.setLookAtM(view, 0, 0, 0, 4, 0, 0, -5, 0, 1, 0);
+		gl.endFrame();
+
+		long overhead = measureOverhead();
+		int allocatingFrames = 0;
+		long maxBytes = 0;
+		int firstFrame = -1;
+		for (int frame = 0; frame < frames; frame++) {
+			long start = allocatedBytes();
+
+			GLErrorPolicy.beginFrame();
+			profiler.beginFrame();
+			profiler.beginPhase(FrameProfiler.PHASE_INPUT);
+			renderer.setView(view);
+			profiler.beginPhase(FrameProfiler.PHASE_UPDATE);
+			renderer.getFrontCube().rotate(ANGLE, 0, 1, 0);
+			renderer.drawFrame(profiler);
+			GLErrorPolicy.endFrame();
+			profiler.endFrame();
+
+			long bytes = allocatedBytes() - start - overhead;
+			// The recorder's own end of frame is not part of the app's
+			gl.endFrame();
+			if (frame >= WARMUP_FRAMES && bytes > 0) {
+				allocatingFrames++;
+				maxBytes = Math.max(maxBytes, bytes);
+				if (firstFrame < 0) {
+					firstFrame = frame;
+				}
+			}
+		}
+
+		System.out.println(frames + " frames, last: " + gl.getLastFrame());
+		if (allocatingFrames > 0) {
+			System.err.println("FAILED: " + allocatingFrames + " of "
+					+ (frames - WARMUP_FRAMES)
+					+ " steady-state frames allocated, up to " + maxBytes
+					+ " bytes, first frame " + firstFrame);
+			System.exit(1);
+		}
+		System.out.println("OK: no allocation after " + WARMUP_FRAMES
+				+ " frames");
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import com.example.android.opengltext.Frustum;
+import com.example.android.opengltext.MatrixMath;
+import com.example.android.opengltext.SceneGraph;
+import com.example.android.opengltext.SceneNode;
+
+/**
+ * Headless check that culling never rejects a visible object. For random
+ * cameras and projections, it tests random boxes with
+ * com.example.android.opengltext.Frustum directly, and random scene graphs
+ * (groups of rotated, scaled and translated boxes) with
+ * SceneGraph.cull(). Each box is also decided by brute force in clip space:
+ * it is visible if one of its faces, transformed by the Model View
+ * Projection matrix and clipped against -w <= x, y, z <= w, leaves
+ * anything, or if it contains a point inside the frustum. A visible box
+ * reported outside, or missing from the visible nodes, fails the check.
+ *
+ * <p>
+ * The clip volume of the brute force is shrunk by a small relative margin,
+ * so that a box merely grazing a plane within float rounding is not held
+ * against the float planes of Frustum. Build and run from OpenGLTexture/:
+ * </p>
+ *
+ * <pre>
+ * javac -cp $ANDROID_JAR -sourcepath src:gen -d out \
+ *     tools/src/com/example/android/opengltext/tools/FrustumCullCheck.java
+ * java -cp out:$ANDROID_JAR \
+ *     com.example.android.opengltext.tools.FrustumCullCheck [cameras [seed]]
+ * </pre>
+ */
+public class FrustumCullCheck {
+
+	private static final int DEFAULT_CAMERAS = 1000;
+	private static final long DEFAULT_SEED = 42;
+	// Boxes tested against Frustum directly per camera
+	private static final int BOXES = 200;
+	// Scene graph per camera: groups of nodes
+	private static final int GROUPS = 10;
+	private static final int NODES_PER_GROUP = 20;
+	// Relative margin by which the brute-force clip volume is shrunk
+	private static final double MARGIN = 1e-4;
+
+	// Corners of a face, as bit masks of the box corners: x = 1, y = 2, z = 4
+	private static final int[][] FACES = { { 0, 2, 6, 4 }, { 1, 3, 7, 5 },
+			{ 0, 1, 5, 4 }, { 2, 3, 7, 6 }, { 0, 1, 3, 2 }, { 4, 5, 7, 6 } };
+
+	private static final SceneNode.Drawable NOTHING = new SceneNode.Drawable() {
+		@Override
+		public void draw(float[] mvpMatrix) {
+		}
+	};
+
+	private final Random mRandom;
+	private final float[] mViewProjection = new float[16];
+	// A world-space point strictly inside the frustum
+	private final double[] mInterior = new double[3];
+	private final Frustum mFrustum = new Frustum();
+
+	private int mVisible;
+	private int mReportedVisible;
+	private int mFailures;
+
+	FrustumCullCheck(long seed) {
+		mRandom = new Random(seed);
+	}
+
+	private float random(float min, float max) {
+		return min + mRandom.nextFloat() * (max - min);
+	}
+
+	/*
+	 * A random camera looking at a random point through a random, possibly
+	 * off-center, perspective projection.
+	 */
+	private void setRandomCamera() {
+		float eyeX = random(-20, 20), eyeY = random(-20, 20);
+		float eyeZ = random(-20, 20);
+		float centerX, centerY, centerZ;
+		do {
+			centerX = random(-20, 20);
+			centerY = random(-20, 20);
+			centerZ = random(-20, 20);
+		} while (MatrixMath.length(centerX - eyeX, centerY - eyeY, centerZ
+				- eyeZ) < 1);
+		float upX, upY, upZ;
+		float fx = centerX - eyeX, fy = centerY - eyeY, fz = centerZ - eyeZ;
+		do {
+			upX = random(-1, 1);
+			upY = random(-1, 1);
+			upZ = random(-1, 1);
+		} while (MatrixMath.length(fy * upZ - fz * upY, fz * upX - fx * upZ,
+				fx * upY - fy * upX) < 0.1f * MatrixMath.length(fx, fy, fz));
+		float[] view = new float[16];
+		MatrixMath.setLookAtM(view, 0, eyeX, eyeY, eyeZ, centerX, centerY,
+				centerZ, upX, upY, upZ);
+
+		float near = random(0.1f, 2);
+		float far = near + random(5, 100);
+		float left = random(-2, 0.5f) * near;
+		float right = left + random(0.2f, 3) * near;
+		float bottom = random(-2, 0.5f) * near;
+		float top = bottom + random(0.2f, 3) * near;
+		float[] projection = new float[16];
+		MatrixMath.frustumM(projection, 0, left, right, bottom, top, near, far);
+		MatrixMath.multiplyMM(mViewProjection, 0, projection, 0, view, 0);
+		mFrustum.set(mViewProjection, 0);
+
+		// Halfway between the planes, on the line through the center of the
+		// near rectangle, back to world space by the inverse of the rotation
+		double depth = (near + far) * 0.5;
+		double[] point = { (left + right) * 0.5 * depth / near,
+				(bottom + top) * 0.5 * depth / near, -depth };
+		for (int j = 0; j < 3; j++) {
+			double sum = 0;
+			for (int i = 0; i < 3; i++) {
+				sum += view[4 * j + i] * (point[i] - view[12 + i]);
+			}
+			mInterior[j] = sum;
+		}
+	}
+
+	/*
+	 * A random box {minX, minY, minZ, maxX, maxY, maxZ} around a random
+	 * center.
+	 */
+	private float[] randomBox(float range, float maxSize) {
+		float[] box = new float[6];
+		for (int k = 0; k < 3; k++) {
+			box[k] = random(-range, range);
+			box[3 + k] = box[k] + random(0.01f, maxSize);
+		}
+		return box;
+	}
+
+	private void setRandomTransform(SceneNode node, float range) {
+		node.translate(random(-range, range), random(-range, range),
+				random(-range, range));
+		node.rotate(random(-180, 180), random(-1, 1), random(-1, 1),
+				random(-1, 1) + 0.01f);
+		node.scale(random(0.2f, 3), random(0.2f, 3), random(0.2f, 3));
+	}
+
+	/**
+	 * Returns whether the box, in the node space of the world matrix, has
+	 * any point inside the frustum, deciding in double in clip space.
+	 */
+	boolean isVisible(float[] world, float[] box) {
+		float[] mvp = new float[16];
+		MatrixMath.multiplyMM(mvp, 0, mViewProjection, 0, world, 0);
+		double[][] corners = new double[8][4];
+		for (int c = 0; c < 8; c++) {
+			double x = box[(c & 1) != 0 ? 3 : 0];
+			double y = box[(c & 2) != 0 ? 4 : 1];
+			double z = box[(c & 4) != 0 ? 5 : 2];
+			for (int i = 0; i < 4; i++) {
+				corners[c][i] = mvp[i] * x + mvp[4 + i] * y + mvp[8 + i] * z
+						+ mvp[12 + i];
+			}
+		}
+		for (int[] face : FACES) {
+			double[][] polygon = new double[face.length][];
+			for (int i = 0; i < face.length; i++) {
+				polygon[i] = corners[face[i]];
+			}
+			if (clip(polygon).length > 0) {
+				return true;
+			}
+		}
+		// No face crosses the frustum: either the box is outside, or the
+		// frustum is inside the box
+		return contains(world, box, mInterior);
+	}
+
+	/*
+	 * Clips a polygon of clip-space vertices against the six planes
+	 * (1 - MARGIN) w +/- x, y, z >= 0, Sutherland-Hodgman style.
+	 */
+	private static double[][] clip(double[][] polygon) {
+		for (int axis = 0; axis < 3 && polygon.length > 0; axis++) {
+			for (int sign = -1; sign <= 1 && polygon.length > 0; sign += 2) {
+				polygon = clip(polygon, axis, sign);
+			}
+		}
+		return polygon;
+	}
+
+	private static double[][] clip(double[][] polygon, int axis, int sign) {
+		double[][] out = new double[polygon.length * 2][];
+		int n = 0;
+		for (int i = 0; i < polygon.length; i++) {
+			double[] a = polygon[i];
+			double[] b = polygon[(i + 1) % polygon.length];
+			double da = (1 - MARGIN) * a[3] + sign * a[axis];
+			double db = (1 - MARGIN) * b[3] + sign * b[axis];
+			if (da >= 0) {
+				out[n++] = a;
+			}
+			if ((da >= 0) != (db >= 0)) {
+				double t = da / (da - db);
+				double[] p = new double[4];
+				for (int k = 0; k < 4; k++) {
+					p[k] = a[k] + t * (b[k] - a[k]);
+				}
+				out[n++] = p;
+			}
+		}
+		double[][] result = new double[n][];
+		System.arraycopy(out, 0, result, 0, n);
+		return result;
+	}
+
+	/*
+	 * Whether a world-space point is inside the box, in node space: solves
+	 * world x local = point for local by Cramer's rule.
+	 */
+	private static boolean contains(float[] world, float[] box,
+			double[] point) {
+		double[] r = new double[3];
+		for (int i = 0; i < 3; i++) {
+			r[i] = point[i] - world[12 + i];
+		}
+		double det = det(world[0], world[4], world[8], world[1], world[5],
+				world[9], world[2], world[6], world[10]);
+		if (det == 0) {
+			return false;
+		}
+		double[] local = new double[3];
+		for (int k = 0; k < 3; k++) {
+			// Column k of the linear part replaced by r
+			double[] m = new double[9];
+			for (int row = 0; row < 3; row++) {
+				for (int column = 0; column < 3; column++) {
+					m[row * 3 + column] = column == k ? r[row]
+							: world[column * 4 + row];
+				}
+			}
+			local[k] = det(m[0], m[1], m[2], m[3], m[4], m[5], m[6], m[7],
+					m[8]) / det;
+		}
+		for (int k = 0; k < 3; k++) {
+			if (local[k] < box[k] || local[k] > box[3 + k]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static double det(double a, double b, double c, double d,
+			double e, double f, double g, double h, double i) {
+		return a * (e * i - f * h) - b * (d * i - f * g) + c * (d * h - e * g);
+	}
+
+	private void fail(String message) {
+		if (mFailures == 0) {
+			System.err.println("FAILED: " + message);
+		}
+		mFailures++;
+	}
+
+	private static String toString(float[] values) {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < values.length; i++) {
+			sb.append(i == 0 ? "" : ", ").append(values[i]);
+		}
+		return sb.append('}').toString();
+	}
+
+	/*
+	 * World-space boxes against Frustum: every visible box must not be
+	 * reported outside by any of the tests.
+	 */
+	private void checkBoxes(int camera) {
+		float[] identity = new float[16];
+		MatrixMath.setIdentityM(identity, 0);
+		for (int i = 0; i < BOXES; i++) {
+			float[] box = randomBox(30, 10);
+			float[] sphere = Frustum.computeSphere(box, 0, 3, 2);
+			boolean visible = isVisible(identity, box);
+			int boxResult = mFrustum.testBox(box);
+			int sphereResult = mFrustum.testSphere(sphere);
+			int result = mFrustum.test(sphere, box);
+			if (visible) {
+				mVisible++;
+			}
+			if (result != Frustum.OUTSIDE) {
+				mReportedVisible++;
+			}
+			if (visible
+					&& (boxResult == Frustum.OUTSIDE
+							|| sphereResult == Frustum.OUTSIDE
+							|| result == Frustum.OUTSIDE)) {
+				fail("camera " + camera + ": visible box " + toString(box)
+						+ " culled (box " + boxResult + ", sphere "
+						+ sphereResult + ")");
+			}
+		}
+	}
+
+	/*
+	 * A random scene graph against SceneGraph.cull(): every visible node must
+	 * be in the visible nodes.
+	 */
+	private void checkScene(int camera) {
+		SceneGraph scene = new SceneGraph();
+		SceneNode[] nodes = new SceneNode[GROUPS * NODES_PER_GROUP];
+		float[][] boxes = new float[nodes.length][];
+		for (int g = 0, n = 0; g < GROUPS; g++) {
+			SceneNode group = new SceneNode("group " + g);
+			setRandomTransform(group, 15);
+			scene.getRoot().addChild(group);
+			for (int i = 0; i < NODES_PER_GROUP; i++, n++) {
+				nodes[n] = new SceneNode("node " + n);
+				setRandomTransform(nodes[n], 10);
+				boxes[n] = randomBox(2, 4);
+				nodes[n].setDrawable(NOTHING, boxes[n]);
+				group.addChild(nodes[n]);
+			}
+		}
+		scene.update();
+		scene.cull(mFrustum);
+		HashSet<SceneNode> culledIn = new HashSet<SceneNode>(
+				scene.getVisibleNodes());
+		for (int n = 0; n < nodes.length; n++) {
+			boolean visible = isVisible(nodes[n].getWorldMatrix(), boxes[n]);
+			boolean reported = culledIn.contains(nodes[n]);
+			if (visible) {
+				mVisible++;
+			}
+			if (reported) {
+				mReportedVisible++;
+			}
+			if (visible && !reported) {
+				fail("camera " + camera + ": visible " + nodes[n]
+						+ " of box " + toString(boxes[n]) + " culled");
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		int cameras = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_CAMERAS;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_SEED;
+		FrustumCullCheck check = new FrustumCullCheck(seed);
+		for (int camera = 0; camera < cameras; camera++) {
+			check.setRandomCamera();
+			check.checkBoxes(camera);
+			check.checkScene(camera);
+		}
+
+		int tested = cameras * (BOXES + GROUPS * NODES_PER_GROUP);
+		System.out.println(cameras + " cameras, " + tested + " boxes: "
+				+ check.mVisible + " visible, " + check.mReportedVisible
+				+ " kept by culling");
+		if (check.mFailures > 0) {
+			System.err.println("FAILED: " + check.mFailures
+					+ " visible boxes culled");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+import com.example.android.opengltext.Cube;
+import com.example.android.opengltext.GLBackend;
+import com.example.android.opengltext.GLState;
+import com.example.android.opengltext.GeometryCache;
+import com.example.android.opengltext.MatrixMath;
+import com.example.android.opengltext.RecordingGLApi;
+
+/**
+ * Headless check of com.example.android.opengltext.GeometryCache: creates
+ * the same cube 10,000 times and draws every copy for a few frames through
+ * a {@link RecordingGLApi}, then fails unless the cube geometry was
+ * uploaded exactly once (one vertex and one index buffer), that only the
+ * first cube built buffers of its own, and that no frame uploaded
+ * anything.
+ *
+ * <p>
+ * The app classes need android.jar to compile. At run time only their
+ * Android-free paths are taken, so the stubs of android.jar are never
+ * called. Build and run from OpenGLTexture/:
+ * </p>
+ *
+ * <pre>
+ * javac -cp $ANDROID_JAR -sourcepath src:gen -d out \
+ *     tools/src/com/example/android/opengltext/tools/GeometryCacheCheck.java
+ * java -cp out:$ANDROID_JAR \
+ *     com.example.android.opengltext.tools.GeometryCacheCheck [cubes]
+ * </pre>
+ */
+public class GeometryCacheCheck {
+
+	private static final int DEFAULT_CUBES = 10000;
+	private static final int FRAMES = 3;
+	// One vertex buffer and one index buffer
+	private static final int EXPECTED_UPLOADS = 2;
+	// Direct buffers the first cube may create, whatever the count
+	private static final int MAX_DIRECT_BUFFERS = 8;
+
+	/*
+	 * Returns the number of direct buffers the JVM has created and not yet
+	 * freed.
+	 */
+	private static long directBuffers() {
+		for (BufferPoolMXBean pool : ManagementFactory
+				.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if (pool.getName().equals("direct")) {
+				return pool.getCount();
+			}
+		}
+		return 0;
+	}
+
+	private static void fail(String message) {
+		System.err.println("FAILED: " + message);
+		System.exit(1);
+	}
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_CUBES;
+		RecordingGLApi gl = new RecordingGLApi();
+		GLBackend.set(gl);
+		GLState.reset();
+		GeometryCache.clear();
+
+		// Any texture name will do: nothing is sampled
+		long directBuffers = directBuffers();
+		Cube[] cubes = new Cube[count];
+		for (int i = 0; i < count; i++) {
+			cubes[i] = new Cube(1);
+		}
+		directBuffers = directBuffers() - directBuffers;
+		gl.endFrame();
+		RecordingGLApi.Stats setup = gl.getLastFrame();
+		int setupUploads = setup.getCalls("glBufferData")
+				+ setup.getCalls("glBufferSubData");
+		System.out.println("setup: " + setup + ", " + directBuffers
+				+ " direct buffers");
+		if (directBuffers > MAX_DIRECT_BUFFERS) {
+			fail(count + " cubes created " + directBuffers
+					+ " direct buffers");
+		}
+
+		float[] mvp = new float[16];
+		MatrixMath.setIdentityM(mvp, 0);
+		for (int frame = 0; frame < FRAMES; frame++) {
+			for (Cube cube : cubes) {
+				cube.draw(mvp);
+			}
+			gl.endFrame();
+			RecordingGLApi.Stats stats = gl.getLastFrame();
+			System.out.println("frame " + frame + ": " + stats);
+			if (stats.getDrawCalls() != count) {
+				fail(stats.getDrawCalls() + " draws instead of " + count);
+			}
+			if (stats.getUploadedBytes() != 0) {
+				fail("frame " + frame + " uploaded "
+						+ stats.getUploadedBytes() + " bytes");
+			}
+		}
+
+		System.out.println(count + " cubes: " + GeometryCache.size()
+				+ " buffers, " + GeometryCache.getUploadCount() + " uploads, "
+				+ GeometryCache.getUploadedBytes() + " bytes");
+		if (setupUploads != EXPECTED_UPLOADS
+				|| GeometryCache.getUploadCount() != EXPECTED_UPLOADS
+				|| GeometryCache.size() != EXPECTED_UPLOADS) {
+			fail(setupUploads + " buffer uploads instead of "
+					+ EXPECTED_UPLOADS);
+		}
+		System.out.println("OK");
+	}
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.util.Random;
+
+import com.example.android.opengltext.Frustum;
+import com.example.android.opengltext.LevelOfDetail;
+import com.example.android.opengltext.MatrixMath;
+import com.example.android.opengltext.MatrixPool;
+import com.example.android.opengltext.MeshCompiler;
+import com.example.android.opengltext.MeshSimplifier;
+import com.example.android.opengltext.RenderQueue;
+import com.example.android.opengltext.SceneGraph;
+import com.example.android.opengltext.SceneNode;
+
+/**
+ * Desktop check and benchmark of com.example.android.opengltext.MeshSimplifier
+ * and LevelOfDetail.
+ *
+ * <p>
+ * It first builds the levels of detail of textured spheres and of a bumpy
+ * terrain patch, and prints for every level its triangles, its error and the
+ * size on screen from which it is drawn. Then it flies a camera over a field
+ * of spheres through SceneGraph.queueVisible, with a small jitter, and
+ * prints the triangles queued before and after LOD, the spheres too small
+ * to draw, and how often the levels switched with and without hysteresis.
+ * Build and run from OpenGLTexture/:
+ * </p>
+ *
+ * <pre>
+ * javac -d out src/com/example/android/opengltext/MeshCompiler.java \
+ *     src/com/example/android/opengltext/MeshSimplifier.java \
+ *     src/com/example/android/opengltext/LevelOfDetail.java \
+ *     src/com/example/android/opengltext/SceneGraph.java \
+ *     src/com/example/android/opengltext/SceneNode.java \
+ *     src/com/example/android/opengltext/RenderQueue.java \
+ *     src/com/example/android/opengltext/Frustum.java \
+ *     src/com/example/android/opengltext/MatrixPool.java \
+ *     src/com/example/android/opengltext/MatrixMath.java \
+ *     src/com/example/android/opengltext/MatrixArray.java \
+ *     tools/src/com/example/android/opengltext/tools/LodBenchmark.java
+ * java -cp out com.example.android.opengltext.tools.LodBenchmark
+ * </pre>
+ */
+public class LodBenchmark {
+
+	private static final int[] SPHERE_SLICES = { 64, 128, 256 };
+	private static final int TERRAIN_SIZE = 128;
+	private static final int MAX_LEVELS = 6;
+	private static final float LEVEL_RATIO = 0.5f;
+
+	// Fly-through: a field of FIELD x FIELD spheres seen from a camera
+	// moving from far away to the middle of the field
+	private static final int FIELD = 40;
+	private static final float SPACING = 4.0f;
+	private static final int FRAMES = 600;
+	private static final int VIEWPORT_WIDTH = 1280;
+	private static final int VIEWPORT_HEIGHT = 720;
+	// Camera shake, as a fraction of the distance moved per frame
+	private static final float JITTER = 20.0f;
+
+	/**
+	 * Returns a unit UV sphere, as a soup of position and texel vertices.
+	 * The texture wraps around with a seam, and each pole is a fan of
+	 * vertices with different texels.
+	 */
+	static MeshCompiler.Mesh sphere(int slices) {
+		int stacks = slices / 2;
+		float[] soup = new float[slices * stacks * 6 * 5];
+		int at = 0;
+		for (int j = 0; j < stacks; j++) {
+			for (int i = 0; i < slices; i++) {
+				float[][] corners = { sphereVertex(i, j, slices, stacks),
+						sphereVertex(i, j + 1, slices, stacks),
+						sphereVertex(i + 1, j + 1, slices, stacks),
+						sphereVertex(i + 1, j, slices, stacks) };
+				int[] order = { 0, 1, 2, 0, 2, 3 };
+				for (int k : order) {
+					System.arraycopy(corners[k], 0, soup, at, 5);
+					at += 5;
+				}
+			}
+		}
+		return compileWithoutDegenerates(soup, at / 5);
+	}
+
+	private static float[] sphereVertex(int i, int j, int slices, int stacks) {
+		double theta = 2 * Math.PI * i / slices;
+		double phi = Math.PI * j / stacks;
+		return new float[] { (float) (Math.sin(phi) * Math.cos(theta)),
+				(float) Math.cos(phi),
+				(float) (-Math.sin(phi) * Math.sin(theta)),
+				(float) i / slices, (float) j / stacks };
+	}
+
+	/**
+	 * Returns a square grid of size x size quads displaced by a few waves,
+	 * with a texture stretched over it.
+	 */
+	static MeshCompiler.Mesh terrain(int size) {
+		float[] soup = new float[size * size * 6 * 5];
+		int at = 0;
+		int[] di = { 0, 0, 1, 0, 1, 1 };
+		int[] dj = { 0, 1, 1, 0, 1, 0 };
+		for (int j = 0; j < size; j++) {
+			for (int i = 0; i < size; i++) {
+				for (int k = 0; k < 6; k++) {
+					float u = (float) (i + di[k]) / size;
+					float v = (float) (j + dj[k]) / size;
+					float x = u * 2 - 1;
+					float z = v * 2 - 1;
+					soup[at++] = x;
+					soup[at++] = 0.1f * (float) (Math.sin(x * 5) * Math.cos(z
+							* 3) + 0.3 * Math.sin(x * 17 + z * 11));
+					soup[at++] = z;
+					soup[at++] = u;
+					soup[at++] = v;
+				}
+			}
+		}
+		return compileWithoutDegenerates(soup, at / 5);
+	}
+
+	/*
+	 * Drops the triangles whose corners have the same position (the pole
+	 * quads of a sphere), then welds and indexes the rest.
+	 */
+	private static MeshCompiler.Mesh compileWithoutDegenerates(float[] soup,
+			int count) {
+		float[] kept = new float[soup.length];
+		int keptCount = 0;
+		for (int t = 0; t < count; t += 3) {
+			if (samePosition(soup, t, t + 1) || samePosition(soup, t + 1, t + 2)
+					|| samePosition(soup, t, t + 2)) {
+				continue;
+			}
+			System.arraycopy(soup, t * 5, kept, keptCount * 5, 15);
+			keptCount += 3;
+		}
+		return new MeshCompiler(3, 2).compileInterleaved(kept, keptCount);
+	}
+
+	private static boolean samePosition(float[] soup, int a, int b) {
+		return soup[a * 5] == soup[b * 5] && soup[a * 5 + 1] == soup[b * 5 + 1]
+				&& soup[a * 5 + 2] == soup[b * 5 + 2];
+	}
+
+	/**
+	 * Builds and prints the levels of a mesh.
+	 *
+	 * @return the levels and their thresholds, with drawables doing nothing.
+	 */
+	static LevelOfDetail buildAndPrint(String name, MeshCompiler.Mesh mesh) {
+		MeshSimplifier simplifier = new MeshSimplifier(3, 2);
+		float[] errors = new float[MAX_LEVELS];
+		long start = System.nanoTime();
+		MeshCompiler.Mesh[] levels = LevelOfDetail.buildLevels(simplifier,
+				mesh, LEVEL_RATIO, MAX_LEVELS, errors);
+		long elapsed = System.nanoTime() - start;
+		float radius = Frustum.computeSphere(mesh.getVertices(), 0, 5,
+				mesh.getVertexCount())[3];
+		float[] minPixels = LevelOfDetail.computeMinPixels(errors,
+				levels.length, radius, LevelOfDetail.MAX_PIXEL_ERROR,
+				LevelOfDetail.CULL_PIXELS);
+		System.out.printf("%s: %d levels in %.1f ms%n", name, levels.length,
+				elapsed / 1e6);
+		SceneNode.Drawable[] drawables = new SceneNode.Drawable[levels.length];
+		int[] triangles = new int[levels.length];
+		for (int i = 0; i < levels.length; i++) {
+			MeshCompiler.Mesh level = levels[i];
+			triangles[i] = level.getIndexCount() / 3;
+			drawables[i] = NOTHING;
+			System.out.printf("  level %d: %6d tris %6d verts  error %6.3f%% "
+					+ "of radius  ACMR %.2f  from %7.1f px%n", i,
+					triangles[i], level.getVertexCount(), errors[i] * 100
+							/ radius, level.getStats().getAcmr(),
+					minPixels[i]);
+		}
+		return new LevelOfDetail(drawables, triangles, minPixels);
+	}
+
+	private static final SceneNode.Drawable NOTHING = new SceneNode.Drawable() {
+		@Override
+		public void draw(float[] mvpMatrix) {
+		}
+	};
+
+	/**
+	 * Flies the camera over the field and prints the LOD counts, if print.
+	 *
+	 * @param thresholds
+	 *            - Thresholds of the levels, for every sphere of the field.
+	 */
+	static void flyThrough(int levelCount, float[] thresholds,
+			int[] triangles, float hysteresis, boolean print,
+			boolean printFrames) {
+		SceneGraph scene = new SceneGraph();
+		scene.setViewportHeight(VIEWPORT_HEIGHT);
+		SceneNode.Drawable[] drawables = new SceneNode.Drawable[levelCount];
+		for (int i = 0; i < levelCount; i++) {
+			drawables[i] = NOTHING;
+		}
+		LevelOfDetail[] lods = new LevelOfDetail[FIELD * FIELD];
+		float[] bounds = { -1, -1, -1, 1, 1, 1 };
+		float[] sphere = { 0, 0, 0, 1 };
+		for (int i = 0; i < lods.length; i++) {
+			lods[i] = new LevelOfDetail(drawables, triangles, thresholds,
+					hysteresis);
+			SceneNode node = new SceneNode("sphere " + i);
+			node.translate((i % FIELD - FIELD / 2) * SPACING, 0,
+					-(i / FIELD) * SPACING);
+			node.setDrawable(lods[i], bounds, sphere);
+			scene.getRoot().addChild(node);
+		}
+
+		float[] projection = new float[16];
+		float[] view = new float[16];
+		float[] vp = new float[16];
+		float ratio = (float) VIEWPORT_WIDTH / VIEWPORT_HEIGHT;
+		MatrixMath.frustumM(projection, 0, -ratio, ratio, -1, 1, 1, 1000);
+		Frustum frustum = new Frustum();
+		MatrixPool matrices = new MatrixPool(16);
+		RenderQueue queue = new RenderQueue(16);
+		queue.setDepthRange(1, 1000);
+		Random random = new Random(42);
+		float startZ = 400;
+		float endZ = -FIELD * SPACING / 2;
+		long before = 0;
+		long after = 0;
+		long nanos = 0;
+		for (int frame = 0; frame < FRAMES; frame++) {
+			float step = (startZ - endZ) / FRAMES;
+			float z = startZ - frame * step + (random.nextFloat() - 0.5f)
+					* step * JITTER;
+			MatrixMath.setLookAtM(view, 0, 0, 3, z, 0, 0, z - 10, 0, 1, 0);
+			MatrixMath.multiplyMM(vp, 0, projection, 0, view, 0);
+			long start = System.nanoTime();
+			matrices.reset();
+			scene.update();
+			frustum.set(vp, 0);
+			scene.cull(frustum);
+			scene.queueVisible(vp, matrices, queue);
+			queue.sort();
+			queue.drain();
+			nanos += System.nanoTime() - start;
+			before += scene.getTrianglesBeforeLod();
+			after += scene.getTrianglesAfterLod();
+			if (print && printFrames && frame % (FRAMES / 6) == 0) {
+				System.out.printf("  frame %3d: %5d visible, %9d tris before "
+						+ "LOD, %8d after, %4d too small%n", frame,
+						scene.getDrawnNodes() + scene.getSmallFeatureCulled(),
+						scene.getTrianglesBeforeLod(),
+						scene.getTrianglesAfterLod(),
+						scene.getSmallFeatureCulled());
+			}
+		}
+		if (!print) {
+			return;
+		}
+		int switches = 0;
+		for (LevelOfDetail lod : lods) {
+			switches += lod.getSwitches();
+		}
+		System.out.printf("  hysteresis %.2f: %.1f%% of the triangles, %d "
+				+ "level switches, %.3f ms/frame to cull, select and sort%n",
+				hysteresis, 100.0 * after / before, switches, nanos / 1e6
+						/ FRAMES);
+	}
+
+	public static void main(String[] args) {
+		LevelOfDetail sphere = null;
+		for (int slices : SPHERE_SLICES) {
+			sphere = buildAndPrint("sphere " + slices + "x" + slices / 2,
+					sphere(slices));
+		}
+		buildAndPrint("terrain " + TERRAIN_SIZE + "x" + TERRAIN_SIZE,
+				terrain(TERRAIN_SIZE));
+
+		// The field uses the levels of the finest sphere
+		int levelCount = sphere.getLevelCount();
+		int[] triangles = new int[levelCount];
+		float[] thresholds = new float[levelCount];
+		for (int i = 0; i < levelCount; i++) {
+			triangles[i] = sphere.getTriangles(i);
+			thresholds[i] = sphere.getMinPixels(i);
+		}
+		System.out.printf("Fly-through of %d spheres, %dx%d%n", FIELD * FIELD,
+				VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+		// Warm up first, so both cases are timed compiled
+		flyThrough(levelCount, thresholds, triangles, 0, false, false);
+		flyThrough(levelCount, thresholds, triangles,
+				LevelOfDetail.HYSTERESIS, true, true);
+		flyThrough(levelCount, thresholds, triangles, 0, true, false);
+	}
+}
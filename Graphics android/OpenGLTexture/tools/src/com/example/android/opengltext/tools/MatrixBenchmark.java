@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.lang.reflect.Method;
+import java.util.Random;
+
+import com.example.android.opengltext.MatrixArray;
+import com.example.android.opengltext.MatrixMath;
+
+/**
+ * Desktop check and benchmark of com.example.android.opengltext.MatrixMath.
+ *
+ * <p>
+ * It first compares every MatrixMath operation with a straightforward
+ * implementation of the android.opengl.Matrix definitions (which cannot run
+ * outside Android), then times multiplying N model matrices by one view
+ * projection matrix:
+ * </p>
+ * <ul>
+ * <li>per-matrix: one multiplyMM() call per matrix, the way the renderer used
+ * android.opengl.Matrix;</li>
+ * <li>packed: one multiplyMMBatch() call over matrices stored one after the
+ * other;</li>
+ * <li>soa: one multiplyMMBatch() call over a MatrixArray;</li>
+ * <li>vector: VectorMatrixMath over the same MatrixArray, when it is on the
+ * class path.</li>
+ * </ul>
+ *
+ * <p>
+ * Each case runs for a few warm-up rounds, then the best of the measured
+ * rounds is reported. Build and run from OpenGLTexture/:
+ * </p>
+ *
+ * <pre>
+ * javac -d out src/com/example/android/opengltext/MatrixMath.java \
+ *     src/com/example/android/opengltext/MatrixArray.java \
+ *     tools/src/com/example/android/opengltext/tools/MatrixBenchmark.java
+ * java -cp out com.example.android.opengltext.tools.MatrixBenchmark [count]
+ * </pre>
+ *
+ * <p>
+ * For the vector case also compile tools/src-vector and pass
+ * <code>--add-modules jdk.incubator.vector</code> to javac and java.
+ * </p>
+ */
+public class MatrixBenchmark {
+
+	private static final int DEFAULT_COUNT = 100000;
+	private static final int WARMUP_ROUNDS = 20;
+	private static final int MEASURED_ROUNDS = 30;
+	// Least number of matrices multiplied per round
+	private static final int ROUND_MATRICES = 100000;
+	private static final float TOLERANCE = 1e-5f;
+
+	private final int mCount;
+	private final float[] mViewProjection = new float[16];
+	private final float[] mModels;
+	private final float[] mResults;
+	private final MatrixArray mModelArray;
+	private final MatrixArray mResultArray;
+	private final Method mVectorBatch;
+
+	MatrixBenchmark(int count, long seed) {
+		mCount = count;
+		Random random = new Random(seed);
+		float[] projection = new float[16];
+		float[] view = new float[16];
+		MatrixMath.frustumM(projection, 0, -1.5f, 1.5f, -1, 1, 1, 100);
+		MatrixMath.setLookAtM(view, 0, 0, 2, 6, 0, 0, 0, 0, 1, 0);
+		MatrixMath.multiplyMM(mViewProjection, 0, projection, 0, view, 0);
+
+		mModels = new float[count * 16];
+		mResults = new float[count * 16];
+		mModelArray = new MatrixArray(count);
+		mResultArray = new MatrixArray(count);
+		for (int i = 0; i < count; i++) {
+			int o = i * 16;
+			MatrixMath.setIdentityM(mModels, o);
+			MatrixMath.translateM(mModels, o, random.nextFloat() * 20 - 10,
+					random.nextFloat() * 20 - 10, random.nextFloat() * -50);
+			MatrixMath.rotateM(mModels, o, random.nextFloat() * 360,
+					random.nextFloat(), random.nextFloat(), random.nextFloat());
+			float scale = 0.1f + random.nextFloat();
+			MatrixMath.scaleM(mModels, o, scale, scale, scale);
+			mModelArray.set(i, mModels, o);
+		}
+		mVectorBatch = findVectorBatch();
+	}
+
+	private static Method findVectorBatch() {
+		try {
+			Class<?> c = Class
+					.forName("com.example.android.opengltext.tools.VectorMatrixMath");
+			return c.getMethod("multiplyMMBatch", MatrixArray.class,
+					float[].class, int.class, MatrixArray.class, int.class,
+					int.class);
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (LinkageError e) {
+			// Compiled, but run without the incubator module
+			return null;
+		}
+	}
+
+	// Reference implementations of the android.opengl.Matrix definitions
+
+	static void refMultiplyMM(float[] result, int ro, float[] lhs, int lo,
+			float[] rhs, int rho) {
+		for (int i = 0; i < 4; i++) {
+			for (int j = 0; j < 4; j++) {
+				float sum = 0;
+				for (int k = 0; k < 4; k++) {
+					sum += lhs[lo + i + 4 * k] * rhs[rho + k + 4 * j];
+				}
+				result[ro + i + 4 * j] = sum;
+			}
+		}
+	}
+
+	static void refSetRotateM(float[] rm, float a, float x, float y, float z) {
+		a *= (float) (Math.PI / 180.0f);
+		float s = (float) Math.sin(a);
+		float c = (float) Math.cos(a);
+		float len = MatrixMath.length(x, y, z);
+		x /= len;
+		y /= len;
+		z /= len;
+		float nc = 1.0f - c;
+		MatrixMath.setIdentityM(rm, 0);
+		rm[0] = x * x * nc + c;
+		rm[4] = x * y * nc - z * s;
+		rm[8] = z * x * nc + y * s;
+		rm[1] = x * y * nc + z * s;
+		rm[5] = y * y * nc + c;
+		rm[9] = y * z * nc - x * s;
+		rm[2] = z * x * nc - y * s;
+		rm[6] = y * z * nc + x * s;
+		rm[10] = z * z * nc + c;
+	}
+
+	static void refMultiplyMV(float[] result, int ro, float[] lhs, int lo,
+			float[] rhs, int rho) {
+		for (int i = 0; i < 4; i++) {
+			float sum = 0;
+			for (int k = 0; k < 4; k++) {
+				sum += lhs[lo + i + 4 * k] * rhs[rho + k];
+			}
+			result[ro + i] = sum;
+		}
+	}
+
+	/*
+	 * Element (row, column) of a column-major matrix.
+	 */
+	private static void set(float[] m, int row, int column, double value) {
+		m[column * 4 + row] = (float) value;
+	}
+
+	/*
+	 * gluLookAt: the rows of the rotation are s, u and -f, followed by a
+	 * translation by -eye; computed in double.
+	 */
+	static void refSetLookAtM(float[] rm, float eyeX, float eyeY,
+			float eyeZ, float centerX, float centerY, float centerZ,
+			float upX, float upY, float upZ) {
+		double[] f = normalize(centerX - eyeX, centerY - eyeY,
+				centerZ - eyeZ);
+		double[] s = normalize(f[1] * upZ - f[2] * upY, f[2] * upX - f[0]
+				* upZ, f[0] * upY - f[1] * upX);
+		double[] u = { s[1] * f[2] - s[2] * f[1],
+				s[2] * f[0] - s[0] * f[2], s[0] * f[1] - s[1] * f[0] };
+		double[] eye = { eyeX, eyeY, eyeZ };
+		MatrixMath.setIdentityM(rm, 0);
+		for (int j = 0; j < 3; j++) {
+			set(rm, 0, j, s[j]);
+			set(rm, 1, j, u[j]);
+			set(rm, 2, j, -f[j]);
+		}
+		set(rm, 0, 3, -(s[0] * eye[0] + s[1] * eye[1] + s[2] * eye[2]));
+		set(rm, 1, 3, -(u[0] * eye[0] + u[1] * eye[1] + u[2] * eye[2]));
+		set(rm, 2, 3, f[0] * eye[0] + f[1] * eye[1] + f[2] * eye[2]);
+	}
+
+	private static double[] normalize(double x, double y, double z) {
+		double length = Math.sqrt(x * x + y * y + z * z);
+		return new double[] { x / length, y / length, z / length };
+	}
+
+	/*
+	 * glFrustum, computed in double.
+	 */
+	static void refFrustumM(float[] m, double left, double right,
+			double bottom, double top, double near, double far) {
+		for (int i = 0; i < 16; i++) {
+			m[i] = 0;
+		}
+		set(m, 0, 0, 2 * near / (right - left));
+		set(m, 0, 2, (right + left) / (right - left));
+		set(m, 1, 1, 2 * near / (top - bottom));
+		set(m, 1, 2, (top + bottom) / (top - bottom));
+		set(m, 2, 2, -(far + near) / (far - near));
+		set(m, 2, 3, -2 * far * near / (far - near));
+		set(m, 3, 2, -1);
+	}
+
+	/*
+	 * gluPerspective: the symmetric frustum whose top is near * tan(fovy/2).
+	 */
+	static void refPerspectiveM(float[] m, double fovy, double aspect,
+			double near, double far) {
+		double top = near * Math.tan(Math.toRadians(fovy) / 2);
+		refFrustumM(m, -top * aspect, top * aspect, -top, top, near, far);
+	}
+
+	/**
+	 * Checks MatrixMath against the reference definitions.
+	 *
+	 * @return the largest absolute difference found.
+	 */
+	float checkEquivalence() {
+		float maxError = 0;
+		float[] a = new float[16];
+		float[] b = new float[16];
+		float[] t = new float[16];
+		float[] ref = new float[16];
+		Random random = new Random(1);
+		for (int n = 0; n < 1000; n++) {
+			for (int i = 0; i < 16; i++) {
+				a[i] = random.nextFloat() * 2 - 1;
+			}
+			float x = random.nextFloat() * 4 - 2;
+			float y = random.nextFloat() * 4 - 2;
+			float z = random.nextFloat() * 4 - 2;
+
+			// translateM: M x T
+			MatrixMath.setIdentityM(t, 0);
+			t[12] = x;
+			t[13] = y;
+			t[14] = z;
+			refMultiplyMM(ref, 0, a, 0, t, 0);
+			System.arraycopy(a, 0, b, 0, 16);
+			MatrixMath.translateM(b, 0, x, y, z);
+			maxError = Math.max(maxError, maxDifference(ref, 0, b, 0, 16));
+
+			// scaleM: M x S
+			MatrixMath.setIdentityM(t, 0);
+			t[0] = x;
+			t[5] = y;
+			t[10] = z;
+			refMultiplyMM(ref, 0, a, 0, t, 0);
+			System.arraycopy(a, 0, b, 0, 16);
+			MatrixMath.scaleM(b, 0, x, y, z);
+			maxError = Math.max(maxError, maxDifference(ref, 0, b, 0, 16));
+
+			// rotateM: M x R
+			float angle = random.nextFloat() * 720 - 360;
+			refSetRotateM(t, angle, x, y, z);
+			refMultiplyMM(ref, 0, a, 0, t, 0);
+			System.arraycopy(a, 0, b, 0, 16);
+			MatrixMath.rotateM(b, 0, angle, x, y, z);
+			maxError = Math.max(maxError, maxDifference(ref, 0, b, 0, 16));
+
+			// multiplyMM, in place on either side
+			for (int i = 0; i < 16; i++) {
+				t[i] = random.nextFloat() * 2 - 1;
+			}
+			refMultiplyMM(ref, 0, a, 0, t, 0);
+			System.arraycopy(a, 0, b, 0, 16);
+			MatrixMath.multiplyMM(b, 0, b, 0, t, 0);
+			maxError = Math.max(maxError, maxDifference(ref, 0, b, 0, 16));
+			System.arraycopy(t, 0, b, 0, 16);
+			MatrixMath.multiplyMM(b, 0, a, 0, b, 0);
+			maxError = Math.max(maxError, maxDifference(ref, 0, b, 0, 16));
+
+			// multiplyMV, in place
+			refMultiplyMV(ref, 0, a, 0, t, 0);
+			System.arraycopy(t, 0, b, 0, 4);
+			MatrixMath.multiplyMV(b, 0, a, 0, b, 0);
+			maxError = Math.max(maxError, maxDifference(ref, 0, b, 0, 4));
+
+			// setLookAtM, with an up vector away from the view direction
+			float cx = random.nextFloat() * 4 - 2;
+			float cy = random.nextFloat() * 4 - 2;
+			float cz = random.nextFloat() * 4 - 2;
+			float ux = cy - y;
+			float uy = x - cx + 0.5f;
+			float uz = random.nextFloat() * 2 - 1;
+			if (MatrixMath.length(cx - x, cy - y, cz - z) > 0.1f) {
+				refSetLookAtM(ref, x, y, z, cx, cy, cz, ux, uy, uz);
+				MatrixMath.setLookAtM(b, 0, x, y, z, cx, cy, cz, ux, uy, uz);
+				maxError = Math.max(maxError, maxDifference(ref, 0, b, 0, 16));
+			}
+
+			// frustumM, off-center
+			float left = random.nextFloat() * -2 - 0.5f;
+			float right = random.nextFloat() * 2 + 0.5f;
+			float bottom = random.nextFloat() * -2 - 0.5f;
+			float top = random.nextFloat() * 2 + 0.5f;
+			float near = 0.1f + random.nextFloat() * 2;
+			float far = near + 1 + random.nextFloat() * 100;
+			refFrustumM(ref, left, right, bottom, top, near, far);
+			MatrixMath.frustumM(b, 0, left, right, bottom, top, near, far);
+			maxError = Math.max(maxError, maxDifference(ref, 0, b, 0, 16));
+
+			// perspectiveM
+			float fovy = 10 + random.nextFloat() * 110;
+			float aspect = 0.5f + random.nextFloat() * 2;
+			refPerspectiveM(ref, fovy, aspect, near, far);
+			MatrixMath.perspectiveM(b, 0, fovy, aspect, near, far);
+			maxError = Math.max(maxError, maxDifference(ref, 0, b, 0, 16));
+		}
+
+		// Batches against one multiply per matrix
+		for (int i = 0; i < mCount; i++) {
+			refMultiplyMM(mResults, i * 16, mViewProjection, 0, mModels, i * 16);
+		}
+		float[] packed = new float[mCount * 16];
+		MatrixMath.multiplyMMBatch(packed, 0, mViewProjection, 0, mModels, 0,
+				mCount);
+		maxError = Math.max(maxError,
+				maxDifference(mResults, 0, packed, 0, packed.length));
+		MatrixMath.multiplyMMBatch(mResultArray, mViewProjection, 0,
+				mModelArray, 0, mCount);
+		mResultArray.get(0, mCount, packed, 0);
+		maxError = Math.max(maxError,
+				maxDifference(mResults, 0, packed, 0, packed.length));
+		// In place
+		MatrixMath.multiplyMMBatch(mModelArray, mViewProjection, 0,
+				mModelArray, 0, mCount);
+		mModelArray.get(0, mCount, packed, 0);
+		maxError = Math.max(maxError,
+				maxDifference(mResults, 0, packed, 0, packed.length));
+		for (int i = 0; i < mCount; i++) {
+			mModelArray.set(i, mModels, i * 16);
+		}
+		if (mVectorBatch != null) {
+			runVector();
+			mResultArray.get(0, mCount, packed, 0);
+			maxError = Math.max(maxError,
+					maxDifference(mResults, 0, packed, 0, packed.length));
+		}
+		return maxError;
+	}
+
+	private static float maxDifference(float[] a, int ao, float[] b, int bo,
+			int length) {
+		float max = 0;
+		for (int i = 0; i < length; i++) {
+			max = Math.max(max, Math.abs(a[ao + i] - b[bo + i]));
+		}
+		return max;
+	}
+
+	private void runPerMatrix() {
+		for (int i = 0; i < mCount; i++) {
+			MatrixMath.multiplyMM(mResults, i * 16, mViewProjection, 0,
+					mModels, i * 16);
+		}
+	}
+
+	private void runPacked() {
+		MatrixMath.multiplyMMBatch(mResults, 0, mViewProjection, 0, mModels,
+				0, mCount);
+	}
+
+	private void runStructureOfArrays() {
+		MatrixMath.multiplyMMBatch(mResultArray, mViewProjection, 0,
+				mModelArray, 0, mCount);
+	}
+
+	private void runVector() {
+		try {
+			mVectorBatch.invoke(null, mResultArray, mViewProjection, 0,
+					mModelArray, 0, mCount);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/*
+	 * Returns the best time of the measured rounds, in nanoseconds per matrix.
+	 * Small counts are repeated so that every round multiplies at least
+	 * ROUND_MATRICES matrices, enough for the JIT to compile the loops
+	 * during the warm-up rounds.
+	 */
+	private double time(int benchmark) {
+		int repeats = Math.max(1, ROUND_MATRICES / mCount);
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int n = 0; n < repeats; n++) {
+				run(benchmark);
+			}
+			long elapsed = System.nanoTime() - start;
+			if (round >= WARMUP_ROUNDS) {
+				best = Math.min(best, elapsed);
+			}
+		}
+		return (double) best / repeats / mCount;
+	}
+
+	private void run(int benchmark) {
+		switch (benchmark) {
+		case 0:
+			runPerMatrix();
+			break;
+		case 1:
+			runPacked();
+			break;
+		case 2:
+			runStructureOfArrays();
+			break;
+		default:
+			runVector();
+			break;
+		}
+	}
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_COUNT;
+		MatrixBenchmark benchmark = new MatrixBenchmark(count, 42);
+
+		float error = benchmark.checkEquivalence();
+		System.out.printf("max difference from reference: %g%n", error);
+		if (!(error <= TOLERANCE)) {
+			System.err.println("MatrixMath does not match the reference");
+			System.exit(1);
+		}
+
+		String[] names = { "per-matrix", "packed", "soa", "vector" };
+		int cases = benchmark.mVectorBatch != null ? 4 : 3;
+		double baseline = 0;
+		System.out.printf("%d matrices x view projection%n", count);
+		for (int i = 0; i < cases; i++) {
+			double ns = benchmark.time(i);
+			if (i == 0) {
+				baseline = ns;
+			}
+			System.out.printf("  %-10s %7.2f ns/matrix  %5.2fx%n", names[i], ns,
+					baseline / ns);
+		}
+		if (cases == 3) {
+			System.out.println("  (vector: VectorMatrixMath not available)");
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.example.android.opengltext.LevelOfDetail;
+import com.example.android.opengltext.MeshCompiler;
+import com.example.android.opengltext.MeshFile;
+import com.example.android.opengltext.MeshGenerator;
+import com.example.android.opengltext.MeshImporter;
+import com.example.android.opengltext.MeshSimplifier;
+
+/**
+ * Desktop tool that compiles a mesh and its levels of detail into the binary
+ * format of com.example.android.opengltext.MeshFile, so that the app maps it
+ * instead of building and simplifying the mesh at startup. The mesh is read
+ * from a Wavefront .obj or glTF 2.0 .gltf/.glb model by MeshImporter, or is
+ * one of the MeshGenerator shapes:
+ *
+ * <pre>
+ * box:width,height,depth,segments
+ * sphere:radius,slices,stacks
+ * cylinder:radius,height,slices,stacks
+ * torus:radius,tubeRadius,segments,tubeSegments
+ * plane:width,depth,columns,rows
+ * </pre>
+ *
+ * Build and run from OpenGLTexture/; the cube of the app is written with the
+ * second command, and the third prints the header of a file:
+ *
+ * <pre>
+ * javac -d out src/com/example/android/opengltext/MeshFile.java \
+ *     src/com/example/android/opengltext/MeshGenerator.java \
+ *     src/com/example/android/opengltext/MeshImporter.java \
+ *     src/com/example/android/opengltext/MeshCompiler.java \
+ *     src/com/example/android/opengltext/MeshSimplifier.java \
+ *     src/com/example/android/opengltext/LevelOfDetail.java \
+ *     src/com/example/android/opengltext/SceneGraph.java \
+ *     src/com/example/android/opengltext/SceneNode.java \
+ *     src/com/example/android/opengltext/RenderQueue.java \
+ *     src/com/example/android/opengltext/Frustum.java \
+ *     src/com/example/android/opengltext/MatrixPool.java \
+ *     src/com/example/android/opengltext/MatrixMath.java \
+ *     src/com/example/android/opengltext/MatrixArray.java \
+ *     tools/src/com/example/android/opengltext/tools/MeshConverter.java
+ * java -cp out com.example.android.opengltext.tools.MeshConverter \
+ *     -texcoords box:2,2,2,1 assets/meshes/cube.mesh
+ * java -cp out com.example.android.opengltext.tools.MeshConverter \
+ *     -info assets/meshes/cube.mesh
+ * </pre>
+ *
+ * Options: -normals and -texcoords add those attributes after the
+ * position, computing the normals of a model that has none; -levels n
+ * (default 4) and -ratio r (default 0.5) set the levels of detail, as in
+ * LevelOfDetail.buildLevels(); -maxerror e bounds the simplification error
+ * (see MeshSimplifier.setMaxError()).
+ */
+public class MeshConverter {
+
+	private static final int DEFAULT_LEVELS = 4;
+	private static final float DEFAULT_RATIO = 0.5f;
+
+	/**
+	 * Returns the generator of a shape given as name:parameters.
+	 */
+	static MeshGenerator parseShape(String spec, int flags) {
+		int colon = spec.indexOf(':');
+		if (colon < 0) {
+			throw new IllegalArgumentException("Missing parameters: " + spec);
+		}
+		String name = spec.substring(0, colon);
+		String[] fields = spec.substring(colon + 1).split(",");
+		float[] p = new float[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			p[i] = Float.parseFloat(fields[i]);
+		}
+		int expected = name.equals("sphere") ? 3 : 4;
+		if (p.length != expected) {
+			throw new IllegalArgumentException(name + " takes " + expected
+					+ " parameters: " + spec);
+		}
+		if (name.equals("box")) {
+			return new MeshGenerator.Box(p[0], p[1], p[2], (int) p[3], flags);
+		} else if (name.equals("sphere")) {
+			return new MeshGenerator.Sphere(p[0], (int) p[1], (int) p[2],
+					flags);
+		} else if (name.equals("cylinder")) {
+			return new MeshGenerator.Cylinder(p[0], p[1], (int) p[2],
+					(int) p[3], flags);
+		} else if (name.equals("torus")) {
+			return new MeshGenerator.Torus(p[0], p[1], (int) p[2], (int) p[3],
+					flags);
+		} else if (name.equals("plane")) {
+			return new MeshGenerator.Plane(p[0], p[1], (int) p[2], (int) p[3],
+					flags);
+		}
+		throw new IllegalArgumentException("Unknown shape: " + name);
+	}
+
+	/**
+	 * Compiles a generated shape and simplifies it into levels of detail.
+	 *
+	 * @param errors
+	 *            - Receives the error of every level, at least maxLevels
+	 *            long.
+	 */
+	static MeshCompiler.Mesh[] compile(MeshGenerator generator, int maxLevels,
+			float ratio, float maxError, float[] errors) {
+		int flags = generator.getFlags();
+		int[] components = new int[1 + Integer.bitCount(flags)];
+		int a = 0;
+		components[a++] = 3;
+		if ((flags & MeshGenerator.NORMALS) != 0) {
+			components[a++] = 3;
+		}
+		if ((flags & MeshGenerator.TEX_COORDS) != 0) {
+			components[a++] = 2;
+		}
+		MeshCompiler.Mesh mesh = new MeshCompiler(components)
+				.compile(generator);
+		return simplify(mesh, maxLevels, ratio, maxError, errors);
+	}
+
+	/**
+	 * Simplifies a compiled mesh into levels of detail, the mesh itself
+	 * being the first.
+	 */
+	static MeshCompiler.Mesh[] simplify(MeshCompiler.Mesh mesh,
+			int maxLevels, float ratio, float maxError, float[] errors) {
+		MeshSimplifier simplifier = new MeshSimplifier(mesh.getComponents());
+		simplifier.setMaxError(maxError);
+		return LevelOfDetail.buildLevels(simplifier, mesh, ratio, maxLevels,
+				errors);
+	}
+
+	/**
+	 * Imports an .obj, .gltf or .glb model with the threads of an executor.
+	 */
+	static MeshCompiler.Mesh importModel(String path, int flags,
+			ExecutorService executor) throws IOException,
+			InterruptedException {
+		MeshImporter importer = new MeshImporter(flags).setExecutor(executor);
+		String name = path.toLowerCase(Locale.US);
+		if (name.endsWith(".obj")) {
+			InputStream in = new FileInputStream(path);
+			try {
+				return importer.readObj(in);
+			} finally {
+				in.close();
+			}
+		}
+		return importer.readGltf(new File(path));
+	}
+
+	private static boolean isModel(String path) {
+		String name = path.toLowerCase(Locale.US);
+		return name.endsWith(".obj") || name.endsWith(".gltf")
+				|| name.endsWith(".glb");
+	}
+
+	private static void usage() {
+		System.err.println("usage: MeshConverter [-normals] [-texcoords]"
+				+ " [-levels n] [-ratio r] [-maxerror e]"
+				+ " shape:parameters|model output.mesh");
+		System.err.println("       MeshConverter -info file.mesh");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		if (args.length == 2 && args[0].equals("-info")) {
+			System.out.println(MeshFile.load(args[1]));
+			return;
+		}
+		int flags = 0;
+		int maxLevels = DEFAULT_LEVELS;
+		float ratio = DEFAULT_RATIO;
+		float maxError = MeshSimplifier.DEFAULT_MAX_ERROR;
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i++) {
+			if (args[i].equals("-normals")) {
+				flags |= MeshGenerator.NORMALS;
+			} else if (args[i].equals("-texcoords")) {
+				flags |= MeshGenerator.TEX_COORDS;
+			} else if (args[i].equals("-levels") && i + 1 < args.length) {
+				maxLevels = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-ratio") && i + 1 < args.length) {
+				ratio = Float.parseFloat(args[++i]);
+			} else if (args[i].equals("-maxerror") && i + 1 < args.length) {
+				maxError = Float.parseFloat(args[++i]);
+			} else {
+				usage();
+			}
+		}
+		if (args.length - i != 2 || maxLevels < 1) {
+			usage();
+		}
+
+		float[] errors = new float[maxLevels];
+		MeshCompiler.Mesh[] levels;
+		if (isModel(args[i])) {
+			ExecutorService executor = Executors.newFixedThreadPool(Runtime
+					.getRuntime().availableProcessors());
+			try {
+				levels = simplify(importModel(args[i], flags, executor),
+						maxLevels, ratio, maxError, errors);
+			} finally {
+				executor.shutdown();
+			}
+		} else {
+			levels = compile(parseShape(args[i], flags), maxLevels, ratio,
+					maxError, errors);
+		}
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(
+				args[i + 1]));
+		try {
+			MeshFile.write(levels, errors, out);
+		} finally {
+			out.close();
+		}
+		System.out.println(args[i + 1] + ": " + MeshFile.load(args[i + 1]));
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.example.android.opengltext.MeshGenerator;
+
+/**
+ * Desktop check and benchmark of com.example.android.opengltext.MeshGenerator.
+ *
+ * <p>
+ * For every shape it first checks that the indices are in range, that the
+ * triangles face the way of their vertex normals, that the normals have
+ * unit length, that a closed shape encloses its expected volume (so every
+ * triangle is counterclockwise from outside), and that a parallel generate
+ * writes the same bytes as a serial one. Then it times the generation of
+ * about a million vertices, with normals and texture coordinates, on 1, 2,
+ * 4... threads, and prints the vertices generated per second. Build and run
+ * from OpenGLTexture/:
+ * </p>
+ *
+ * <pre>
+ * javac -d out src/com/example/android/opengltext/MeshGenerator.java \
+ *     src/com/example/android/opengltext/MeshCompiler.java \
+ *     src/com/example/android/opengltext/MatrixMath.java \
+ *     src/com/example/android/opengltext/MatrixArray.java \
+ *     tools/src/com/example/android/opengltext/tools/MeshGeneratorBenchmark.java
+ * java -cp out com.example.android.opengltext.tools.MeshGeneratorBenchmark \
+ *     [threads]
+ * </pre>
+ */
+public class MeshGeneratorBenchmark {
+
+	private static final int FLAGS = MeshGenerator.NORMALS
+			| MeshGenerator.TEX_COORDS;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 10;
+	// Largest relative error of the volume of a closed shape
+	private static final double VOLUME_TOLERANCE = 0.02;
+	// Size of the shapes whose volume is checked
+	private static final int CHECKED_SIZE = 64;
+
+	private static final String[] NAMES = { "box", "sphere", "cylinder",
+			"torus", "plane", "heightfield" };
+
+	/**
+	 * Returns a shape of about size x size cells.
+	 */
+	static MeshGenerator create(String name, int size) {
+		if (name.equals("box")) {
+			return new MeshGenerator.Box(2, 3, 4, size / 4, FLAGS);
+		} else if (name.equals("sphere")) {
+			return new MeshGenerator.Sphere(1.5f, size, size / 2, FLAGS);
+		} else if (name.equals("cylinder")) {
+			return new MeshGenerator.Cylinder(1, 3, size, size, FLAGS);
+		} else if (name.equals("torus")) {
+			return new MeshGenerator.Torus(2, 0.5f, size, Math.max(3, size / 2),
+					FLAGS);
+		} else if (name.equals("plane")) {
+			return new MeshGenerator.Plane(10, 10, size, size, FLAGS);
+		}
+		float[] heights = new float[(size + 1) * (size + 1)];
+		for (int z = 0; z <= size; z++) {
+			for (int x = 0; x <= size; x++) {
+				heights[z * (size + 1) + x] = (float) (Math.sin(x * 0.1) * Math
+						.cos(z * 0.07));
+			}
+		}
+		return new MeshGenerator.Heightfield(heights, size + 1, size + 1, 10,
+				10, FLAGS);
+	}
+
+	/**
+	 * Returns the volume of a closed shape made by create(), or 0.
+	 */
+	static double expectedVolume(String name) {
+		if (name.equals("box")) {
+			return 2 * 3 * 4;
+		} else if (name.equals("sphere")) {
+			// Inscribed polyhedron: the volume converges from below
+			return 4 / 3.0 * Math.PI * 1.5 * 1.5 * 1.5;
+		} else if (name.equals("cylinder")) {
+			return Math.PI * 1 * 1 * 3;
+		} else if (name.equals("torus")) {
+			return 2 * Math.PI * Math.PI * 2 * 0.5 * 0.5;
+		}
+		return 0;
+	}
+
+	/**
+	 * Checks a shape.
+	 *
+	 * @return null, or what is wrong.
+	 */
+	static String check(String name, int size, ExecutorService executor)
+			throws InterruptedException {
+		MeshGenerator g = create(name, size);
+		ByteBuffer vertices = MeshGenerator.allocate(g.getVertexBytes());
+		ByteBuffer indices = MeshGenerator.allocate(g.getIndexBytes());
+		g.generate(vertices, indices);
+
+		int floats = g.getFloatsPerVertex();
+		float[] v = new float[g.getVertexCount() * floats];
+		vertices.asFloatBuffer().get(v);
+		for (int i = 0; i < g.getVertexCount(); i++) {
+			int n = i * floats + 3;
+			double length = Math.sqrt(v[n] * v[n] + v[n + 1] * v[n + 1]
+					+ v[n + 2] * v[n + 2]);
+			if (Math.abs(length - 1) > 1e-3) {
+				return "normal of vertex " + i + " has length " + length;
+			}
+		}
+
+		double volume = 0;
+		for (int t = 0; t < g.getIndexCount(); t += 3) {
+			int[] corner = new int[3];
+			for (int k = 0; k < 3; k++) {
+				corner[k] = g.getIndexSize() == 2 ? indices.getShort(
+						(t + k) * 2) & 0xffff : indices.getInt((t + k) * 4);
+				if (corner[k] >= g.getVertexCount()) {
+					return "index " + (t + k) + " out of range";
+				}
+			}
+			int a = corner[0] * floats;
+			int b = corner[1] * floats;
+			int c = corner[2] * floats;
+			double ux = v[b] - v[a], uy = v[b + 1] - v[a + 1], uz = v[b + 2]
+					- v[a + 2];
+			double wx = v[c] - v[a], wy = v[c + 1] - v[a + 1], wz = v[c + 2]
+					- v[a + 2];
+			double nx = uy * wz - uz * wy;
+			double ny = uz * wx - ux * wz;
+			double nz = ux * wy - uy * wx;
+			volume += (v[a] * nx + v[a + 1] * ny + v[a + 2] * nz) / 6;
+			if (nx * nx + ny * ny + nz * nz < 1e-20) {
+				return "triangle " + t / 3 + " is degenerate";
+			}
+			for (int p : corner) {
+				int n = p * floats + 3;
+				if (nx * v[n] + ny * v[n + 1] + nz * v[n + 2] <= 0) {
+					return "triangle " + t / 3 + " faces away from vertex "
+							+ p;
+				}
+			}
+		}
+		// Coarse shapes only have to be inside out nowhere
+		double expected = expectedVolume(name);
+		if (expected > 0 && (volume <= 0 || size == CHECKED_SIZE
+				&& Math.abs(volume - expected) > expected * VOLUME_TOLERANCE)) {
+			return "volume " + volume + " instead of " + expected;
+		}
+
+		ByteBuffer parallelVertices = MeshGenerator.allocate(g
+				.getVertexBytes());
+		ByteBuffer parallelIndices = MeshGenerator.allocate(g.getIndexBytes());
+		g.generate(parallelVertices, parallelIndices, executor);
+		if (!parallelVertices.equals(vertices)
+				|| !parallelIndices.equals(indices)) {
+			return "parallel generation differs";
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the best time of generating a shape, in nanoseconds.
+	 */
+	static long time(MeshGenerator g, ByteBuffer vertices, ByteBuffer indices,
+			ExecutorService executor) throws InterruptedException {
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+			long start = System.nanoTime();
+			if (executor == null) {
+				g.generate(vertices, indices);
+			} else {
+				g.generate(vertices, indices, executor);
+			}
+			long elapsed = System.nanoTime() - start;
+			if (round >= WARMUP_ROUNDS) {
+				best = Math.min(best, elapsed);
+			}
+		}
+		return best;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+				: Runtime.getRuntime().availableProcessors();
+		ExecutorService checker = Executors.newFixedThreadPool(3);
+		for (String name : NAMES) {
+			for (int size = 4; size <= CHECKED_SIZE; size *= 4) {
+				String error = check(name, size, checker);
+				if (error != null) {
+					System.err.println(name + " " + size + ": " + error);
+					System.exit(1);
+				}
+			}
+		}
+		checker.shutdown();
+		System.out.println("All shapes checked up to " + CHECKED_SIZE
+				+ " cells");
+
+		System.out.println("Mvertices/s with normals and texture coordinates");
+		for (String name : NAMES) {
+			MeshGenerator g = create(name, 1000);
+			ByteBuffer vertices = MeshGenerator.allocate(g.getVertexBytes());
+			ByteBuffer indices = MeshGenerator.allocate(g.getIndexBytes());
+			System.out.printf("  %-12s %8d vertices %8d indices  serial %6.1f",
+					name, g.getVertexCount(), g.getIndexCount(),
+					g.getVertexCount() * 1e3
+							/ time(g, vertices, indices, null));
+			for (int threads = 1; threads <= maxThreads; threads *= 2) {
+				ExecutorService executor = Executors
+						.newFixedThreadPool(threads);
+				System.out.printf("  %d threads %6.1f", threads,
+						g.getVertexCount() * 1e3
+								/ time(g, vertices, indices, executor));
+				executor.shutdown();
+			}
+			System.out.println();
+		}
+	}
+}
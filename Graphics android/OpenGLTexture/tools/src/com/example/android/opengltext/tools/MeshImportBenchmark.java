@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.example.android.opengltext.MeshCompiler;
+import com.example.android.opengltext.MeshGenerator;
+import com.example.android.opengltext.MeshImporter;
+
+/**
+ * Desktop benchmark of MeshImporter. A torus of about a million triangles,
+ * with normals and texture coordinates, is written as a Wavefront .obj file
+ * and as a binary .glb file, then imported on 1 to n threads, with and
+ * without the vertex cache optimization. Prints the best time of every
+ * configuration and the peak heap use of the imports, and checks that the
+ * imported meshes have the triangles and vertices of the torus. A small torus
+ * is also written as a .gltf file with an embedded base64 buffer and checked
+ * against its .glb twin.
+ *
+ * Build and run from OpenGLTexture/ (see MeshConverter for the javac line,
+ * plus this file):
+ *
+ * <pre>
+ * java -cp out com.example.android.opengltext.tools.MeshImportBenchmark \
+ *     [segments [threads]]
+ * </pre>
+ */
+public class MeshImportBenchmark {
+
+	private static final int DEFAULT_SEGMENTS = 1000;
+	private static final int FLAGS = MeshGenerator.NORMALS
+			| MeshGenerator.TEX_COORDS;
+	private static final int EMBEDDED_SEGMENTS = 24;
+	private static final int WARMUP_ROUNDS = 1;
+	private static final int MEASURED_ROUNDS = 3;
+
+	private interface Importer {
+		MeshCompiler.Mesh load(MeshImporter importer) throws IOException,
+				InterruptedException;
+	}
+
+	/*
+	 * The vertices and indices of a generated shape, as Java arrays.
+	 */
+	private static class Shape {
+		final float[] vertices;
+		final int[] indices;
+
+		Shape(MeshGenerator generator) {
+			ByteBuffer v = MeshGenerator.allocate(generator.getVertexBytes());
+			ByteBuffer i = MeshGenerator.allocate(generator.getIndexBytes());
+			generator.generate(v, i);
+			vertices = new float[generator.getVertexCount()
+					* generator.getFloatsPerVertex()];
+			v.asFloatBuffer().get(vertices);
+			indices = new int[generator.getIndexCount()];
+			if (generator.getIndexSize() == 4) {
+				i.asIntBuffer().get(indices);
+			} else {
+				for (int k = 0; k < indices.length; k++) {
+					indices[k] = i.getShort(k * 2) & 0xffff;
+				}
+			}
+		}
+	}
+
+	private static void writeObj(Shape shape, File file) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "US-ASCII"), 1 << 16);
+		try {
+			float[] v = shape.vertices;
+			out.write("# MeshImportBenchmark torus\n");
+			for (int i = 0; i < v.length; i += 8) {
+				out.write("v " + v[i] + " " + v[i + 1] + " " + v[i + 2] + "\n");
+			}
+			for (int i = 0; i < v.length; i += 8) {
+				out.write("vn " + v[i + 3] + " " + v[i + 4] + " " + v[i + 5]
+						+ "\n");
+			}
+			// OBJ texture coordinates start at the bottom of the image
+			for (int i = 0; i < v.length; i += 8) {
+				out.write("vt " + v[i + 6] + " " + (1 - v[i + 7]) + "\n");
+			}
+			int[] indices = shape.indices;
+			for (int i = 0; i < indices.length; i += 3) {
+				out.write("f");
+				for (int k = 0; k < 3; k++) {
+					int index = indices[i + k] + 1;
+					out.write(" " + index + "/" + index + "/" + index);
+				}
+				out.write("\n");
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/*
+	 * Returns the glTF JSON of a shape whose vertices, then indices, fill
+	 * one buffer.
+	 */
+	private static String gltfJson(Shape shape, String uri) {
+		float[] v = shape.vertices;
+		float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+		float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		for (int i = 0; i < v.length; i += 8) {
+			for (int k = 0; k < 3; k++) {
+				min[k] = Math.min(min[k], v[i + k]);
+				max[k] = Math.max(max[k], v[i + k]);
+			}
+		}
+		int vertexCount = v.length / 8;
+		int vertexBytes = v.length * 4;
+		int indexBytes = shape.indices.length * 4;
+		return "{\"asset\":{\"version\":\"2.0\"},\"scene\":0,"
+				+ "\"scenes\":[{\"nodes\":[0]}],"
+				+ "\"nodes\":[{\"mesh\":0,\"name\":\"torus\"}],"
+				+ "\"meshes\":[{\"primitives\":[{\"attributes\":"
+				+ "{\"POSITION\":0,\"NORMAL\":1,\"TEXCOORD_0\":2},"
+				+ "\"indices\":3,\"mode\":4}]}],"
+				+ "\"buffers\":[{\"byteLength\":" + (vertexBytes + indexBytes)
+				+ (uri != null ? ",\"uri\":\"" + uri + "\"" : "") + "}],"
+				+ "\"bufferViews\":[{\"buffer\":0,\"byteLength\":"
+				+ vertexBytes + ",\"byteStride\":32,\"target\":34962},"
+				+ "{\"buffer\":0,\"byteOffset\":" + vertexBytes
+				+ ",\"byteLength\":" + indexBytes + ",\"target\":34963}],"
+				+ "\"accessors\":[{\"bufferView\":0,\"componentType\":5126,"
+				+ "\"count\":" + vertexCount + ",\"type\":\"VEC3\","
+				+ "\"min\":[" + min[0] + "," + min[1] + "," + min[2]
+				+ "],\"max\":[" + max[0] + "," + max[1] + "," + max[2]
+				+ "]},{\"bufferView\":0,\"byteOffset\":12,"
+				+ "\"componentType\":5126,\"count\":" + vertexCount
+				+ ",\"type\":\"VEC3\"},{\"bufferView\":0,\"byteOffset\":24,"
+				+ "\"componentType\":5126,\"count\":" + vertexCount
+				+ ",\"type\":\"VEC2\"},{\"bufferView\":1,"
+				+ "\"componentType\":5125,\"count\":" + shape.indices.length
+				+ ",\"type\":\"SCALAR\"}]}";
+	}
+
+	private static byte[] gltfBuffer(Shape shape) {
+		ByteBuffer bb = ByteBuffer.allocate(
+				(shape.vertices.length + shape.indices.length) * 4).order(
+				ByteOrder.LITTLE_ENDIAN);
+		bb.asFloatBuffer().put(shape.vertices);
+		bb.position(shape.vertices.length * 4);
+		bb.asIntBuffer().put(shape.indices);
+		return bb.array();
+	}
+
+	private static byte[] pad(byte[] data, byte fill) {
+		byte[] padded = Arrays.copyOf(data, (data.length + 3) & ~3);
+		Arrays.fill(padded, data.length, padded.length, fill);
+		return padded;
+	}
+
+	private static void writeGlb(Shape shape, File file) throws IOException {
+		byte[] json = pad(gltfJson(shape, null).getBytes("UTF-8"),
+				(byte) ' ');
+		byte[] bin = pad(gltfBuffer(shape), (byte) 0);
+		ByteBuffer header = ByteBuffer.allocate(20).order(
+				ByteOrder.LITTLE_ENDIAN);
+		header.putInt(0x46546C67).putInt(2).putInt(
+				28 + json.length + bin.length);
+		header.putInt(json.length).putInt(0x4E4F534A);
+		ByteBuffer binHeader = ByteBuffer.allocate(8).order(
+				ByteOrder.LITTLE_ENDIAN);
+		binHeader.putInt(bin.length).putInt(0x004E4942);
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			out.write(header.array());
+			out.write(json);
+			out.write(binHeader.array());
+			out.write(bin);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String base64(byte[] data) {
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+				+ "abcdefghijklmnopqrstuvwxyz0123456789+/";
+		StringBuilder sb = new StringBuilder((data.length + 2) / 3 * 4);
+		for (int i = 0; i < data.length; i += 3) {
+			int bits = (data[i] & 0xff) << 16;
+			if (i + 1 < data.length) {
+				bits |= (data[i + 1] & 0xff) << 8;
+			}
+			if (i + 2 < data.length) {
+				bits |= data[i + 2] & 0xff;
+			}
+			sb.append(alphabet.charAt(bits >> 18));
+			sb.append(alphabet.charAt((bits >> 12) & 63));
+			sb.append(i + 1 < data.length ? alphabet.charAt((bits >> 6) & 63)
+					: '=');
+			sb.append(i + 2 < data.length ? alphabet.charAt(bits & 63) : '=');
+		}
+		return sb.toString();
+	}
+
+	private static void writeEmbeddedGltf(Shape shape, File file)
+			throws IOException {
+		// The slashes are escaped as some exporters do
+		String uri = "data:application/octet-stream;base64,"
+				+ base64(gltfBuffer(shape)).replace("/", "\\/");
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(gltfJson(shape, uri).getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void resetPeakHeap() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * Returns the sum of the peaks of the heap pools, in megabytes. The
+	 * pools peak at different times, so this is an upper bound.
+	 */
+	private static double peakHeap() {
+		long bytes = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				bytes += pool.getPeakUsage().getUsed();
+			}
+		}
+		return bytes / (1024.0 * 1024.0);
+	}
+
+	private static void check(MeshCompiler.Mesh mesh, Shape shape,
+			String what) {
+		int vertexCount = shape.vertices.length / 8;
+		if (mesh.getIndexCount() != shape.indices.length
+				|| mesh.getVertexCount() != vertexCount) {
+			System.err.println(what + ": " + mesh.getIndexCount() / 3
+					+ " triangles and " + mesh.getVertexCount()
+					+ " vertices instead of " + shape.indices.length / 3
+					+ " and " + vertexCount);
+			System.exit(1);
+		}
+	}
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		int segments = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_SEGMENTS;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime
+				.getRuntime().availableProcessors();
+		final Shape shape = new Shape(new MeshGenerator.Torus(1, 0.25f,
+				segments, segments / 2, FLAGS));
+		int triangles = shape.indices.length / 3;
+
+		final File obj = File.createTempFile("torus", ".obj");
+		final File glb = File.createTempFile("torus", ".glb");
+		File gltf = File.createTempFile("torus", ".gltf");
+		File small = File.createTempFile("small", ".glb");
+		obj.deleteOnExit();
+		glb.deleteOnExit();
+		gltf.deleteOnExit();
+		small.deleteOnExit();
+		writeObj(shape, obj);
+		writeGlb(shape, glb);
+
+		Shape smallShape = new Shape(new MeshGenerator.Torus(1, 0.25f,
+				EMBEDDED_SEGMENTS, EMBEDDED_SEGMENTS / 2, FLAGS));
+		writeEmbeddedGltf(smallShape, gltf);
+		writeGlb(smallShape, small);
+		MeshImporter importer = new MeshImporter(FLAGS);
+		MeshCompiler.Mesh embedded = importer.readGltf(gltf);
+		check(embedded, smallShape, "embedded glTF");
+		if (!Arrays.equals(embedded.getVertices(), importer.readGltf(small)
+				.getVertices())) {
+			System.err.println("embedded glTF differs from GLB");
+			System.exit(1);
+		}
+
+		System.out.printf("%d triangles, %d vertices; .obj %.1f MB,"
+				+ " .glb %.1f MB%n", triangles, shape.vertices.length / 8,
+				obj.length() / 1e6, glb.length() / 1e6);
+		Importer[] importers = { new Importer() {
+			@Override
+			public MeshCompiler.Mesh load(MeshImporter importer)
+					throws IOException, InterruptedException {
+				InputStream in = new FileInputStream(obj);
+				try {
+					return importer.readObj(in);
+				} finally {
+					in.close();
+				}
+			}
+		}, new Importer() {
+			@Override
+			public MeshCompiler.Mesh load(MeshImporter importer)
+					throws IOException, InterruptedException {
+				return importer.readGltf(glb);
+			}
+		} };
+		String[] names = { "obj", "glb" };
+
+		for (int optimize = 0; optimize < 2; optimize++) {
+			for (int threads = 0; threads <= maxThreads; threads++) {
+				ExecutorService executor = threads > 0 ? Executors
+						.newFixedThreadPool(threads) : null;
+				importer = new MeshImporter(FLAGS).setOptimize(optimize == 1)
+						.setExecutor(executor);
+				StringBuilder line = new StringBuilder(String.format(
+						"  %-9s %-7s", optimize == 1 ? "optimize"
+								: "no opt.", threads == 0 ? "serial"
+								: threads + " thr."));
+				for (int i = 0; i < importers.length; i++) {
+					long best = Long.MAX_VALUE;
+					double peak = 0;
+					for (int round = 0; round < WARMUP_ROUNDS
+							+ MEASURED_ROUNDS; round++) {
+						resetPeakHeap();
+						long start = System.nanoTime();
+						MeshCompiler.Mesh mesh = importers[i].load(importer);
+						long elapsed = System.nanoTime() - start;
+						peak = Math.max(peak, peakHeap());
+						check(mesh, shape, names[i]);
+						if (round >= WARMUP_ROUNDS) {
+							best = Math.min(best, elapsed);
+						}
+					}
+					line.append(String.format(
+							"  %s %7.1f ms %5.2f Mtri/s %5.0f MB", names[i],
+							best / 1e6, triangles * 1e3 / best, peak));
+				}
+				System.out.println(line);
+				if (executor != null) {
+					executor.shutdown();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.example.android.opengltext.LevelOfDetail;
+import com.example.android.opengltext.MeshCompiler;
+import com.example.android.opengltext.MeshFile;
+import com.example.android.opengltext.MeshGenerator;
+import com.example.android.opengltext.MeshSimplifier;
+
+/**
+ * Desktop benchmark of the startup cost of a large mesh with its levels of
+ * detail, up to the direct buffers handed to glBufferData:
+ *
+ * <ul>
+ * <li>arrays: welding, optimizing and simplifying a triangle soup held in
+ * Java arrays, as Cube did with its hard-coded coordinates;</li>
+ * <li>compiled arrays: copying already compiled vertex and index arrays
+ * into direct buffers, the best case of building from Java arrays;</li>
+ * <li>read: MeshFile.read() of the converted file, one copy;</li>
+ * <li>map: MeshFile.load(), which only reads the header, then the same
+ * with a pass over every byte, as GeometryCache does before uploading.</li>
+ * </ul>
+ *
+ * It also checks that the mapped buffers hold the compiled mesh. The file
+ * stays in the page cache between rounds, so the map times are those of a
+ * warm start. Build and run from OpenGLTexture/ (see MeshConverter for the
+ * javac line, plus this file):
+ *
+ * <pre>
+ * java -cp out com.example.android.opengltext.tools.MeshLoadBenchmark \
+ *     [slices]
+ * </pre>
+ */
+public class MeshLoadBenchmark {
+
+	private static final int DEFAULT_SLICES = 512;
+	private static final int MAX_LEVELS = 4;
+	private static final float LEVEL_RATIO = 0.5f;
+	// Large enough for every level to be built
+	private static final float MAX_ERROR = 1.0f;
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int MEASURED_ROUNDS = 5;
+
+	// Keeps the JIT from dropping the work of a round
+	private static int sSink;
+
+	private interface Loader {
+		void load() throws IOException;
+	}
+
+	/**
+	 * Returns the best time of a loader in milliseconds.
+	 */
+	private static double time(Loader loader, int warmup, int rounds)
+			throws IOException {
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < warmup + rounds; round++) {
+			long start = System.nanoTime();
+			loader.load();
+			long elapsed = System.nanoTime() - start;
+			if (round >= warmup) {
+				best = Math.min(best, elapsed);
+			}
+		}
+		return best / 1e6;
+	}
+
+	/*
+	 * Expands a compiled mesh back into the triangle soup a hard-coded array
+	 * would hold.
+	 */
+	private static float[] soup(MeshCompiler.Mesh mesh, int floats) {
+		float[] vertices = mesh.getVertices();
+		int[] indices = mesh.getIndices();
+		float[] soup = new float[indices.length * floats];
+		for (int i = 0; i < indices.length; i++) {
+			System.arraycopy(vertices, indices[i] * floats, soup, i * floats,
+					floats);
+		}
+		return soup;
+	}
+
+	private static ByteBuffer toBuffer(float[] values, int count) {
+		ByteBuffer bb = ByteBuffer.allocateDirect(count * 4).order(
+				ByteOrder.nativeOrder());
+		bb.asFloatBuffer().put(values, 0, count);
+		return bb;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int slices = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_SLICES;
+		final MeshGenerator generator = new MeshGenerator.Sphere(1, slices,
+				slices / 2, MeshGenerator.NORMALS | MeshGenerator.TEX_COORDS);
+		final float[] errors = new float[MAX_LEVELS];
+		final MeshCompiler.Mesh[] levels = MeshConverter.compile(generator,
+				MAX_LEVELS, LEVEL_RATIO, MAX_ERROR, errors);
+		final int floats = generator.getFloatsPerVertex();
+		final float[] soup = soup(levels[0], floats);
+
+		final File file = File.createTempFile("sphere", ".mesh");
+		file.deleteOnExit();
+		OutputStream out = new BufferedOutputStream(
+				new FileOutputStream(file));
+		try {
+			MeshFile.write(levels, errors, out);
+		} finally {
+			out.close();
+		}
+
+		MeshFile mapped = MeshFile.load(file.getPath());
+		for (int i = 0; i < levels.length; i++) {
+			ByteBuffer vertices = toBuffer(levels[i].getVertices(),
+					levels[i].getVertexCount() * floats);
+			// Coarse levels may have narrower indices than the file
+			int[] indices = levels[i].getIndices();
+			ByteBuffer fileIndices = mapped.getIndices(i);
+			boolean same = mapped.getVertices(i).equals(vertices);
+			for (int j = 0; j < indices.length && same; j++) {
+				same = indices[j] == (mapped.getIndexSize() == 4 ? fileIndices
+						.getInt(j * 4) : fileIndices.getShort(j * 2) & 0xffff);
+			}
+			if (!same) {
+				System.err.println("Level " + i + " differs from the mesh");
+				System.exit(1);
+			}
+		}
+		System.out.println(mapped);
+
+		double arrays = time(new Loader() {
+			@Override
+			public void load() {
+				MeshCompiler.Mesh mesh = new MeshCompiler(3, 3, 2)
+						.compileInterleaved(soup, soup.length / floats);
+				MeshSimplifier simplifier = new MeshSimplifier(3, 3, 2)
+						.setMaxError(MAX_ERROR);
+				MeshCompiler.Mesh[] built = LevelOfDetail.buildLevels(
+						simplifier, mesh, LEVEL_RATIO, MAX_LEVELS, errors);
+				for (MeshCompiler.Mesh level : built) {
+					sSink += toBuffer(level.getVertices(),
+							level.getVertexCount() * floats).capacity();
+					sSink += level.createIndexBuffer().capacity();
+				}
+			}
+		}, 1, 2);
+		double compiled = time(new Loader() {
+			@Override
+			public void load() {
+				for (MeshCompiler.Mesh level : levels) {
+					sSink += toBuffer(level.getVertices(),
+							level.getVertexCount() * floats).capacity();
+					sSink += level.createIndexBuffer().capacity();
+				}
+			}
+		}, WARMUP_ROUNDS, MEASURED_ROUNDS);
+		double read = time(new Loader() {
+			@Override
+			public void load() throws IOException {
+				InputStream in = new FileInputStream(file);
+				try {
+					sSink += MeshFile.read(in).getByteSize();
+				} finally {
+					in.close();
+				}
+			}
+		}, WARMUP_ROUNDS, MEASURED_ROUNDS);
+		double map = time(new Loader() {
+			@Override
+			public void load() throws IOException {
+				sSink += MeshFile.load(file.getPath()).getByteSize();
+			}
+		}, WARMUP_ROUNDS, MEASURED_ROUNDS);
+		double mapTouch = time(new Loader() {
+			@Override
+			public void load() throws IOException {
+				MeshFile mesh = MeshFile.load(file.getPath());
+				for (int i = 0; i < mesh.getLevelCount(); i++) {
+					sSink += mesh.getVertices(i).hashCode();
+					sSink += mesh.getIndices(i).hashCode();
+				}
+			}
+		}, WARMUP_ROUNDS, MEASURED_ROUNDS);
+
+		System.out.printf("%d vertices, %d levels, %d bytes%n", levels[0]
+				.getVertexCount(), levels.length, mapped.getByteSize());
+		System.out.printf("  arrays (compile + simplify) %9.2f ms%n",
+				arrays);
+		System.out.printf("  compiled arrays             %9.2f ms%n",
+				compiled);
+		System.out.printf("  MeshFile.read               %9.2f ms%n", read);
+		System.out.printf("  MeshFile.load               %9.3f ms%n", map);
+		System.out.printf("  MeshFile.load + every byte  %9.2f ms%n",
+				mapTouch);
+		if (sSink == 42) {
+			System.out.println();
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.example.android.opengltext.RenderQueue;
+import com.example.android.opengltext.SceneNode;
+
+/**
+ * Desktop check and benchmark of com.example.android.opengltext.RenderQueue.
+ *
+ * <p>
+ * For 10k to 100k submissions of random programs, textures and depths, a
+ * tenth of them translucent, it checks that the radix sort orders the keys
+ * like Arrays.sort() and keeps equal keys in submission order, then times:
+ * </p>
+ * <ul>
+ * <li>radix: RenderQueue.sort() of the submitted queue;</li>
+ * <li>Arrays.sort: the same keys sorted by the JDK, without the submissions
+ * they order;</li>
+ * <li>frame: submit, sort and drain into drawables doing nothing.</li>
+ * </ul>
+ * <p>
+ * It also reports the program and texture changes of a drain in submission
+ * order and in sorted order. Build and run from OpenGLTexture/:
+ * </p>
+ *
+ * <pre>
+ * javac -d out src/com/example/android/opengltext/RenderQueue.java \
+ *     src/com/example/android/opengltext/SceneNode.java \
+ *     src/com/example/android/opengltext/Frustum.java \
+ *     src/com/example/android/opengltext/MatrixMath.java \
+ *     src/com/example/android/opengltext/MatrixArray.java \
+ *     tools/src/com/example/android/opengltext/tools/RenderQueueBenchmark.java
+ * java -cp out com.example.android.opengltext.tools.RenderQueueBenchmark
+ * </pre>
+ */
+public class RenderQueueBenchmark {
+
+	private static final int[] COUNTS = { 10000, 25000, 50000, 100000 };
+	private static final int PROGRAMS = 8;
+	private static final int TEXTURES = 64;
+	private static final int WARMUP_ROUNDS = 50;
+	private static final int MEASURED_ROUNDS = 30;
+
+	private final int mCount;
+	private final long[] mKeys;
+	private final long[] mSorted;
+	private final RenderQueue mQueue;
+	private final SceneNode.Drawable mDrawable = new SceneNode.Drawable() {
+		@Override
+		public void draw(float[] mvpMatrix) {
+		}
+	};
+	private final float[] mMatrix = new float[16];
+
+	RenderQueueBenchmark(int count, long seed) {
+		mCount = count;
+		mKeys = new long[count];
+		mSorted = new long[count];
+		mQueue = new RenderQueue(count);
+		Random random = new Random(seed);
+		for (int i = 0; i < count; i++) {
+			int pass = random.nextInt(10) == 0 ? RenderQueue.PASS_TRANSLUCENT
+					: RenderQueue.PASS_OPAQUE;
+			mKeys[i] = RenderQueue.makeKey(pass, 1 + random.nextInt(PROGRAMS),
+					1 + random.nextInt(TEXTURES), random.nextFloat());
+		}
+	}
+
+	private void submitAll() {
+		for (int i = 0; i < mCount; i++) {
+			mQueue.submit(mKeys[i], mDrawable, mMatrix);
+		}
+	}
+
+	/**
+	 * Checks the sorted order.
+	 *
+	 * @return null, or what is wrong.
+	 */
+	String check() {
+		// Submit each key twice; the copies must stay in submission order
+		final int[] drawn = new int[2 * mCount];
+		final int[] next = new int[1];
+		SceneNode.Drawable[] drawables = new SceneNode.Drawable[2 * mCount];
+		for (int i = 0; i < drawables.length; i++) {
+			final int id = i;
+			drawables[i] = new SceneNode.Drawable() {
+				@Override
+				public void draw(float[] mvpMatrix) {
+					drawn[next[0]++] = id;
+				}
+			};
+		}
+		RenderQueue queue = new RenderQueue(1);
+		for (int i = 0; i < 2 * mCount; i++) {
+			queue.submit(mKeys[i % mCount], drawables[i], mMatrix);
+		}
+		queue.sort();
+		long[] expected = Arrays.copyOf(mKeys, mCount);
+		Arrays.sort(expected);
+		for (int i = 0; i < 2 * mCount; i++) {
+			if (queue.getKey(i) != expected[i / 2]) {
+				return "key " + i + " out of order";
+			}
+		}
+		queue.drain();
+		for (int i = 1; i < 2 * mCount; i++) {
+			long previous = mKeys[drawn[i - 1] % mCount];
+			long key = mKeys[drawn[i] % mCount];
+			if (previous == key && drawn[i - 1] > drawn[i]) {
+				return "equal keys drawn out of submission order at " + i;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the best time of a case, in nanoseconds per submission.
+	 */
+	double time(int c) {
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+			long elapsed;
+			if (c == 0) {
+				submitAll();
+				long start = System.nanoTime();
+				mQueue.sort();
+				elapsed = System.nanoTime() - start;
+				mQueue.clear();
+			} else if (c == 1) {
+				System.arraycopy(mKeys, 0, mSorted, 0, mCount);
+				long start = System.nanoTime();
+				Arrays.sort(mSorted);
+				elapsed = System.nanoTime() - start;
+			} else {
+				long start = System.nanoTime();
+				submitAll();
+				mQueue.sort();
+				mQueue.drain();
+				elapsed = System.nanoTime() - start;
+			}
+			if (round >= WARMUP_ROUNDS) {
+				best = Math.min(best, elapsed);
+			}
+		}
+		return (double) best / mCount;
+	}
+
+	public static void main(String[] args) {
+		String[] names = { "radix", "Arrays.sort", "frame" };
+		for (int count : COUNTS) {
+			RenderQueueBenchmark benchmark = new RenderQueueBenchmark(count,
+					42);
+			String error = benchmark.check();
+			if (error != null) {
+				System.err.println(count + " submissions: " + error);
+				System.exit(1);
+			}
+			RenderQueue queue = benchmark.mQueue;
+			benchmark.submitAll();
+			queue.drain();
+			int programChanges = queue.getProgramChanges();
+			int textureChanges = queue.getTextureChanges();
+			benchmark.submitAll();
+			queue.sort();
+			queue.drain();
+			System.out.printf("%d submissions: program changes %d -> %d, "
+					+ "texture changes %d -> %d%n", count, programChanges,
+					queue.getProgramChanges(), textureChanges,
+					queue.getTextureChanges());
+			for (int c = 0; c < names.length; c++) {
+				System.out.printf("  %-12s %7.2f ns/submission%n", names[c],
+						benchmark.time(c));
+			}
+		}
+	}
+}
@@ -0,0 +1,1314 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+
+import javax.imageio.ImageIO;
+
+import android.graphics.Bitmap;
+
+import com.example.android.opengltext.GLApi;
+
+/**
+ * {@link GLApi} rendering on the CPU, to draw and time the scenes of this
+ * project on machines without a GPU. It implements the OpenGL ES 2.0 subset
+ * the project uses: buffer objects, triangle lists, strips and fans drawn
+ * with glDrawArrays or glDrawElements, the shaders recognized by
+ * {@link SoftwareProgram} (a matrix transform, color varyings, texture2D
+ * with mipmaps), the depth test, color and depth masks, back-face culling
+ * and clears. Blending is ignored; points and lines are skipped and
+ * counted.
+ *
+ * <p>
+ * Vertices are processed on the calling thread. Triangles are clipped,
+ * binned into screen tiles by a {@link TileRasterizer} and rasterized in
+ * parallel on a fork/join pool when the framebuffer is read, when a texture
+ * changes, or on {@link #finish()}.
+ * </p>
+ *
+ * <p>
+ * Like a context, an instance must be used by one thread at a time.
+ * </p>
+ */
+public class SoftwareGLApi implements GLApi {
+
+	private static final int GL_NO_ERROR = 0;
+	private static final int GL_INVALID_ENUM = 0x0500;
+	private static final int GL_INVALID_VALUE = 0x0501;
+	private static final int GL_INVALID_OPERATION = 0x0502;
+
+	private static final int GL_DEPTH_BUFFER_BIT = 0x0100;
+	private static final int GL_COLOR_BUFFER_BIT = 0x4000;
+	private static final int GL_TRIANGLES = 0x0004;
+	private static final int GL_TRIANGLE_STRIP = 0x0005;
+	private static final int GL_TRIANGLE_FAN = 0x0006;
+	private static final int GL_CULL_FACE = 0x0B44;
+	private static final int GL_DEPTH_TEST = 0x0B71;
+	private static final int GL_VIEWPORT = 0x0BA2;
+	private static final int GL_MAX_TEXTURE_SIZE = 0x0D33;
+	private static final int GL_TEXTURE_2D = 0x0DE1;
+	private static final int GL_BYTE = 0x1400;
+	private static final int GL_UNSIGNED_BYTE = 0x1401;
+	private static final int GL_SHORT = 0x1402;
+	private static final int GL_UNSIGNED_SHORT = 0x1403;
+	private static final int GL_FLOAT = 0x1406;
+	private static final int GL_VENDOR = 0x1F00;
+	private static final int GL_RENDERER = 0x1F01;
+	private static final int GL_VERSION = 0x1F02;
+	private static final int GL_EXTENSIONS = 0x1F03;
+	private static final int GL_TEXTURE0 = 0x84C0;
+	private static final int GL_NUM_PROGRAM_BINARY_FORMATS = 0x87FE;
+	private static final int GL_MAX_VERTEX_ATTRIBS = 0x8869;
+	private static final int GL_MAX_TEXTURE_IMAGE_UNITS = 0x8872;
+	private static final int GL_ARRAY_BUFFER = 0x8892;
+	private static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+	private static final int GL_FRAGMENT_SHADER = 0x8B30;
+	private static final int GL_LINK_STATUS = 0x8B82;
+	private static final int GL_INFO_LOG_LENGTH = 0x8B84;
+	private static final int GL_SHADING_LANGUAGE_VERSION = 0x8B8C;
+	private static final int GL_ETC1_RGB8_OES = 0x8D64;
+	private static final int GL_MAX_VERTEX_UNIFORM_VECTORS = 0x8DFB;
+	private static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274;
+	private static final int GL_COMPRESSED_RGBA8_ETC2_EAC = 0x9278;
+
+	private static final int MAX_VERTEX_ATTRIBS = 16;
+	private static final int MAX_TEXTURE_UNITS = 8;
+	private static final int MAX_TEXTURE_SIZE = 8192;
+	private static final int MAX_VERTEX_UNIFORM_VECTORS = 256;
+
+	// Clip-space vertex: x, y, z, w, then the varyings
+	private static final int CLIP_FLOATS = 4
+			+ SoftwareProgram.MAX_VARYING_FLOATS;
+	// Clipping against the near and far planes and a guard band, which
+	// keeps window coordinates within the range of the fixed point edges
+	private static final float GUARD_BAND = 8.0f;
+	private static final float[][] CLIP_PLANES = { { 0, 0, 1, 1 },
+			{ 0, 0, -1, 1 }, { 1, 0, 0, GUARD_BAND },
+			{ -1, 0, 0, GUARD_BAND }, { 0, 1, 0, GUARD_BAND },
+			{ 0, -1, 0, GUARD_BAND } };
+	// A triangle clipped by every plane has at most 3 + 6 vertices
+	private static final int MAX_CLIPPED_VERTICES = 3 + 6;
+
+	private static class ShaderObject {
+		int type;
+		String source;
+	}
+
+	private static class ProgramObject {
+		int vertexShader;
+		int fragmentShader;
+		SoftwareProgram linked;
+		String log = "";
+		// 16 floats per uniform location
+		float[] uniforms;
+	}
+
+	private static class Attribute {
+		boolean enabled;
+		ByteBuffer buffer;
+		int size = 4;
+		int type = GL_FLOAT;
+		boolean normalized;
+		int stride;
+		int offset;
+	}
+
+	private final TileRasterizer mRasterizer;
+	private int mError = GL_NO_ERROR;
+	private int mNextName = 1;
+
+	private final HashMap<Integer, ByteBuffer> mBuffers = new HashMap<Integer, ByteBuffer>();
+	private final HashMap<Integer, SoftwareTexture> mTextures = new HashMap<Integer, SoftwareTexture>();
+	private final HashMap<Integer, ShaderObject> mShaders = new HashMap<Integer, ShaderObject>();
+	private final HashMap<Integer, ProgramObject> mPrograms = new HashMap<Integer, ProgramObject>();
+
+	// Fixed-function state
+	private int mViewportX, mViewportY, mViewportWidth, mViewportHeight;
+	private int mClearColor;
+	private boolean mDepthTest;
+	private boolean mCullFace;
+	private int mDepthFunc = TileRasterizer.GL_LESS;
+	private boolean mDepthMask = true;
+	private int mColorMask = 0xFFFFFFFF;
+	private int mActiveTexture;
+	private final int[] mBoundTextures = new int[MAX_TEXTURE_UNITS];
+	private int mArrayBuffer;
+	private int mElementArrayBuffer;
+	private final Attribute[] mAttributes = new Attribute[MAX_VERTEX_ATTRIBS];
+	private ProgramObject mProgram;
+
+	// Scratch of the vertex stage, grown as needed
+	private float[] mClip = new float[256 * CLIP_FLOATS];
+	private int[] mIndices = new int[256];
+	private final float[] mAttribute = new float[4];
+	private final float[] mModel = new float[4];
+	private final float[] mPolygon = new float[MAX_CLIPPED_VERTICES
+			* CLIP_FLOATS];
+	private final float[] mPolygonOut = new float[MAX_CLIPPED_VERTICES
+			* CLIP_FLOATS];
+	private final float[] mWindow = new float[MAX_CLIPPED_VERTICES
+			* TileRasterizer.VERTEX_FLOATS];
+
+	private long mDrawCalls;
+	private long mSkippedDraws;
+
+	/**
+	 * @param width
+	 *            - Framebuffer width, also the initial viewport.
+	 * @param height
+	 *            - Framebuffer height.
+	 * @param threads
+	 *            - Rasterizer threads.
+	 */
+	public SoftwareGLApi(int width, int height, int threads) {
+		mRasterizer = new TileRasterizer(width, height, threads);
+		mViewportWidth = width;
+		mViewportHeight = height;
+		for (int i = 0; i < MAX_VERTEX_ATTRIBS; i++) {
+			mAttributes[i] = new Attribute();
+		}
+	}
+
+	/**
+	 * Stops the rasterizer threads.
+	 */
+	public void shutdown() {
+		mRasterizer.shutdown();
+	}
+
+	/**
+	 * Rasterizes every queued triangle, like glFinish.
+	 */
+	public void finish() {
+		mRasterizer.flush();
+	}
+
+	/**
+	 * Returns the framebuffer as ARGB rows, the top one first.
+	 */
+	public int[] readPixels() {
+		int width = mRasterizer.getWidth();
+		int height = mRasterizer.getHeight();
+		int[] pixels = new int[width * height];
+		mRasterizer.readPixels(pixels);
+		int[] flipped = new int[pixels.length];
+		for (int y = 0; y < height; y++) {
+			System.arraycopy(pixels, y * width, flipped, (height - 1 - y)
+					* width, width);
+		}
+		return flipped;
+	}
+
+	/**
+	 * Writes the framebuffer, without alpha, to a PNG file.
+	 */
+	public void writePng(File file) throws IOException {
+		int width = mRasterizer.getWidth();
+		int height = mRasterizer.getHeight();
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+		image.setRGB(0, 0, width, height, readPixels(), 0, width);
+		if (!ImageIO.write(image, "png", file)) {
+			throw new IOException("SoftwareGLApi: no PNG writer");
+		}
+	}
+
+	public long getDrawCalls() {
+		return mDrawCalls;
+	}
+
+	/**
+	 * Returns the draw calls of points or lines, which are not drawn.
+	 */
+	public long getSkippedDraws() {
+		return mSkippedDraws;
+	}
+
+	/**
+	 * Returns the triangles queued for rasterization, after clipping and
+	 * culling.
+	 */
+	public long getTriangles() {
+		return mRasterizer.getTriangleCount();
+	}
+
+	/**
+	 * Returns the pixels covered by triangles, counting overdraw. Counts are
+	 * updated by each flush.
+	 */
+	public long getCoveredFragments() {
+		return mRasterizer.getCoveredFragments();
+	}
+
+	public long getDepthPassedFragments() {
+		return mRasterizer.getDepthPassedFragments();
+	}
+
+	/**
+	 * Returns the fragments shaded and written to the color buffer.
+	 */
+	public long getShadedFragments() {
+		return mRasterizer.getShadedFragments();
+	}
+
+	public void resetCounters() {
+		mRasterizer.flush();
+		mRasterizer.resetCounters();
+		mDrawCalls = 0;
+		mSkippedDraws = 0;
+	}
+
+	private void setError(int error) {
+		if (mError == GL_NO_ERROR) {
+			mError = error;
+		}
+	}
+
+	private int generateName() {
+		return mNextName++;
+	}
+
+	// OpenGL ES 2.0: objects
+
+	@Override
+	public void glGenBuffers(int n, int[] buffers, int offset) {
+		for (int i = 0; i < n; i++) {
+			buffers[offset + i] = generateName();
+		}
+	}
+
+	@Override
+	public void glDeleteBuffers(int n, int[] buffers, int offset) {
+		for (int i = 0; i < n; i++) {
+			int buffer = buffers[offset + i];
+			mBuffers.remove(buffer);
+			if (mArrayBuffer == buffer) {
+				mArrayBuffer = 0;
+			}
+			if (mElementArrayBuffer == buffer) {
+				mElementArrayBuffer = 0;
+			}
+		}
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		if (target == GL_ARRAY_BUFFER) {
+			mArrayBuffer = buffer;
+		} else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+			mElementArrayBuffer = buffer;
+		} else {
+			setError(GL_INVALID_ENUM);
+		}
+	}
+
+	private int boundBuffer(int target) {
+		return target == GL_ARRAY_BUFFER ? mArrayBuffer
+				: (target == GL_ELEMENT_ARRAY_BUFFER ? mElementArrayBuffer
+						: -1);
+	}
+
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage) {
+		int buffer = boundBuffer(target);
+		if (buffer <= 0 || size < 0) {
+			setError(buffer < 0 ? GL_INVALID_ENUM : GL_INVALID_OPERATION);
+			return;
+		}
+		ByteBuffer storage = ByteBuffer.allocate(size).order(
+				ByteOrder.nativeOrder());
+		if (data != null) {
+			copy(data, storage, 0, size);
+		}
+		mBuffers.put(buffer, storage);
+	}
+
+	@Override
+	public void glBufferSubData(int target, int offset, int size, Buffer data) {
+		int buffer = boundBuffer(target);
+		ByteBuffer storage = mBuffers.get(buffer);
+		if (storage == null || offset < 0 || size < 0
+				|| offset + size > storage.capacity()) {
+			setError(buffer < 0 ? GL_INVALID_ENUM : GL_INVALID_VALUE);
+			return;
+		}
+		copy(data, storage, offset, size);
+	}
+
+	/*
+	 * Copies size bytes from the position of a client buffer of any type.
+	 */
+	private static void copy(Buffer data, ByteBuffer storage, int offset,
+			int size) {
+		ByteBuffer out = storage.duplicate().order(storage.order());
+		out.position(offset);
+		if (data instanceof ByteBuffer) {
+			ByteBuffer in = ((ByteBuffer) data).duplicate();
+			in.limit(Math.min(in.limit(), in.position() + size));
+			out.put(in);
+		} else if (data instanceof FloatBuffer) {
+			FloatBuffer in = ((FloatBuffer) data).duplicate();
+			in.limit(Math.min(in.limit(), in.position() + size / 4));
+			out.asFloatBuffer().put(in);
+		} else if (data instanceof ShortBuffer) {
+			ShortBuffer in = ((ShortBuffer) data).duplicate();
+			in.limit(Math.min(in.limit(), in.position() + size / 2));
+			out.asShortBuffer().put(in);
+		} else if (data instanceof IntBuffer) {
+			IntBuffer in = ((IntBuffer) data).duplicate();
+			in.limit(Math.min(in.limit(), in.position() + size / 4));
+			out.asIntBuffer().put(in);
+		} else {
+			throw new IllegalArgumentException("SoftwareGLApi: unsupported "
+					+ data.getClass().getName());
+		}
+	}
+
+	@Override
+	public void glGenTextures(int n, int[] textures, int offset) {
+		for (int i = 0; i < n; i++) {
+			textures[offset + i] = generateName();
+		}
+	}
+
+	@Override
+	public void glDeleteTextures(int n, int[] textures, int offset) {
+		// Queued triangles may still sample them
+		mRasterizer.flush();
+		for (int i = 0; i < n; i++) {
+			int texture = textures[offset + i];
+			mTextures.remove(texture);
+			for (int unit = 0; unit < MAX_TEXTURE_UNITS; unit++) {
+				if (mBoundTextures[unit] == texture) {
+					mBoundTextures[unit] = 0;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void glActiveTexture(int texture) {
+		int unit = texture - GL_TEXTURE0;
+		if (unit < 0 || unit >= MAX_TEXTURE_UNITS) {
+			setError(GL_INVALID_ENUM);
+			return;
+		}
+		mActiveTexture = unit;
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+		if (target != GL_TEXTURE_2D) {
+			setError(GL_INVALID_ENUM);
+			return;
+		}
+		if (texture != 0 && !mTextures.containsKey(texture)) {
+			mTextures.put(texture, new SoftwareTexture());
+		}
+		mBoundTextures[mActiveTexture] = texture;
+	}
+
+	/*
+	 * Returns the texture bound to the active unit, ready to be changed, or
+	 * null with an error.
+	 */
+	private SoftwareTexture textureToChange(int target) {
+		SoftwareTexture texture = mTextures
+				.get(mBoundTextures[mActiveTexture]);
+		if (target != GL_TEXTURE_2D || texture == null) {
+			setError(target != GL_TEXTURE_2D ? GL_INVALID_ENUM
+					: GL_INVALID_OPERATION);
+			return null;
+		}
+		mRasterizer.flush();
+		return texture;
+	}
+
+	@Override
+	public void glTexImage2D(int target, int level, int internalformat,
+			int width, int height, int border, int format, int type,
+			Buffer pixels) {
+		SoftwareTexture texture = textureToChange(target);
+		if (texture == null) {
+			return;
+		}
+		if (width < 0 || height < 0 || width > MAX_TEXTURE_SIZE
+				|| height > MAX_TEXTURE_SIZE || border != 0) {
+			setError(GL_INVALID_VALUE);
+			return;
+		}
+		if (internalformat != format
+				|| (pixels != null && !(pixels instanceof ByteBuffer))
+				|| !texture.setLevel(level, width, height, format, type,
+						(ByteBuffer) pixels)) {
+			setError(GL_INVALID_ENUM);
+		}
+	}
+
+	@Override
+	public void glCompressedTexImage2D(int target, int level,
+			int internalformat, int width, int height, int border,
+			int imageSize, Buffer data) {
+		SoftwareTexture texture = textureToChange(target);
+		if (texture == null) {
+			return;
+		}
+		boolean alpha = internalformat == GL_COMPRESSED_RGBA8_ETC2_EAC;
+		if (internalformat != GL_ETC1_RGB8_OES
+				&& internalformat != GL_COMPRESSED_RGB8_ETC2 && !alpha) {
+			setError(GL_INVALID_ENUM);
+			return;
+		}
+		int blocksX = (width + 3) / 4;
+		int blocksY = (height + 3) / 4;
+		int blockSize = alpha ? 16 : 8;
+		if (!(data instanceof ByteBuffer) || border != 0
+				|| imageSize != blocksX * blocksY * blockSize
+				|| data.remaining() < imageSize) {
+			setError(GL_INVALID_VALUE);
+			return;
+		}
+		// Blocks are big-endian 64-bit words
+		ByteBuffer in = ((ByteBuffer) data).duplicate().order(
+				ByteOrder.BIG_ENDIAN);
+		int[] argb = new int[width * height];
+		int[] block = new int[16];
+		for (int by = 0; by < blocksY; by++) {
+			for (int bx = 0; bx < blocksX; bx++) {
+				int p = in.position() + (by * blocksX + bx) * blockSize;
+				if (alpha) {
+					EtcCodec.decodeColor(in.getLong(p + 8), block);
+					EtcCodec.decodeAlpha(in.getLong(p), block);
+				} else {
+					EtcCodec.decodeColor(in.getLong(p), block);
+				}
+				for (int y = 0; y < 4 && by * 4 + y < height; y++) {
+					for (int x = 0; x < 4 && bx * 4 + x < width; x++) {
+						argb[(by * 4 + y) * width + bx * 4 + x] = block[y * 4
+								+ x];
+					}
+				}
+			}
+		}
+		texture.setLevel(level, width, height, argb);
+	}
+
+	@Override
+	public void glTexParameteri(int target, int pname, int param) {
+		SoftwareTexture texture = textureToChange(target);
+		if (texture != null && !texture.setParameter(pname, param)) {
+			setError(GL_INVALID_ENUM);
+		}
+	}
+
+	@Override
+	public void glGenerateMipmap(int target) {
+		SoftwareTexture texture = textureToChange(target);
+		if (texture != null && !texture.generateMipmap()) {
+			setError(GL_INVALID_OPERATION);
+		}
+	}
+
+	// OpenGL ES 2.0: shaders and programs
+
+	@Override
+	public int glCreateShader(int type) {
+		ShaderObject shader = new ShaderObject();
+		shader.type = type;
+		int name = generateName();
+		mShaders.put(name, shader);
+		return name;
+	}
+
+	@Override
+	public void glShaderSource(int shader, String string) {
+		ShaderObject object = mShaders.get(shader);
+		if (object == null) {
+			setError(GL_INVALID_VALUE);
+			return;
+		}
+		object.source = string;
+	}
+
+	@Override
+	public void glCompileShader(int shader) {
+		// The sources are only matched when linking
+		if (!mShaders.containsKey(shader)) {
+			setError(GL_INVALID_VALUE);
+		}
+	}
+
+	@Override
+	public void glDeleteShader(int shader) {
+		// Attached shaders live on in their program
+	}
+
+	@Override
+	public int glCreateProgram() {
+		int name = generateName();
+		mPrograms.put(name, new ProgramObject());
+		return name;
+	}
+
+	@Override
+	public void glAttachShader(int program, int shader) {
+		ProgramObject object = mPrograms.get(program);
+		ShaderObject s = mShaders.get(shader);
+		if (object == null || s == null) {
+			setError(GL_INVALID_VALUE);
+		} else if (s.type == GL_FRAGMENT_SHADER) {
+			object.fragmentShader = shader;
+		} else {
+			object.vertexShader = shader;
+		}
+	}
+
+	@Override
+	public void glLinkProgram(int program) {
+		ProgramObject object = mPrograms.get(program);
+		if (object == null) {
+			setError(GL_INVALID_VALUE);
+			return;
+		}
+		ShaderObject vertex = mShaders.get(object.vertexShader);
+		ShaderObject fragment = mShaders.get(object.fragmentShader);
+		StringBuilder log = new StringBuilder();
+		object.linked = SoftwareProgram.link(vertex != null ? vertex.source
+				: null, fragment != null ? fragment.source : null, log);
+		object.log = log.toString();
+		object.uniforms = null;
+		if (object.linked != null) {
+			object.uniforms = new float[16 * object.linked.uniformSlots];
+		}
+	}
+
+	@Override
+	public void glDeleteProgram(int program) {
+		ProgramObject object = mPrograms.remove(program);
+		if (object != null && object == mProgram) {
+			mProgram = null;
+		}
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		ProgramObject object = mPrograms.get(program);
+		if (program != 0 && (object == null || object.linked == null)) {
+			setError(GL_INVALID_OPERATION);
+			return;
+		}
+		mProgram = object;
+	}
+
+	@Override
+	public void glGetProgramiv(int program, int pname, int[] params,
+			int offset) {
+		ProgramObject object = mPrograms.get(program);
+		if (object == null) {
+			setError(GL_INVALID_VALUE);
+			return;
+		}
+		if (pname == GL_LINK_STATUS) {
+			params[offset] = object.linked != null ? 1 : 0;
+		} else if (pname == GL_INFO_LOG_LENGTH) {
+			params[offset] = object.log.length() + 1;
+		} else {
+			params[offset] = 0;
+		}
+	}
+
+	@Override
+	public String glGetProgramInfoLog(int program) {
+		ProgramObject object = mPrograms.get(program);
+		return object != null ? object.log : "";
+	}
+
+	@Override
+	public int glGetAttribLocation(int program, String name) {
+		ProgramObject object = mPrograms.get(program);
+		if (object == null || object.linked == null) {
+			setError(GL_INVALID_OPERATION);
+			return -1;
+		}
+		return object.linked.getAttributeLocation(name);
+	}
+
+	@Override
+	public int glGetUniformLocation(int program, String name) {
+		ProgramObject object = mPrograms.get(program);
+		if (object == null || object.linked == null) {
+			setError(GL_INVALID_OPERATION);
+			return -1;
+		}
+		return object.linked.getUniformLocation(name);
+	}
+
+	/*
+	 * Returns the uniform storage of the current program if location is
+	 * valid for count elements, null otherwise.
+	 */
+	private float[] uniforms(int location, int count) {
+		if (mProgram == null || location < 0
+				|| location + count > mProgram.linked.uniformSlots) {
+			if (location != -1) {
+				setError(GL_INVALID_OPERATION);
+			}
+			return null;
+		}
+		return mProgram.uniforms;
+	}
+
+	@Override
+	public void glUniform1i(int location, int x) {
+		float[] u = uniforms(location, 1);
+		if (u != null) {
+			u[16 * location] = x;
+		}
+	}
+
+	@Override
+	public void glUniform4fv(int location, int count, float[] v, int offset) {
+		float[] u = uniforms(location, count);
+		if (u != null) {
+			for (int i = 0; i < count; i++) {
+				System.arraycopy(v, offset + 4 * i, u, 16 * (location + i), 4);
+			}
+		}
+	}
+
+	@Override
+	public void glUniformMatrix4fv(int location, int count, boolean transpose,
+			float[] value, int offset) {
+		if (transpose) {
+			setError(GL_INVALID_VALUE);
+			return;
+		}
+		float[] u = uniforms(location, count);
+		if (u != null) {
+			System.arraycopy(value, offset, u, 16 * location, 16 * count);
+		}
+	}
+
+	// OpenGL ES 2.0: vertex attributes
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		if (index < 0 || index >= MAX_VERTEX_ATTRIBS) {
+			setError(GL_INVALID_VALUE);
+			return;
+		}
+		mAttributes[index].enabled = true;
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		if (index < 0 || index >= MAX_VERTEX_ATTRIBS) {
+			setError(GL_INVALID_VALUE);
+			return;
+		}
+		mAttributes[index].enabled = false;
+	}
+
+	@Override
+	public void glVertexAttribPointer(int indx, int size, int type,
+			boolean normalized, int stride, int offset) {
+		if (indx < 0 || indx >= MAX_VERTEX_ATTRIBS || size < 1 || size > 4
+				|| stride < 0) {
+			setError(GL_INVALID_VALUE);
+			return;
+		}
+		if (type != GL_FLOAT && type != GL_BYTE && type != GL_UNSIGNED_BYTE
+				&& type != GL_SHORT && type != GL_UNSIGNED_SHORT) {
+			setError(GL_INVALID_ENUM);
+			return;
+		}
+		Attribute a = mAttributes[indx];
+		a.buffer = mBuffers.get(mArrayBuffer);
+		a.size = size;
+		a.type = type;
+		a.normalized = normalized;
+		a.stride = stride != 0 ? stride : size * typeSize(type);
+		a.offset = offset;
+	}
+
+	private static int typeSize(int type) {
+		switch (type) {
+		case GL_FLOAT:
+			return 4;
+		case GL_SHORT:
+		case GL_UNSIGNED_SHORT:
+			return 2;
+		default:
+			return 1;
+		}
+	}
+
+	/*
+	 * Reads attribute index of a vertex into mAttribute, missing components
+	 * being (0, 0, 0, 1).
+	 */
+	private void fetch(int index, int vertex) {
+		float[] out = mAttribute;
+		out[0] = 0.0f;
+		out[1] = 0.0f;
+		out[2] = 0.0f;
+		out[3] = 1.0f;
+		Attribute a = mAttributes[index];
+		if (!a.enabled || a.buffer == null) {
+			return;
+		}
+		ByteBuffer b = a.buffer;
+		int p = a.offset + vertex * a.stride;
+		for (int c = 0; c < a.size; c++) {
+			switch (a.type) {
+			case GL_FLOAT:
+				out[c] = b.getFloat(p + 4 * c);
+				break;
+			case GL_BYTE:
+				out[c] = a.normalized ? Math.max(-1.0f, b.get(p + c) / 127.0f)
+						: b.get(p + c);
+				break;
+			case GL_UNSIGNED_BYTE:
+				int ub = b.get(p + c) & 0xFF;
+				out[c] = a.normalized ? ub / 255.0f : ub;
+				break;
+			case GL_SHORT:
+				short s = b.getShort(p + 2 * c);
+				out[c] = a.normalized ? Math.max(-1.0f, s / 32767.0f) : s;
+				break;
+			default:
+				int us = b.getShort(p + 2 * c) & 0xFFFF;
+				out[c] = a.normalized ? us / 65535.0f : us;
+				break;
+			}
+		}
+	}
+
+	// OpenGL ES 2.0: drawing
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		if (first < 0 || count < 0) {
+			setError(GL_INVALID_VALUE);
+			return;
+		}
+		int[] indices = indices(count);
+		for (int i = 0; i < count; i++) {
+			indices[i] = first + i;
+		}
+		draw(mode, count);
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, int offset) {
+		ByteBuffer elements = mBuffers.get(mElementArrayBuffer);
+		if (type != GL_UNSIGNED_SHORT && type != GL_UNSIGNED_BYTE) {
+			setError(GL_INVALID_ENUM);
+			return;
+		}
+		int size = typeSize(type);
+		if (count < 0 || elements == null
+				|| offset + count * size > elements.capacity()) {
+			setError(count < 0 ? GL_INVALID_VALUE : GL_INVALID_OPERATION);
+			return;
+		}
+		int[] indices = indices(count);
+		for (int i = 0; i < count; i++) {
+			indices[i] = size == 2 ? elements.getShort(offset + 2 * i) & 0xFFFF
+					: elements.get(offset + i) & 0xFF;
+		}
+		draw(mode, count);
+	}
+
+	private int[] indices(int count) {
+		if (mIndices.length < count) {
+			mIndices = new int[Math.max(count, 2 * mIndices.length)];
+		}
+		return mIndices;
+	}
+
+	/*
+	 * Runs the vertex stage on the vertices of mIndices, then assembles,
+	 * clips and queues the triangles.
+	 */
+	private void draw(int mode, int count) {
+		if (mProgram == null) {
+			setError(GL_INVALID_OPERATION);
+			return;
+		}
+		mDrawCalls++;
+		if (mode != GL_TRIANGLES && mode != GL_TRIANGLE_STRIP
+				&& mode != GL_TRIANGLE_FAN) {
+			if (mode < 0 || mode > GL_TRIANGLE_FAN) {
+				setError(GL_INVALID_ENUM);
+			}
+			mSkippedDraws++;
+			return;
+		}
+		if (count < 3) {
+			return;
+		}
+		int[] indices = mIndices;
+		int min = Integer.MAX_VALUE;
+		int max = 0;
+		for (int i = 0; i < count; i++) {
+			min = Math.min(min, indices[i]);
+			max = Math.max(max, indices[i]);
+		}
+		SoftwareProgram program = mProgram.linked;
+		if (!shadeVertices(program, min, max)) {
+			return;
+		}
+		TileRasterizer.DrawState state = drawState(program);
+
+		int triangles = mode == GL_TRIANGLES ? count / 3 : count - 2;
+		for (int i = 0; i < triangles; i++) {
+			int a, b, c;
+			if (mode == GL_TRIANGLES) {
+				a = indices[3 * i];
+				b = indices[3 * i + 1];
+				c = indices[3 * i + 2];
+			} else if (mode == GL_TRIANGLE_FAN) {
+				a = indices[0];
+				b = indices[i + 1];
+				c = indices[i + 2];
+			} else if ((i & 1) == 0) {
+				a = indices[i];
+				b = indices[i + 1];
+				c = indices[i + 2];
+			} else {
+				// Odd triangles of a strip keep the winding of the first
+				a = indices[i + 1];
+				b = indices[i];
+				c = indices[i + 2];
+			}
+			triangle(a - min, b - min, c - min, program.varyingFloats,
+					state);
+		}
+	}
+
+	/*
+	 * Transforms vertices min to max into mClip.
+	 *
+	 * @return false if an attribute reads past the end of its buffer.
+	 */
+	private boolean shadeVertices(SoftwareProgram program, int min, int max) {
+		int n = max - min + 1;
+		if (mClip.length < n * CLIP_FLOATS) {
+			mClip = new float[Math.max(n, 2 * mClip.length / CLIP_FLOATS)
+					* CLIP_FLOATS];
+		}
+		for (SoftwareProgram.Variable attribute : program.attributes) {
+			Attribute a = mAttributes[attribute.location];
+			if (a.enabled
+					&& (a.buffer == null || a.offset + max * a.stride
+							+ a.size * typeSize(a.type) > a.buffer
+							.capacity())) {
+				setError(GL_INVALID_OPERATION);
+				return false;
+			}
+		}
+		float[] u = mProgram.uniforms;
+		int mvp = 16 * program.uniforms.get(program.matrixUniform).location;
+		int models = program.modelsUniform >= 0 ? 16 * program.uniforms
+				.get(program.modelsUniform).location : -1;
+		float[] p = mAttribute;
+		float[] m = mModel;
+		for (int v = 0; v < n; v++) {
+			int out = v * CLIP_FLOATS;
+			if (models >= 0) {
+				fetch(program.modelIndexAttribute, min + v);
+				int model = Math.max(0, Math.min((int) p[0],
+						program.modelCount - 1));
+				fetch(program.positionAttribute, min + v);
+				transform(u, models + 16 * model, p, m);
+				transform(u, mvp, m, p);
+			} else {
+				fetch(program.positionAttribute, min + v);
+				transform(u, mvp, p, m);
+				System.arraycopy(m, 0, p, 0, 4);
+			}
+			System.arraycopy(p, 0, mClip, out, 4);
+			for (int i = 0; i < program.varyings.size(); i++) {
+				SoftwareProgram.Variable varying = program.varyings.get(i);
+				fetch(program.varyingSources[i], min + v);
+				System.arraycopy(p, 0, mClip, out + 4 + varying.location,
+						varying.getComponents());
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * out = column-major matrix at m[offset] times v.
+	 */
+	private static void transform(float[] m, int offset, float[] v,
+			float[] out) {
+		for (int r = 0; r < 4; r++) {
+			out[r] = m[offset + r] * v[0] + m[offset + 4 + r] * v[1]
+					+ m[offset + 8 + r] * v[2] + m[offset + 12 + r] * v[3];
+		}
+	}
+
+	private TileRasterizer.DrawState drawState(SoftwareProgram program) {
+		TileRasterizer.DrawState s = new TileRasterizer.DrawState();
+		s.x0 = Math.max(0, mViewportX);
+		s.y0 = Math.max(0, mViewportY);
+		s.x1 = Math.min(mRasterizer.getWidth(), mViewportX + mViewportWidth);
+		s.y1 = Math.min(mRasterizer.getHeight(), mViewportY
+				+ mViewportHeight);
+		s.cullBack = mCullFace;
+		s.depthTest = mDepthTest;
+		s.depthFunc = mDepthFunc;
+		s.depthWrite = mDepthMask;
+		s.colorMask = mColorMask;
+		s.fragmentMode = program.fragmentMode;
+		float[] u = mProgram.uniforms;
+		switch (program.fragmentMode) {
+		case SoftwareProgram.FRAGMENT_VARYING:
+			s.colorOffset = program.varyings.get(program.colorVarying).location;
+			break;
+		case SoftwareProgram.FRAGMENT_UNIFORM:
+			if (program.colorUniform < 0) {
+				s.color = program.constantColor;
+			} else {
+				s.color = color(u, 16 * program.uniforms
+						.get(program.colorUniform).location);
+			}
+			break;
+		default:
+			int unit = (int) u[16 * program.uniforms
+					.get(program.samplerUniform).location];
+			SoftwareTexture texture = null;
+			if (unit >= 0 && unit < MAX_TEXTURE_UNITS) {
+				texture = mTextures.get(mBoundTextures[unit]);
+			}
+			if (texture == null) {
+				// Sampling no texture returns opaque black
+				s.fragmentMode = SoftwareProgram.FRAGMENT_UNIFORM;
+				s.color = 0xFF000000;
+			} else {
+				s.texture = texture;
+				s.texCoordOffset = program.varyings
+						.get(program.texCoordVarying).location;
+			}
+			break;
+		}
+		return s;
+	}
+
+	private static int color(float[] rgba, int offset) {
+		return SoftwareTexture.argb(TileRasterizer.channel(rgba[offset + 3]),
+				TileRasterizer.channel(rgba[offset]),
+				TileRasterizer.channel(rgba[offset + 1]),
+				TileRasterizer.channel(rgba[offset + 2]));
+	}
+
+	/*
+	 * Clips a triangle of mClip vertices and queues the pieces.
+	 */
+	private void triangle(int a, int b, int c, int varyingFloats,
+			TileRasterizer.DrawState state) {
+		float[] clip = mClip;
+		int floats = 4 + varyingFloats;
+		int outside = 0;
+		int inside = 0;
+		for (int p = 0; p < CLIP_PLANES.length; p++) {
+			float[] plane = CLIP_PLANES[p];
+			int out = (distance(plane, clip, a * CLIP_FLOATS) < 0 ? 1 : 0)
+					+ (distance(plane, clip, b * CLIP_FLOATS) < 0 ? 1 : 0)
+					+ (distance(plane, clip, c * CLIP_FLOATS) < 0 ? 1 : 0);
+			if (out == 3) {
+				return;
+			}
+			outside |= out != 0 ? 1 << p : 0;
+			inside += out == 0 ? 1 : 0;
+		}
+		float[] polygon = mPolygon;
+		System.arraycopy(clip, a * CLIP_FLOATS, polygon, 0, floats);
+		System.arraycopy(clip, b * CLIP_FLOATS, polygon, CLIP_FLOATS, floats);
+		System.arraycopy(clip, c * CLIP_FLOATS, polygon, 2 * CLIP_FLOATS,
+				floats);
+		int vertices = 3;
+		if (outside != 0) {
+			for (int p = 0; p < CLIP_PLANES.length && vertices >= 3; p++) {
+				if ((outside & (1 << p)) != 0) {
+					vertices = clip(CLIP_PLANES[p], vertices, floats);
+				}
+			}
+			if (vertices < 3) {
+				return;
+			}
+		}
+		for (int v = 0; v < vertices; v++) {
+			toWindow(v, varyingFloats);
+		}
+		for (int v = 1; v + 1 < vertices; v++) {
+			mRasterizer.addTriangle(mWindow, 0, v
+					* TileRasterizer.VERTEX_FLOATS, (v + 1)
+					* TileRasterizer.VERTEX_FLOATS, state);
+		}
+	}
+
+	private static float distance(float[] plane, float[] v, int offset) {
+		return plane[0] * v[offset] + plane[1] * v[offset + 1] + plane[2]
+				* v[offset + 2] + plane[3] * v[offset + 3];
+	}
+
+	/*
+	 * Sutherland-Hodgman: clips the polygon of mPolygon against a plane.
+	 */
+	private int clip(float[] plane, int vertices, int floats) {
+		float[] in = mPolygon;
+		float[] out = mPolygonOut;
+		int n = 0;
+		for (int i = 0; i < vertices; i++) {
+			int current = i * CLIP_FLOATS;
+			int next = ((i + 1) % vertices) * CLIP_FLOATS;
+			float dc = distance(plane, in, current);
+			float dn = distance(plane, in, next);
+			if (dc >= 0) {
+				System.arraycopy(in, current, out, n++ * CLIP_FLOATS, floats);
+			}
+			if ((dc >= 0) != (dn >= 0)) {
+				float t = dc / (dc - dn);
+				int o = n++ * CLIP_FLOATS;
+				for (int f = 0; f < floats; f++) {
+					out[o + f] = in[current + f] + t
+							* (in[next + f] - in[current + f]);
+				}
+			}
+		}
+		System.arraycopy(out, 0, in, 0, n * CLIP_FLOATS);
+		return n;
+	}
+
+	/*
+	 * Perspective division and viewport transform of polygon vertex v.
+	 */
+	private void toWindow(int v, int varyingFloats) {
+		float[] in = mPolygon;
+		int i = v * CLIP_FLOATS;
+		int o = v * TileRasterizer.VERTEX_FLOATS;
+		float q = 1.0f / in[i + 3];
+		mWindow[o] = mViewportX + (in[i] * q + 1.0f) * 0.5f * mViewportWidth;
+		mWindow[o + 1] = mViewportY + (in[i + 1] * q + 1.0f) * 0.5f
+				* mViewportHeight;
+		mWindow[o + 2] = (in[i + 2] * q + 1.0f) * 0.5f;
+		mWindow[o + 3] = q;
+		for (int f = 0; f < varyingFloats; f++) {
+			mWindow[o + 4 + f] = in[i + 4 + f] * q;
+		}
+	}
+
+	@Override
+	public void glClear(int mask) {
+		if ((mask & ~(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT)) != 0) {
+			// Stencil is not supported
+			setError(GL_INVALID_VALUE);
+		}
+		mRasterizer.clear((mask & GL_COLOR_BUFFER_BIT) != 0,
+				(mask & GL_DEPTH_BUFFER_BIT) != 0, mClearColor, 1.0f,
+				mColorMask, mDepthMask);
+	}
+
+	// OpenGL ES 2.0: fixed-function state
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		mClearColor = SoftwareTexture.argb(TileRasterizer.channel(alpha),
+				TileRasterizer.channel(red), TileRasterizer.channel(green),
+				TileRasterizer.channel(blue));
+	}
+
+	@Override
+	public void glColorMask(boolean red, boolean green, boolean blue,
+			boolean alpha) {
+		mColorMask = (alpha ? 0xFF000000 : 0) | (red ? 0xFF0000 : 0)
+				| (green ? 0xFF00 : 0) | (blue ? 0xFF : 0);
+	}
+
+	@Override
+	public void glDepthFunc(int func) {
+		if (func < TileRasterizer.GL_NEVER || func > TileRasterizer.GL_ALWAYS) {
+			setError(GL_INVALID_ENUM);
+			return;
+		}
+		mDepthFunc = func;
+	}
+
+	@Override
+	public void glDepthMask(boolean flag) {
+		mDepthMask = flag;
+	}
+
+	@Override
+	public void glEnable(int cap) {
+		setCapability(cap, true);
+	}
+
+	@Override
+	public void glDisable(int cap) {
+		setCapability(cap, false);
+	}
+
+	private void setCapability(int cap, boolean enable) {
+		if (cap == GL_DEPTH_TEST) {
+			mDepthTest = enable;
+		} else if (cap == GL_CULL_FACE) {
+			mCullFace = enable;
+		}
+		// Other capabilities, such as blending, are accepted and ignored
+	}
+
+	@Override
+	public void glViewport(int x, int y, int width, int height) {
+		if (width < 0 || height < 0) {
+			setError(GL_INVALID_VALUE);
+			return;
+		}
+		mViewportX = x;
+		mViewportY = y;
+		mViewportWidth = width;
+		mViewportHeight = height;
+	}
+
+	// OpenGL ES 2.0: queries
+
+	@Override
+	public int glGetError() {
+		int error = mError;
+		mError = GL_NO_ERROR;
+		return error;
+	}
+
+	@Override
+	public void glGetIntegerv(int pname, int[] params, int offset) {
+		switch (pname) {
+		case GL_VIEWPORT:
+			params[offset] = mViewportX;
+			params[offset + 1] = mViewportY;
+			params[offset + 2] = mViewportWidth;
+			params[offset + 3] = mViewportHeight;
+			break;
+		case GL_MAX_TEXTURE_SIZE:
+			params[offset] = MAX_TEXTURE_SIZE;
+			break;
+		case GL_MAX_TEXTURE_IMAGE_UNITS:
+			params[offset] = MAX_TEXTURE_UNITS;
+			break;
+		case GL_MAX_VERTEX_ATTRIBS:
+			params[offset] = MAX_VERTEX_ATTRIBS;
+			break;
+		case GL_MAX_VERTEX_UNIFORM_VECTORS:
+			params[offset] = MAX_VERTEX_UNIFORM_VECTORS;
+			break;
+		case GL_NUM_PROGRAM_BINARY_FORMATS:
+			params[offset] = 0;
+			break;
+		default:
+			setError(GL_INVALID_ENUM);
+			break;
+		}
+	}
+
+	@Override
+	public String glGetString(int name) {
+		switch (name) {
+		case GL_VENDOR:
+			return "none";
+		case GL_RENDERER:
+			return "SoftwareGLApi";
+		case GL_VERSION:
+			return "OpenGL ES 2.0 SoftwareGLApi";
+		case GL_SHADING_LANGUAGE_VERSION:
+			return "OpenGL ES GLSL ES 1.00";
+		case GL_EXTENSIONS:
+			return "GL_OES_compressed_ETC1_RGB8_texture";
+		default:
+			setError(GL_INVALID_ENUM);
+			return null;
+		}
+	}
+
+	// OpenGL ES 3.0, not available in this ES 2.0 context
+
+	@Override
+	public void glBeginQuery(int target, int id) {
+		setError(GL_INVALID_OPERATION);
+	}
+
+	@Override
+	public void glEndQuery(int target) {
+		setError(GL_INVALID_OPERATION);
+	}
+
+	@Override
+	public void glGenQueries(int n, int[] ids, int offset) {
+		setError(GL_INVALID_OPERATION);
+	}
+
+	@Override
+	public void glGetProgramBinary(int program, int bufSize, int[] length,
+			int lengthOffset, int[] binaryFormat, int binaryFormatOffset,
+			Buffer binary) {
+		setError(GL_INVALID_OPERATION);
+	}
+
+	@Override
+	public void glGetQueryObjectuiv(int id, int pname, int[] params,
+			int offset) {
+		setError(GL_INVALID_OPERATION);
+	}
+
+	@Override
+	public void glProgramBinary(int program, int binaryFormat, Buffer binary,
+			int length) {
+		setError(GL_INVALID_OPERATION);
+	}
+
+	@Override
+	public void glProgramParameteri(int program, int pname, int value) {
+		setError(GL_INVALID_OPERATION);
+	}
+
+	// android.opengl.GLUtils
+
+	/**
+	 * Uploads an ARGB_8888 bitmap, whose pixels copy out as unpadded RGBA
+	 * rows.
+	 */
+	@Override
+	public void texImage2D(int target, int level, Bitmap bitmap, int border) {
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		ByteBuffer pixels = ByteBuffer.allocate(width * height * 4);
+		bitmap.copyPixelsToBuffer(pixels);
+		pixels.position(0);
+		glTexImage2D(target, level, SoftwareTexture.GL_RGBA, width, height,
+				border, SoftwareTexture.GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+	}
+}
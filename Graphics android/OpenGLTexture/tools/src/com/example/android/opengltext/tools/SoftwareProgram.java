@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Linked program of {@link SoftwareGLApi}. GLSL is not compiled: the
+ * sources are matched against the shapes of the shaders of this project,
+ * and linking fails, with an info log saying why, for anything else.
+ *
+ * <p>
+ * Vertex shader:
+ * </p>
+ *
+ * <pre>
+ * gl_Position = MVP * position;
+ * gl_Position = VP * (models[int(index)] * position);
+ * varying = attribute;   // any number, up to MAX_VARYING_FLOATS in all
+ * </pre>
+ *
+ * <p>
+ * Fragment shader:
+ * </p>
+ *
+ * <pre>
+ * gl_FragColor = varying;
+ * gl_FragColor = uniform;   // a vec4
+ * gl_FragColor = vec4(r, g, b, a);   // or vec4(x)
+ * gl_FragColor = texture2D(sampler, varying);
+ * </pre>
+ */
+class SoftwareProgram {
+
+	// Floats of varyings per vertex
+	static final int MAX_VARYING_FLOATS = 8;
+
+	static final int FRAGMENT_VARYING = 0;
+	static final int FRAGMENT_UNIFORM = 1;
+	static final int FRAGMENT_TEXTURE = 2;
+
+	private static final Pattern DECLARATION = Pattern
+			.compile("\\b(attribute|uniform|varying)\\s+"
+					+ "(?:(?:lowp|mediump|highp)\\s+)?(\\w+)\\s+(\\w+)\\s*"
+					+ "(?:\\[\\s*(\\d+)\\s*\\])?\\s*;");
+	private static final Pattern POSITION = Pattern
+			.compile("gl_Position\\s*=\\s*(\\w+)\\s*\\*\\s*(\\w+)\\s*;");
+	private static final Pattern INSTANCED_POSITION = Pattern
+			.compile("gl_Position\\s*=\\s*(\\w+)\\s*\\*\\s*\\(\\s*(\\w+)\\s*"
+					+ "\\[\\s*int\\s*\\(\\s*(\\w+)\\s*\\)\\s*\\]"
+					+ "\\s*\\*\\s*(\\w+)\\s*\\)\\s*;");
+	private static final Pattern ASSIGNMENT = Pattern
+			.compile("\\b(\\w+)\\s*=\\s*(\\w+)\\s*;");
+	private static final Pattern TEXTURE = Pattern
+			.compile("gl_FragColor\\s*=\\s*texture2D\\s*\\(\\s*(\\w+)\\s*,"
+					+ "\\s*(\\w+)\\s*\\)\\s*;");
+	private static final Pattern CONSTANT = Pattern
+			.compile("gl_FragColor\\s*=\\s*vec4\\s*\\(([^;()]*)\\)\\s*;");
+	private static final Pattern COLOR = Pattern
+			.compile("gl_FragColor\\s*=\\s*(\\w+)\\s*;");
+
+	static class Variable {
+		final String type;
+		final String name;
+		final int count;
+		// Attribute index, uniform location or varying float offset
+		int location;
+
+		Variable(String type, String name, int count) {
+			this.type = type;
+			this.name = name;
+			this.count = count;
+		}
+
+		int getComponents() {
+			if (type.equals("float")) {
+				return 1;
+			}
+			if (type.startsWith("vec")) {
+				return type.charAt(3) - '0';
+			}
+			return type.equals("mat4") ? 16 : 1;
+		}
+	}
+
+	final List<Variable> attributes = new ArrayList<Variable>();
+	final List<Variable> uniforms = new ArrayList<Variable>();
+	final List<Variable> varyings = new ArrayList<Variable>();
+	// Uniform locations, one per array element
+	int uniformSlots;
+
+	// Vertex stage
+	int positionAttribute;
+	int matrixUniform;
+	int modelsUniform = -1;
+	int modelIndexAttribute = -1;
+	int modelCount;
+	// For each varying: the attribute copied into it
+	int[] varyingSources;
+	int varyingFloats;
+
+	// Fragment stage
+	int fragmentMode;
+	int colorVarying;
+	// -1 for a constant color
+	int colorUniform;
+	int constantColor;
+	int samplerUniform;
+	int texCoordVarying;
+
+	private final StringBuilder mLog = new StringBuilder();
+
+	/**
+	 * Returns a linked program, or null with the reason in log.
+	 */
+	static SoftwareProgram link(String vertexSource, String fragmentSource,
+			StringBuilder log) {
+		SoftwareProgram program = new SoftwareProgram();
+		if (vertexSource == null || fragmentSource == null) {
+			log.append("missing shader");
+			return null;
+		}
+		if (!program.parse(vertexSource, fragmentSource)) {
+			log.append(program.mLog);
+			return null;
+		}
+		return program;
+	}
+
+	private boolean parse(String vertexSource, String fragmentSource) {
+		declare(vertexSource, true);
+		declare(fragmentSource, false);
+		int slot = 0;
+		for (Variable u : uniforms) {
+			u.location = slot;
+			slot += u.count;
+		}
+		uniformSlots = slot;
+		int offset = 0;
+		for (Variable v : varyings) {
+			v.location = offset;
+			offset += v.getComponents() * v.count;
+		}
+		varyingFloats = offset;
+		if (varyingFloats > MAX_VARYING_FLOATS) {
+			return fail("more than " + MAX_VARYING_FLOATS + " varying floats");
+		}
+		return parseVertex(vertexSource) && parseFragment(fragmentSource);
+	}
+
+	private void declare(String source, boolean vertex) {
+		Matcher m = DECLARATION.matcher(source);
+		while (m.find()) {
+			int count = m.group(4) != null ? Integer.parseInt(m.group(4)) : 1;
+			Variable v = new Variable(m.group(2), m.group(3), count);
+			String kind = m.group(1);
+			if (kind.equals("attribute")) {
+				v.location = attributes.size();
+				attributes.add(v);
+			} else if (kind.equals("uniform")) {
+				if (find(uniforms, v.name) < 0) {
+					uniforms.add(v);
+				}
+			} else if (vertex) {
+				// The fragment shader redeclares the same varyings
+				varyings.add(v);
+			}
+		}
+	}
+
+	private boolean parseVertex(String source) {
+		Matcher m = INSTANCED_POSITION.matcher(source);
+		if (m.find()) {
+			matrixUniform = find(uniforms, m.group(1));
+			modelsUniform = find(uniforms, m.group(2));
+			modelIndexAttribute = find(attributes, m.group(3));
+			positionAttribute = find(attributes, m.group(4));
+			if (modelsUniform < 0 || modelIndexAttribute < 0) {
+				return fail("unknown model matrices or index");
+			}
+			modelCount = uniforms.get(modelsUniform).count;
+		} else {
+			m = POSITION.matcher(source);
+			if (!m.find()) {
+				return fail("unsupported gl_Position expression");
+			}
+			matrixUniform = find(uniforms, m.group(1));
+			positionAttribute = find(attributes, m.group(2));
+		}
+		if (matrixUniform < 0 || positionAttribute < 0) {
+			return fail("gl_Position needs a mat4 uniform and an attribute");
+		}
+		varyingSources = new int[varyings.size()];
+		for (int i = 0; i < varyings.size(); i++) {
+			varyingSources[i] = -1;
+		}
+		m = ASSIGNMENT.matcher(source);
+		while (m.find()) {
+			int varying = find(varyings, m.group(1));
+			int attribute = find(attributes, m.group(2));
+			if (varying >= 0 && attribute >= 0) {
+				varyingSources[varying] = attribute;
+			}
+		}
+		for (int i = 0; i < varyings.size(); i++) {
+			if (varyingSources[i] < 0) {
+				return fail("varying " + varyings.get(i).name
+						+ " is not copied from an attribute");
+			}
+		}
+		return true;
+	}
+
+	private boolean parseFragment(String source) {
+		Matcher m = TEXTURE.matcher(source);
+		if (m.find()) {
+			fragmentMode = FRAGMENT_TEXTURE;
+			samplerUniform = find(uniforms, m.group(1));
+			texCoordVarying = find(varyings, m.group(2));
+			if (samplerUniform < 0 || texCoordVarying < 0) {
+				return fail("texture2D needs a sampler and a varying");
+			}
+			return true;
+		}
+		m = CONSTANT.matcher(source);
+		if (m.find()) {
+			fragmentMode = FRAGMENT_UNIFORM;
+			colorUniform = -1;
+			return parseConstant(m.group(1));
+		}
+		m = COLOR.matcher(source);
+		if (!m.find()) {
+			return fail("unsupported gl_FragColor expression");
+		}
+		colorVarying = find(varyings, m.group(1));
+		colorUniform = find(uniforms, m.group(1));
+		if (colorVarying >= 0) {
+			fragmentMode = FRAGMENT_VARYING;
+		} else if (colorUniform >= 0) {
+			fragmentMode = FRAGMENT_UNIFORM;
+		} else {
+			return fail("unknown color " + m.group(1));
+		}
+		return true;
+	}
+
+	private boolean parseConstant(String arguments) {
+		String[] values = arguments.split(",");
+		if (values.length != 1 && values.length != 4) {
+			return fail("unsupported vec4 constant");
+		}
+		int[] channels = new int[4];
+		for (int i = 0; i < 4; i++) {
+			String value = values[i % values.length].trim();
+			try {
+				channels[i] = TileRasterizer.channel(Float.parseFloat(value));
+			} catch (NumberFormatException e) {
+				return fail("unsupported vec4 constant");
+			}
+		}
+		constantColor = SoftwareTexture.argb(channels[3], channels[0],
+				channels[1], channels[2]);
+		return true;
+	}
+
+	private boolean fail(String reason) {
+		mLog.append(reason);
+		return false;
+	}
+
+	static int find(List<Variable> variables, String name) {
+		for (int i = 0; i < variables.size(); i++) {
+			if (variables.get(i).name.equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the location of a uniform or of an element of a uniform
+	 * array, as glGetUniformLocation, or -1.
+	 */
+	int getUniformLocation(String name) {
+		int element = 0;
+		int bracket = name.indexOf('[');
+		if (bracket >= 0) {
+			try {
+				element = Integer.parseInt(name.substring(bracket + 1,
+						name.length() - 1).trim());
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+			name = name.substring(0, bracket);
+		}
+		int i = find(uniforms, name);
+		if (i < 0 || element >= uniforms.get(i).count) {
+			return -1;
+		}
+		return uniforms.get(i).location + element;
+	}
+
+	int getAttributeLocation(String name) {
+		return find(attributes, name);
+	}
+}
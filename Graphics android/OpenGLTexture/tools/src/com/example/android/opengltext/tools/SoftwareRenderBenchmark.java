@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import com.example.android.opengltext.GLApi;
+import com.example.android.opengltext.MatrixMath;
+
+/**
+ * Desktop benchmark of {@link SoftwareGLApi}, rendering without a GPU.
+ *
+ * <p>
+ * It draws a grid of spinning cubes over a tiled floor, with the shaders of
+ * com.example.android.opengltext.Cube (a mipmapped texture) and
+ * com.example.android.opengl3d.Cube (a color per vertex), through the
+ * {@link GLApi} calls those classes make. The classes themselves need
+ * android.jar, so the scene is rebuilt here. The same frames are rendered
+ * with 1, 2, 4... rasterizer threads up to the requested count, and every
+ * image must match the single-threaded one. The last frame is written to
+ * software.png.
+ * </p>
+ *
+ * <p>
+ * Build and run from OpenGLTexture/:
+ * </p>
+ *
+ * <pre>
+ * javac -d out src/com/example/android/opengltext/GLApi.java \
+ *     src/com/example/android/opengltext/MatrixMath.java \
+ *     src/com/example/android/opengltext/MatrixArray.java \
+ *     tools/src/com/example/android/opengltext/tools/*.java
+ * java -cp out com.example.android.opengltext.tools.SoftwareRenderBenchmark \
+ *     [-threads n] [-size WxH] [-frames n] [-out dir]
+ * </pre>
+ */
+public class SoftwareRenderBenchmark {
+
+	private static final int GL_DEPTH_BUFFER_BIT = 0x0100;
+	private static final int GL_COLOR_BUFFER_BIT = 0x4000;
+	private static final int GL_TRIANGLES = 0x0004;
+	private static final int GL_CULL_FACE = 0x0B44;
+	private static final int GL_DEPTH_TEST = 0x0B71;
+	private static final int GL_TEXTURE_2D = 0x0DE1;
+	private static final int GL_UNSIGNED_BYTE = 0x1401;
+	private static final int GL_UNSIGNED_SHORT = 0x1403;
+	private static final int GL_FLOAT = 0x1406;
+	private static final int GL_RGBA = 0x1908;
+	private static final int GL_LINEAR = 0x2601;
+	private static final int GL_LINEAR_MIPMAP_LINEAR = 0x2703;
+	private static final int GL_TEXTURE_MAG_FILTER = 0x2800;
+	private static final int GL_TEXTURE_MIN_FILTER = 0x2801;
+	private static final int GL_TEXTURE0 = 0x84C0;
+	private static final int GL_ARRAY_BUFFER = 0x8892;
+	private static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+	private static final int GL_STATIC_DRAW = 0x88E4;
+	private static final int GL_FRAGMENT_SHADER = 0x8B30;
+	private static final int GL_VERTEX_SHADER = 0x8B31;
+	private static final int GL_LINK_STATUS = 0x8B82;
+
+	// Shaders of opengltext.Cube
+	static final String TEXTURE_VERTEX_SHADER = "uniform mat4 u_MVPMatrix;"
+			+ "attribute vec4 a_Position;" + "attribute vec2 a_TexCoordinate;"
+			+ "varying vec2 v_TexCoordinate;" + "void main() {"
+			+ "  gl_Position = u_MVPMatrix * a_Position;"
+			+ "  v_TexCoordinate = a_TexCoordinate;" + "}";
+	static final String TEXTURE_FRAGMENT_SHADER = "precision mediump float;"
+			+ "varying vec2 v_TexCoordinate;"
+			+ "uniform sampler2D u_TextureUnit;" + "void main() {"
+			+ "  gl_FragColor = texture2D(u_TextureUnit, v_TexCoordinate);"
+			+ "}";
+
+	// Shaders of opengl3d.Cube
+	private static final String COLOR_VERTEX_SHADER = "uniform mat4 uMVPMatrix;"
+			+ "attribute vec4 vPosition;" + "attribute vec4 aColor;"
+			+ "varying vec4 vColor;" + "void main() {" + "  vColor = aColor;"
+			+ "  gl_Position = uMVPMatrix * vPosition;" + "}";
+	private static final String COLOR_FRAGMENT_SHADER = "precision mediump float;"
+			+ "varying vec4 vColor;" + "void main() {"
+			+ "  gl_FragColor = vColor;" + "}";
+
+	private static final int GRID = 8;
+	static final int CHECKER_SIZE = 256;
+	private static final int WARMUP_FRAMES = 5;
+
+	// Corners of each face, counter-clockwise seen from outside
+	private static final float[][] FACES = {
+			{ -1, -1, 1, 1, -1, 1, 1, 1, 1, -1, 1, 1 },
+			{ 1, -1, -1, -1, -1, -1, -1, 1, -1, 1, 1, -1 },
+			{ -1, -1, -1, -1, -1, 1, -1, 1, 1, -1, 1, -1 },
+			{ 1, -1, 1, 1, -1, -1, 1, 1, -1, 1, 1, 1 },
+			{ -1, 1, 1, 1, 1, 1, 1, 1, -1, -1, 1, -1 },
+			{ -1, -1, -1, 1, -1, -1, 1, -1, 1, -1, -1, 1 } };
+	private static final float[] FACE_TEX_COORDS = { 0, 1, 1, 1, 1, 0, 0, 0 };
+
+	private final GLApi mGl;
+	private final int mWidth;
+	private final int mHeight;
+
+	private int mTextureProgram;
+	private int mTextureMvp;
+	private int mTextureSampler;
+	private int mTexturePosition;
+	private int mTextureCoord;
+	private int mColorProgram;
+	private int mColorMvp;
+	private int mColorPosition;
+	private int mColorAttribute;
+
+	private int mTexturedCube;
+	private int mColoredCube;
+	private int mFloor;
+	private int mCubeIndices;
+	private int mFloorIndices;
+	private int mTexture;
+
+	private final float[] mViewProjection = new float[16];
+	private final float[] mModel = new float[16];
+	private final float[] mMvp = new float[16];
+
+	SoftwareRenderBenchmark(GLApi gl, int width, int height) {
+		mGl = gl;
+		mWidth = width;
+		mHeight = height;
+	}
+
+	void setUp() {
+		GLApi gl = mGl;
+		mTextureProgram = createProgram(gl, TEXTURE_VERTEX_SHADER,
+				TEXTURE_FRAGMENT_SHADER);
+		mTextureMvp = gl.glGetUniformLocation(mTextureProgram, "u_MVPMatrix");
+		mTextureSampler = gl.glGetUniformLocation(mTextureProgram,
+				"u_TextureUnit");
+		mTexturePosition = gl.glGetAttribLocation(mTextureProgram,
+				"a_Position");
+		mTextureCoord = gl.glGetAttribLocation(mTextureProgram,
+				"a_TexCoordinate");
+		mColorProgram = createProgram(gl, COLOR_VERTEX_SHADER,
+				COLOR_FRAGMENT_SHADER);
+		mColorMvp = gl.glGetUniformLocation(mColorProgram, "uMVPMatrix");
+		mColorPosition = gl.glGetAttribLocation(mColorProgram, "vPosition");
+		mColorAttribute = gl.glGetAttribLocation(mColorProgram, "aColor");
+
+		float[] textured = cubeVertices(true);
+		float[] colored = cubeVertices(false);
+		short[] indices = cubeIndices();
+		float floorSize = GRID * 2.0f;
+		float repeat = GRID * 2.0f;
+		float[] floor = { -floorSize, -1.5f, floorSize, 0, 0, floorSize,
+				-1.5f, floorSize, repeat, 0, floorSize, -1.5f, -floorSize,
+				repeat, repeat, -floorSize, -1.5f, -floorSize, 0, repeat };
+		mTexturedCube = createBuffer(gl, GL_ARRAY_BUFFER, floats(textured),
+				textured.length * 4);
+		mColoredCube = createBuffer(gl, GL_ARRAY_BUFFER, floats(colored),
+				colored.length * 4);
+		mFloor = createBuffer(gl, GL_ARRAY_BUFFER, floats(floor),
+				floor.length * 4);
+		mCubeIndices = createBuffer(gl, GL_ELEMENT_ARRAY_BUFFER,
+				shorts(indices), indices.length * 2);
+		mFloorIndices = createBuffer(gl, GL_ELEMENT_ARRAY_BUFFER,
+				shorts(new short[] { 0, 1, 2, 0, 2, 3 }), 6 * 2);
+
+		int[] texture = new int[1];
+		gl.glGenTextures(1, texture, 0);
+		mTexture = texture[0];
+		gl.glActiveTexture(GL_TEXTURE0);
+		gl.glBindTexture(GL_TEXTURE_2D, mTexture);
+		gl.glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, CHECKER_SIZE,
+				CHECKER_SIZE, 0, GL_RGBA, GL_UNSIGNED_BYTE, checker());
+		gl.glGenerateMipmap(GL_TEXTURE_2D);
+		gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER,
+				GL_LINEAR_MIPMAP_LINEAR);
+		gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+
+		float[] projection = new float[16];
+		float[] view = new float[16];
+		float ratio = (float) mWidth / mHeight;
+		MatrixMath.frustumM(projection, 0, -ratio, ratio, -1, 1, 1, 100);
+		MatrixMath.setLookAtM(view, 0, 0, 6, GRID * 2.5f, 0, 0, 0, 0, 1, 0);
+		MatrixMath.multiplyMM(mViewProjection, 0, projection, 0, view, 0);
+
+		gl.glViewport(0, 0, mWidth, mHeight);
+		gl.glClearColor(0.2f, 0.3f, 0.4f, 1.0f);
+		gl.glEnable(GL_DEPTH_TEST);
+		gl.glEnable(GL_CULL_FACE);
+		int error = gl.glGetError();
+		if (error != 0) {
+			throw new IllegalStateException("set up: glError 0x"
+					+ Integer.toHexString(error));
+		}
+	}
+
+	/**
+	 * Returns the 24 vertices of a cube from -1 to 1, with their texture
+	 * coordinates (x, y, z, s, t) or colors (x, y, z, r, g, b, a).
+	 */
+	static float[] cubeVertices(boolean textured) {
+		int floats = textured ? 5 : 7;
+		float[] vertices = new float[6 * 4 * floats];
+		for (int f = 0; f < 6; f++) {
+			for (int v = 0; v < 4; v++) {
+				int o = (f * 4 + v) * floats;
+				for (int i = 0; i < 3; i++) {
+					vertices[o + i] = FACES[f][v * 3 + i];
+					if (!textured) {
+						// Colors of the RGB cube, from the corner positions
+						vertices[o + 3 + i] = (FACES[f][v * 3 + i] + 1) * 0.5f;
+					}
+				}
+				if (textured) {
+					vertices[o + 3] = FACE_TEX_COORDS[v * 2];
+					vertices[o + 4] = FACE_TEX_COORDS[v * 2 + 1];
+				} else {
+					vertices[o + 6] = 1.0f;
+				}
+			}
+		}
+		return vertices;
+	}
+
+	/**
+	 * Returns the triangles of the faces of {@link #cubeVertices(boolean)}.
+	 */
+	static short[] cubeIndices() {
+		short[] indices = new short[6 * 6];
+		for (int f = 0; f < 6; f++) {
+			short first = (short) (f * 4);
+			short[] quad = { first, (short) (first + 1), (short) (first + 2),
+					first, (short) (first + 2), (short) (first + 3) };
+			System.arraycopy(quad, 0, indices, f * 6, 6);
+		}
+		return indices;
+	}
+
+	static int createProgram(GLApi gl, String vertexSource,
+			String fragmentSource) {
+		int vertex = gl.glCreateShader(GL_VERTEX_SHADER);
+		gl.glShaderSource(vertex, vertexSource);
+		gl.glCompileShader(vertex);
+		int fragment = gl.glCreateShader(GL_FRAGMENT_SHADER);
+		gl.glShaderSource(fragment, fragmentSource);
+		gl.glCompileShader(fragment);
+		int program = gl.glCreateProgram();
+		gl.glAttachShader(program, vertex);
+		gl.glAttachShader(program, fragment);
+		gl.glLinkProgram(program);
+		int[] status = new int[1];
+		gl.glGetProgramiv(program, GL_LINK_STATUS, status, 0);
+		if (status[0] == 0) {
+			throw new IllegalStateException("link: "
+					+ gl.glGetProgramInfoLog(program));
+		}
+		return program;
+	}
+
+	static int createBuffer(GLApi gl, int target, Buffer data, int size) {
+		int[] buffer = new int[1];
+		gl.glGenBuffers(1, buffer, 0);
+		gl.glBindBuffer(target, buffer[0]);
+		gl.glBufferData(target, size, data, GL_STATIC_DRAW);
+		return buffer[0];
+	}
+
+	static FloatBuffer floats(float[] values) {
+		FloatBuffer b = ByteBuffer.allocateDirect(values.length * 4)
+				.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		b.put(values).position(0);
+		return b;
+	}
+
+	static ShortBuffer shorts(short[] values) {
+		ShortBuffer b = ByteBuffer.allocateDirect(values.length * 2)
+				.order(ByteOrder.nativeOrder()).asShortBuffer();
+		b.put(values).position(0);
+		return b;
+	}
+
+	/*
+	 * A checkerboard of 8 x 8 squares, with a color per quadrant.
+	 */
+	static ByteBuffer checker() {
+		ByteBuffer pixels = ByteBuffer.allocateDirect(CHECKER_SIZE
+				* CHECKER_SIZE * 4);
+		int square = CHECKER_SIZE / 8;
+		for (int y = 0; y < CHECKER_SIZE; y++) {
+			for (int x = 0; x < CHECKER_SIZE; x++) {
+				boolean light = ((x / square + y / square) & 1) == 0;
+				int quadrant = (x * 2 / CHECKER_SIZE) + 2
+						* (y * 2 / CHECKER_SIZE);
+				int base = light ? 255 : 64;
+				pixels.put((byte) (quadrant == 1 ? 64 : base));
+				pixels.put((byte) (quadrant == 2 ? 64 : base));
+				pixels.put((byte) (quadrant == 3 ? 64 : base));
+				pixels.put((byte) 255);
+			}
+		}
+		pixels.position(0);
+		return pixels;
+	}
+
+	/**
+	 * Draws frame number frame of the scene.
+	 */
+	void drawFrame(int frame) {
+		GLApi gl = mGl;
+		gl.glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+
+		gl.glUseProgram(mTextureProgram);
+		gl.glUniform1i(mTextureSampler, 0);
+		MatrixMath.setIdentityM(mModel, 0);
+		drawMesh(mFloor, mFloorIndices, 6, mTextureMvp, mTexturePosition,
+				mTextureCoord, 2, 5);
+
+		float spacing = 3.0f;
+		for (int row = 0; row < GRID; row++) {
+			for (int column = 0; column < GRID; column++) {
+				boolean textured = ((row + column) & 1) == 0;
+				if (textured) {
+					gl.glUseProgram(mTextureProgram);
+				} else {
+					gl.glUseProgram(mColorProgram);
+				}
+				MatrixMath.setIdentityM(mModel, 0);
+				MatrixMath.translateM(mModel, 0, (column - (GRID - 1) * 0.5f)
+						* spacing, 0, (row - (GRID - 1) * 0.5f) * spacing);
+				MatrixMath.rotateM(mModel, 0, frame * 3.0f + row * 10
+						+ column * 20, 0.3f, 1.0f, 0.2f);
+				if (textured) {
+					drawMesh(mTexturedCube, mCubeIndices, 36, mTextureMvp,
+							mTexturePosition, mTextureCoord, 2, 5);
+				} else {
+					drawMesh(mColoredCube, mCubeIndices, 36, mColorMvp,
+							mColorPosition, mColorAttribute, 4, 7);
+				}
+			}
+		}
+	}
+
+	private void drawMesh(int vertices, int indices, int count, int mvp,
+			int position, int attribute, int attributeSize, int stride) {
+		GLApi gl = mGl;
+		MatrixMath.multiplyMM(mMvp, 0, mViewProjection, 0, mModel, 0);
+		gl.glUniformMatrix4fv(mvp, 1, false, mMvp, 0);
+		gl.glBindBuffer(GL_ARRAY_BUFFER, vertices);
+		gl.glEnableVertexAttribArray(position);
+		gl.glVertexAttribPointer(position, 3, GL_FLOAT, false, stride * 4, 0);
+		gl.glEnableVertexAttribArray(attribute);
+		gl.glVertexAttribPointer(attribute, attributeSize, GL_FLOAT, false,
+				stride * 4, 3 * 4);
+		gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indices);
+		gl.glDrawElements(GL_TRIANGLES, count, GL_UNSIGNED_SHORT, 0);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		int width = 1280;
+		int height = 720;
+		int frames = 30;
+		File outputDir = new File(".");
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 == args.length) {
+				usage();
+			}
+			String option = args[i];
+			String value = args[i + 1];
+			if (option.equals("-threads")) {
+				maxThreads = Integer.parseInt(value);
+			} else if (option.equals("-size")) {
+				int x = value.indexOf('x');
+				if (x < 0) {
+					usage();
+				}
+				width = Integer.parseInt(value.substring(0, x));
+				height = Integer.parseInt(value.substring(x + 1));
+			} else if (option.equals("-frames")) {
+				frames = Integer.parseInt(value);
+			} else if (option.equals("-out")) {
+				outputDir = new File(value);
+			} else {
+				usage();
+			}
+		}
+
+		System.out.printf("%dx%d, %d frames, %d cubes%n", width, height,
+				frames, GRID * GRID);
+		int[] reference = null;
+		double baseline = 0;
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			SoftwareGLApi gl = new SoftwareGLApi(width, height, threads);
+			SoftwareRenderBenchmark benchmark = new SoftwareRenderBenchmark(
+					gl, width, height);
+			benchmark.setUp();
+			for (int frame = 0; frame < WARMUP_FRAMES; frame++) {
+				benchmark.drawFrame(frame);
+				gl.finish();
+			}
+			gl.resetCounters();
+			long start = System.nanoTime();
+			for (int frame = 0; frame < frames; frame++) {
+				benchmark.drawFrame(frame);
+				gl.finish();
+			}
+			double ms = (System.nanoTime() - start) / 1e6 / frames;
+			int error = gl.glGetError();
+			int[] pixels = gl.readPixels();
+			if (threads == 1) {
+				baseline = ms;
+				reference = pixels;
+				System.out.printf("  per frame: %d triangles, %d covered, "
+						+ "%d depth passed, %d shaded fragments%n",
+						gl.getTriangles() / frames, gl.getCoveredFragments()
+								/ frames, gl.getDepthPassedFragments()
+								/ frames, gl.getShadedFragments() / frames);
+				gl.writePng(new File(outputDir, "software.png"));
+			}
+			System.out.printf("  %2d threads %8.2f ms/frame  %5.2fx%n",
+					threads, ms, baseline / ms);
+			gl.shutdown();
+			if (error != 0) {
+				System.err.println("glError 0x" + Integer.toHexString(error));
+				System.exit(1);
+			}
+			if (!Arrays.equals(reference, pixels)) {
+				System.err.println("The image differs from the "
+						+ "single-threaded one");
+				System.exit(1);
+			}
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: SoftwareRenderBenchmark [-threads n] "
+				+ "[-size WxH] [-frames n] [-out dir]");
+		System.exit(1);
+	}
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Texture object of {@link SoftwareGLApi}: a chain of ARGB levels sampled
+ * the way OpenGL ES 2.0 samples a 2D texture, with nearest, bilinear and
+ * trilinear filtering and the three wrap modes.
+ *
+ * <p>
+ * Levels are replaced only between flushes of the rasterizer, so sampling
+ * from several threads needs no lock.
+ * </p>
+ */
+class SoftwareTexture {
+
+	static final int GL_NEAREST = 0x2600;
+	static final int GL_LINEAR = 0x2601;
+	static final int GL_NEAREST_MIPMAP_NEAREST = 0x2700;
+	static final int GL_LINEAR_MIPMAP_NEAREST = 0x2701;
+	static final int GL_NEAREST_MIPMAP_LINEAR = 0x2702;
+	static final int GL_LINEAR_MIPMAP_LINEAR = 0x2703;
+	static final int GL_TEXTURE_MAG_FILTER = 0x2800;
+	static final int GL_TEXTURE_MIN_FILTER = 0x2801;
+	static final int GL_TEXTURE_WRAP_S = 0x2802;
+	static final int GL_TEXTURE_WRAP_T = 0x2803;
+	static final int GL_REPEAT = 0x2901;
+	static final int GL_CLAMP_TO_EDGE = 0x812F;
+	static final int GL_MIRRORED_REPEAT = 0x8370;
+
+	static final int GL_UNSIGNED_BYTE = 0x1401;
+	static final int GL_UNSIGNED_SHORT_4_4_4_4 = 0x8033;
+	static final int GL_UNSIGNED_SHORT_5_5_5_1 = 0x8034;
+	static final int GL_UNSIGNED_SHORT_5_6_5 = 0x8363;
+	static final int GL_ALPHA = 0x1906;
+	static final int GL_RGB = 0x1907;
+	static final int GL_RGBA = 0x1908;
+	static final int GL_LUMINANCE = 0x1909;
+	static final int GL_LUMINANCE_ALPHA = 0x190A;
+
+	// What an incomplete texture samples to
+	private static final int INCOMPLETE = 0xFF000000;
+	private static final int MAX_LEVELS = 16;
+
+	private final int[][] mLevels = new int[MAX_LEVELS][];
+	private final int[] mWidths = new int[MAX_LEVELS];
+	private final int[] mHeights = new int[MAX_LEVELS];
+
+	private int mMinFilter = GL_NEAREST_MIPMAP_LINEAR;
+	private int mMagFilter = GL_LINEAR;
+	private int mWrapS = GL_REPEAT;
+	private int mWrapT = GL_REPEAT;
+
+	// Derived by validate()
+	private boolean mComplete;
+	private int mLevelCount;
+
+	/**
+	 * Replaces a level with pixels read the way glTexImage2D reads them,
+	 * rows 4-byte aligned, the first row at the bottom.
+	 *
+	 * @return false if the format and type are not supported.
+	 */
+	boolean setLevel(int level, int width, int height, int format, int type,
+			ByteBuffer pixels) {
+		int bytesPerPixel = bytesPerPixel(format, type);
+		if (bytesPerPixel == 0 || level < 0 || level >= MAX_LEVELS) {
+			return false;
+		}
+		int[] argb = new int[width * height];
+		if (pixels != null) {
+			int rowBytes = (width * bytesPerPixel + 3) & ~3;
+			int base = pixels.position();
+			for (int y = 0; y < height; y++) {
+				int p = base + y * rowBytes;
+				for (int x = 0; x < width; x++, p += bytesPerPixel) {
+					argb[y * width + x] = readPixel(pixels, p, format, type);
+				}
+			}
+		}
+		setLevel(level, width, height, argb);
+		return true;
+	}
+
+	/**
+	 * Replaces a level with ARGB pixels, the first row at the bottom.
+	 */
+	void setLevel(int level, int width, int height, int[] argb) {
+		mLevels[level] = argb;
+		mWidths[level] = width;
+		mHeights[level] = height;
+		validate();
+	}
+
+	static int bytesPerPixel(int format, int type) {
+		if (type == GL_UNSIGNED_BYTE) {
+			switch (format) {
+			case GL_ALPHA:
+			case GL_LUMINANCE:
+				return 1;
+			case GL_LUMINANCE_ALPHA:
+				return 2;
+			case GL_RGB:
+				return 3;
+			case GL_RGBA:
+				return 4;
+			}
+		} else if ((type == GL_UNSIGNED_SHORT_5_6_5 && format == GL_RGB)
+				|| ((type == GL_UNSIGNED_SHORT_4_4_4_4
+				|| type == GL_UNSIGNED_SHORT_5_5_5_1) && format == GL_RGBA)) {
+			return 2;
+		}
+		return 0;
+	}
+
+	private static int readPixel(ByteBuffer in, int p, int format, int type) {
+		if (type != GL_UNSIGNED_BYTE) {
+			// Packed shorts are in the byte order of the buffer
+			int v = in.getShort(p) & 0xFFFF;
+			switch (type) {
+			case GL_UNSIGNED_SHORT_5_6_5:
+				return argb(0xFF, expand(v >> 11, 5), expand(v >> 5, 6),
+						expand(v, 5));
+			case GL_UNSIGNED_SHORT_4_4_4_4:
+				return argb(expand(v, 4), expand(v >> 12, 4),
+						expand(v >> 8, 4), expand(v >> 4, 4));
+			default:
+				return argb(expand(v, 1), expand(v >> 11, 5),
+						expand(v >> 6, 5), expand(v >> 1, 5));
+			}
+		}
+		int c0 = in.get(p) & 0xFF;
+		switch (format) {
+		case GL_ALPHA:
+			return argb(c0, 0, 0, 0);
+		case GL_LUMINANCE:
+			return argb(0xFF, c0, c0, c0);
+		case GL_LUMINANCE_ALPHA:
+			return argb(in.get(p + 1) & 0xFF, c0, c0, c0);
+		case GL_RGB:
+			return argb(0xFF, c0, in.get(p + 1) & 0xFF, in.get(p + 2) & 0xFF);
+		default:
+			return argb(in.get(p + 3) & 0xFF, c0, in.get(p + 1) & 0xFF,
+					in.get(p + 2) & 0xFF);
+		}
+	}
+
+	private static int expand(int v, int bits) {
+		int max = (1 << bits) - 1;
+		return ((v & max) * 255 + max / 2) / max;
+	}
+
+	static int argb(int a, int r, int g, int b) {
+		return (a << 24) | (r << 16) | (g << 8) | b;
+	}
+
+	/**
+	 * Replaces the levels above the base one by 2x2 box filtered copies, as
+	 * glGenerateMipmap.
+	 *
+	 * @return false if the base level is missing.
+	 */
+	boolean generateMipmap() {
+		int[] level = mLevels[0];
+		if (level == null) {
+			return false;
+		}
+		int w = mWidths[0];
+		int h = mHeights[0];
+		int i = 0;
+		while ((w > 1 || h > 1) && i + 1 < MAX_LEVELS) {
+			int nw = Math.max(1, w / 2);
+			int nh = Math.max(1, h / 2);
+			int[] next = new int[nw * nh];
+			for (int y = 0; y < nh; y++) {
+				int y0 = Math.min(2 * y, h - 1) * w;
+				int y1 = Math.min(2 * y + 1, h - 1) * w;
+				for (int x = 0; x < nw; x++) {
+					int x0 = Math.min(2 * x, w - 1);
+					int x1 = Math.min(2 * x + 1, w - 1);
+					next[y * nw + x] = average(level[y0 + x0], level[y0 + x1],
+							level[y1 + x0], level[y1 + x1]);
+				}
+			}
+			i++;
+			mLevels[i] = next;
+			mWidths[i] = nw;
+			mHeights[i] = nh;
+			level = next;
+			w = nw;
+			h = nh;
+		}
+		validate();
+		return true;
+	}
+
+	private static int average(int a, int b, int c, int d) {
+		int out = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			int sum = ((a >>> shift) & 0xFF) + ((b >>> shift) & 0xFF)
+					+ ((c >>> shift) & 0xFF) + ((d >>> shift) & 0xFF);
+			out |= ((sum + 2) / 4) << shift;
+		}
+		return out;
+	}
+
+	/**
+	 * Sets a texture parameter.
+	 *
+	 * @return false if the parameter or its value is not supported.
+	 */
+	boolean setParameter(int pname, int param) {
+		switch (pname) {
+		case GL_TEXTURE_MIN_FILTER:
+			if (param != GL_NEAREST && param != GL_LINEAR
+					&& (param < GL_NEAREST_MIPMAP_NEAREST
+					|| param > GL_LINEAR_MIPMAP_LINEAR)) {
+				return false;
+			}
+			mMinFilter = param;
+			break;
+		case GL_TEXTURE_MAG_FILTER:
+			if (param != GL_NEAREST && param != GL_LINEAR) {
+				return false;
+			}
+			mMagFilter = param;
+			break;
+		case GL_TEXTURE_WRAP_S:
+		case GL_TEXTURE_WRAP_T:
+			if (param != GL_REPEAT && param != GL_CLAMP_TO_EDGE
+					&& param != GL_MIRRORED_REPEAT) {
+				return false;
+			}
+			if (pname == GL_TEXTURE_WRAP_S) {
+				mWrapS = param;
+			} else {
+				mWrapT = param;
+			}
+			break;
+		default:
+			return false;
+		}
+		validate();
+		return true;
+	}
+
+	private boolean usesMipmaps() {
+		return mMinFilter != GL_NEAREST && mMinFilter != GL_LINEAR;
+	}
+
+	/*
+	 * A texture is complete when it has a base level and, if the minifying
+	 * filter uses mipmaps, every level down to 1x1 at the expected size.
+	 */
+	private void validate() {
+		mComplete = mLevels[0] != null;
+		mLevelCount = 1;
+		if (!mComplete || !usesMipmaps()) {
+			return;
+		}
+		int w = mWidths[0];
+		int h = mHeights[0];
+		while (w > 1 || h > 1) {
+			w = Math.max(1, w / 2);
+			h = Math.max(1, h / 2);
+			if (mLevelCount == MAX_LEVELS || mLevels[mLevelCount] == null
+					|| mWidths[mLevelCount] != w
+					|| mHeights[mLevelCount] != h) {
+				mComplete = false;
+				return;
+			}
+			mLevelCount++;
+		}
+	}
+
+	int getWidth() {
+		return mWidths[0];
+	}
+
+	int getHeight() {
+		return mHeights[0];
+	}
+
+	/**
+	 * Returns the ARGB color at texture coordinates (s, t).
+	 *
+	 * @param lod
+	 *            - Level of detail, log2 of the texels per pixel.
+	 */
+	int sample(float s, float t, float lod) {
+		if (!mComplete) {
+			return INCOMPLETE;
+		}
+		if (lod <= 0.0f) {
+			return sampleLevel(0, s, t, mMagFilter == GL_LINEAR);
+		}
+		switch (mMinFilter) {
+		case GL_NEAREST:
+			return sampleLevel(0, s, t, false);
+		case GL_LINEAR:
+			return sampleLevel(0, s, t, true);
+		case GL_NEAREST_MIPMAP_NEAREST:
+		case GL_LINEAR_MIPMAP_NEAREST:
+			return sampleLevel(
+					Math.min(Math.round(lod), mLevelCount - 1), s, t,
+					mMinFilter == GL_LINEAR_MIPMAP_NEAREST);
+		default:
+			boolean linear = mMinFilter == GL_LINEAR_MIPMAP_LINEAR;
+			int level = (int) lod;
+			if (level >= mLevelCount - 1) {
+				return sampleLevel(mLevelCount - 1, s, t, linear);
+			}
+			int f = (int) ((lod - level) * 256.0f);
+			return lerp(sampleLevel(level, s, t, linear),
+					sampleLevel(level + 1, s, t, linear), f);
+		}
+	}
+
+	private int sampleLevel(int level, float s, float t, boolean linear) {
+		int[] texels = mLevels[level];
+		int w = mWidths[level];
+		int h = mHeights[level];
+		float u = s * w;
+		float v = t * h;
+		if (!linear) {
+			int x = wrap((int) Math.floor(u), w, mWrapS);
+			int y = wrap((int) Math.floor(v), h, mWrapT);
+			return texels[y * w + x];
+		}
+		u -= 0.5f;
+		v -= 0.5f;
+		int x0 = (int) Math.floor(u);
+		int y0 = (int) Math.floor(v);
+		int fx = (int) ((u - x0) * 256.0f);
+		int fy = (int) ((v - y0) * 256.0f);
+		int x1 = wrap(x0 + 1, w, mWrapS);
+		int y1 = wrap(y0 + 1, h, mWrapT);
+		x0 = wrap(x0, w, mWrapS);
+		y0 = wrap(y0, h, mWrapT);
+		int top = lerp(texels[y0 * w + x0], texels[y0 * w + x1], fx);
+		int bottom = lerp(texels[y1 * w + x0], texels[y1 * w + x1], fx);
+		return lerp(top, bottom, fy);
+	}
+
+	private static int wrap(int i, int size, int mode) {
+		switch (mode) {
+		case GL_CLAMP_TO_EDGE:
+			return i < 0 ? 0 : (i >= size ? size - 1 : i);
+		case GL_MIRRORED_REPEAT:
+			int period = 2 * size;
+			int m = ((i % period) + period) % period;
+			return m < size ? m : period - 1 - m;
+		default:
+			return ((i % size) + size) % size;
+		}
+	}
+
+	/*
+	 * Blends two ARGB colors, f from 0 (a) to 256 (b).
+	 */
+	static int lerp(int a, int b, int f) {
+		if (a == b) {
+			return a;
+		}
+		// Two channels at a time, 8 bits of headroom each
+		int ag = (a >>> 8) & 0x00FF00FF;
+		int rb = a & 0x00FF00FF;
+		int bag = (b >>> 8) & 0x00FF00FF;
+		int brb = b & 0x00FF00FF;
+		ag = ((ag * (256 - f) + bag * f) >>> 8) & 0x00FF00FF;
+		rb = ((rb * (256 - f) + brb * f) >>> 8) & 0x00FF00FF;
+		return (ag << 8) | rb;
+	}
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Desktop tool converting images to ETC compressed KTX files with a full
+ * chain of precomputed mip levels, read at run time by
+ * com.example.android.opengltext.KtxTexture.
+ *
+ * <p>
+ * For an input <code>name.png</code> it writes <code>name.etc1.ktx</code>
+ * (GL_ETC1_RGB8_OES, any OpenGL ES 2.0 device with the extension) and, with
+ * <code>-etc2</code>, <code>name.etc2.ktx</code>: GL_COMPRESSED_RGB8_ETC2, or
+ * GL_COMPRESSED_RGBA8_ETC2_EAC when the image has alpha (OpenGL ES 3.0).
+ * The blocks of each level are encoded in parallel.
+ * </p>
+ *
+ * <p>
+ * Usage:
+ * <code>TextureCompressor [-etc2] [-threads n] outputDir image...</code>
+ * </p>
+ */
+public class TextureCompressor {
+
+	static final int GL_ETC1_RGB8_OES = 0x8D64;
+	static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274;
+	static final int GL_COMPRESSED_RGBA8_ETC2_EAC = 0x9278;
+	static final int GL_RGB = 0x1907;
+	static final int GL_RGBA = 0x1908;
+
+	private static final byte[] KTX_IDENTIFIER = { (byte) 0xAB, 'K', 'T',
+			'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n' };
+
+	// Blocks encoded per task
+	private static final int ROWS_PER_TASK = 4;
+
+	private final ExecutorService mExecutor;
+
+	public TextureCompressor(int threads) {
+		mExecutor = Executors.newFixedThreadPool(threads);
+	}
+
+	public void shutdown() {
+		mExecutor.shutdown();
+	}
+
+	/**
+	 * Returns the mip chain of an image down to 1x1, as ARGB arrays; each
+	 * level is the 2x2 box filtered previous one.
+	 */
+	public static List<int[]> mipChain(BufferedImage image) {
+		List<int[]> levels = new ArrayList<int[]>();
+		int w = image.getWidth();
+		int h = image.getHeight();
+		int[] level = image.getRGB(0, 0, w, h, null, 0, w);
+		levels.add(level);
+		while (w > 1 || h > 1) {
+			int nw = Math.max(1, w / 2);
+			int nh = Math.max(1, h / 2);
+			int[] next = new int[nw * nh];
+			for (int y = 0; y < nh; y++) {
+				for (int x = 0; x < nw; x++) {
+					int x0 = Math.min(2 * x, w - 1);
+					int x1 = Math.min(2 * x + 1, w - 1);
+					int y0 = Math.min(2 * y, h - 1);
+					int y1 = Math.min(2 * y + 1, h - 1);
+					next[y * nw + x] = average(level[y0 * w + x0], level[y0 * w
+							+ x1], level[y1 * w + x0], level[y1 * w + x1]);
+				}
+			}
+			levels.add(next);
+			level = next;
+			w = nw;
+			h = nh;
+		}
+		return levels;
+	}
+
+	private static int average(int a, int b, int c, int d) {
+		int out = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			int sum = ((a >>> shift) & 0xff) + ((b >>> shift) & 0xff)
+					+ ((c >>> shift) & 0xff) + ((d >>> shift) & 0xff);
+			out |= ((sum + 2) / 4) << shift;
+		}
+		return out;
+	}
+
+	/**
+	 * Encodes one level. Blocks crossing the right or bottom edge repeat the
+	 * edge pixels.
+	 *
+	 * @return - Returns the blocks in row-major order, 8 bytes each, or 16
+	 *         (alpha then color) when alpha is true.
+	 */
+	public byte[] encode(final int[] pixels, final int width,
+			final int height, final boolean alpha) throws InterruptedException {
+		final int blocksX = (width + 3) / 4;
+		final int blocksY = (height + 3) / 4;
+		final int blockSize = alpha ? 16 : 8;
+		final byte[] out = new byte[blocksX * blocksY * blockSize];
+		List<Future<?>> tasks = new ArrayList<Future<?>>();
+		for (int row = 0; row < blocksY; row += ROWS_PER_TASK) {
+			final int firstRow = row;
+			final int lastRow = Math.min(blocksY, row + ROWS_PER_TASK);
+			tasks.add(mExecutor.submit(new Runnable() {
+				@Override
+				public void run() {
+					int[] block = new int[16];
+					for (int by = firstRow; by < lastRow; by++) {
+						for (int bx = 0; bx < blocksX; bx++) {
+							for (int y = 0; y < 4; y++) {
+								int sy = Math.min(by * 4 + y, height - 1);
+								for (int x = 0; x < 4; x++) {
+									int sx = Math.min(bx * 4 + x, width - 1);
+									block[y * 4 + x] = pixels[sy * width + sx];
+								}
+							}
+							int at = (by * blocksX + bx) * blockSize;
+							if (alpha) {
+								putLong(out, at, EtcCodec.encodeAlpha(block));
+								at += 8;
+							}
+							putLong(out, at, EtcCodec.encodeColor(block));
+						}
+					}
+				}
+			}));
+		}
+		for (Future<?> task : tasks) {
+			try {
+				task.get();
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Decodes blocks made by {@link #encode(int[], int, int, boolean)}.
+	 */
+	public static int[] decode(byte[] blocks, int width, int height,
+			boolean alpha) {
+		int blocksX = (width + 3) / 4;
+		int blockSize = alpha ? 16 : 8;
+		int[] out = new int[width * height];
+		int[] block = new int[16];
+		for (int by = 0; by < (height + 3) / 4; by++) {
+			for (int bx = 0; bx < blocksX; bx++) {
+				int at = (by * blocksX + bx) * blockSize;
+				EtcCodec.decodeColor(getLong(blocks, alpha ? at + 8 : at),
+						block);
+				if (alpha) {
+					EtcCodec.decodeAlpha(getLong(blocks, at), block);
+				}
+				for (int y = 0; y < 4 && by * 4 + y < height; y++) {
+					for (int x = 0; x < 4 && bx * 4 + x < width; x++) {
+						out[(by * 4 + y) * width + bx * 4 + x] = block[y * 4
+								+ x];
+					}
+				}
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the peak signal to noise ratio in dB of the color channels,
+	 * and of alpha too when alpha is true.
+	 */
+	public static double psnr(int[] a, int[] b, boolean alpha) {
+		double sum = 0;
+		int channels = alpha ? 4 : 3;
+		for (int i = 0; i < a.length; i++) {
+			for (int c = 0; c < channels; c++) {
+				int d = ((a[i] >>> (c * 8)) & 0xff) - ((b[i] >>> (c * 8)) & 0xff);
+				sum += d * d;
+			}
+		}
+		double mse = sum / (a.length * channels);
+		return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255.0
+				* 255.0 / mse);
+	}
+
+	/**
+	 * Writes a KTX 1.1 file holding the given levels.
+	 */
+	public static void writeKtx(File file, int internalFormat,
+			int baseInternalFormat, int width, int height, List<byte[]> levels)
+			throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			out.write(KTX_IDENTIFIER);
+			// Written big-endian; readers swap when they see 0x01020304
+			out.writeInt(0x04030201);
+			out.writeInt(0); // glType: compressed
+			out.writeInt(1); // glTypeSize
+			out.writeInt(0); // glFormat: compressed
+			out.writeInt(internalFormat);
+			out.writeInt(baseInternalFormat);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeInt(0); // pixelDepth
+			out.writeInt(0); // numberOfArrayElements
+			out.writeInt(1); // numberOfFaces
+			out.writeInt(levels.size());
+			out.writeInt(0); // bytesOfKeyValueData
+			for (byte[] level : levels) {
+				out.writeInt(level.length);
+				out.write(level);
+				// Block sizes keep every level a multiple of 4 bytes
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Converts one image; returns a line of statistics.
+	 */
+	public String convert(File input, File outputDir, boolean etc2)
+			throws IOException, InterruptedException {
+		BufferedImage image = ImageIO.read(input);
+		if (image == null) {
+			throw new IOException("Cannot read " + input);
+		}
+		String name = input.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			name = name.substring(0, dot);
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		List<int[]> chain = mipChain(image);
+		boolean hasAlpha = image.getColorModel().hasAlpha()
+				&& !isOpaque(chain.get(0));
+
+		StringBuilder stats = new StringBuilder(input.getName());
+		stats.append(String.format(" %dx%d, %d levels", width, height,
+				chain.size()));
+		long rgbaBytes = 0;
+		for (int[] level : chain) {
+			rgbaBytes += level.length * 4L;
+		}
+
+		List<byte[]> etc1 = new ArrayList<byte[]>();
+		long bytes = encodeChain(chain, width, height, false, etc1);
+		writeKtx(new File(outputDir, name + ".etc1.ktx"), GL_ETC1_RGB8_OES,
+				GL_RGB, width, height, etc1);
+		stats.append(String.format(", etc1 %.1fdB %.1fx smaller",
+				psnr(chain.get(0), decode(etc1.get(0), width, height, false),
+						false), (double) rgbaBytes / bytes));
+
+		if (etc2) {
+			List<byte[]> levels = new ArrayList<byte[]>();
+			bytes = encodeChain(chain, width, height, hasAlpha, levels);
+			writeKtx(new File(outputDir, name + ".etc2.ktx"),
+					hasAlpha ? GL_COMPRESSED_RGBA8_ETC2_EAC
+							: GL_COMPRESSED_RGB8_ETC2, hasAlpha ? GL_RGBA
+							: GL_RGB, width, height, levels);
+			stats.append(String.format(", etc2%s %.1fdB %.1fx smaller",
+					hasAlpha ? "+eac" : "",
+					psnr(chain.get(0),
+							decode(levels.get(0), width, height, hasAlpha),
+							hasAlpha), (double) rgbaBytes / bytes));
+		}
+		return stats.toString();
+	}
+
+	private long encodeChain(List<int[]> chain, int width, int height,
+			boolean alpha, List<byte[]> out) throws InterruptedException {
+		long bytes = 0;
+		int w = width;
+		int h = height;
+		for (int[] level : chain) {
+			byte[] blocks = encode(level, w, h, alpha);
+			out.add(blocks);
+			bytes += blocks.length;
+			w = Math.max(1, w / 2);
+			h = Math.max(1, h / 2);
+		}
+		return bytes;
+	}
+
+	private static boolean isOpaque(int[] pixels) {
+		for (int p : pixels) {
+			if ((p >>> 24) != 0xff) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void putLong(byte[] out, int at, long value) {
+		for (int i = 0; i < 8; i++) {
+			out[at + i] = (byte) (value >>> (56 - 8 * i));
+		}
+	}
+
+	private static long getLong(byte[] in, int at) {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | (in[at + i] & 0xff);
+		}
+		return value;
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean etc2 = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) {
+			String option = args[i++];
+			if (option.equals("-etc2")) {
+				etc2 = true;
+			} else if (option.equals("-threads") && i < args.length) {
+				threads = Integer.parseInt(args[i++]);
+			} else {
+				usage();
+			}
+		}
+		if (args.length - i < 2) {
+			usage();
+		}
+		File outputDir = new File(args[i++]);
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			throw new IOException("Cannot create " + outputDir);
+		}
+		TextureCompressor compressor = new TextureCompressor(threads);
+		try {
+			long start = System.nanoTime();
+			for (; i < args.length; i++) {
+				System.out.println(compressor.convert(new File(args[i]),
+						outputDir, etc2));
+			}
+			System.out.printf("%.1fs on %d threads%n",
+					(System.nanoTime() - start) / 1e9, threads);
+		} finally {
+			compressor.shutdown();
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: TextureCompressor [-etc2] [-threads n] "
+				+ "outputDir image...");
+		System.exit(1);
+	}
+}
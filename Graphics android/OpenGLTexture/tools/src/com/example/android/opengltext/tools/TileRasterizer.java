@@ -0,0 +1,558 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.opengltext.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Framebuffer and rasterizer of {@link SoftwareGLApi}. Triangles arrive in
+ * window coordinates and are binned into {@link #TILE_SIZE} square tiles;
+ * {@link #flush()} then rasterizes the tiles in parallel on a fork/join
+ * pool. Each tile is owned by one task and processes its triangles in
+ * submission order, so the image does not depend on the number of threads.
+ *
+ * <p>
+ * Edges are evaluated in fixed point with {@link #SUBPIXEL_BITS} bits of
+ * subpixel precision and a top-left fill rule, so triangles sharing an edge
+ * neither overlap nor leave gaps. Varyings are interpolated with
+ * perspective correction, depth linearly in window space. Clears are queued
+ * in the bins like triangles.
+ * </p>
+ */
+class TileRasterizer {
+
+	static final int TILE_SIZE = 64;
+	static final int SUBPIXEL_BITS = 4;
+	private static final int SUBPIXEL = 1 << SUBPIXEL_BITS;
+
+	// Per vertex: window x, y, depth, 1/w, then varyings times 1/w
+	static final int VERTEX_FLOATS = 4 + SoftwareProgram.MAX_VARYING_FLOATS;
+	private static final int TRIANGLE_FLOATS = 3 * VERTEX_FLOATS;
+
+	// Triangles queued before an automatic flush
+	private static final int MAX_QUEUED_TRIANGLES = 1 << 16;
+
+	static final int GL_NEVER = 0x0200;
+	static final int GL_LESS = 0x0201;
+	static final int GL_EQUAL = 0x0202;
+	static final int GL_LEQUAL = 0x0203;
+	static final int GL_GREATER = 0x0204;
+	static final int GL_NOTEQUAL = 0x0205;
+	static final int GL_GEQUAL = 0x0206;
+	static final int GL_ALWAYS = 0x0207;
+
+	/**
+	 * Fixed-function state and fragment shading of one draw call.
+	 */
+	static class DrawState {
+		// Viewport, clipped to the framebuffer
+		int x0, y0, x1, y1;
+		boolean cullBack;
+		boolean depthTest;
+		int depthFunc;
+		boolean depthWrite;
+		// ARGB bits written
+		int colorMask;
+		int fragmentMode;
+		int color;
+		SoftwareTexture texture;
+		int texCoordOffset;
+		int colorOffset;
+	}
+
+	private static class Clear {
+		boolean color;
+		boolean depth;
+		int argb;
+		int colorMask;
+		float depthValue;
+	}
+
+	private final int mWidth;
+	private final int mHeight;
+	private final int[] mColor;
+	private final float[] mDepth;
+	private final int mTilesX;
+
+	// Triangle (or ~clear) indices per tile, in submission order
+	private final int[][] mBins;
+	private final int[] mBinSizes;
+	private float[] mTriangles = new float[1024 * TRIANGLE_FLOATS];
+	private DrawState[] mTriangleStates = new DrawState[1024];
+	private int mTriangleCount;
+	private final List<Clear> mClears = new ArrayList<Clear>();
+
+	private final ForkJoinPool mPool;
+
+	// Written by the task of each tile, summed after each flush
+	private final long[] mTileCovered;
+	private final long[] mTileDepthPassed;
+	private final long[] mTileShaded;
+	private long mTriangleTotal;
+	private long mCovered;
+	private long mDepthPassed;
+	private long mShaded;
+
+	TileRasterizer(int width, int height, int threads) {
+		mWidth = width;
+		mHeight = height;
+		mColor = new int[width * height];
+		mDepth = new float[width * height];
+		Arrays.fill(mDepth, 1.0f);
+		mTilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		int tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+		int tiles = mTilesX * tilesY;
+		mBins = new int[tiles][64];
+		mBinSizes = new int[tiles];
+		mTileCovered = new long[tiles];
+		mTileDepthPassed = new long[tiles];
+		mTileShaded = new long[tiles];
+		mPool = new ForkJoinPool(threads);
+	}
+
+	int getWidth() {
+		return mWidth;
+	}
+
+	int getHeight() {
+		return mHeight;
+	}
+
+	void shutdown() {
+		mPool.shutdown();
+	}
+
+	/**
+	 * Queues a clear of the whole framebuffer, honoring the color and depth
+	 * masks like glClear.
+	 */
+	void clear(boolean color, boolean depth, int argb, float depthValue,
+			int colorMask, boolean depthMask) {
+		Clear c = new Clear();
+		c.color = color && colorMask != 0;
+		c.depth = depth && depthMask;
+		if (!c.color && !c.depth) {
+			return;
+		}
+		c.argb = argb;
+		c.colorMask = colorMask;
+		c.depthValue = depthValue;
+		mClears.add(c);
+		int entry = ~(mClears.size() - 1);
+		for (int t = 0; t < mBins.length; t++) {
+			append(t, entry);
+		}
+	}
+
+	/**
+	 * Queues a triangle of window-space vertices laid out as VERTEX_FLOATS
+	 * floats at offsets o0, o1 and o2 of v.
+	 */
+	void addTriangle(float[] v, int o0, int o1, int o2, DrawState state) {
+		// Counter-clockwise (front facing) triangles have a positive area
+		long x0 = fixed(v[o0]), y0 = fixed(v[o0 + 1]);
+		long x1 = fixed(v[o1]), y1 = fixed(v[o1 + 1]);
+		long x2 = fixed(v[o2]), y2 = fixed(v[o2 + 1]);
+		long area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+		if (area == 0 || (area < 0 && state.cullBack)) {
+			return;
+		}
+		if (area < 0) {
+			int swap = o1;
+			o1 = o2;
+			o2 = swap;
+		}
+		// Pixels whose center may be covered, within the viewport
+		float minX = Math.min(v[o0], Math.min(v[o1], v[o2]));
+		float maxX = Math.max(v[o0], Math.max(v[o1], v[o2]));
+		float minY = Math.min(v[o0 + 1], Math.min(v[o1 + 1], v[o2 + 1]));
+		float maxY = Math.max(v[o0 + 1], Math.max(v[o1 + 1], v[o2 + 1]));
+		int px0 = Math.max(state.x0, (int) Math.floor(minX - 0.5f));
+		int px1 = Math.min(state.x1 - 1, (int) Math.ceil(maxX - 0.5f));
+		int py0 = Math.max(state.y0, (int) Math.floor(minY - 0.5f));
+		int py1 = Math.min(state.y1 - 1, (int) Math.ceil(maxY - 0.5f));
+		if (px0 > px1 || py0 > py1) {
+			return;
+		}
+
+		if (mTriangleCount == MAX_QUEUED_TRIANGLES) {
+			flush();
+		}
+		int index = mTriangleCount++;
+		if (index == mTriangleStates.length) {
+			mTriangles = Arrays.copyOf(mTriangles,
+					2 * mTriangles.length);
+			mTriangleStates = Arrays.copyOf(mTriangleStates,
+					2 * mTriangleStates.length);
+		}
+		int base = index * TRIANGLE_FLOATS;
+		System.arraycopy(v, o0, mTriangles, base, VERTEX_FLOATS);
+		System.arraycopy(v, o1, mTriangles, base + VERTEX_FLOATS,
+				VERTEX_FLOATS);
+		System.arraycopy(v, o2, mTriangles, base + 2 * VERTEX_FLOATS,
+				VERTEX_FLOATS);
+		mTriangleStates[index] = state;
+		mTriangleTotal++;
+
+		for (int ty = py0 / TILE_SIZE; ty <= py1 / TILE_SIZE; ty++) {
+			for (int tx = px0 / TILE_SIZE; tx <= px1 / TILE_SIZE; tx++) {
+				append(ty * mTilesX + tx, index);
+			}
+		}
+	}
+
+	private static long fixed(float f) {
+		return Math.round(f * SUBPIXEL);
+	}
+
+	private void append(int tile, int entry) {
+		int[] bin = mBins[tile];
+		int size = mBinSizes[tile];
+		if (size == bin.length) {
+			bin = Arrays.copyOf(bin, 2 * size);
+			mBins[tile] = bin;
+		}
+		bin[size] = entry;
+		mBinSizes[tile] = size + 1;
+	}
+
+	boolean isEmpty() {
+		return mTriangleCount == 0 && mClears.isEmpty();
+	}
+
+	/**
+	 * Rasterizes everything queued, in parallel, and returns when done.
+	 */
+	void flush() {
+		if (isEmpty()) {
+			return;
+		}
+		mPool.invoke(new TileTask(0, mBins.length));
+		for (int t = 0; t < mBins.length; t++) {
+			mBinSizes[t] = 0;
+			mCovered += mTileCovered[t];
+			mDepthPassed += mTileDepthPassed[t];
+			mShaded += mTileShaded[t];
+			mTileCovered[t] = 0;
+			mTileDepthPassed[t] = 0;
+			mTileShaded[t] = 0;
+		}
+		Arrays.fill(mTriangleStates, 0, mTriangleCount, null);
+		mTriangleCount = 0;
+		mClears.clear();
+	}
+
+	@SuppressWarnings("serial")
+	private class TileTask extends RecursiveAction {
+		private final int mFrom;
+		private final int mTo;
+
+		TileTask(int from, int to) {
+			mFrom = from;
+			mTo = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (mTo - mFrom == 1) {
+				if (mBinSizes[mFrom] > 0) {
+					rasterizeTile(mFrom);
+				}
+				return;
+			}
+			int middle = (mFrom + mTo) >>> 1;
+			invokeAll(new TileTask(mFrom, middle), new TileTask(middle, mTo));
+		}
+	}
+
+	private void rasterizeTile(int tile) {
+		int tx0 = (tile % mTilesX) * TILE_SIZE;
+		int ty0 = (tile / mTilesX) * TILE_SIZE;
+		int tx1 = Math.min(tx0 + TILE_SIZE, mWidth);
+		int ty1 = Math.min(ty0 + TILE_SIZE, mHeight);
+		int[] bin = mBins[tile];
+		int size = mBinSizes[tile];
+		float[] varyings = new float[SoftwareProgram.MAX_VARYING_FLOATS];
+		for (int i = 0; i < size; i++) {
+			int entry = bin[i];
+			if (entry < 0) {
+				clearTile(mClears.get(~entry), tx0, ty0, tx1, ty1);
+			} else {
+				rasterize(tile, entry, tx0, ty0, tx1, ty1, varyings);
+			}
+		}
+	}
+
+	private void clearTile(Clear c, int tx0, int ty0, int tx1, int ty1) {
+		for (int y = ty0; y < ty1; y++) {
+			int row = y * mWidth;
+			for (int x = tx0; x < tx1; x++) {
+				if (c.color) {
+					mColor[row + x] = (mColor[row + x] & ~c.colorMask)
+							| (c.argb & c.colorMask);
+				}
+				if (c.depth) {
+					mDepth[row + x] = c.depthValue;
+				}
+			}
+		}
+	}
+
+	private void rasterize(int tile, int index, int tx0, int ty0, int tx1,
+			int ty1, float[] varyings) {
+		DrawState s = mTriangleStates[index];
+		float[] t = mTriangles;
+		int v0 = index * TRIANGLE_FLOATS;
+		int v1 = v0 + VERTEX_FLOATS;
+		int v2 = v1 + VERTEX_FLOATS;
+
+		long x0 = fixed(t[v0]), y0 = fixed(t[v0 + 1]);
+		long x1 = fixed(t[v1]), y1 = fixed(t[v1 + 1]);
+		long x2 = fixed(t[v2]), y2 = fixed(t[v2 + 1]);
+		long area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+
+		// Pixels of the tile, within the viewport, the triangle may cover
+		int px0 = Math.max(Math.max(tx0, s.x0),
+				(int) ((Math.min(x0, Math.min(x1, x2)) >> SUBPIXEL_BITS) - 1));
+		int px1 = Math.min(Math.min(tx1, s.x1) - 1,
+				(int) ((Math.max(x0, Math.max(x1, x2)) >> SUBPIXEL_BITS) + 1));
+		int py0 = Math.max(Math.max(ty0, s.y0),
+				(int) ((Math.min(y0, Math.min(y1, y2)) >> SUBPIXEL_BITS) - 1));
+		int py1 = Math.min(Math.min(ty1, s.y1) - 1,
+				(int) ((Math.max(y0, Math.max(y1, y2)) >> SUBPIXEL_BITS) + 1));
+		if (px0 > px1 || py0 > py1) {
+			return;
+		}
+
+		// Edge functions at the center of the first pixel, positive inside;
+		// edge i is opposite to vertex i
+		long cx = ((long) px0 << SUBPIXEL_BITS) + SUBPIXEL / 2;
+		long cy = ((long) py0 << SUBPIXEL_BITS) + SUBPIXEL / 2;
+		long e0 = edge(x1, y1, x2, y2, cx, cy);
+		long e1 = edge(x2, y2, x0, y0, cx, cy);
+		long e2 = edge(x0, y0, x1, y1, cx, cy);
+		long dx0 = -(y2 - y1) << SUBPIXEL_BITS;
+		long dx1 = -(y0 - y2) << SUBPIXEL_BITS;
+		long dx2 = -(y1 - y0) << SUBPIXEL_BITS;
+		long dy0 = (x2 - x1) << SUBPIXEL_BITS;
+		long dy1 = (x0 - x2) << SUBPIXEL_BITS;
+		long dy2 = (x1 - x0) << SUBPIXEL_BITS;
+		// Pixel centers on an edge belong to top and left edges only
+		long b0 = isTopLeft(x1, y1, x2, y2) ? 0 : -1;
+		long b1 = isTopLeft(x2, y2, x0, y0) ? 0 : -1;
+		long b2 = isTopLeft(x0, y0, x1, y1) ? 0 : -1;
+
+		float invArea = 1.0f / area;
+		float z0 = t[v0 + 2], z1 = t[v1 + 2], z2 = t[v2 + 2];
+		float q0 = t[v0 + 3], q1 = t[v1 + 3], q2 = t[v2 + 3];
+
+		// Texture coordinates and their screen derivatives: s/w, t/w and
+		// 1/w are linear in screen space
+		int mode = s.fragmentMode;
+		boolean shade = s.colorMask != 0;
+		SoftwareTexture texture = s.texture;
+		float dqdx = 0, dqdy = 0, dsdx = 0, dsdy = 0, dtdx = 0, dtdy = 0;
+		float texWidth = 0, texHeight = 0;
+		if (mode == SoftwareProgram.FRAGMENT_TEXTURE && shade) {
+			int c = 4 + s.texCoordOffset;
+			float l0x = dx0 * invArea, l1x = dx1 * invArea, l2x = dx2 * invArea;
+			float l0y = dy0 * invArea, l1y = dy1 * invArea, l2y = dy2 * invArea;
+			dqdx = l0x * q0 + l1x * q1 + l2x * q2;
+			dqdy = l0y * q0 + l1y * q1 + l2y * q2;
+			dsdx = l0x * t[v0 + c] + l1x * t[v1 + c] + l2x * t[v2 + c];
+			dsdy = l0y * t[v0 + c] + l1y * t[v1 + c] + l2y * t[v2 + c];
+			dtdx = l0x * t[v0 + c + 1] + l1x * t[v1 + c + 1] + l2x
+					* t[v2 + c + 1];
+			dtdy = l0y * t[v0 + c + 1] + l1y * t[v1 + c + 1] + l2y
+					* t[v2 + c + 1];
+			texWidth = texture.getWidth();
+			texHeight = texture.getHeight();
+		}
+
+		long covered = 0, passed = 0, shaded = 0;
+		for (int y = py0; y <= py1; y++) {
+			long r0 = e0, r1 = e1, r2 = e2;
+			int row = y * mWidth;
+			for (int x = px0; x <= px1; x++) {
+				if ((r0 + b0 | r1 + b1 | r2 + b2) >= 0) {
+					covered++;
+					float l0 = r0 * invArea;
+					float l1 = r1 * invArea;
+					float l2 = 1.0f - l0 - l1;
+					int p = row + x;
+					float z = l0 * z0 + l1 * z1 + l2 * z2;
+					if (!s.depthTest
+							|| depthPasses(s.depthFunc, z, mDepth[p])) {
+						passed++;
+						if (s.depthTest && s.depthWrite) {
+							mDepth[p] = z;
+						}
+						if (shade) {
+							float q = l0 * q0 + l1 * q1 + l2 * q2;
+							int argb;
+							if (mode == SoftwareProgram.FRAGMENT_UNIFORM) {
+								argb = s.color;
+							} else if (mode
+									== SoftwareProgram.FRAGMENT_VARYING) {
+								argb = interpolateColor(t, v0, v1, v2,
+										4 + s.colorOffset, l0, l1, l2, q);
+							} else {
+								int c = 4 + s.texCoordOffset;
+								float invQ = 1.0f / q;
+								float ts = (l0 * t[v0 + c] + l1 * t[v1 + c] + l2
+										* t[v2 + c]) * invQ;
+								float tt = (l0 * t[v0 + c + 1] + l1
+										* t[v1 + c + 1] + l2 * t[v2 + c + 1])
+										* invQ;
+								float lod = lod((dsdx - ts * dqdx) * invQ
+										* texWidth, (dtdx - tt * dqdx) * invQ
+										* texHeight, (dsdy - ts * dqdy) * invQ
+										* texWidth, (dtdy - tt * dqdy) * invQ
+										* texHeight);
+								argb = texture.sample(ts, tt, lod);
+							}
+							mColor[p] = (mColor[p] & ~s.colorMask)
+									| (argb & s.colorMask);
+							shaded++;
+						}
+					}
+				}
+				r0 += dx0;
+				r1 += dx1;
+				r2 += dx2;
+			}
+			e0 += dy0;
+			e1 += dy1;
+			e2 += dy2;
+		}
+		mTileCovered[tile] += covered;
+		mTileDepthPassed[tile] += passed;
+		mTileShaded[tile] += shaded;
+	}
+
+	/*
+	 * Positive on the left of a to b, that is inside a counter-clockwise
+	 * triangle with y up.
+	 */
+	private static long edge(long ax, long ay, long bx, long by, long px,
+			long py) {
+		return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+	}
+
+	/*
+	 * With y up and counter-clockwise winding, a top edge is horizontal and
+	 * goes left, a left edge goes down.
+	 */
+	private static boolean isTopLeft(long ax, long ay, long bx, long by) {
+		return (ay == by && bx < ax) || by < ay;
+	}
+
+	private static boolean depthPasses(int func, float z, float stored) {
+		switch (func) {
+		case GL_LESS:
+			return z < stored;
+		case GL_LEQUAL:
+			return z <= stored;
+		case GL_GREATER:
+			return z > stored;
+		case GL_GEQUAL:
+			return z >= stored;
+		case GL_EQUAL:
+			return z == stored;
+		case GL_NOTEQUAL:
+			return z != stored;
+		case GL_ALWAYS:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static int interpolateColor(float[] t, int v0, int v1, int v2,
+			int c, float l0, float l1, float l2, float q) {
+		float invQ = 1.0f / q;
+		int r = channel((l0 * t[v0 + c] + l1 * t[v1 + c] + l2 * t[v2 + c])
+				* invQ);
+		int g = channel((l0 * t[v0 + c + 1] + l1 * t[v1 + c + 1] + l2
+				* t[v2 + c + 1]) * invQ);
+		int b = channel((l0 * t[v0 + c + 2] + l1 * t[v1 + c + 2] + l2
+				* t[v2 + c + 2]) * invQ);
+		int a = channel((l0 * t[v0 + c + 3] + l1 * t[v1 + c + 3] + l2
+				* t[v2 + c + 3]) * invQ);
+		return SoftwareTexture.argb(a, r, g, b);
+	}
+
+	static int channel(float f) {
+		return f <= 0.0f ? 0 : (f >= 1.0f ? 255 : (int) (f * 255.0f + 0.5f));
+	}
+
+	/*
+	 * log2 of the longest texel footprint of a pixel, from the exponent and
+	 * a linear approximation of the mantissa.
+	 */
+	private static float lod(float dudx, float dvdx, float dudy, float dvdy) {
+		float rho2 = Math.max(dudx * dudx + dvdx * dvdx, dudy * dudy + dvdy
+				* dvdy);
+		if (rho2 <= 1.0f) {
+			return 0.0f;
+		}
+		int bits = Float.floatToRawIntBits(rho2);
+		float log2 = ((bits >> 23) & 0xFF) - 127 + (bits & 0x7FFFFF)
+				/ (float) (1 << 23);
+		return 0.5f * log2;
+	}
+
+	/**
+	 * Copies the framebuffer as ARGB rows, the bottom one first.
+	 */
+	void readPixels(int[] argb) {
+		flush();
+		System.arraycopy(mColor, 0, argb, 0, mColor.length);
+	}
+
+	long getTriangleCount() {
+		return mTriangleTotal;
+	}
+
+	/**
+	 * Returns the pixels inside a triangle, over all triangles.
+	 */
+	long getCoveredFragments() {
+		return mCovered;
+	}
+
+	long getDepthPassedFragments() {
+		return mDepthPassed;
+	}
+
+	/**
+	 * Returns the fragments that wrote a color.
+	 */
+	long getShadedFragments() {
+		return mShaded;
+	}
+
+	void resetCounters() {
+		mTriangleTotal = 0;
+		mCovered = 0;
+		mDepthPassed = 0;
+		mShaded = 0;
+	}
+}
@@ -1,10 +1,5 @@
 package com.example.testtexture;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
-
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -17,9 +12,10 @@ public class Cube {
 	private static short indices[];
 	private static float textureCoords[];
 	
-	private FloatBuffer vertexBuffer;
-	private ShortBuffer drawListBuffer;
-	private FloatBuffer textureBuffer;
+	// Buffer objects shared with every other cube (see GeometryCache)
+	private int mVertexBufferId;
+	private int mIndexBufferId;
+	private int mTextureBufferId;
 	
 	private int mTextureDataHandle;
 	private int mProgram;
@@ -55,12 +51,9 @@ public class Cube {
 				0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 1.0f, 0.0f 
 		};
 
-		// The texture buffer
-		ByteBuffer bb = ByteBuffer.allocateDirect(textureCoords.length * 4);
-		bb.order(ByteOrder.nativeOrder());
-		textureBuffer = bb.asFloatBuffer();
-		textureBuffer.put(textureCoords);
-		textureBuffer.position(0);
+		// The texture buffer, uploaded once for all cubes
+		mTextureBufferId = GeometryCache.getArrayBuffer("cube.texcoords",
+				textureCoords);
 
 		// Generate Textures, if more needed, alter these numbers.
 		int[] textureObjectIds = new int[1];
@@ -116,19 +109,11 @@ public class Cube {
 				5, 1, 2, 5, 2, 6 
 		}; 
 																			
-		// The vertex buffer.
-		ByteBuffer bb = ByteBuffer.allocateDirect(vertices.length * 4);
-		bb.order(ByteOrder.nativeOrder());
-		vertexBuffer = bb.asFloatBuffer();
-		vertexBuffer.put(vertices);
-		vertexBuffer.position(0);
-
-		// initialize byte buffer for the draw list
-		ByteBuffer dlb = ByteBuffer.allocateDirect(indices.length * 2);
-		dlb.order(ByteOrder.nativeOrder());
-		drawListBuffer = dlb.asShortBuffer();
-		drawListBuffer.put(indices);
-		drawListBuffer.position(0);
+		// The vertex buffer and the draw list, uploaded once for all cubes
+		mVertexBufferId = GeometryCache.getArrayBuffer("cube.positions",
+				vertices);
+		mIndexBufferId = GeometryCache.getElementBuffer("cube.indices",
+				indices);
 
 	}
 
@@ -139,16 +124,19 @@ public class Cube {
 		// Enable generic vertex attribute array
 		GLES20.glEnableVertexAttribArray(mPositionHandle);
 		// Prepare the coordinate data
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
 		GLES20.glVertexAttribPointer(mPositionHandle, 3, GLES20.GL_FLOAT,
-				false, 0, vertexBuffer);
+				false, 0, 0);
 
 		// Get handle to texture coordinates location
 		int mTextureCoordHandle = GLES20.glGetAttribLocation(mProgram, "a_texCoord");
 		// Enable generic vertex attribute array
 		GLES20.glEnableVertexAttribArray(mTextureCoordHandle);
 		// Prepare the texture coordinates
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mTextureBufferId);
 		GLES20.glVertexAttribPointer(mTextureCoordHandle, 2, GLES20.GL_FLOAT, false,
-				0, textureBuffer);
+				0, 0);
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
 		// Get handle to shape's transformation matrix
 		int mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
@@ -166,8 +154,10 @@ public class Cube {
 		GLES20.glUniform1i(mTextureLocHandle, 0);
 
 		// Draw the triangles
+		GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
 		GLES20.glDrawElements(GLES20.GL_TRIANGLES, indices.length,
-				GLES20.GL_UNSIGNED_SHORT, drawListBuffer);
+				GLES20.GL_UNSIGNED_SHORT, 0);
+		GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
 
 		// Disable vertex array
 		GLES20.glDisableVertexAttribArray(mPositionHandle);
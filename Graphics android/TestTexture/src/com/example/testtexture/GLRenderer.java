@@ -39,16 +39,26 @@ public class GLRenderer implements Renderer {
 	};
 
 	// Rotation parameters
-	private boolean mRotate = false;
+	private boolean mRotate = true;
 	private float mRotateX, mRotateY, mRotateZ;
 	
 	private Context context;
 	
 	private Cube mCube1;//, mCube2;
+
+	private RenderScheduler mScheduler;
 	
 	public GLRenderer(Context context) {
 		this.context = context;
 	}
+
+	/**
+	 * Sets the scheduler told after each frame whether the cube still
+	 * rotates.
+	 */
+	void setScheduler(RenderScheduler scheduler) {
+		mScheduler = scheduler;
+	}
 	
 	@Override
 	public void onSurfaceCreated(GL10 gl, EGLConfig config) {
@@ -58,13 +68,19 @@ public class GLRenderer implements Renderer {
 		// Enable depth testing
 		GLES20.glEnable(GLES20.GL_DEPTH_TEST);
 
+		// Buffer objects of a previous context are gone
+		GeometryCache.clear();
+
 		// Initialize class variables
 		init();
 	}
 	
 	@Override
 	public void onDrawFrame(GL10 unused) {
-		
+		if (mScheduler != null) {
+			mScheduler.beginFrame();
+		}
+
 		// Draw background color
 		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
@@ -77,6 +93,11 @@ public class GLRenderer implements Renderer {
 		
 		// Draw the scene
 		drawObjects();
+
+		// Render the next frames on demand only once the cube stops
+		if (mScheduler != null) {
+			mScheduler.endFrame(mRotate);
+		}
 	}
 	
 	@Override
@@ -116,15 +137,18 @@ public class GLRenderer implements Renderer {
 	private void drawObjects(){
 		// Update our example
 		float[] scratch1 = new float[16];
-		float mAngle = 0.5f;
-		Matrix.rotateM(mModelMatrix1, 0, mAngle, 1.0f, 1.0f, 1.0f);
+		if (mRotate) {
+			float mAngle = 0.5f;
+			Matrix.rotateM(mModelMatrix1, 0, mAngle, 1.0f, 1.0f, 1.0f);
+		}
 		Matrix.multiplyMM(scratch1, 0, mMVPMatrix, 0, mModelMatrix1, 0);
 		mCube1.Draw(scratch1);
 
 	}
 
 	public void handleTouchPress(float normalizedX, float normalizedY) {
-		// TODO Auto-generated method stub
+		// A tap stops or restarts the rotation
+		mRotate = !mRotate;
 	}
 
 	public void handleTouchDrag(float normalizedX, float normalizedY) {